@@ -0,0 +1,56 @@
+package io.drogue.doppelgaenger.opcua.client;
+
+/**
+ * Realistic payloads of things, as sent by the backend.
+ */
+public final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * Create the JSON representation of a thing.
+     *
+     * @param name The name of the thing.
+     * @param properties The number of reported properties. Every fourth property is a scalar of each type, an array or
+     *         an object.
+     */
+    public static String thing(final String name, final int properties) {
+        final var json = new StringBuilder(256 + properties * 96);
+        json.append("{\"metadata\":{")
+                .append("\"name\":\"").append(name).append("\",")
+                .append("\"application\":\"default\",")
+                .append("\"uid\":\"2a8d6c4e-8bb6-4a3e-9d3c-0d0b2f1f5e1a\",")
+                .append("\"creationTimestamp\":\"2022-10-01T12:00:00Z\",")
+                .append("\"generation\":42,")
+                .append("\"resourceVersion\":\"7c1b5a0e-3f7e-4c86-a0a4-0b4ac5d0c4d3\"")
+                .append("},\"reportedState\":{");
+
+        json.append("\"$children\":{\"lastUpdate\":\"2022-10-01T12:00:00Z\",\"value\":{\"sensor-1\":{},\"sensor-2\":{}}}");
+        for (int i = 0; i < properties; i++) {
+            json.append(",\"property-").append(i).append("\":{\"lastUpdate\":\"2022-10-01T12:00:00.123Z\",\"value\":");
+            switch (i % 4) {
+            case 0:
+                json.append(21.5 + i);
+                break;
+            case 1:
+                json.append("\"firmware-1.2.").append(i).append('"');
+                break;
+            case 2:
+                json.append("[1.5,2.5,3.5,4.5,5.5]");
+                break;
+            default:
+                json.append("{\"lat\":48.1351,\"lon\":11.582,\"valid\":true}");
+                break;
+            }
+            json.append('}');
+        }
+
+        json.append("},\"syntheticState\":{")
+                .append("\"online\":{\"lastUpdate\":\"2022-10-01T12:00:00Z\",\"value\":true},")
+                .append("\"property-0\":{\"lastUpdate\":\"2022-10-01T12:00:01Z\",\"value\":42}")
+                .append("}}");
+
+        return json.toString();
+    }
+}
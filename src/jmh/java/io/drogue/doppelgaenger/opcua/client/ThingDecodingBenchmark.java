@@ -0,0 +1,64 @@
+package io.drogue.doppelgaenger.opcua.client;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+/**
+ * Decoding things received from the backend, and merging their state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThingDecodingBenchmark {
+
+    @Param({"10", "200"})
+    int properties;
+
+    private String payload;
+
+    private Gson gson;
+
+    private Thing thing;
+
+    @Setup
+    public void setup() {
+        this.payload = Payloads.thing("device-1", this.properties);
+        this.gson = GsonUtil.create();
+        this.thing = this.gson.fromJson(this.payload, Thing.class);
+    }
+
+    @Benchmark
+    public Thing decode() {
+        return this.gson.fromJson(this.payload, Thing.class);
+    }
+
+    /**
+     * Decoding with a new Gson instance, as done for every notification and response.
+     */
+    @Benchmark
+    public Thing decodeNewGson() {
+        return GsonUtil.create().fromJson(this.payload, Thing.class);
+    }
+
+    @Benchmark
+    public Map<String, BasicFeature> mergedState() {
+        return this.thing.mergedState();
+    }
+}
@@ -0,0 +1,111 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
+import io.drogue.doppelgaenger.opcua.client.Client;
+import io.drogue.doppelgaenger.opcua.client.GsonUtil;
+import io.drogue.doppelgaenger.opcua.client.Payloads;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+import io.vertx.core.Vertx;
+
+/**
+ * Reading attributes of properties, and browsing things.
+ * <p>
+ * The state of the thing is served from a local lookup, so that only the work of the address space gets measured, not
+ * the backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddressSpaceBenchmark {
+
+    private static final String THING = "device-1";
+
+    @Param({"10", "200"})
+    int properties;
+
+    private Vertx vertx;
+
+    private OpcUaServer server;
+
+    private Client client;
+
+    private PropertyNode scalar;
+
+    private PropertyNode field;
+
+    private ThingNode thing;
+
+    @Setup
+    public void setup() {
+        final var state = GsonUtil.create().fromJson(Payloads.thing(THING, this.properties), Thing.class);
+
+        this.vertx = Vertx.vertx();
+        this.server = new OpcUaServer(OpcUaServerConfig.builder().build());
+        this.client = new Client(this.vertx, "http://localhost", "default", null);
+        this.client.setLocal(name -> THING.equals(name) ? Optional.of(state) : Optional.empty());
+
+        final var subscriptions = new ThingsSubscriptionManager(this.vertx, URI.create("http://localhost"), "default", null);
+        final var registered = new RegisteredNodes(subscriptions, this.client, Integer.MAX_VALUE);
+        final var index = new HierarchyIndex(this.client, Duration.ofMinutes(1), 100);
+
+        final var properties = new PropertyNamespace(this.server, null, subscriptions, this.client, null, registered, null);
+        final var things = new ThingNamespace(this.server, null, properties, this.client, registered, null, index, false);
+
+        this.scalar = properties.fromId(null, properties.propertyNodeId(THING, "property-0"));
+        this.field = properties.fromId(null, properties.propertyNodeId(THING, "property-3", List.of("lat")));
+        this.thing = things.fromId(null, things.thingNode(THING));
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.client.close();
+        this.vertx.close();
+    }
+
+    @Benchmark
+    public DataValue readValue() {
+        return this.scalar.readAttribute(AttributeId.Value.uid()).join();
+    }
+
+    @Benchmark
+    public DataValue readDataType() {
+        return this.scalar.readAttribute(AttributeId.DataType.uid()).join();
+    }
+
+    @Benchmark
+    public DataValue readFieldValue() {
+        return this.field.readAttribute(AttributeId.Value.uid()).join();
+    }
+
+    @Benchmark
+    public List<Reference> browseThing() {
+        return this.thing.browse().join();
+    }
+}
@@ -0,0 +1,61 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding the node ids of properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeIdBenchmark {
+
+    private static final UShort NAMESPACE_INDEX = UShort.valueOf(2);
+
+    private Object simple;
+
+    private Object nested;
+
+    @Setup
+    public void setup() {
+        this.simple = PropertyNamespace.propertyNodeIdJoin(NAMESPACE_INDEX, "building/floor-1/room-2", "temperature").getIdentifier();
+        this.nested = PropertyNamespace.propertyNodeIdJoin(NAMESPACE_INDEX, "building/floor-1/room-2", "location", List.of("position", "lat")).getIdentifier();
+    }
+
+    @Benchmark
+    public String[] split() throws Exception {
+        return PropertyNamespace.splitNodeId(this.simple);
+    }
+
+    @Benchmark
+    public String[] splitNested() throws Exception {
+        return PropertyNamespace.splitNodeId(this.nested);
+    }
+
+    @Benchmark
+    public NodeId join() {
+        return PropertyNamespace.propertyNodeIdJoin(NAMESPACE_INDEX, "building/floor-1/room-2", "temperature");
+    }
+
+    @Benchmark
+    public NodeId joinNested() {
+        return PropertyNamespace.propertyNodeIdJoin(NAMESPACE_INDEX, "building/floor-1/room-2", "location", List.of("position", "lat"));
+    }
+}
@@ -0,0 +1,86 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonPrimitive;
+
+import io.drogue.doppelgaenger.opcua.client.ReportedFeature;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+
+/**
+ * Writing and loading the state snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateSnapshotBenchmark {
+
+    @Param({ "100000" })
+    private int things;
+
+    private Map<String, Thing> states;
+
+    private Path directory;
+
+    private Path file;
+
+    private Path output;
+
+    @Setup
+    public void setup() throws IOException {
+        this.states = new HashMap<>();
+        for (int i = 0; i < this.things; i++) {
+            final var name = "thing-" + i;
+            final var thing = new Thing.Builder(name).build();
+            final var feature = new ReportedFeature();
+            feature.setValue(new JsonPrimitive(i));
+            feature.setLastUpdate(OffsetDateTime.parse("2022-01-01T00:00:00Z"));
+            thing.getReportedState().put("temperature", feature);
+            this.states.put(name, thing);
+        }
+
+        this.directory = Files.createTempDirectory("snapshot");
+        this.file = this.directory.resolve("things.snapshot");
+        this.output = this.directory.resolve("output.snapshot");
+        StateSnapshot.write(this.file, this.states);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+        Files.deleteIfExists(this.output);
+        Files.deleteIfExists(this.directory);
+    }
+
+    @Benchmark
+    public Map<String, Thing> read() {
+        return StateSnapshot.read(this.file);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        StateSnapshot.write(this.output, this.states);
+    }
+}
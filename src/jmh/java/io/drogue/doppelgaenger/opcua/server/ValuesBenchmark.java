@@ -0,0 +1,71 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Converting JSON values into OPC UA variants.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValuesBenchmark {
+
+    private JsonElement number;
+
+    private JsonElement string;
+
+    private JsonElement array;
+
+    private JsonElement object;
+
+    @Setup
+    public void setup() {
+        this.number = JsonParser.parseString("21.5");
+        this.string = JsonParser.parseString("\"firmware-1.2.3\"");
+        this.array = JsonParser.parseString("[1.5, 2.5, 3.5, 4.5, 5.5, 6.5, 7.5, 8.5]");
+        this.object = JsonParser.parseString("{\"lat\": 48.1351, \"lon\": 11.582, \"valid\": true}");
+    }
+
+    @Benchmark
+    public Variant number() {
+        return Values.toVariant(this.number);
+    }
+
+    @Benchmark
+    public Variant string() {
+        return Values.toVariant(this.string);
+    }
+
+    @Benchmark
+    public Variant array() {
+        return Values.toVariant(this.array);
+    }
+
+    @Benchmark
+    public Variant arrayAsDouble() {
+        return Values.toVariant(this.array, ValueType.DoubleArray);
+    }
+
+    @Benchmark
+    public Variant object() {
+        return Values.toVariant(this.object);
+    }
+}
@@ -0,0 +1,249 @@
+package io.drogue.doppelgaenger.opcua.load;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.ServerWebSocket;
+
+/**
+ * A stand-in for the REST and WebSocket API of the Doppelgänger backend, simulating a number of things.
+ * <p>
+ * The root thing {@code /} has all simulated things as children. The properties of a thing alternate between numbers,
+ * strings and objects, and all of them change with each update. Things get updated in slices, so that each thing gets
+ * updated once per update interval. Updates carry the current time as last update, which clients use to measure the
+ * latency of notifications.
+ */
+final class BackendStandIn implements AutoCloseable {
+
+    static final String APPLICATION = "load-test";
+
+    private static final String PREFIX = "/api/v1alpha1/things/";
+
+    private static final long TICK_MILLIS = 10;
+
+    private final Vertx vertx;
+
+    private final int things;
+
+    private final int properties;
+
+    private final long updateMillis;
+
+    private final long[] generations;
+
+    private final Map<String, Set<ServerWebSocket>> sockets = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder notifications = new LongAdder();
+
+    private HttpServer server;
+
+    private long timer = -1;
+
+    private int cursor;
+
+    private double pending;
+
+    BackendStandIn(final Vertx vertx, final Settings settings) {
+        this.vertx = vertx;
+        this.things = settings.things();
+        this.properties = settings.properties();
+        this.updateMillis = Math.max(TICK_MILLIS, settings.updateInterval().toMillis());
+        this.generations = new long[this.things];
+    }
+
+    static String thingName(final int index) {
+        return "thing-" + index;
+    }
+
+    static String propertyName(final int index) {
+        return "property-" + index;
+    }
+
+    /**
+     * Start the stand-in, on a random port.
+     *
+     * @return The port the stand-in listens on.
+     */
+    CompletableFuture<Integer> start() {
+        return this.vertx.createHttpServer()
+                .requestHandler(this::handleRequest)
+                .webSocketHandler(this::handleWebSocket)
+                .listen(0, "localhost")
+                .map(server -> {
+                    this.server = server;
+                    this.timer = this.vertx.setPeriodic(TICK_MILLIS, x -> tick());
+                    return server.actualPort();
+                })
+                .toCompletionStage()
+                .toCompletableFuture();
+    }
+
+    /**
+     * The number of REST requests served.
+     */
+    long requests() {
+        return this.requests.sum();
+    }
+
+    /**
+     * The number of notifications sent to WebSockets.
+     */
+    long notifications() {
+        return this.notifications.sum();
+    }
+
+    private void handleRequest(final HttpServerRequest request) {
+        this.requests.increment();
+        final var thing = parseThing(request.path(), false);
+        if (thing == null) {
+            request.response().setStatusCode(404).end();
+            return;
+        }
+        final var json = render(thing);
+        if (json == null) {
+            request.response().setStatusCode(404).end();
+            return;
+        }
+        request.response()
+                .putHeader("Content-Type", "application/json")
+                .end(json);
+    }
+
+    private void handleWebSocket(final ServerWebSocket socket) {
+        final var thing = parseThing(socket.path(), true);
+        final var json = thing != null ? render(thing) : null;
+        if (json == null) {
+            socket.reject(404);
+            return;
+        }
+
+        final var set = this.sockets.computeIfAbsent(thing, x -> ConcurrentHashMap.newKeySet());
+        set.add(socket);
+        socket.closeHandler(x -> set.remove(socket));
+
+        socket.writeTextMessage(message("initial", json));
+    }
+
+    /**
+     * Parse the thing name from a path.
+     *
+     * @return The name of the thing, or {@code null} if the path doesn't match.
+     */
+    private static String parseThing(final String path, final boolean notifications) {
+        if (!path.startsWith(PREFIX)) {
+            return null;
+        }
+        final var segments = path.substring(PREFIX.length()).split("/", -1);
+        final var expected = notifications ? 4 : 3;
+        if (segments.length != expected || !APPLICATION.equals(segments[0]) || !"things".equals(segments[1])) {
+            return null;
+        }
+        if (notifications && !"notifications".equals(segments[3])) {
+            return null;
+        }
+        return URLDecoder.decode(segments[2], StandardCharsets.UTF_8);
+    }
+
+    private void tick() {
+        // update a slice of the things, so that each thing gets updated once per interval
+        this.pending += (double) this.things * TICK_MILLIS / this.updateMillis;
+        final var count = (int) Math.min(this.things, this.pending);
+        this.pending -= count;
+
+        for (int i = 0; i < count; i++) {
+            final var index = this.cursor;
+            this.cursor = (this.cursor + 1) % this.things;
+            this.generations[index]++;
+
+            final var set = this.sockets.get(thingName(index));
+            if (set == null || set.isEmpty()) {
+                continue;
+            }
+            final var message = message("change", render(index));
+            for (final var socket : set) {
+                socket.writeTextMessage(message);
+                this.notifications.increment();
+            }
+        }
+    }
+
+    private static String message(final String type, final String thing) {
+        return "{\"type\":\"" + type + "\",\"thing\":" + thing + "}";
+    }
+
+    private String render(final String thing) {
+        if ("/".equals(thing)) {
+            return renderRoot();
+        }
+        if (!thing.startsWith("thing-")) {
+            return null;
+        }
+        try {
+            final var index = Integer.parseInt(thing.substring("thing-".length()));
+            return index >= 0 && index < this.things ? render(index) : null;
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String renderRoot() {
+        final var json = new StringBuilder(64 + this.things * 16);
+        json.append("{\"metadata\":{\"name\":\"/\",\"application\":\"").append(APPLICATION).append("\"},\"reportedState\":{")
+                .append("\"$children\":{\"lastUpdate\":\"").append(Instant.EPOCH).append("\",\"value\":{");
+        for (int i = 0; i < this.things; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(thingName(i)).append("\":{}");
+        }
+        return json.append("}}}}").toString();
+    }
+
+    private String render(final int index) {
+        final var generation = this.generations[index];
+        final var now = Instant.now().toString();
+        final var json = new StringBuilder(128 + this.properties * 96);
+        json.append("{\"metadata\":{\"name\":\"").append(thingName(index)).append("\",\"application\":\"").append(APPLICATION)
+                .append("\",\"generation\":").append(generation).append("},\"reportedState\":{");
+        for (int i = 0; i < this.properties; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(propertyName(i)).append("\":{\"lastUpdate\":\"").append(now).append("\",\"value\":");
+            switch (i % 3) {
+            case 0:
+                json.append(generation + i * 0.5);
+                break;
+            case 1:
+                json.append("\"value-").append(generation).append('"');
+                break;
+            default:
+                json.append("{\"counter\":").append(generation).append(",\"valid\":true}");
+                break;
+            }
+            json.append('}');
+        }
+        return json.append("}}").toString();
+    }
+
+    @Override
+    public void close() {
+        if (this.timer >= 0) {
+            this.vertx.cancelTimer(this.timer);
+        }
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package io.drogue.doppelgaenger.opcua.load;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+
+/**
+ * Drives the server with OPC UA client sessions.
+ * <p>
+ * Each session creates a subscription, monitoring the values of properties. Reads and browse requests are issued in
+ * closed loops: each reader or browser issues a new request once the previous one completed.
+ */
+final class ClientDriver implements AutoCloseable {
+
+    private static final String THINGS_NAMESPACE = "https://drogue.io/doppelgänger/things";
+
+    private static final String PROPERTIES_NAMESPACE = "https://drogue.io/doppelgänger/properties";
+
+    /**
+     * The difference between the OPC UA epoch (1601) and the Java epoch (1970), in 100 nanosecond ticks.
+     */
+    private static final long EPOCH_DELTA_TICKS = 116_444_736_000_000_000L;
+
+    /**
+     * The maximum number of monitored items created with a single request.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private final Settings settings;
+
+    private final List<OpcUaClient> clients = new ArrayList<>();
+
+    private final Histogram notificationLatency = new Histogram();
+
+    private final Histogram readLatency = new Histogram();
+
+    private final Histogram browseLatency = new Histogram();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final AtomicInteger monitoredItems = new AtomicInteger();
+
+    private volatile boolean running;
+
+    private int thingsIndex;
+
+    private int propertiesIndex;
+
+    ClientDriver(final Settings settings) {
+        this.settings = settings;
+    }
+
+    Histogram notificationLatency() {
+        return this.notificationLatency;
+    }
+
+    Histogram readLatency() {
+        return this.readLatency;
+    }
+
+    Histogram browseLatency() {
+        return this.browseLatency;
+    }
+
+    long errors() {
+        return this.errors.sum();
+    }
+
+    int monitoredItems() {
+        return this.monitoredItems.get();
+    }
+
+    /**
+     * Connect all sessions.
+     */
+    void connect(final String endpointUrl) throws Exception {
+        for (int i = 0; i < this.settings.sessions(); i++) {
+            final var index = i;
+            final var name = "load-test-" + index;
+            final var client = OpcUaClient.create(
+                    endpointUrl,
+                    endpoints -> endpoints.stream()
+                            .filter(e -> SecurityPolicy.None.getUri().equals(e.getSecurityPolicyUri()))
+                            .filter(e -> !e.getEndpointUrl().endsWith("/discovery"))
+                            .findFirst(),
+                    config -> config
+                            .setApplicationName(LocalizedText.english(name))
+                            .setApplicationUri("urn:drogue:doppelgaenger:load-test:" + index)
+                            .setRequestTimeout(uint(30_000))
+                            .build()
+            );
+            client.connect().get();
+            this.clients.add(client);
+        }
+
+        final var namespaces = this.clients.get(0).readNamespaceTable();
+        final var things = namespaces.getIndex(THINGS_NAMESPACE);
+        final var properties = namespaces.getIndex(PROPERTIES_NAMESPACE);
+        if (things == null || properties == null) {
+            throw new IllegalStateException("Server is missing the namespaces of things and properties");
+        }
+        this.thingsIndex = things.intValue();
+        this.propertiesIndex = properties.intValue();
+    }
+
+    /**
+     * Create a subscription per session, and the monitored items.
+     * <p>
+     * Items are spread over all things first, then over the properties, so that all things get subscribed.
+     */
+    void subscribe() throws Exception {
+        final var futures = new ArrayList<CompletableFuture<?>>();
+
+        for (int s = 0; s < this.clients.size(); s++) {
+            final var client = this.clients.get(s);
+            final UaSubscription subscription = client.getSubscriptionManager()
+                    .createSubscription((double) this.settings.publishingInterval().toMillis())
+                    .get();
+
+            final var requests = new ArrayList<MonitoredItemCreateRequest>(this.settings.itemsPerSession());
+            for (int i = 0; i < this.settings.itemsPerSession(); i++) {
+                final var item = s * this.settings.itemsPerSession() + i;
+                final var parameters = new MonitoringParameters(
+                        uint(i),
+                        (double) this.settings.samplingInterval().toMillis(),
+                        null,
+                        uint(10),
+                        true
+                );
+                requests.add(new MonitoredItemCreateRequest(readValueId(propertyNode(item)), MonitoringMode.Reporting, parameters));
+            }
+
+            for (int i = 0; i < requests.size(); i += BATCH_SIZE) {
+                final var batch = requests.subList(i, Math.min(requests.size(), i + BATCH_SIZE));
+                futures.add(subscription.createMonitoredItems(
+                        TimestampsToReturn.Both,
+                        batch,
+                        (item, id) -> {
+                            if (item.getStatusCode().isGood()) {
+                                this.monitoredItems.incrementAndGet();
+                            } else {
+                                this.errors.increment();
+                            }
+                            item.setValueConsumer(this::onValue);
+                        }));
+            }
+        }
+
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+    }
+
+    private void onValue(final DataValue value) {
+        final var source = value.getSourceTime();
+        if (!this.running || source == null || source.isNull()) {
+            return;
+        }
+        this.notificationLatency.record((ticks(Instant.now()) - source.getUtcTime()) / 10);
+    }
+
+    private static long ticks(final Instant instant) {
+        return instant.getEpochSecond() * 10_000_000L + instant.getNano() / 100 + EPOCH_DELTA_TICKS;
+    }
+
+    /**
+     * Start the readers and browsers.
+     */
+    void start() {
+        this.running = true;
+        for (int i = 0; i < this.settings.readers(); i++) {
+            read(this.clients.get(i % this.clients.size()));
+        }
+        for (int i = 0; i < this.settings.browsers(); i++) {
+            browse(this.clients.get(i % this.clients.size()));
+        }
+    }
+
+    /**
+     * Start a new measurement.
+     */
+    void reset() {
+        this.notificationLatency.reset();
+        this.readLatency.reset();
+        this.browseLatency.reset();
+        this.errors.reset();
+    }
+
+    private void read(final OpcUaClient client) {
+        if (!this.running) {
+            return;
+        }
+        final var item = ThreadLocalRandom.current().nextInt(this.settings.things() * this.settings.properties());
+        final var start = System.nanoTime();
+        client.readValue(0.0, TimestampsToReturn.Both, propertyNode(item))
+                .whenComplete((value, err) -> {
+                    if (err != null || value.getStatusCode() == null || !value.getStatusCode().isGood()) {
+                        this.errors.increment();
+                    } else {
+                        this.readLatency.record((System.nanoTime() - start) / 1_000);
+                    }
+                    read(client);
+                });
+    }
+
+    private void browse(final OpcUaClient client) {
+        if (!this.running) {
+            return;
+        }
+        final var thing = ThreadLocalRandom.current().nextInt(this.settings.things());
+        final var description = new BrowseDescription(
+                new NodeId(this.thingsIndex, BackendStandIn.thingName(thing)),
+                BrowseDirection.Forward,
+                Identifiers.References,
+                true,
+                uint(0),
+                uint(BrowseResultMask.All.getValue())
+        );
+        final var start = System.nanoTime();
+        client.browse(description)
+                .whenComplete((result, err) -> {
+                    if (err != null || !result.getStatusCode().isGood()) {
+                        this.errors.increment();
+                    } else {
+                        this.browseLatency.record((System.nanoTime() - start) / 1_000);
+                    }
+                    browse(client);
+                });
+    }
+
+    /**
+     * Get the node of a property. Items are spread over all things first, then over the properties.
+     */
+    private NodeId propertyNode(final int item) {
+        final var thing = item % this.settings.things();
+        final var property = (item / this.settings.things()) % this.settings.properties();
+        return new NodeId(this.propertiesIndex, BackendStandIn.thingName(thing) + "#" + BackendStandIn.propertyName(property));
+    }
+
+    private static ReadValueId readValueId(final NodeId nodeId) {
+        return new ReadValueId(nodeId, AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE);
+    }
+
+    /**
+     * Stop issuing new requests.
+     */
+    void stop() {
+        this.running = false;
+    }
+
+    @Override
+    public void close() {
+        stop();
+        for (final var client : this.clients) {
+            try {
+                client.disconnect().get();
+            } catch (final Exception e) {
+                // shutting down anyway
+            }
+        }
+        this.clients.clear();
+    }
+}
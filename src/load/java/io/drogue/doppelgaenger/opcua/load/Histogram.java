@@ -0,0 +1,77 @@
+package io.drogue.doppelgaenger.opcua.load;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of positive values, with a relative error of about 6%.
+ * <p>
+ * Each power of two is split into 16 buckets, so recording is a single increment, and percentiles can be reported
+ * without keeping all values.
+ */
+final class Histogram {
+
+    private static final int SUB_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BITS);
+
+    private final LongAdder count = new LongAdder();
+
+    void record(final long value) {
+        this.counts.incrementAndGet(index(Math.max(0, value)));
+        this.count.increment();
+    }
+
+    long count() {
+        return this.count.sum();
+    }
+
+    void reset() {
+        for (int i = 0; i < this.counts.length(); i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.reset();
+    }
+
+    /**
+     * Get the value at a percentile.
+     *
+     * @param percentile The percentile, between 0 and 1.
+     * @return The upper bound of the bucket containing the percentile, or zero if no value was recorded.
+     */
+    long percentile(final double percentile) {
+        final var total = count();
+        if (total == 0) {
+            return 0;
+        }
+        final var target = Math.max(1, (long) Math.ceil(percentile * total));
+        long current = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            current += this.counts.get(i);
+            if (current >= target) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(this.counts.length() - 1);
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final var exponent = 63 - Long.numberOfLeadingZeros(value);
+        final var shift = exponent - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long upperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final var shift = (index >> SUB_BITS) - 1;
+        final long mantissa = (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
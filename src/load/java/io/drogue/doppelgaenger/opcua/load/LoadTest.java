@@ -0,0 +1,187 @@
+package io.drogue.doppelgaenger.opcua.load;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
+import io.drogue.doppelgaenger.opcua.client.Client;
+import io.drogue.doppelgaenger.opcua.client.OidcAuthenticationProvider;
+import io.drogue.doppelgaenger.opcua.server.Server;
+import io.quarkus.oidc.client.OidcClient;
+import io.quarkus.oidc.client.Tokens;
+import io.quarkus.runtime.configuration.DurationConverter;
+import io.quarkus.runtime.configuration.PathConverter;
+import io.smallrye.config.PropertiesConfigSource;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+
+/**
+ * An end-to-end load test, running the server against a stand-in of the backend, driven by OPC UA client sessions.
+ * <p>
+ * Everything runs in a single JVM, without network access besides the loopback interface. The clients share the JVM
+ * with the server, so the reported CPU and heap use cover both, and are an upper bound for the server alone.
+ *
+ * @see Settings
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    /**
+     * Provides a fixed token, the stand-in doesn't check it.
+     */
+    private static final class StaticTokens implements OidcClient {
+
+        private final Tokens tokens = new Tokens("load-test", null, null, null, null, null);
+
+        @Override
+        public Uni<Tokens> getTokens(final Map<String, String> additionalGrantParameters) {
+            return Uni.createFrom().item(this.tokens);
+        }
+
+        @Override
+        public Uni<Tokens> refreshTokens(final String refreshToken) {
+            return Uni.createFrom().item(this.tokens);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        Logger.getLogger("io.drogue").setLevel(Level.WARNING);
+        Logger.getLogger("org.eclipse.milo").setLevel(Level.WARNING);
+
+        final var settings = Settings.fromSystemProperties();
+        System.out.println("Settings: " + settings);
+
+        final var vertx = Vertx.vertx();
+        final var backend = new BackendStandIn(vertx, settings);
+        final var api = "http://localhost:" + backend.start().get();
+
+        final var provider = new OidcAuthenticationProvider(new StaticTokens());
+        final var webClient = WebClient.create(vertx, new WebClientOptions());
+        final var client = new Client(webClient, api, BackendStandIn.APPLICATION, provider, Integer.MAX_VALUE);
+        final var subscriptions = new ThingsSubscriptionManager(vertx, URI.create(api), BackendStandIn.APPLICATION, provider);
+
+        final var server = new Server.Builder(configuration(settings))
+                .start(client, subscriptions)
+                .get();
+
+        final var sampler = new ResourceSampler();
+        final var driver = new ClientDriver(settings);
+
+        try {
+            driver.connect("opc.tcp://localhost:" + settings.port() + "/drogue-iot");
+            driver.subscribe();
+            System.out.format("Created %d of %d monitored items%n", driver.monitoredItems(), settings.monitoredItems());
+
+            driver.start();
+            System.out.format("Warming up for %s%n", settings.warmup());
+            Thread.sleep(settings.warmup().toMillis());
+
+            driver.reset();
+            sampler.reset();
+            final var requests = backend.requests();
+            final var notifications = backend.notifications();
+            final var start = System.nanoTime();
+
+            System.out.format("Measuring for %s%n", settings.duration());
+            Thread.sleep(settings.duration().toMillis());
+
+            final var seconds = (System.nanoTime() - start) / 1e9;
+            report(
+                    driver,
+                    sampler.usage(),
+                    (backend.requests() - requests) / seconds,
+                    (backend.notifications() - notifications) / seconds,
+                    seconds
+            );
+        } finally {
+            driver.close();
+            sampler.close();
+            server.close().get();
+            subscriptions.close();
+            client.close();
+            webClient.close();
+            backend.close();
+            vertx.close();
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Create the configuration of the server, with the limits raised to the load of the test.
+     */
+    private static Server.Configuration configuration(final Settings settings) {
+        final var properties = new HashMap<String, String>();
+        properties.put("drogue.doppelgaenger.opcua.hostnames", "localhost");
+        properties.put("drogue.doppelgaenger.opcua.bind-port", Integer.toString(settings.port()));
+        properties.put("drogue.doppelgaenger.opcua.enable-anonymous", "true");
+        properties.put("drogue.doppelgaenger.opcua.limits.max-sessions", Integer.toString(settings.sessions() + 10));
+        properties.put("drogue.doppelgaenger.opcua.limits.max-monitored-items", Integer.toString(settings.monitoredItems()));
+        properties.put("drogue.doppelgaenger.opcua.limits.max-monitored-items-per-session", Integer.toString(settings.itemsPerSession()));
+
+        return new SmallRyeConfigBuilder()
+                .withMapping(Server.Configuration.class)
+                .withConverter(Duration.class, 200, new DurationConverter())
+                .withConverter(Path.class, 200, new PathConverter())
+                .withSources(new PropertiesConfigSource(properties, "load-test", 0))
+                .build()
+                .getConfigMapping(Server.Configuration.class);
+    }
+
+    private static void report(
+            final ClientDriver driver,
+            final ResourceSampler.Usage usage,
+            final double backendRequests,
+            final double backendNotifications,
+            final double seconds
+    ) {
+        final var notifications = driver.notificationLatency();
+        final var reads = driver.readLatency();
+        final var browses = driver.browseLatency();
+
+        System.out.println();
+        System.out.format("Results (%.1f s)%n", seconds);
+        System.out.println();
+        System.out.println("Throughput (per second)");
+        System.out.format("  notifications:          %12.1f%n", notifications.count() / seconds);
+        System.out.format("  reads:                  %12.1f%n", reads.count() / seconds);
+        System.out.format("  browses:                %12.1f%n", browses.count() / seconds);
+        System.out.format("  backend requests:       %12.1f%n", backendRequests);
+        System.out.format("  backend notifications:  %12.1f%n", backendNotifications);
+        System.out.format("  errors:                 %12d (total)%n", driver.errors());
+        System.out.println();
+        System.out.println("Latency (ms)               p50       p90       p99     p99.9       max");
+        latency("notifications", notifications);
+        latency("reads", reads);
+        latency("browses", browses);
+        System.out.println();
+        System.out.format("Resources (server and clients, %d CPUs)%n", usage.cpus());
+        System.out.format("  CPU:                    %11.1f%% avg, %.1f%% max%n", usage.averageCpu() * usage.cpus() * 100, usage.maxCpu() * usage.cpus() * 100);
+        System.out.format("  heap:                   %9d MiB avg, %d MiB max%n", usage.averageHeap() >> 20, usage.maxHeap() >> 20);
+        System.out.format("  GC:                     %12d collections, %d ms%n", usage.gcCount(), usage.gcMillis());
+    }
+
+    private static void latency(final String name, final Histogram histogram) {
+        System.out.format("  %-20s %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                name + ":",
+                histogram.percentile(0.5) / 1e3,
+                histogram.percentile(0.9) / 1e3,
+                histogram.percentile(0.99) / 1e3,
+                histogram.percentile(0.999) / 1e3,
+                histogram.percentile(1.0) / 1e3);
+    }
+}
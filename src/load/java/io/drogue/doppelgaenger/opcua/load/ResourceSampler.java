@@ -0,0 +1,99 @@
+package io.drogue.doppelgaenger.opcua.load;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.management.OperatingSystemMXBean;
+
+/**
+ * Samples the CPU and heap use of the process, once a second.
+ */
+final class ResourceSampler implements AutoCloseable {
+
+    record Usage(double averageCpu, double maxCpu, long averageHeap, long maxHeap, long gcCount, long gcMillis, int cpus) {
+    }
+
+    private final OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        final var thread = new Thread(r, "resource-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long samples;
+
+    private double cpuSum;
+
+    private double cpuMax;
+
+    private long heapSum;
+
+    private long heapMax;
+
+    private long gcCount;
+
+    private long gcMillis;
+
+    ResourceSampler() {
+        this.executor.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private synchronized void sample() {
+        final var cpu = Math.max(0, this.os.getProcessCpuLoad());
+        final var heap = this.memory.getHeapMemoryUsage().getUsed();
+        this.samples++;
+        this.cpuSum += cpu;
+        this.cpuMax = Math.max(this.cpuMax, cpu);
+        this.heapSum += heap;
+        this.heapMax = Math.max(this.heapMax, heap);
+    }
+
+    /**
+     * Start a new measurement.
+     */
+    synchronized void reset() {
+        this.samples = 0;
+        this.cpuSum = 0;
+        this.cpuMax = 0;
+        this.heapSum = 0;
+        this.heapMax = 0;
+        this.gcCount = gcCount();
+        this.gcMillis = gcMillis();
+    }
+
+    synchronized Usage usage() {
+        final var n = Math.max(1, this.samples);
+        return new Usage(
+                this.cpuSum / n,
+                this.cpuMax,
+                this.heapSum / n,
+                this.heapMax,
+                gcCount() - this.gcCount,
+                gcMillis() - this.gcMillis,
+                this.os.getAvailableProcessors()
+        );
+    }
+
+    private long gcCount() {
+        return this.collectors.stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(c -> c > 0).sum();
+    }
+
+    private long gcMillis() {
+        return this.collectors.stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(c -> c > 0).sum();
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+}
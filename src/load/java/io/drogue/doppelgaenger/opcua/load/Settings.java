@@ -0,0 +1,70 @@
+package io.drogue.doppelgaenger.opcua.load;
+
+import java.time.Duration;
+
+/**
+ * The settings of a load test, read from system properties with the prefix {@code load.}.
+ *
+ * @param things The number of simulated things.
+ * @param properties The number of properties per thing.
+ * @param updateInterval The interval in which each thing gets updated.
+ * @param sessions The number of client sessions.
+ * @param itemsPerSession The number of monitored items per session.
+ * @param publishingInterval The publishing interval of the subscriptions.
+ * @param samplingInterval The sampling interval of the monitored items.
+ * @param readers The number of concurrent reads, each issuing a new read once the previous completed.
+ * @param browsers The number of concurrent browse requests, each issuing a new one once the previous completed.
+ * @param warmup The time to run before measuring.
+ * @param duration The time to measure.
+ * @param port The port of the OPC UA server.
+ */
+record Settings(
+        int things,
+        int properties,
+        Duration updateInterval,
+        int sessions,
+        int itemsPerSession,
+        Duration publishingInterval,
+        Duration samplingInterval,
+        int readers,
+        int browsers,
+        Duration warmup,
+        Duration duration,
+        int port
+) {
+
+    static Settings fromSystemProperties() {
+        return new Settings(
+                Integer.getInteger("load.things", 1_000),
+                Integer.getInteger("load.properties", 10),
+                duration("load.updateInterval", Duration.ofSeconds(1)),
+                Integer.getInteger("load.sessions", 10),
+                Integer.getInteger("load.itemsPerSession", 1_000),
+                duration("load.publishingInterval", Duration.ofMillis(100)),
+                duration("load.samplingInterval", Duration.ofMillis(100)),
+                Integer.getInteger("load.readers", 8),
+                Integer.getInteger("load.browsers", 1),
+                duration("load.warmup", Duration.ofSeconds(10)),
+                duration("load.duration", Duration.ofSeconds(60)),
+                Integer.getInteger("load.port", 14840)
+        );
+    }
+
+    /**
+     * Read a duration, in the ISO-8601 format or as milliseconds.
+     */
+    private static Duration duration(final String name, final Duration defaultValue) {
+        final var value = System.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        if (value.chars().allMatch(Character::isDigit)) {
+            return Duration.ofMillis(Long.parseLong(value));
+        }
+        return Duration.parse(value);
+    }
+
+    int monitoredItems() {
+        return this.sessions * this.itemsPerSession;
+    }
+}
@@ -1,6 +1,9 @@
 package io.drogue.doppelgaenger.opcua;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.PostConstruct;
@@ -9,18 +12,32 @@ import javax.inject.Inject;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import io.drogue.doppelgaenger.opcua.client.Bulkhead;
+import io.drogue.doppelgaenger.opcua.client.CircuitBreaker;
 import io.drogue.doppelgaenger.opcua.client.Client;
+import io.drogue.doppelgaenger.opcua.client.HedgeBudget;
 import io.drogue.doppelgaenger.opcua.client.OidcAuthenticationProvider;
+import io.drogue.doppelgaenger.opcua.replay.NotificationRecorder;
+import io.drogue.doppelgaenger.opcua.replay.NotificationReplay;
 import io.drogue.doppelgaenger.opcua.server.Server;
 import io.quarkus.oidc.client.OidcClient;
 import io.quarkus.runtime.Startup;
 import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
 
 @Startup
 public class Application {
 
     private static final String CONFIG_PREFIX = "drogue.doppelgaenger";
 
+    /**
+     * The number of hedged requests which can be saved up.
+     */
+    private static final double HEDGE_BURST = 10;
+
     private final AtomicReference<Server> server = new AtomicReference<>();
 
     @Inject
@@ -35,30 +52,108 @@ public class Application {
     @ConfigProperty(name = CONFIG_PREFIX + ".application", defaultValue = "default")
     String application;
 
-    private Client client;
+    /**
+     * The applications to serve, each in its own namespaces. Takes precedence over {@link #application}.
+     */
+    @ConfigProperty(name = CONFIG_PREFIX + ".applications")
+    Optional<List<String>> applications;
+
+    private WebClient webClient;
+
+    private HttpClient httpClient;
+
+    private NotificationRecorder recorder;
+
+    private NotificationReplay replay;
 
-    private ThingsSubscriptionManager subscriptions;
+    private final List<Server.Tenant> tenants = new ArrayList<>();
 
     @Inject
     Server.Configuration configuration;
 
     @PostConstruct
     public void start() throws Exception {
-        
+
+        // shared by all applications
+
         final var provider = new OidcAuthenticationProvider(this.oidcClient);
+        this.webClient = WebClient.create(this.vertx, new WebClientOptions());
+        this.httpClient = this.vertx.createHttpClient(new HttpClientOptions());
 
-        this.client = new Client(
-                this.vertx,
-                this.api,
-                this.application,
-                provider
-        );
+        final var multiple = this.applications.filter(a -> !a.isEmpty());
+        final var names = multiple.orElse(List.of(this.application));
 
-        this.subscriptions = new ThingsSubscriptionManager(this.vertx, URI.create(this.api), this.application, provider);
+        final var replayFile = this.configuration.replay().file();
+        if (replayFile.isPresent()) {
+            this.replay = NotificationReplay.load(this.vertx, replayFile.get());
+        }
+        final var recordingFile = this.configuration.recording().file();
+        if (recordingFile.isPresent()) {
+            this.recorder = NotificationRecorder.create(recordingFile.get(), this.configuration.recording().queueSize());
+        }
 
-        this.server.set(new Server.Builder(this.configuration)
-                .start(this.client, this.subscriptions)
-                .get());
+        // the budget of hedged requests is shared by all applications
+        final var hedging = this.configuration.applications().hedging();
+        final var hedgeBudget = hedging.enabled() ? new HedgeBudget(hedging.budget(), HEDGE_BURST) : null;
+
+        // all applications use the same backend, so they share the circuit breaker
+        final var circuitBreaker = this.configuration.applications().circuitBreaker();
+        final var breaker = circuitBreaker.enabled()
+                ? new CircuitBreaker(circuitBreaker.failureRatio(), circuitBreaker.window(), circuitBreaker.openDuration())
+                : null;
+
+        for (final var name : names) {
+            final var client = new Client(
+                    this.webClient,
+                    this.api,
+                    name,
+                    provider,
+                    this.configuration.applications().maxConcurrentRequests(),
+                    this.configuration.applications().maxConcurrentBrowseRequests(),
+                    this.configuration.applications().maxQueuedRequests()
+            );
+            final var requestTimeout = this.configuration.applications().requestTimeout();
+            client.setDeadline(
+                    requestTimeout.isZero() ? null : requestTimeout,
+                    this.configuration.applications().maxLastKnownStates()
+            );
+            if (hedgeBudget != null) {
+                client.setHedging(hedging.percentile(), hedging.minDelay(), hedgeBudget);
+            }
+            client.setCircuitBreaker(breaker);
+            final ThingsSubscriptionManager subscriptions;
+            if (this.replay != null) {
+                final var replay = this.replay;
+                subscriptions = new ThingsSubscriptionManager(this.vertx, replay, name);
+                client.setLocal(thing -> replay.lastState(name, thing));
+            } else {
+                subscriptions = new ThingsSubscriptionManager(this.vertx, this.httpClient, URI.create(this.api), name, provider);
+                subscriptions.setRecorder(this.recorder);
+                subscriptions.setCircuitBreaker(breaker);
+                subscriptions.setConnectLimit(new Bulkhead(this.configuration.applications().maxConcurrentConnects()));
+            }
+            this.tenants.add(new Server.Tenant(name, client, subscriptions));
+        }
+
+        final var builder = new Server.Builder(this.configuration);
+        if (multiple.isPresent()) {
+            this.server.set(builder.start(this.tenants).get());
+        } else {
+            final var tenant = this.tenants.get(0);
+            this.server.set(builder.start(tenant.client(), tenant.subscriptions()).get());
+        }
+
+        if (this.replay != null) {
+            this.replay.start(this.configuration.replay().speed(), this.configuration.replay().loop());
+        }
+    }
+
+    /**
+     * Check if the server is started, and ready to serve clients.
+     */
+    public boolean isReady() {
+        final var server = this.server.get();
+        return server != null && server.isReady();
     }
 
     @PreDestroy
@@ -68,8 +163,19 @@ public class Application {
             server.close()
                     .get();
         }
-        this.client.close();
-        this.subscriptions.close();
+        for (final var tenant : this.tenants) {
+            tenant.client().close();
+            tenant.subscriptions().close();
+        }
+        this.tenants.clear();
+        if (this.replay != null) {
+            this.replay.close();
+        }
+        if (this.recorder != null) {
+            this.recorder.close();
+        }
+        this.webClient.close();
+        this.httpClient.close();
     }
 
 }
@@ -0,0 +1,20 @@
+package io.drogue.doppelgaenger.opcua;
+
+import javax.enterprise.inject.Produces;
+import javax.inject.Singleton;
+
+import io.drogue.doppelgaenger.opcua.server.Server;
+import io.micrometer.core.instrument.config.MeterFilter;
+
+/**
+ * Provides the filters, which Quarkus applies to all meter registries.
+ */
+@Singleton
+public class MeterFilters {
+
+    @Produces
+    @Singleton
+    MeterFilter thingTags(final Server.Configuration configuration) {
+        return new ThingTagFilter(configuration.metrics().maxThingTags()).activate();
+    }
+}
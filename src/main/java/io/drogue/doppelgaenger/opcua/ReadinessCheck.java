@@ -0,0 +1,26 @@
+package io.drogue.doppelgaenger.opcua;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+
+/**
+ * Reports ready once the OPC UA server is started, and the (optional) warm-up completed.
+ */
+@Readiness
+@ApplicationScoped
+public class ReadinessCheck implements HealthCheck {
+
+    @Inject
+    Application application;
+
+    @Override
+    public HealthCheckResponse call() {
+        return HealthCheckResponse.named("opcua-server")
+                .status(this.application.isReady())
+                .build();
+    }
+}
@@ -5,15 +5,26 @@ import static io.vertx.core.Future.fromCompletionStage;
 import java.net.URI;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.ws.rs.core.UriBuilder;
 
+import org.eclipse.jdt.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.drogue.doppelgaenger.opcua.client.AuthenticationProvider;
+import io.drogue.doppelgaenger.opcua.client.Bulkhead;
+import io.drogue.doppelgaenger.opcua.client.CircuitBreaker;
 import io.drogue.doppelgaenger.opcua.client.GsonUtil;
 import io.drogue.doppelgaenger.opcua.client.Thing;
+import io.drogue.doppelgaenger.opcua.jfr.NotificationEvent;
+import io.drogue.doppelgaenger.opcua.replay.NotificationRecorder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import io.quarkus.oidc.client.Tokens;
 import io.vertx.core.Context;
 import io.vertx.core.MultiMap;
@@ -26,11 +37,37 @@ public class ThingListener {
 
     private static final Logger logger = LoggerFactory.getLogger(ThingListener.class);
 
+    /**
+     * The delay before reconnecting, in milliseconds.
+     */
+    private static final long RECONNECT_DELAY = 5_000;
+
+    private static final AtomicInteger LIVE = new AtomicInteger();
+
+    private static final AtomicInteger CONNECTED = new AtomicInteger();
+
+    static {
+        Metrics.gauge("doppelgaenger.listeners", LIVE);
+        Metrics.gauge("doppelgaenger.listeners.connected", CONNECTED);
+    }
+
     @FunctionalInterface
     public interface Listener {
         void onChange(Optional<Thing> state);
     }
 
+    /**
+     * Options of a listener, which may be shared by all listeners.
+     *
+     * @param recorder The recorder of the received notification frames, {@code null} to not record them.
+     * @param breaker The circuit breaker, holding back connection attempts while the backend is unavailable,
+     *         {@code null} to always try connecting.
+     * @param connects The limit of concurrent connection attempts, {@code null} for no limit.
+     */
+    public record Options(@Nullable NotificationRecorder recorder, @Nullable CircuitBreaker breaker, @Nullable Bulkhead connects) {
+        public static final Options DEFAULT = new Options(null, null, null);
+    }
+
     private final Listener listener;
 
     private final Vertx vertx;
@@ -49,15 +86,27 @@ public class ThingListener {
 
     private final AuthenticationProvider provider;
 
+    private final Options options;
+
     private final long timer;
 
     private volatile boolean closed;
 
+    private final AtomicBoolean connected = new AtomicBoolean();
+
+    private final Counter notifications;
+
+    private final Timer decodeTimer;
+
     private WebSocket websocket;
 
     private Tokens tokens;
 
     public ThingListener(final Vertx vertx, final HttpClient client, final URI api, final String application, final String name, final AuthenticationProvider provider, final Listener listener) {
+        this(vertx, client, api, application, name, provider, Options.DEFAULT, listener);
+    }
+
+    public ThingListener(final Vertx vertx, final HttpClient client, final URI api, final String application, final String name, final AuthenticationProvider provider, final Options options, final Listener listener) {
 
         this.secure = api.getScheme().equals("https");
 
@@ -68,16 +117,29 @@ public class ThingListener {
         this.name = name;
         this.context = vertx.getOrCreateContext();
         this.provider = provider;
+        this.options = options;
         this.listener = listener;
 
-        this.context.runOnContext(x -> connect());
+        this.notifications = Metrics.counter("doppelgaenger.notifications", "application", application, ThingTagFilter.TAG, name);
+        this.decodeTimer = Timer.builder("doppelgaenger.notification.decode")
+                .tag("application", application)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+        LIVE.incrementAndGet();
+
+        connect();
         this.timer = this.vertx.setPeriodic(5_000, x -> checkToken());
     }
 
     public void close() {
         this.closed = true;
+        LIVE.decrementAndGet();
+        setConnected(false);
         this.vertx.cancelTimer(this.timer);
 
+        Metrics.globalRegistry.remove(this.notifications);
+        ThingTagFilter.released(this.name);
+
         this.context.runOnContext(x -> {
             if (this.websocket != null) {
                 this.websocket.close();
@@ -87,36 +149,73 @@ public class ThingListener {
     }
 
     private void connect() {
+        final var connects = this.options.connects();
+        if (connects == null) {
+            this.context.runOnContext(x -> connect(null));
+        } else {
+            connects.execute(() -> this.context.runOnContext(x -> connect(connects)));
+        }
+    }
 
-        this.context.runOnContext(x -> {
-            if (this.closed) {
-                return;
-            }
+    /**
+     * Try connecting.
+     *
+     * @param permit The bulkhead to release, once the attempt completed, {@code null} if there is none.
+     */
+    private void connect(@Nullable final Bulkhead permit) {
+        if (this.closed) {
+            release(permit);
+            return;
+        }
 
-            fromCompletionStage(this.provider.getBearerToken())
-                    .flatMap(tokens -> {
-                        final var uri = getUri(tokens.getAccessToken());
-                        logger.info("Connecting: {}", uri);
-                        this.tokens = tokens;
-                        return this.client.webSocketAbs(
-                                uri.toString(),
-                                MultiMap.caseInsensitiveMultiMap(),
-                                WebsocketVersion.V13,
-                                List.of()
-                        );
-                    })
-                    .onSuccess(this::connected)
-                    .onFailure(this::disconnected);
+        final var breaker = this.options.breaker();
+        if (breaker != null && !breaker.tryAcquire()) {
+            // don't pile up attempts while the backend is unavailable
+            release(permit);
+            logger.debug("Backend unavailable, postponing connect");
+            this.vertx.setTimer(RECONNECT_DELAY, x -> connect());
+            return;
+        }
 
-        });
+        fromCompletionStage(this.provider.getBearerToken())
+                .flatMap(tokens -> {
+                    final var uri = getUri(tokens.getAccessToken());
+                    logger.info("Connecting: {}", uri);
+                    this.tokens = tokens;
+                    return this.client.webSocketAbs(
+                            uri.toString(),
+                            MultiMap.caseInsensitiveMultiMap(),
+                            WebsocketVersion.V13,
+                            List.of()
+                    );
+                })
+                .onComplete(ar -> {
+                    release(permit);
+                    if (breaker != null) {
+                        if (ar.succeeded()) {
+                            breaker.onSuccess();
+                        } else {
+                            breaker.onFailure();
+                        }
+                    }
+                })
+                .onSuccess(this::connected)
+                .onFailure(this::disconnected);
+    }
+
+    private static void release(@Nullable final Bulkhead permit) {
+        if (permit != null) {
+            permit.release();
+        }
     }
 
     private void disconnected(final Throwable throwable) {
         logger.info("Disconnected", throwable);
+        setConnected(false);
         this.websocket = null;
         if (!this.closed) {
             publish(null);
-            this.vertx.setTimer(5_000, x -> connect());
+            this.vertx.setTimer(RECONNECT_DELAY, x -> connect());
         }
     }
 
@@ -128,11 +227,21 @@ public class ThingListener {
         websocket.textMessageHandler(this::handleMessage);
         websocket.closeHandler(x -> disconnected(null));
         this.websocket = websocket;
+        setConnected(true);
     }
 
     private void handleMessage(final String message) {
+        final var recorder = this.options.recorder();
+        if (recorder != null) {
+            recorder.record(this.application, this.name, message);
+        }
+
         try {
 
+            this.notifications.increment();
+            final var start = System.nanoTime();
+            final var event = NotificationEvent.start(this.application, this.name, message);
+
             final var gson = GsonUtil.create();
 
             final var json = gson.fromJson(message, com.google.gson.JsonObject.class);
@@ -141,14 +250,23 @@ public class ThingListener {
             if ("change".equals(type)) {
                 final var thingJson = json.get("thing");
                 final var thing = gson.fromJson(thingJson, Thing.class);
+                thing.setFrameLength(message.length());
+                this.decodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
                 logger.info("Update: {}", thing);
                 publish(thing);
             } else if ("initial".equals(type)) {
                 final var thingJson = json.get("thing");
                 final var thing = gson.fromJson(thingJson, Thing.class);
+                thing.setFrameLength(message.length());
+                this.decodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
                 logger.info("Initial update: {}", thing);
                 publish(thing);
             }
+
+            if (event != null) {
+                event.type = type;
+                event.commit();
+            }
         } catch (final Exception e) {
             logger.info("Failed to process", e);
             publish(null);
@@ -156,6 +274,16 @@ public class ThingListener {
         }
     }
 
+    private void setConnected(final boolean connected) {
+        if (this.connected.compareAndSet(!connected, connected)) {
+            if (connected) {
+                CONNECTED.incrementAndGet();
+            } else {
+                CONNECTED.decrementAndGet();
+            }
+        }
+    }
+
     private void publish(final Thing state) {
         this.listener.onChange(Optional.ofNullable(state));
     }
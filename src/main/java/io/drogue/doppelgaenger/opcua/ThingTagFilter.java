@@ -0,0 +1,87 @@
+package io.drogue.doppelgaenger.opcua;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.config.MeterFilter;
+
+/**
+ * Bounds the values of the {@code thing} tag.
+ * <p>
+ * Names of things are unbounded. The first things get their name as tag value, all others share {@link #OTHER}. Once
+ * the meters of a thing are removed, its tag value must be released, so that other things can take its place.
+ */
+public class ThingTagFilter implements MeterFilter {
+
+    /**
+     * The tag carrying the name of a thing.
+     */
+    public static final String TAG = "thing";
+
+    /**
+     * The tag value for things, which exceed the maximum number of thing tags.
+     */
+    public static final String OTHER = "_other";
+
+    private static volatile ThingTagFilter active;
+
+    private final Set<String> things = ConcurrentHashMap.newKeySet();
+
+    private final int maxThingTags;
+
+    public ThingTagFilter(final int maxThingTags) {
+        this.maxThingTags = maxThingTags;
+    }
+
+    /**
+     * Make this the filter, which {@link #released(String)} applies to.
+     */
+    ThingTagFilter activate() {
+        active = this;
+        return this;
+    }
+
+    /**
+     * Release the tag value of a thing in the active filter, after its meters got removed.
+     */
+    static void released(final String thing) {
+        final var filter = active;
+        if (filter != null) {
+            filter.release(thing);
+        }
+    }
+
+    @Override
+    public Meter.Id map(final Meter.Id id) {
+        final var thing = id.getTag(TAG);
+        if (thing == null || thing.equals(tagValue(thing))) {
+            return id;
+        }
+        return id.replaceTags(Tags.of(id.getTagsAsIterable()).and(TAG, OTHER));
+    }
+
+    /**
+     * Get the tag value for a thing.
+     */
+    String tagValue(final String thing) {
+        if (this.things.contains(thing)) {
+            return thing;
+        }
+        synchronized (this.things) {
+            if (this.things.size() < this.maxThingTags) {
+                this.things.add(thing);
+                return thing;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Release the tag value of a thing, after its meters got removed.
+     */
+    void release(final String thing) {
+        this.things.remove(thing);
+    }
+}
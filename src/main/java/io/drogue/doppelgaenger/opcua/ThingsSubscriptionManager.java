@@ -2,61 +2,130 @@ package io.drogue.doppelgaenger.opcua;
 
 import java.net.URI;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.drogue.doppelgaenger.opcua.client.Bulkhead;
+import io.drogue.doppelgaenger.opcua.client.CircuitBreaker;
 import io.drogue.doppelgaenger.opcua.client.OidcAuthenticationProvider;
+import io.drogue.doppelgaenger.opcua.jfr.FanOutEvent;
+import io.drogue.doppelgaenger.opcua.replay.NotificationRecorder;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientOptions;
 
 public class ThingsSubscriptionManager {
 
+    private static final double[] FAN_OUT_BUCKETS = { 0, 1, 2, 5, 10, 25, 50, 100, 250, 1000 };
+
+    @Nullable
     private final HttpClient client;
 
+    private final boolean ownsClient;
+
     public interface Subscription {
         void close();
     }
 
+    /**
+     * A source of notifications, for the state changes of a single thing.
+     */
+    @FunctionalInterface
+    public interface NotificationSource {
+        /**
+         * Start receiving notifications for a thing.
+         *
+         * @return The subscription, which must be closed to stop receiving notifications.
+         */
+        Subscription connect(String application, String thing, ThingListener.Listener listener);
+    }
+
+    /**
+     * Receives every state update of every thing which currently has a subscription.
+     */
+    @FunctionalInterface
+    public interface StateListener {
+        void onStateChange(String thing, Optional<io.drogue.doppelgaenger.opcua.client.Thing> state);
+    }
+
+    /**
+     * Gets notified when a thing gets its first subscription, and when its last subscription is closed.
+     * <p>
+     * Called while holding the lock of the subscriptions, so implementations must not block.
+     */
+    public interface SubscriptionListener {
+        /**
+         * Called before the first subscription of a thing receives its initial state.
+         */
+        void onSubscribed(String thing);
+
+        /**
+         * Called after the last subscription of a thing was closed.
+         */
+        void onReleased(String thing);
+    }
+
+    private final List<StateListener> stateListeners = new CopyOnWriteArrayList<>();
+
+    private final List<SubscriptionListener> subscriptionListeners = new CopyOnWriteArrayList<>();
+
     private final Map<String, Thing> listeners = new HashMap<>();
 
     private final Lock listenerLock = new ReentrantLock();
 
     private final Vertx vertx;
 
-    private final URI api;
-
     private final String application;
 
-    private final OidcAuthenticationProvider provider;
+    private final NotificationSource source;
+
+    private final DistributionSummary fanOut;
+
+    private volatile NotificationRecorder recorder;
+
+    private volatile CircuitBreaker breaker;
+
+    private volatile Bulkhead connects;
 
     class Thing {
 
-        private final ThingListener listener;
+        private final String name;
+
+        private final Subscription source;
 
         private final Map<Object, ThingListener.Listener> listeners = new HashMap<>();
 
-        private Optional<io.drogue.doppelgaenger.opcua.client.Thing> lastState = Optional.empty();
+        private volatile Optional<io.drogue.doppelgaenger.opcua.client.Thing> lastState = Optional.empty();
 
         Thing(final String thing) {
-            this.listener = new ThingListener(ThingsSubscriptionManager.this.vertx,
-                    ThingsSubscriptionManager.this.client,
-                    ThingsSubscriptionManager.this.api,
-                    ThingsSubscriptionManager.this.application,
-                    thing,
-                    ThingsSubscriptionManager.this.provider,
-                    this::onStateChange);
+            this.name = thing;
+            this.source = ThingsSubscriptionManager.this.source.connect(ThingsSubscriptionManager.this.application, thing, this::onStateChange);
         }
 
         void close() {
-            this.listener.close();
+            this.source.close();
         }
 
         void onStateChange(final Optional<io.drogue.doppelgaenger.opcua.client.Thing> state) {
+            final var event = FanOutEvent.start(ThingsSubscriptionManager.this.application, this.name);
             this.lastState = state;
+            ThingsSubscriptionManager.this.fanOut.record(this.listeners.size());
+            ThingsSubscriptionManager.this.stateListeners.forEach(l -> l.onStateChange(this.name, state));
             this.listeners.values().forEach(l -> l.onChange(state));
+            if (event != null) {
+                event.listeners = this.listeners.size();
+                event.stateListeners = ThingsSubscriptionManager.this.stateListeners.size();
+                event.present = state.isPresent();
+                event.commit();
+            }
         }
 
         public Object attach(final ThingListener.Listener listener) {
@@ -73,11 +142,102 @@ public class ThingsSubscriptionManager {
     }
 
     public ThingsSubscriptionManager(final Vertx vertx, final URI api, final String application, final OidcAuthenticationProvider provider) {
+        this(vertx, vertx.createHttpClient(new HttpClientOptions()), true, api, application, provider);
+    }
+
+    /**
+     * Create a new instance, sharing the HTTP client with other instances.
+     *
+     * @param client The shared HTTP client, which will not be closed by this instance.
+     */
+    public ThingsSubscriptionManager(final Vertx vertx, final HttpClient client, final URI api, final String application, final OidcAuthenticationProvider provider) {
+        this(vertx, client, false, api, application, provider);
+    }
+
+    private ThingsSubscriptionManager(final Vertx vertx, final HttpClient client, final boolean ownsClient, final URI api, final String application, final OidcAuthenticationProvider provider) {
         this.vertx = vertx;
-        this.client = vertx.createHttpClient(new HttpClientOptions());
-        this.api = api;
+        this.client = client;
+        this.ownsClient = ownsClient;
         this.application = application;
-        this.provider = provider;
+        this.source = (app, thing, listener) -> {
+            final var options = new ThingListener.Options(this.recorder, this.breaker, this.connects);
+            final var l = new ThingListener(vertx, client, api, app, thing, provider, options, listener);
+            return l::close;
+        };
+        this.fanOut = fanOut(application);
+    }
+
+    /**
+     * Create a new instance, receiving notifications from another source than the backend, e.g. a replay.
+     */
+    public ThingsSubscriptionManager(final Vertx vertx, final NotificationSource source, final String application) {
+        this.vertx = vertx;
+        this.client = null;
+        this.ownsClient = false;
+        this.application = application;
+        this.source = source;
+        this.fanOut = fanOut(application);
+    }
+
+    private static DistributionSummary fanOut(final String application) {
+        return DistributionSummary.builder("doppelgaenger.notification.fanout")
+                .tag("application", application)
+                .serviceLevelObjectives(FAN_OUT_BUCKETS)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Set a recorder for the notifications received from the backend. Only applies to things subscribed afterwards.
+     *
+     * @param recorder The recorder, {@code null} to stop recording.
+     */
+    public void setRecorder(@Nullable final NotificationRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Set a circuit breaker, holding back connection attempts while the backend is unavailable. Only applies to things
+     * subscribed afterwards.
+     *
+     * @param breaker The circuit breaker, which may be shared with clients, {@code null} to always try connecting.
+     */
+    public void setCircuitBreaker(@Nullable final CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Limit the number of concurrent connection attempts. Only applies to things subscribed afterwards.
+     *
+     * @param connects The limit, {@code null} for no limit.
+     */
+    public void setConnectLimit(@Nullable final Bulkhead connects) {
+        this.connects = connects;
+    }
+
+    /**
+     * The limit of concurrent connection attempts.
+     *
+     * @return The limit, or {@code null} if there is none.
+     */
+    @Nullable
+    public Bulkhead getConnectLimit() {
+        return this.connects;
+    }
+
+    public void addStateListener(final StateListener listener) {
+        this.stateListeners.add(listener);
+    }
+
+    public void removeStateListener(final StateListener listener) {
+        this.stateListeners.remove(listener);
+    }
+
+    public void addSubscriptionListener(final SubscriptionListener listener) {
+        this.subscriptionListeners.add(listener);
+    }
+
+    public void removeSubscriptionListener(final SubscriptionListener listener) {
+        this.subscriptionListeners.remove(listener);
     }
 
     public Subscription createSubscription(final String thing, final String name, final ThingListener.Listener listener) {
@@ -86,7 +246,13 @@ public class ThingsSubscriptionManager {
             this.listenerLock.lock();
 
             final var t = this.listeners.computeIfAbsent(thing, x -> {
-                return new Thing(thing);
+                this.subscriptionListeners.forEach(l -> l.onSubscribed(thing));
+                try {
+                    return new Thing(thing);
+                } catch (final RuntimeException e) {
+                    this.subscriptionListeners.forEach(l -> l.onReleased(thing));
+                    throw e;
+                }
             });
 
             final var handle = t.attach(listener);
@@ -104,6 +270,35 @@ public class ThingsSubscriptionManager {
 
     }
 
+    /**
+     * Get the last known state of a subscribed thing.
+     *
+     * @return The last state, or an empty optional if the thing is not subscribed, or its state is not yet known.
+     */
+    public Optional<io.drogue.doppelgaenger.opcua.client.Thing> getLastState(final String thing) {
+        try {
+            this.listenerLock.lock();
+
+            final var t = this.listeners.get(thing);
+            return t != null ? t.lastState : Optional.empty();
+
+        } finally {
+            this.listenerLock.unlock();
+        }
+    }
+
+    /**
+     * The number of things which currently have a subscription.
+     */
+    public int size() {
+        try {
+            this.listenerLock.lock();
+            return this.listeners.size();
+        } finally {
+            this.listenerLock.unlock();
+        }
+    }
+
     void detachSubscription(final String thingName, final Object handle) {
         try {
             this.listenerLock.lock();
@@ -112,6 +307,7 @@ public class ThingsSubscriptionManager {
             if (t != null && t.detach(handle)) {
                 this.listeners.remove(thingName);
                 t.close();
+                this.subscriptionListeners.forEach(l -> l.onReleased(thingName));
             }
 
         } finally {
@@ -122,7 +318,9 @@ public class ThingsSubscriptionManager {
     public void close() {
         this.listeners.values().forEach(Thing::close);
         this.listeners.clear();
-        this.client.close();
+        if (this.ownsClient && this.client != null) {
+            this.client.close();
+        }
     }
 
 }
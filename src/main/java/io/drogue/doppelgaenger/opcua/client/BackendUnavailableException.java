@@ -0,0 +1,18 @@
+package io.drogue.doppelgaenger.opcua.client;
+
+/**
+ * A request to the backend was not sent, as the {@link CircuitBreaker} considers the backend to be unavailable, or
+ * too many requests are already waiting for it.
+ */
+public class BackendUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BackendUnavailableException() {
+        super("Backend unavailable, circuit breaker is open");
+    }
+
+    public BackendUnavailableException(final String message) {
+        super(message);
+    }
+}
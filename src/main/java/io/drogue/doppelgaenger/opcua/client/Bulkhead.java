@@ -0,0 +1,143 @@
+package io.drogue.doppelgaenger.opcua.client;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Limits the number of concurrent operations, queuing additional operations until a permit gets released.
+ * <p>
+ * Different kinds of traffic to the backend use separate instances, so that one kind can't use up the capacity of the
+ * others, e.g. a storm of browse requests can't starve the reads of values.
+ */
+public class Bulkhead {
+
+    private final int max;
+
+    private final int maxQueued;
+
+    private final Queue<Runnable> queued = new ArrayDeque<>();
+
+    private int inFlight;
+
+    /**
+     * A thread is handing over released permits to queued operations.
+     */
+    private boolean draining;
+
+    /**
+     * Create a new bulkhead, with an unbounded queue.
+     *
+     * @param max The maximum number of concurrent operations.
+     */
+    public Bulkhead(final int max) {
+        this(max, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a new bulkhead.
+     *
+     * @param max The maximum number of concurrent operations.
+     * @param maxQueued The maximum number of operations waiting for a permit, additional operations get rejected.
+     */
+    public Bulkhead(final int max, final int maxQueued) {
+        this.max = Math.max(1, max);
+        this.maxQueued = Math.max(0, maxQueued);
+    }
+
+    public int getMax() {
+        return this.max;
+    }
+
+    public int getMaxQueued() {
+        return this.maxQueued;
+    }
+
+    /**
+     * The number of operations currently holding a permit.
+     */
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    /**
+     * The number of operations currently waiting for a permit.
+     */
+    public synchronized int getQueued() {
+        return this.queued.size();
+    }
+
+    /**
+     * Run an operation, as soon as a permit is available.
+     * <p>
+     * The operation runs on the calling thread if a permit is available, otherwise on the thread releasing the permit
+     * it gets handed over. It must {@link #release()} the permit once it is complete.
+     *
+     * @return {@code false} if the queue is full, and the operation was rejected.
+     */
+    public boolean execute(final Runnable operation) {
+        synchronized (this) {
+            // don't overtake queued operations, which are about to be handed a released permit
+            if (this.inFlight >= this.max || this.draining && !this.queued.isEmpty()) {
+                if (this.queued.size() >= this.maxQueued) {
+                    return false;
+                }
+                this.queued.add(operation);
+                return true;
+            }
+            this.inFlight++;
+        }
+
+        operation.run();
+        return true;
+    }
+
+    /**
+     * Acquire a permit, without queuing.
+     *
+     * @return {@code true} if a permit was acquired, and must be released.
+     */
+    public synchronized boolean tryAcquire() {
+        if (this.inFlight >= this.max || !this.queued.isEmpty()) {
+            return false;
+        }
+        this.inFlight++;
+        return true;
+    }
+
+    /**
+     * Release a permit, handing it over to the next queued operation, if any.
+     * <p>
+     * Queued operations may release their permit right away, e.g. when they are no longer needed. So the permits are
+     * handed over in a loop, instead of recursing into the next operation. If another thread is already handing over
+     * permits, it also picks up the released permit.
+     */
+    public void release() {
+        synchronized (this) {
+            this.inFlight--;
+            if (this.draining) {
+                return;
+            }
+            this.draining = true;
+        }
+
+        try {
+            while (true) {
+                final Runnable next;
+                synchronized (this) {
+                    if (this.inFlight >= this.max || this.queued.isEmpty()) {
+                        this.draining = false;
+                        return;
+                    }
+                    next = this.queued.poll();
+                    this.inFlight++;
+                }
+                next.run();
+            }
+        } catch (final RuntimeException e) {
+            synchronized (this) {
+                this.draining = false;
+            }
+            throw e;
+        }
+    }
+}
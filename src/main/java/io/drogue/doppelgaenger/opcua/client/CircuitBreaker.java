@@ -0,0 +1,183 @@
+package io.drogue.doppelgaenger.opcua.client;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Stops sending requests to the backend, once too many of the recent requests failed.
+ * <p>
+ * While closed, the outcomes of the recent requests get recorded. Once the ratio of failures crosses the threshold, the
+ * breaker opens and rejects all requests, instead of having each of them wait for the failure. After the open period
+ * it is half-open, and lets a single request through, probing the backend. If the probe succeeds, the breaker closes
+ * again, otherwise it stays open for another period.
+ * <p>
+ * A single instance can be shared by multiple clients, and the listeners of notifications, as they all use the same
+ * backend. Each permitted request must report its outcome, using {@link #onSuccess()} or {@link #onFailure()}.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        Closed,
+        HalfOpen,
+        Open,
+    }
+
+    private final double failureRatio;
+
+    private final long openNanos;
+
+    /**
+     * The outcomes of the recent requests, {@code true} for a failure.
+     */
+    private final boolean[] outcomes;
+
+    private int position;
+
+    private int recorded;
+
+    private int failures;
+
+    private State state = State.Closed;
+
+    private long openedAt;
+
+    /**
+     * The start of the current probe, {@code 0} if there is none.
+     */
+    private long probeStartedAt;
+
+    private final Counter rejected = Metrics.counter("doppelgaenger.circuit.rejected");
+
+    private final Counter opened = Metrics.counter("doppelgaenger.circuit.opened");
+
+    /**
+     * Create a new circuit breaker.
+     *
+     * @param failureRatio The ratio of failed requests, between 0 and 1, at which to open.
+     * @param window The number of recent requests to evaluate, the breaker doesn't open before that many requests
+     *         were made.
+     * @param openDuration The time to reject requests, before probing the backend again.
+     */
+    public CircuitBreaker(final double failureRatio, final int window, final Duration openDuration) {
+        this.failureRatio = failureRatio;
+        this.outcomes = new boolean[Math.max(1, window)];
+        this.openNanos = openDuration.toNanos();
+        Gauge.builder("doppelgaenger.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .register(Metrics.globalRegistry);
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    /**
+     * Check if requests get rejected, without acquiring a permission.
+     */
+    public synchronized boolean isOpen() {
+        return this.state == State.Open && System.nanoTime() - this.openedAt < this.openNanos;
+    }
+
+    /**
+     * Ask for permission to send a request.
+     *
+     * @return {@code true} if the request may be sent, and its outcome must be reported.
+     */
+    public synchronized boolean tryAcquire() {
+        final var now = System.nanoTime();
+
+        if (this.state == State.Open) {
+            if (now - this.openedAt < this.openNanos) {
+                this.rejected.increment();
+                return false;
+            }
+            logger.info("Probing the backend");
+            this.state = State.HalfOpen;
+            this.probeStartedAt = 0;
+        }
+
+        if (this.state == State.HalfOpen) {
+            // a probe which never reported back, doesn't block probing forever
+            if (this.probeStartedAt != 0 && now - this.probeStartedAt < this.openNanos) {
+                this.rejected.increment();
+                return false;
+            }
+            this.probeStartedAt = now;
+        }
+
+        return true;
+    }
+
+    /**
+     * Report a successful request.
+     */
+    public synchronized void onSuccess() {
+        switch (this.state) {
+        case Closed:
+            record(false);
+            break;
+        case HalfOpen:
+            logger.info("Backend recovered, closing the circuit");
+            this.state = State.Closed;
+            reset();
+            break;
+        case Open:
+            // started before opening
+            break;
+        }
+    }
+
+    /**
+     * Report a failed request.
+     */
+    public synchronized void onFailure() {
+        switch (this.state) {
+        case Closed:
+            record(true);
+            if (this.recorded >= this.outcomes.length && this.failures >= this.failureRatio * this.recorded) {
+                logger.warn("Backend failing, opening the circuit: {} of {} requests failed", this.failures, this.recorded);
+                open();
+            }
+            break;
+        case HalfOpen:
+            logger.info("Probe failed, keeping the circuit open");
+            open();
+            break;
+        case Open:
+            break;
+        }
+    }
+
+    private void open() {
+        this.state = State.Open;
+        this.openedAt = System.nanoTime();
+        this.opened.increment();
+        reset();
+    }
+
+    private void record(final boolean failure) {
+        if (this.recorded < this.outcomes.length) {
+            this.recorded++;
+        } else if (this.outcomes[this.position]) {
+            this.failures--;
+        }
+        this.outcomes[this.position] = failure;
+        if (failure) {
+            this.failures++;
+        }
+        this.position = (this.position + 1) % this.outcomes.length;
+    }
+
+    private void reset() {
+        this.position = 0;
+        this.recorded = 0;
+        this.failures = 0;
+    }
+}
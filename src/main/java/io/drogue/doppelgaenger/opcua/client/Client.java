@@ -1,16 +1,62 @@
 package io.drogue.doppelgaenger.opcua.client;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.ws.rs.core.UriBuilder;
 
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.drogue.doppelgaenger.opcua.jfr.BackendRequestEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import io.vertx.core.Vertx;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.client.WebClientOptions;
 
 public class Client implements AutoCloseable {
 
+    /**
+     * The number of recent latencies, used for evaluating the delay of hedged requests.
+     */
+    private static final int LATENCY_WINDOW = 1024;
+
+    /**
+     * The kind of traffic a request is made for, each kind has its own limit of concurrent requests.
+     */
+    public enum Traffic {
+        /**
+         * Reading the values of things.
+         */
+        Read,
+        /**
+         * Browsing the hierarchy of things.
+         */
+        Browse,
+    }
+
+    private record Hedging(LatencyWindow latencies, long minDelay, HedgeBudget budget) {
+
+        /**
+         * Get the delay after which to send a hedged request.
+         *
+         * @return The delay in nanoseconds, or {@code -1} if it is not known yet.
+         */
+        long delay() {
+            final var percentile = this.latencies.percentile();
+            return percentile < 0 ? -1 : Math.max(this.minDelay, percentile);
+        }
+    }
+
     private final String api;
 
     private final String application;
@@ -19,20 +65,420 @@ public class Client implements AutoCloseable {
 
     private final WebClient client;
 
+    private final boolean ownsClient;
+
+    private final Bulkhead reads;
+
+    private final Bulkhead browses;
+
+    private volatile ThingLookup local;
+
+    private volatile Duration deadline;
+
+    private volatile Hedging hedging;
+
+    private volatile CircuitBreaker breaker;
+
+    private int maxLastKnown;
+
+    private final Map<String, Thing> lastKnown = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Thing> eldest) {
+            return size() > Client.this.maxLastKnown;
+        }
+    };
+
+    private final Counter localHits;
+
+    private final Counter staleHits;
+
+    private final Counter timeouts;
+
+    private final Counter hedges;
+
+    private final Counter hedgesWon;
+
+    private final Counter hedgesSkipped;
+
     public Client(final Vertx vertx, final String api, final String application, final AuthenticationProvider authenticationProvider) {
+        this(WebClient.create(vertx, new WebClientOptions()), true, api, application, authenticationProvider, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a new client, sharing the HTTP client with other instances.
+     *
+     * @param client The shared HTTP client, which will not be closed by this instance.
+     * @param maxConcurrentRequests The maximum number of concurrent requests to the backend, additional requests get
+     *         queued.
+     */
+    public Client(final WebClient client, final String api, final String application, final AuthenticationProvider authenticationProvider, final int maxConcurrentRequests) {
+        this(client, false, api, application, authenticationProvider, maxConcurrentRequests, maxConcurrentRequests, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a new client, sharing the HTTP client with other instances.
+     *
+     * @param client The shared HTTP client, which will not be closed by this instance.
+     * @param maxConcurrentRequests The maximum number of concurrent requests to the backend for reading, additional
+     *         requests get queued.
+     * @param maxConcurrentBrowseRequests The maximum number of concurrent requests to the backend for browsing,
+     *         additional requests get queued.
+     * @param maxQueuedRequests The maximum number of queued requests, for reading and for browsing each. Additional
+     *         requests fail with a {@link BackendUnavailableException}.
+     */
+    public Client(final WebClient client, final String api, final String application, final AuthenticationProvider authenticationProvider, final int maxConcurrentRequests, final int maxConcurrentBrowseRequests, final int maxQueuedRequests) {
+        this(client, false, api, application, authenticationProvider, maxConcurrentRequests, maxConcurrentBrowseRequests, maxQueuedRequests);
+    }
+
+    private Client(final WebClient client, final boolean ownsClient, final String api, final String application, final AuthenticationProvider authenticationProvider, final int maxConcurrentRequests, final int maxConcurrentBrowseRequests, final int maxQueuedRequests) {
         this.api = api;
         this.application = application;
         this.authenticationProvider = authenticationProvider;
-        final WebClientOptions options = new WebClientOptions();
-        this.client = WebClient.create(vertx, options);
+        this.client = client;
+        this.ownsClient = ownsClient;
+        this.reads = new Bulkhead(maxConcurrentRequests, maxQueuedRequests);
+        this.browses = new Bulkhead(maxConcurrentBrowseRequests, maxQueuedRequests);
+        this.localHits = Metrics.counter("doppelgaenger.client.local", "application", application);
+        this.staleHits = Metrics.counter("doppelgaenger.client.stale", "application", application);
+        this.timeouts = Metrics.counter("doppelgaenger.client.timeout", "application", application);
+        this.hedges = Metrics.counter("doppelgaenger.client.hedge", "application", application, "outcome", "sent");
+        this.hedgesWon = Metrics.counter("doppelgaenger.client.hedge", "application", application, "outcome", "won");
+        this.hedgesSkipped = Metrics.counter("doppelgaenger.client.hedge", "application", application, "outcome", "skipped");
     }
 
     @Override
     public void close() {
-        this.client.close();
+        if (this.ownsClient) {
+            this.client.close();
+        }
+    }
+
+    public String getApplication() {
+        return this.application;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return this.reads.getMax();
+    }
+
+    /**
+     * The number of requests to the backend for reading, currently in progress.
+     */
+    public int getInFlightRequests() {
+        return this.reads.getInFlight();
+    }
+
+    /**
+     * The number of requests to the backend for reading, currently waiting for other requests to complete.
+     */
+    public int getQueuedRequests() {
+        return this.reads.getQueued();
+    }
+
+    /**
+     * The limit of concurrent requests for a kind of traffic.
+     */
+    public Bulkhead getBulkhead(final Traffic traffic) {
+        return traffic == Traffic.Browse ? this.browses : this.reads;
     }
 
+    /**
+     * Set a local source of thing states, which gets consulted before fetching a thing from the backend.
+     *
+     * @param local The local source, {@code null} to always fetch from the backend.
+     */
+    public void setLocal(@Nullable final ThingLookup local) {
+        this.local = local;
+    }
+
+    /**
+     * Set a deadline for getting the state of a thing.
+     * <p>
+     * When the deadline expires, the last known state of the thing is returned, marked as {@link Thing#isRestored()
+     * not confirmed} by the backend. If there is no known state, the request fails with a {@link TimeoutException}.
+     * Requests which are still queued when their deadline expires, don't get sent at all.
+     *
+     * @param deadline The deadline, {@code null} to wait for the backend.
+     * @param maxLastKnown The maximum number of things, for which the last known state is kept.
+     */
+    public void setDeadline(@Nullable final Duration deadline, final int maxLastKnown) {
+        this.deadline = deadline;
+        synchronized (this.lastKnown) {
+            this.maxLastKnown = Math.max(0, maxLastKnown);
+            if (this.lastKnown.size() > this.maxLastKnown) {
+                this.lastKnown.clear();
+            }
+        }
+    }
+
+    /**
+     * Enable hedged requests.
+     * <p>
+     * If a request didn't complete within the provided percentile of the latencies of recent requests, a second,
+     * identical, request is sent. The first response gets used, the other one gets discarded. Hedged requests are only
+     * sent if the budget allows it, and the limit of concurrent requests isn't reached, so that they don't amplify
+     * load.
+     *
+     * @param percentile The percentile of recent latencies, between 0 and 1, after which to send a hedged request.
+     * @param minDelay The minimum delay before sending a hedged request.
+     * @param budget The budget of hedged requests, which may be shared with other clients.
+     */
+    public void setHedging(final double percentile, final Duration minDelay, final HedgeBudget budget) {
+        this.hedging = new Hedging(new LatencyWindow(LATENCY_WINDOW, percentile), minDelay.toNanos(), budget);
+    }
+
+    /**
+     * Set a circuit breaker, failing requests fast while the backend is unavailable.
+     * <p>
+     * While the breaker is open, requests for the state of a thing are answered from the last known state, just like
+     * when the deadline expires, or fail with a {@link BackendUnavailableException}.
+     *
+     * @param breaker The circuit breaker, which may be shared with other clients, {@code null} to always send requests.
+     */
+    public void setCircuitBreaker(@Nullable final CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Get the state of a thing for reading, from the local source if possible, within the deadline.
+     */
     public CompletableFuture<Optional<Thing>> get(final String name) {
+        return get(name, Traffic.Read);
+    }
+
+    /**
+     * Get the state of a thing, from the local source if possible, within the deadline.
+     *
+     * @param traffic The kind of traffic the request is made for.
+     */
+    public CompletableFuture<Optional<Thing>> get(final String name, final Traffic traffic) {
+        final var event = BackendRequestEvent.start(this.application, name);
+        final var local = this.local;
+        if (local != null) {
+            final var state = local.lookup(name);
+            if (state.isPresent()) {
+                this.localHits.increment();
+                if (event != null) {
+                    event.local = true;
+                    event.commit();
+                }
+                return completedFuture(state);
+            }
+        }
+
+        final var breaker = this.breaker;
+        if (breaker != null && breaker.isOpen()) {
+            // fail fast, without waiting for a slot
+            if (event != null) {
+                event.commit();
+            }
+            return CompletableFuture.<Optional<Thing>>failedFuture(new BackendUnavailableException())
+                    .exceptionally(err -> fallback(name, err));
+        }
+
+        var result = fetch(name, event, getBulkhead(traffic));
+        final var deadline = this.deadline;
+        if (deadline != null) {
+            result = result.orTimeout(deadline.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        return result.exceptionally(err -> fallback(name, err));
+    }
+
+    private Optional<Thing> fallback(final String name, final Throwable err) {
+        final var cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+        if (cause instanceof BackendUnavailableException) {
+            final var stale = lastKnown(name);
+            if (stale.isPresent()) {
+                this.staleHits.increment();
+                return stale;
+            }
+        } else if (cause instanceof TimeoutException) {
+            final var stale = lastKnown(name);
+            if (stale.isPresent()) {
+                this.staleHits.increment();
+                return stale;
+            }
+            this.timeouts.increment();
+        }
+        throw err instanceof final CompletionException e ? e : new CompletionException(err);
+    }
+
+    /**
+     * Get the last known state of a thing, marked as not confirmed by the backend.
+     */
+    private Optional<Thing> lastKnown(final String name) {
+        final Thing state;
+        synchronized (this.lastKnown) {
+            state = this.lastKnown.get(name);
+        }
+        if (state == null) {
+            return Optional.empty();
+        }
+        final var result = new Thing(state);
+        result.setRestored(true);
+        return Optional.of(result);
+    }
+
+    private void remember(final String name, final Optional<Thing> state) {
+        synchronized (this.lastKnown) {
+            if (this.maxLastKnown <= 0) {
+                return;
+            }
+            if (state.isPresent()) {
+                this.lastKnown.put(name, state.get());
+            } else {
+                this.lastKnown.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Fetch the state of a thing from the backend.
+     *
+     * @param event The flight recorder event to commit once the request completed, {@code null} if disabled.
+     * @param bulkhead The limit of concurrent requests to use.
+     */
+    private CompletableFuture<Optional<Thing>> fetch(final String name, @Nullable final BackendRequestEvent event, final Bulkhead bulkhead) {
+        final var result = new CompletableFuture<Optional<Thing>>();
+        final var queued = bulkhead.execute(() -> {
+            final var breaker = this.breaker;
+            if (result.isDone() || breaker != null && !breaker.tryAcquire()) {
+                // the deadline expired while being queued, or the backend is unavailable
+                bulkhead.release();
+                if (event != null) {
+                    event.commit();
+                }
+                result.completeExceptionally(new BackendUnavailableException());
+                return;
+            }
+            final var primary = send(name, event);
+            primary.whenComplete((value, err) -> {
+                completed(breaker, bulkhead, err);
+                if (event != null) {
+                    event.commit();
+                }
+            });
+            hedge(name, primary, bulkhead).whenComplete((value, err) -> {
+                if (err != null) {
+                    result.completeExceptionally(err);
+                } else {
+                    remember(name, value);
+                    result.complete(value);
+                }
+            });
+        });
+        if (!queued) {
+            if (event != null) {
+                event.commit();
+            }
+            result.completeExceptionally(new BackendUnavailableException("Too many queued requests to the backend"));
+        }
+        return result;
+    }
+
+    /**
+     * Report the outcome of a request to the circuit breaker, and release its permit.
+     */
+    private static void completed(@Nullable final CircuitBreaker breaker, final Bulkhead bulkhead, @Nullable final Throwable err) {
+        if (breaker != null) {
+            if (err != null) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+        }
+        bulkhead.release();
+    }
+
+    /**
+     * Send a request, the caller must hold a slot.
+     */
+    private CompletableFuture<Optional<Thing>> send(final String name, @Nullable final BackendRequestEvent event) {
+        try {
+            return request(name, event);
+        } catch (final RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Send a hedged request, if the primary request takes too long.
+     * <p>
+     * The Vert.x web client can't abort a request, so the slower response simply gets discarded. Hedged requests are
+     * only sent while the circuit breaker is closed, and are accounted for like the primary request: they hold a permit
+     * of the same bulkhead, and report their outcome to the breaker.
+     *
+     * @return The first successful response, or the failure of the primary request.
+     */
+    private CompletableFuture<Optional<Thing>> hedge(final String name, final CompletableFuture<Optional<Thing>> primary, final Bulkhead bulkhead) {
+        final var hedging = this.hedging;
+        if (hedging == null) {
+            return primary;
+        }
+
+        final var start = System.nanoTime();
+        hedging.budget().deposit();
+        primary.thenRun(() -> hedging.latencies().record(System.nanoTime() - start));
+
+        final var delay = hedging.delay();
+        if (delay < 0) {
+            return primary;
+        }
+
+        final var result = new CompletableFuture<Optional<Thing>>();
+        primary.whenComplete((value, err) -> {
+            if (err != null) {
+                result.completeExceptionally(err);
+            } else {
+                result.complete(value);
+            }
+        });
+
+        CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            // don't add load to a backend which is already failing
+            final var breaker = this.breaker;
+            if (breaker != null && breaker.getState() != CircuitBreaker.State.Closed) {
+                this.hedgesSkipped.increment();
+                return;
+            }
+            if (!bulkhead.tryAcquire()) {
+                this.hedgesSkipped.increment();
+                return;
+            }
+            if (!hedging.budget().withdraw()) {
+                bulkhead.release();
+                this.hedgesSkipped.increment();
+                return;
+            }
+            if (breaker != null && !breaker.tryAcquire()) {
+                bulkhead.release();
+                this.hedgesSkipped.increment();
+                return;
+            }
+
+            this.hedges.increment();
+            send(name, null).whenComplete((value, err) -> {
+                completed(breaker, bulkhead, err);
+                if (err == null && result.complete(value)) {
+                    this.hedgesWon.increment();
+                }
+            });
+        });
+
+        return result;
+    }
+
+    private Timer requestTimer(final String status) {
+        return Timer.builder("doppelgaenger.client.request")
+                .tags("application", this.application, "status", status)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    private CompletableFuture<Optional<Thing>> request(final String name, @Nullable final BackendRequestEvent event) {
 
         final var url = UriBuilder.fromUri(this.api)
                 .path("/api/v1alpha1/things/{application}/things/{thing}")
@@ -42,9 +488,18 @@ public class Client implements AutoCloseable {
 
         return this.authenticationProvider.inject(request)
                 .thenCompose(req -> {
+                    final var start = System.nanoTime();
                     return req.send()
+                            .onFailure(err -> requestTimer("error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
                             .<Optional<Thing>>map(response -> {
 
+                                requestTimer(Integer.toString(response.statusCode())).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                                if (event != null) {
+                                    event.status = response.statusCode();
+                                    final var body = response.body();
+                                    event.payloadSize = body != null ? body.length() : 0;
+                                }
+
                                 switch (response.statusCode()) {
                                 case 404:
                                     return Optional.empty();
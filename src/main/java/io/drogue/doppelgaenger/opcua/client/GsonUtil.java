@@ -5,6 +5,8 @@ import java.time.OffsetDateTime;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
 
 public final class GsonUtil {
     private GsonUtil() {
@@ -14,6 +16,8 @@ public final class GsonUtil {
         return new GsonBuilder()
                 .registerTypeAdapter(OffsetDateTime.class, (JsonDeserializer<OffsetDateTime>)
                         (json, type, context) -> OffsetDateTime.parse(json.getAsString()))
+                .registerTypeAdapter(OffsetDateTime.class, (JsonSerializer<OffsetDateTime>)
+                        (value, type, context) -> new JsonPrimitive(value.toString()))
                 .create();
     }
 }
@@ -0,0 +1,48 @@
+package io.drogue.doppelgaenger.opcua.client;
+
+/**
+ * Limits the number of hedged requests, relative to the number of requests.
+ * <p>
+ * Each request deposits a fraction of a token, each hedged request withdraws a full token. So that the additional
+ * load of hedging is bounded by the ratio, even when the backend slows down. A single instance can be shared by
+ * multiple clients, to have a global budget.
+ */
+public class HedgeBudget {
+
+    private final double ratio;
+
+    private final double maxTokens;
+
+    private double tokens;
+
+    /**
+     * Create a new budget.
+     *
+     * @param ratio The maximum ratio of hedged requests to requests, e.g. {@code 0.05} for 5%.
+     * @param maxTokens The maximum number of hedged requests which can be saved up, for a burst.
+     */
+    public HedgeBudget(final double ratio, final double maxTokens) {
+        this.ratio = Math.max(0, ratio);
+        this.maxTokens = Math.max(1, maxTokens);
+    }
+
+    /**
+     * Record a request.
+     */
+    synchronized void deposit() {
+        this.tokens = Math.min(this.maxTokens, this.tokens + this.ratio);
+    }
+
+    /**
+     * Try to spend the budget on a hedged request.
+     *
+     * @return {@code true} if the request may be sent.
+     */
+    synchronized boolean withdraw() {
+        if (this.tokens < 1) {
+            return false;
+        }
+        this.tokens -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+package io.drogue.doppelgaenger.opcua.client;
+
+import java.util.Arrays;
+
+/**
+ * The most recent latencies of requests, for evaluating percentiles.
+ * <p>
+ * Evaluating a percentile requires sorting the samples, so the result is cached, and only evaluated again after a
+ * number of new samples have been recorded.
+ */
+class LatencyWindow {
+
+    /**
+     * The minimum number of samples, before a percentile gets reported.
+     */
+    static final int MIN_SAMPLES = 32;
+
+    private static final int UPDATE_INTERVAL = 64;
+
+    private final long[] samples;
+
+    private final double percentile;
+
+    private int next;
+
+    private int count;
+
+    private int updates;
+
+    private long cached = -1;
+
+    LatencyWindow(final int size, final double percentile) {
+        this.samples = new long[Math.max(MIN_SAMPLES, size)];
+        this.percentile = Math.min(1, Math.max(0, percentile));
+    }
+
+    synchronized void record(final long nanos) {
+        this.samples[this.next] = nanos;
+        this.next = (this.next + 1) % this.samples.length;
+        if (this.count < this.samples.length) {
+            this.count++;
+        }
+        if (++this.updates >= UPDATE_INTERVAL) {
+            this.cached = -1;
+        }
+    }
+
+    /**
+     * Get the latency at the percentile, of the recorded samples.
+     *
+     * @return The latency in nanoseconds, or {@code -1} if there are not enough samples yet.
+     */
+    synchronized long percentile() {
+        if (this.count < MIN_SAMPLES) {
+            return -1;
+        }
+        if (this.cached < 0) {
+            final var sorted = Arrays.copyOf(this.samples, this.count);
+            Arrays.sort(sorted);
+            final var index = Math.max(0, (int) Math.ceil(this.percentile * this.count) - 1);
+            this.cached = sorted[Math.min(this.count - 1, index)];
+            this.updates = 0;
+        }
+        return this.cached;
+    }
+}
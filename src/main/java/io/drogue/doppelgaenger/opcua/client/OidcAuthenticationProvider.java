@@ -2,21 +2,32 @@ package io.drogue.doppelgaenger.opcua.client;
 
 import java.util.concurrent.CompletableFuture;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import io.quarkus.oidc.client.OidcClient;
 import io.quarkus.oidc.client.Tokens;
 import io.vertx.ext.web.client.HttpRequest;
 
+/**
+ * Provides tokens from an OIDC client.
+ * <p>
+ * Tokens are cached until they expire, so that a single instance can be shared by all clients and subscriptions.
+ */
 public class OidcAuthenticationProvider implements AuthenticationProvider {
 
     private final OidcClient client;
 
+    private CompletableFuture<Tokens> tokens;
+
+    private final Timer fetchTimer = Metrics.timer("doppelgaenger.token.fetch");
+
     public OidcAuthenticationProvider(final OidcClient client) {
         this.client = client;
     }
 
     @Override
     public <T> CompletableFuture<HttpRequest<T>> inject(final HttpRequest<T> request) {
-        return this.client.getTokens().subscribeAsCompletionStage()
+        return getBearerToken()
                 .thenApply(tokens -> {
                     return request
                             .bearerTokenAuthentication(tokens.getAccessToken());
@@ -24,7 +35,24 @@ public class OidcAuthenticationProvider implements AuthenticationProvider {
     }
 
     @Override
-    public CompletableFuture<Tokens> getBearerToken() {
-        return this.client.getTokens().subscribeAsCompletionStage();
+    public synchronized CompletableFuture<Tokens> getBearerToken() {
+        if (this.tokens == null || !isValid(this.tokens)) {
+            final var sample = Timer.start();
+            this.tokens = this.client.getTokens().subscribeAsCompletionStage();
+            this.tokens.whenComplete((tokens, err) -> sample.stop(this.fetchTimer));
+        }
+        return this.tokens;
+    }
+
+    private static boolean isValid(final CompletableFuture<Tokens> tokens) {
+        if (!tokens.isDone()) {
+            // still requesting
+            return true;
+        }
+        if (tokens.isCompletedExceptionally()) {
+            return false;
+        }
+        final var current = tokens.join();
+        return !current.isAccessTokenExpired() && !current.isAccessTokenWithinRefreshInterval();
     }
 }
@@ -17,6 +17,16 @@ public class Thing {
 
     private Map<String, SyntheticFeature> syntheticState = new HashMap<>();
 
+    /**
+     * The state was restored from a snapshot, and not yet confirmed by the backend. Not serialized.
+     */
+    private transient boolean restored;
+
+    /**
+     * The length of the notification frame the state was decoded from, {@code 0} if unknown. Not serialized.
+     */
+    private transient int frameLength;
+
     public static class Builder {
         private final Thing thing;
 
@@ -42,6 +52,8 @@ public class Thing {
         this.metadata = new Metadata(other.metadata);
         this.reportedState = new HashMap<>(other.reportedState);
         this.syntheticState = new HashMap<>(other.syntheticState);
+        this.restored = other.restored;
+        this.frameLength = other.frameLength;
     }
 
     @Override
@@ -77,6 +89,22 @@ public class Thing {
         this.syntheticState = syntheticState;
     }
 
+    public boolean isRestored() {
+        return this.restored;
+    }
+
+    public void setRestored(final boolean restored) {
+        this.restored = restored;
+    }
+
+    public int getFrameLength() {
+        return this.frameLength;
+    }
+
+    public void setFrameLength(final int frameLength) {
+        this.frameLength = frameLength;
+    }
+
     public Map<String, BasicFeature> mergedState() {
         final var result = new HashMap<String, BasicFeature>();
 
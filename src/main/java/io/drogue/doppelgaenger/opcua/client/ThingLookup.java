@@ -0,0 +1,17 @@
+package io.drogue.doppelgaenger.opcua.client;
+
+import java.util.Optional;
+
+/**
+ * A local source of thing states.
+ */
+@FunctionalInterface
+public interface ThingLookup {
+
+    /**
+     * Look up the state of a thing.
+     *
+     * @return The state, or an empty optional if the state is not available locally.
+     */
+    Optional<Thing> lookup(String name);
+}
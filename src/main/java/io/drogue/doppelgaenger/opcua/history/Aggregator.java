@@ -0,0 +1,401 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Computes aggregates over the history of properties.
+ * <p>
+ * For each property fed into {@link #append(String, String, long, JsonElement)}, a {@link Rollup} is maintained,
+ * which is used to answer queries aligned to its buckets, without scanning the raw samples. When a rollup is
+ * created, it gets initialized from the samples still available in the history store. Queries which don't align
+ * to the buckets, or reach back before the rollup, are computed from the raw samples.
+ * <p>
+ * Values are interpolated linearly. Only numeric (and boolean) values are considered, other values are ignored.
+ */
+public class Aggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger(Aggregator.class);
+
+    /*
+     * Status code info bits for aggregates (DataValue info type, see OPC UA Part 4, 7.34.1).
+     */
+
+    private static final long CALCULATED = 0x0401;
+
+    private static final long INTERPOLATED = 0x0402;
+
+    private static final long PARTIAL = 0x0004;
+
+    public enum Function {
+        Average,
+        Minimum,
+        Maximum,
+        Count,
+        TimeAverage,
+        Interpolative,
+    }
+
+    @FunctionalInterface
+    public interface ResultConsumer {
+        /**
+         * Accept the result of a single interval.
+         *
+         * @param timestamp The start of the interval.
+         * @param value The value.
+         * @param statusCode The status code.
+         */
+        void accept(long timestamp, Variant value, long statusCode);
+    }
+
+    private final HistoryStore store;
+
+    private final long interval;
+
+    private final int maxBuckets;
+
+    private final Map<PropertyKey, Rollup> rollups;
+
+    /**
+     * Create a new aggregator.
+     *
+     * @param store The store to read raw samples from.
+     * @param interval The duration of a rollup bucket, in ticks.
+     * @param maxBuckets The maximum number of buckets per property.
+     * @param maxProperties The maximum number of properties to keep rollups for.
+     */
+    public Aggregator(final HistoryStore store, final long interval, final int maxBuckets, final int maxProperties) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be greater than zero");
+        }
+        if (maxBuckets <= 0) {
+            throw new IllegalArgumentException("Maximum number of buckets must be greater than zero");
+        }
+        if (maxProperties <= 0) {
+            throw new IllegalArgumentException("Maximum number of properties must be greater than zero");
+        }
+
+        this.store = store;
+        this.interval = interval;
+        this.maxBuckets = maxBuckets;
+        this.rollups = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<PropertyKey, Rollup> eldest) {
+                if (size() > maxProperties) {
+                    logger.debug("Evicting rollup of {}", eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Add a sample, which was already appended to the history store.
+     */
+    public void append(final String thing, final String property, final long timestamp, final JsonElement value) {
+        if (value == null || !value.isJsonPrimitive() || value.getAsJsonPrimitive().isString()) {
+            return;
+        }
+        final var number = value.getAsJsonPrimitive().isBoolean() ? (value.getAsBoolean() ? 1.0 : 0.0) : value.getAsDouble();
+
+        final Rollup rollup;
+        synchronized (this.rollups) {
+            rollup = this.rollups.computeIfAbsent(new PropertyKey(thing, property), x -> new Rollup(0, this.interval, this.maxBuckets, Long.MAX_VALUE));
+        }
+
+        synchronized (rollup) {
+            if (rollup.getCoveredFrom() == Long.MAX_VALUE) {
+                initialize(thing, property, rollup, timestamp);
+            }
+            rollup.add(timestamp, number);
+        }
+    }
+
+    /**
+     * Initialize a new rollup with the samples before the provided timestamp.
+     */
+    private void initialize(final String thing, final String property, final Rollup rollup, final long timestamp) {
+        final var from = rollup.bucketStart(timestamp) - (this.maxBuckets - 1) * this.interval;
+        rollup.setCoveredFrom(from);
+        this.store.read(thing, property, from, timestamp, (t, value) -> {
+            final var number = toNumber(value);
+            if (number != null) {
+                rollup.add(t, number);
+            }
+            return true;
+        });
+        logger.debug("Initialized rollup of {}#{} with {} buckets", thing, property, rollup.size());
+    }
+
+    /**
+     * Compute an aggregate.
+     * <p>
+     * The range is split into intervals, starting at {@code start}. The last interval gets cut at {@code end}.
+     * One result is reported per interval, in ascending order.
+     *
+     * @param thing The name of the thing.
+     * @param property The name of the property.
+     * @param function The aggregate function.
+     * @param start The start of the range, inclusive.
+     * @param end The end of the range, exclusive.
+     * @param interval The duration of an interval.
+     * @param consumer The consumer of the results.
+     */
+    public void aggregate(final String thing, final String property, final Function function, final long start, final long end, final long interval, final ResultConsumer consumer) {
+        if (start >= end || interval <= 0) {
+            return;
+        }
+
+        final Rollup rollup;
+        synchronized (this.rollups) {
+            rollup = this.rollups.get(new PropertyKey(thing, property));
+        }
+
+        if (rollup != null) {
+            synchronized (rollup) {
+                if (start >= rollup.getCoveredFrom() && rollup.isAligned(start, interval) && rollup.isAligned(end, rollup.getInterval())) {
+                    logger.trace("Aggregating {}#{} from rollup", thing, property);
+                    new Query(thing, property, rollup, start, end).compute(function, interval, consumer);
+                    return;
+                }
+            }
+        }
+
+        // compute from raw samples, using a rollup with exactly one bucket per interval
+
+        logger.trace("Aggregating {}#{} from raw samples", thing, property);
+        final var buckets = (end - start + interval - 1) / interval;
+        final var raw = new Rollup(start, interval, (int) Math.min(buckets, Integer.MAX_VALUE), start);
+        this.store.read(thing, property, start, end, (t, value) -> {
+            final var number = toNumber(value);
+            if (number != null) {
+                raw.add(t, number);
+            }
+            return true;
+        });
+        new Query(thing, property, raw, start, end).compute(function, interval, consumer);
+    }
+
+    private static Double toNumber(final Variant value) {
+        final var v = value.getValue();
+        if (v instanceof Number) {
+            return ((Number) v).doubleValue();
+        }
+        if (v instanceof Boolean) {
+            return (Boolean) v ? 1.0 : 0.0;
+        }
+        return null;
+    }
+
+    private record Point(long time, double value, long statusCode) {
+    }
+
+    private static boolean isUncertain(final Point point) {
+        return point != null && new StatusCode(point.statusCode()).isUncertain();
+    }
+
+    /**
+     * A single aggregate query, looking up the samples outside the range lazily.
+     */
+    private class Query {
+        private final String thing;
+
+        private final String property;
+
+        private final Rollup rollup;
+
+        private final long start;
+
+        private final long end;
+
+        private Point before;
+
+        private boolean beforeLoaded;
+
+        private Point after;
+
+        private boolean afterLoaded;
+
+        Query(final String thing, final String property, final Rollup rollup, final long start, final long end) {
+            this.thing = thing;
+            this.property = property;
+            this.rollup = rollup;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * The last sample before the start of the query.
+         */
+        private Point before() {
+            if (!this.beforeLoaded) {
+                this.beforeLoaded = true;
+                this.before = find(this.start - 1, Long.MIN_VALUE);
+            }
+            return this.before;
+        }
+
+        /**
+         * The first sample at, or after, the end of the query.
+         */
+        private Point after() {
+            if (!this.afterLoaded) {
+                this.afterLoaded = true;
+                this.after = find(this.end, Long.MAX_VALUE);
+            }
+            return this.after;
+        }
+
+        private Point find(final long from, final long to) {
+            final var result = new Point[1];
+            Aggregator.this.store.read(this.thing, this.property, from, to, (timestamp, value) -> {
+                final var number = toNumber(value);
+                if (number != null) {
+                    result[0] = new Point(timestamp, number, 0);
+                }
+                return false;
+            });
+            return result[0];
+        }
+
+        /**
+         * The last sample before bucket {@code i}.
+         */
+        private Point previous(final int i) {
+            return i > 0 ? new Point(this.rollup.lastTime(i - 1), this.rollup.lastValue(i - 1), 0) : before();
+        }
+
+        /**
+         * The first sample of bucket {@code i}, or the next after the query.
+         */
+        private Point next(final int i) {
+            return i < this.rollup.size() ? new Point(this.rollup.firstTime(i), this.rollup.firstValue(i), 0) : after();
+        }
+
+        /**
+         * Interpolate the value at the start of a bucket.
+         *
+         * @param time The timestamp.
+         * @param i The first bucket starting at, or after, the timestamp.
+         */
+        private Point interpolate(final long time, final int i) {
+            final var next = next(i);
+            if (next != null && next.time() == time) {
+                return next;
+            }
+
+            final var previous = previous(i);
+            if (previous == null) {
+                return null;
+            }
+            if (next == null) {
+                // extrapolate, using the last known value
+                return new Point(time, previous.value(), StatusCodes.Uncertain_DataSubNormal | INTERPOLATED);
+            }
+
+            final var value = previous.value() + (next.value() - previous.value()) * (time - previous.time()) / (next.time() - previous.time());
+            return new Point(time, value, INTERPOLATED);
+        }
+
+        void compute(final Function function, final long interval, final ResultConsumer consumer) {
+            for (long s = this.start; s < this.end; s += interval) {
+                final var e = Math.min(s + interval, this.end);
+                final var lo = this.rollup.search(s);
+                final var hi = this.rollup.search(e);
+
+                switch (function) {
+                case Count: {
+                    long count = 0;
+                    for (int i = lo; i < hi; i++) {
+                        count += this.rollup.count(i);
+                    }
+                    consumer.accept(s, new Variant((int) Math.min(count, Integer.MAX_VALUE)), CALCULATED);
+                    break;
+                }
+                case Average:
+                case Minimum:
+                case Maximum: {
+                    if (lo == hi) {
+                        consumer.accept(s, Variant.NULL_VALUE, StatusCodes.Bad_NoData);
+                        break;
+                    }
+                    long count = 0;
+                    double sum = 0;
+                    double min = Double.POSITIVE_INFINITY;
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (int i = lo; i < hi; i++) {
+                        count += this.rollup.count(i);
+                        sum += this.rollup.sum(i);
+                        min = Math.min(min, this.rollup.min(i));
+                        max = Math.max(max, this.rollup.max(i));
+                    }
+                    final var value = function == Function.Average ? sum / count : function == Function.Minimum ? min : max;
+                    consumer.accept(s, new Variant(value), CALCULATED);
+                    break;
+                }
+                case Interpolative: {
+                    final var point = interpolate(s, lo);
+                    if (point == null) {
+                        consumer.accept(s, Variant.NULL_VALUE, StatusCodes.Bad_NoData);
+                    } else {
+                        consumer.accept(s, new Variant(point.value()), point.statusCode());
+                    }
+                    break;
+                }
+                case TimeAverage: {
+                    timeAverage(s, e, lo, hi, consumer);
+                    break;
+                }
+                }
+            }
+        }
+
+        private void timeAverage(final long s, final long e, final int lo, final int hi, final ResultConsumer consumer) {
+            final var first = interpolate(s, lo);
+            final var last = interpolate(e, hi);
+
+            double area = 0;
+            long from;
+            long to;
+            if (lo < hi) {
+                for (int i = lo; i < hi; i++) {
+                    area += this.rollup.area(i);
+                    if (i + 1 < hi) {
+                        area += Rollup.area(this.rollup.lastTime(i), this.rollup.lastValue(i), this.rollup.firstTime(i + 1), this.rollup.firstValue(i + 1));
+                    }
+                }
+                from = this.rollup.firstTime(lo);
+                to = this.rollup.lastTime(hi - 1);
+                if (first != null) {
+                    area += Rollup.area(s, first.value(), from, this.rollup.firstValue(lo));
+                    from = s;
+                }
+                if (last != null) {
+                    area += Rollup.area(to, this.rollup.lastValue(hi - 1), e, last.value());
+                    to = e;
+                }
+            } else if (first != null && last != null) {
+                area = Rollup.area(s, first.value(), e, last.value());
+                from = s;
+                to = e;
+            } else {
+                consumer.accept(s, Variant.NULL_VALUE, StatusCodes.Bad_NoData);
+                return;
+            }
+
+            final var value = to > from ? area / (to - from) : this.rollup.firstValue(lo);
+            final var complete = from == s && to == e
+                    && !isUncertain(first) && !isUncertain(last);
+            consumer.accept(s, new Variant(value), complete ? CALCULATED : StatusCodes.Uncertain_DataSubNormal | CALCULATED | PARTIAL);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import java.util.Optional;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+
+/**
+ * Feeds the state updates of subscribed things into a history store.
+ */
+public class HistoryRecorder implements ThingsSubscriptionManager.StateListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoryRecorder.class);
+
+    private final HistoryStore store;
+
+    private final Optional<Aggregator> aggregator;
+
+    public HistoryRecorder(final HistoryStore store, final Optional<Aggregator> aggregator) {
+        this.store = store;
+        this.aggregator = aggregator;
+    }
+
+    @Override
+    public void onStateChange(final String thing, final Optional<Thing> state) {
+        if (state.isEmpty()) {
+            return;
+        }
+
+        for (final var entry : state.get().mergedState().entrySet()) {
+            final var name = entry.getKey();
+            final var feature = entry.getValue();
+            if (name.startsWith("$") || feature.getLastUpdate() == null) {
+                continue;
+            }
+
+            final var timestamp = new DateTime(feature.getLastUpdate().toInstant()).getUtcTime();
+            if (this.store.append(thing, name, timestamp, feature.getValue())) {
+                logger.trace("Recorded {}#{} @ {}", thing, name, timestamp);
+                this.aggregator.ifPresent(aggregator -> aggregator.append(thing, name, timestamp, feature.getValue()));
+            }
+        }
+    }
+}
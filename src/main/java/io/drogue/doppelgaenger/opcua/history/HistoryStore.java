@@ -0,0 +1,60 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Storage for historic property values.
+ * <p>
+ * Timestamps are OPC UA UTC ticks (100ns since 1601), see {@link org.eclipse.milo.opcua.stack.core.types.builtin.DateTime#getUtcTime()}.
+ * Samples of a property must be appended with strictly increasing timestamps, others will be dropped.
+ */
+public interface HistoryStore extends AutoCloseable {
+
+    @FunctionalInterface
+    interface SampleConsumer {
+        /**
+         * Accept a sample.
+         *
+         * @param timestamp The timestamp of the sample.
+         * @param value The value of the sample.
+         * @return {@code true} to continue reading, {@code false} to stop.
+         */
+        boolean accept(long timestamp, Variant value);
+    }
+
+    /**
+     * Append a new sample.
+     *
+     * @param thing The name of the thing.
+     * @param property The name of the property.
+     * @param timestamp The timestamp of the sample.
+     * @param value The value.
+     * @return {@code true} if the sample was stored, {@code false} if it was dropped.
+     */
+    boolean append(String thing, String property, long timestamp, JsonElement value);
+
+    /**
+     * Check if history is being recorded for a property.
+     */
+    boolean contains(String thing, String property);
+
+    /**
+     * Read samples of a property.
+     * <p>
+     * When reading forward ({@code from <= to}), all samples with {@code from <= timestamp < to} are reported in
+     * ascending order. When reading backwards ({@code from > to}), all samples with {@code to < timestamp <= from} are
+     * reported in descending order.
+     *
+     * @param thing The name of the thing.
+     * @param property The name of the property.
+     * @param from The timestamp to start from.
+     * @param to The timestamp to stop at.
+     * @param consumer The consumer of the samples.
+     */
+    void read(String thing, String property, long from, long to, SampleConsumer consumer);
+
+    @Override
+    void close();
+}
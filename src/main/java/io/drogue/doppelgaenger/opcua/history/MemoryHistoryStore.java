@@ -0,0 +1,79 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+
+/**
+ * History store, keeping a fixed number of samples per property in memory.
+ * <p>
+ * The number of properties is bounded too. When the limit is reached, the property which was least recently used
+ * gets evicted. So the memory used is bounded by {@code maxProperties * capacity} samples.
+ */
+public class MemoryHistoryStore implements HistoryStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryHistoryStore.class);
+
+    private final int capacity;
+
+    private final Map<PropertyKey, RingBuffer> buffers;
+
+    public MemoryHistoryStore(final int capacity, final int maxProperties) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero");
+        }
+        if (maxProperties <= 0) {
+            throw new IllegalArgumentException("Maximum number of properties must be greater than zero");
+        }
+
+        this.capacity = capacity;
+        this.buffers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<PropertyKey, RingBuffer> eldest) {
+                if (size() > maxProperties) {
+                    logger.debug("Evicting history of {}", eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public boolean append(final String thing, final String property, final long timestamp, final JsonElement value) {
+        final RingBuffer buffer;
+        synchronized (this.buffers) {
+            buffer = this.buffers.computeIfAbsent(new PropertyKey(thing, property), x -> new RingBuffer(this.capacity));
+        }
+        return buffer.append(timestamp, value);
+    }
+
+    @Override
+    public boolean contains(final String thing, final String property) {
+        synchronized (this.buffers) {
+            return this.buffers.containsKey(new PropertyKey(thing, property));
+        }
+    }
+
+    @Override
+    public void read(final String thing, final String property, final long from, final long to, final SampleConsumer consumer) {
+        final RingBuffer buffer;
+        synchronized (this.buffers) {
+            buffer = this.buffers.get(new PropertyKey(thing, property));
+        }
+        if (buffer != null) {
+            buffer.read(from, to, consumer);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this.buffers) {
+            this.buffers.clear();
+        }
+    }
+}
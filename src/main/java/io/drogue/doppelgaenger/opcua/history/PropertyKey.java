@@ -0,0 +1,18 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import java.util.Objects;
+
+/**
+ * Identifies a property of a thing.
+ */
+record PropertyKey(String thing, String property) {
+    PropertyKey {
+        Objects.requireNonNull(thing);
+        Objects.requireNonNull(property);
+    }
+
+    @Override
+    public String toString() {
+        return this.thing + "#" + this.property;
+    }
+}
@@ -0,0 +1,154 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+
+import com.google.gson.JsonElement;
+
+import io.drogue.doppelgaenger.opcua.server.Values;
+
+/**
+ * Fixed capacity history of a single property.
+ * <p>
+ * Samples are kept in primitive arrays, ordered by timestamp. Once the buffer is full, the oldest sample gets
+ * overwritten. Only values which cannot be represented as a number will be kept as an object.
+ */
+class RingBuffer {
+
+    private static final byte KIND_NULL = 0;
+
+    private static final byte KIND_NUMBER = 1;
+
+    private static final byte KIND_BOOLEAN = 2;
+
+    private static final byte KIND_OTHER = 3;
+
+    private final long[] timestamps;
+
+    private final double[] numbers;
+
+    private final byte[] kinds;
+
+    /**
+     * Non-numeric values, allocated on first use.
+     */
+    private JsonElement[] others;
+
+    /**
+     * Physical index of the oldest sample.
+     */
+    private int head;
+
+    private int size;
+
+    RingBuffer(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero");
+        }
+        this.timestamps = new long[capacity];
+        this.numbers = new double[capacity];
+        this.kinds = new byte[capacity];
+    }
+
+    synchronized int size() {
+        return this.size;
+    }
+
+    synchronized boolean append(final long timestamp, final JsonElement value) {
+        if (this.size > 0 && this.timestamps[physical(this.size - 1)] >= timestamp) {
+            return false;
+        }
+
+        final int index;
+        if (this.size < this.timestamps.length) {
+            index = physical(this.size);
+            this.size++;
+        } else {
+            index = this.head;
+            this.head = physical(1);
+        }
+
+        this.timestamps[index] = timestamp;
+        if (this.others != null) {
+            this.others[index] = null;
+        }
+
+        if (value == null || value.isJsonNull()) {
+            this.kinds[index] = KIND_NULL;
+        } else if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber()) {
+            this.kinds[index] = KIND_NUMBER;
+            this.numbers[index] = value.getAsDouble();
+        } else if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean()) {
+            this.kinds[index] = KIND_BOOLEAN;
+            this.numbers[index] = value.getAsBoolean() ? 1 : 0;
+        } else {
+            if (this.others == null) {
+                this.others = new JsonElement[this.timestamps.length];
+            }
+            this.kinds[index] = KIND_OTHER;
+            this.others[index] = value;
+        }
+
+        return true;
+    }
+
+    /**
+     * Read samples, see {@link HistoryStore#read(String, String, long, long, HistoryStore.SampleConsumer)}.
+     */
+    synchronized void read(final long from, final long to, final HistoryStore.SampleConsumer consumer) {
+        if (from <= to) {
+            for (int i = search(from, false); i < this.size; i++) {
+                final var index = physical(i);
+                if (this.timestamps[index] >= to || !consumer.accept(this.timestamps[index], value(index))) {
+                    return;
+                }
+            }
+        } else {
+            for (int i = search(from, true) - 1; i >= 0; i--) {
+                final var index = physical(i);
+                if (this.timestamps[index] <= to || !consumer.accept(this.timestamps[index], value(index))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the logical index of the first sample with a timestamp greater than (or equal to) the provided one.
+     *
+     * @param timestamp The timestamp to search for.
+     * @param exclusive Whether to skip samples with an equal timestamp.
+     * @return The logical index, which is {@link #size} if no sample matches.
+     */
+    private int search(final long timestamp, final boolean exclusive) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final var t = this.timestamps[physical(mid)];
+            if (t < timestamp || (exclusive && t == timestamp)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int physical(final int logical) {
+        final var index = this.head + logical;
+        return index < this.timestamps.length ? index : index - this.timestamps.length;
+    }
+
+    private Variant value(final int index) {
+        switch (this.kinds[index]) {
+        case KIND_NUMBER:
+            return new Variant(this.numbers[index]);
+        case KIND_BOOLEAN:
+            return new Variant(this.numbers[index] != 0);
+        case KIND_OTHER:
+            return Values.toVariant(this.others[index]);
+        default:
+            return Variant.NULL_VALUE;
+        }
+    }
+}
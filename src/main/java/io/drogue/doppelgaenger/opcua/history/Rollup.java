@@ -0,0 +1,242 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+/**
+ * Pre-aggregated statistics of a numeric property, in fixed time buckets.
+ * <p>
+ * Buckets start at {@code origin + n * interval}. Only buckets which contain at least one sample are stored, so
+ * the buckets of rarely changing properties don't take up memory. When the maximum number of buckets is reached,
+ * the oldest bucket gets dropped.
+ * <p>
+ * Next to count, sum, minimum and maximum, each bucket keeps its first and last sample, and the area under the
+ * linearly interpolated samples inside the bucket. This is enough to compute time weighted averages and interpolated
+ * values across buckets, without looking at the raw samples again.
+ * <p>
+ * This class is not thread safe, access must be synchronized by the caller.
+ */
+class Rollup {
+
+    private final long origin;
+
+    private final long interval;
+
+    private final int maxBuckets;
+
+    private long coveredFrom;
+
+    private long[] starts = new long[4];
+
+    private long[] counts = new long[4];
+
+    private double[] sums = new double[4];
+
+    private double[] mins = new double[4];
+
+    private double[] maxs = new double[4];
+
+    private double[] areas = new double[4];
+
+    private long[] firstTimes = new long[4];
+
+    private double[] firstValues = new double[4];
+
+    private long[] lastTimes = new long[4];
+
+    private double[] lastValues = new double[4];
+
+    private int head;
+
+    private int size;
+
+    /**
+     * Create a new rollup.
+     *
+     * @param origin The timestamp the buckets are aligned to.
+     * @param interval The duration of a bucket, in ticks.
+     * @param maxBuckets The maximum number of buckets to keep.
+     * @param coveredFrom The timestamp from which on all samples are added.
+     */
+    Rollup(final long origin, final long interval, final int maxBuckets, final long coveredFrom) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be greater than zero");
+        }
+        if (maxBuckets <= 0) {
+            throw new IllegalArgumentException("Maximum number of buckets must be greater than zero");
+        }
+
+        this.origin = origin;
+        this.interval = interval;
+        this.maxBuckets = maxBuckets;
+        this.coveredFrom = coveredFrom;
+    }
+
+    long getInterval() {
+        return this.interval;
+    }
+
+    /**
+     * The timestamp from which on the rollup has seen all samples.
+     */
+    long getCoveredFrom() {
+        return this.coveredFrom;
+    }
+
+    void setCoveredFrom(final long coveredFrom) {
+        this.coveredFrom = coveredFrom;
+    }
+
+    /**
+     * Check if intervals of the provided length, starting at the provided timestamp, can be computed from the buckets.
+     */
+    boolean isAligned(final long start, final long interval) {
+        return interval % this.interval == 0 && Math.floorMod(start - this.origin, this.interval) == 0;
+    }
+
+    long bucketStart(final long timestamp) {
+        return this.origin + Math.floorDiv(timestamp - this.origin, this.interval) * this.interval;
+    }
+
+    /**
+     * Add a sample.
+     *
+     * @return {@code false} if the sample was dropped, because it was not newer than the last one.
+     */
+    boolean add(final long timestamp, final double value) {
+        if (this.size > 0) {
+            final var last = index(this.size - 1);
+            if (timestamp <= this.lastTimes[last]) {
+                return false;
+            }
+            if (this.starts[last] == bucketStart(timestamp)) {
+                this.counts[last]++;
+                this.sums[last] += value;
+                this.mins[last] = Math.min(this.mins[last], value);
+                this.maxs[last] = Math.max(this.maxs[last], value);
+                this.areas[last] += area(this.lastTimes[last], this.lastValues[last], timestamp, value);
+                this.lastTimes[last] = timestamp;
+                this.lastValues[last] = value;
+                return true;
+            }
+        }
+
+        final var bucket = allocate();
+        this.starts[bucket] = bucketStart(timestamp);
+        this.counts[bucket] = 1;
+        this.sums[bucket] = value;
+        this.mins[bucket] = value;
+        this.maxs[bucket] = value;
+        this.areas[bucket] = 0;
+        this.firstTimes[bucket] = timestamp;
+        this.firstValues[bucket] = value;
+        this.lastTimes[bucket] = timestamp;
+        this.lastValues[bucket] = value;
+        return true;
+    }
+
+    private int allocate() {
+        if (this.size == this.maxBuckets) {
+            // drop the oldest bucket, we still saw everything after it
+            this.coveredFrom = this.starts[this.head] + this.interval;
+            this.head = (this.head + 1) % this.starts.length;
+            this.size--;
+        } else if (this.size == this.starts.length) {
+            grow(Math.min(this.maxBuckets, this.size * 2));
+        }
+        this.size++;
+        return index(this.size - 1);
+    }
+
+    private void grow(final int capacity) {
+        this.starts = linearize(this.starts, capacity);
+        this.counts = linearize(this.counts, capacity);
+        this.sums = linearize(this.sums, capacity);
+        this.mins = linearize(this.mins, capacity);
+        this.maxs = linearize(this.maxs, capacity);
+        this.areas = linearize(this.areas, capacity);
+        this.firstTimes = linearize(this.firstTimes, capacity);
+        this.firstValues = linearize(this.firstValues, capacity);
+        this.lastTimes = linearize(this.lastTimes, capacity);
+        this.lastValues = linearize(this.lastValues, capacity);
+        this.head = 0;
+    }
+
+    private long[] linearize(final long[] array, final int capacity) {
+        final var result = new long[capacity];
+        final var first = Math.min(this.size, array.length - this.head);
+        System.arraycopy(array, this.head, result, 0, first);
+        System.arraycopy(array, 0, result, first, this.size - first);
+        return result;
+    }
+
+    private double[] linearize(final double[] array, final int capacity) {
+        final var result = new double[capacity];
+        final var first = Math.min(this.size, array.length - this.head);
+        System.arraycopy(array, this.head, result, 0, first);
+        System.arraycopy(array, 0, result, first, this.size - first);
+        return result;
+    }
+
+    private int index(final int i) {
+        return (this.head + i) % this.starts.length;
+    }
+
+    static double area(final long t1, final double v1, final long t2, final double v2) {
+        return (t2 - t1) * (v1 + v2) / 2.0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Find the first bucket starting at, or after, the provided timestamp.
+     */
+    int search(final long timestamp) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (this.starts[index(mid)] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    long count(final int i) {
+        return this.counts[index(i)];
+    }
+
+    double sum(final int i) {
+        return this.sums[index(i)];
+    }
+
+    double min(final int i) {
+        return this.mins[index(i)];
+    }
+
+    double max(final int i) {
+        return this.maxs[index(i)];
+    }
+
+    double area(final int i) {
+        return this.areas[index(i)];
+    }
+
+    long firstTime(final int i) {
+        return this.firstTimes[index(i)];
+    }
+
+    double firstValue(final int i) {
+        return this.firstValues[index(i)];
+    }
+
+    long lastTime(final int i) {
+        return this.lastTimes[index(i)];
+    }
+
+    double lastValue(final int i) {
+        return this.lastValues[index(i)];
+    }
+}
@@ -0,0 +1,427 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import io.drogue.doppelgaenger.opcua.server.Values;
+
+/**
+ * A single, append-only segment file.
+ * <p>
+ * The file starts with a header, followed by records of the form:
+ * <pre>
+ * int   size of the record, including this header
+ * int   CRC32 of timestamp, kind and payload
+ * long  timestamp
+ * byte  kind
+ * byte[] payload, the remainder of the record
+ * </pre>
+ * A record with a size of zero marks the end of the segment. On recovery, the segment is scanned until the first
+ * record which is incomplete or has an invalid checksum, and writing continues from there.
+ * <p>
+ * For finding records by time, a sparse index of every {@link #INDEX_INTERVAL}th record is kept in memory. It is
+ * built when the segment is opened, so nothing but the actual data is kept on disk.
+ * <p>
+ * Only the segment currently being written to is kept memory mapped. Once it is {@link #seal() sealed}, the mapping
+ * is dropped, and left to the garbage collector to release. Reads then use positional reads of the blocks between
+ * index entries. So the number of mappings doesn't grow with the number of segments.
+ * <p>
+ * This class is not thread safe, access must be synchronized by the caller.
+ */
+class Segment {
+
+    private static final Logger logger = LoggerFactory.getLogger(Segment.class);
+
+    static final String SUFFIX = ".seg";
+
+    private static final int MAGIC = 0x44474853; // DGHS
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES + Byte.BYTES;
+
+    static final int INDEX_INTERVAL = 64;
+
+    private static final byte KIND_NULL = 0;
+
+    private static final byte KIND_NUMBER = 1;
+
+    private static final byte KIND_BOOLEAN = 2;
+
+    private static final byte KIND_STRING = 3;
+
+    private static final byte KIND_JSON = 4;
+
+    private final Path file;
+
+    private final int capacity;
+
+    private final long baseTimestamp;
+
+    private MappedByteBuffer buffer;
+
+    private boolean scanned;
+
+    private long[] indexTimestamps = new long[16];
+
+    private int[] indexOffsets = new int[16];
+
+    private int indexSize;
+
+    private int records;
+
+    private int writePosition;
+
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private Segment(final Path file, final int capacity, final long baseTimestamp) {
+        this.file = file;
+        this.capacity = capacity;
+        this.baseTimestamp = baseTimestamp;
+    }
+
+    static String fileName(final long baseTimestamp) {
+        return String.format("%016x%s", baseTimestamp, SUFFIX);
+    }
+
+    static long parseFileName(final String name) {
+        return Long.parseUnsignedLong(name.substring(0, name.length() - SUFFIX.length()), 16);
+    }
+
+    /**
+     * Create a new segment.
+     */
+    static Segment create(final Path directory, final int capacity, final long baseTimestamp) throws IOException {
+        final var segment = new Segment(directory.resolve(fileName(baseTimestamp)), capacity, baseTimestamp);
+        segment.map();
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.buffer.putInt(HEADER_SIZE, 0);
+        segment.writePosition = HEADER_SIZE;
+        segment.scanned = true;
+        return segment;
+    }
+
+    /**
+     * Open an existing segment, the content will be scanned on first access, and only mapped when appending to it.
+     */
+    static Segment open(final Path file) throws IOException {
+        return new Segment(file, (int) Files.size(file), parseFileName(file.getFileName().toString()));
+    }
+
+    Path getFile() {
+        return this.file;
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    long getBaseTimestamp() {
+        return this.baseTimestamp;
+    }
+
+    long getLastTimestamp() throws IOException {
+        ensureScanned();
+        return this.lastTimestamp;
+    }
+
+    private void map() throws IOException {
+        try (final var channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+        }
+    }
+
+    private void ensureScanned() throws IOException {
+        if (this.scanned) {
+            return;
+        }
+
+        final ByteBuffer data;
+        if (this.buffer != null) {
+            data = this.buffer;
+        } else {
+            // scan through a temporary, read-only mapping, instead of copying the whole segment to the heap
+            try (final var channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, this.capacity);
+            }
+        }
+
+        if (this.capacity < HEADER_SIZE + Integer.BYTES || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException(String.format("Invalid segment file: %s", this.file));
+        }
+
+        // scan records, build index, and find the end
+
+        var position = HEADER_SIZE;
+        final var crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= this.capacity) {
+            final var size = data.getInt(position);
+            if (size == 0) {
+                break;
+            }
+            if (size < RECORD_HEADER_SIZE || position + size > this.capacity) {
+                logger.warn("Dropping incomplete record at {} of {}", position, this.file);
+                break;
+            }
+            final var timestamp = data.getLong(position + 8);
+            if (checksum(crc, data, position, size) != data.getInt(position + 4) || timestamp <= this.lastTimestamp) {
+                logger.warn("Dropping corrupt record at {} of {}", position, this.file);
+                break;
+            }
+            indexRecord(timestamp, position);
+            position += size;
+        }
+
+        this.writePosition = position;
+        this.scanned = true;
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer data, final long position) throws IOException {
+        while (data.hasRemaining()) {
+            if (channel.read(data, position + data.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static int checksum(final CRC32 crc, final ByteBuffer data, final int position, final int size) {
+        crc.reset();
+        crc.update(data.slice(position + 8, size - 8));
+        return (int) crc.getValue();
+    }
+
+    private void indexRecord(final long timestamp, final int position) {
+        if (this.records % INDEX_INTERVAL == 0) {
+            if (this.indexSize == this.indexTimestamps.length) {
+                this.indexTimestamps = Arrays.copyOf(this.indexTimestamps, this.indexSize * 2);
+                this.indexOffsets = Arrays.copyOf(this.indexOffsets, this.indexSize * 2);
+            }
+            this.indexTimestamps[this.indexSize] = timestamp;
+            this.indexOffsets[this.indexSize] = position;
+            this.indexSize++;
+        }
+        this.records++;
+        this.lastTimestamp = timestamp;
+    }
+
+    /**
+     * Append a record.
+     *
+     * @return {@code false} if the record did not fit into the segment.
+     */
+    boolean append(final long timestamp, final JsonElement value) throws IOException {
+        ensureScanned();
+
+        final byte kind;
+        final int payloadSize;
+        byte[] payload = null;
+        if (value == null || value.isJsonNull()) {
+            kind = KIND_NULL;
+            payloadSize = 0;
+        } else if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber()) {
+            kind = KIND_NUMBER;
+            payloadSize = Double.BYTES;
+        } else if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean()) {
+            kind = KIND_BOOLEAN;
+            payloadSize = Byte.BYTES;
+        } else if (value.isJsonPrimitive()) {
+            kind = KIND_STRING;
+            payload = value.getAsString().getBytes(UTF_8);
+            payloadSize = payload.length;
+        } else {
+            kind = KIND_JSON;
+            payload = value.toString().getBytes(UTF_8);
+            payloadSize = payload.length;
+        }
+
+        final var position = this.writePosition;
+        final var size = RECORD_HEADER_SIZE + payloadSize;
+        if (position + size > this.capacity) {
+            return false;
+        }
+
+        if (this.buffer == null) {
+            map();
+        }
+
+        // write the end marker first, then the record, and the size last
+
+        if (position + size + Integer.BYTES <= this.capacity) {
+            this.buffer.putInt(position + size, 0);
+        }
+        this.buffer.putLong(position + 8, timestamp);
+        this.buffer.put(position + 16, kind);
+        switch (kind) {
+        case KIND_NUMBER:
+            this.buffer.putDouble(position + RECORD_HEADER_SIZE, value.getAsDouble());
+            break;
+        case KIND_BOOLEAN:
+            this.buffer.put(position + RECORD_HEADER_SIZE, (byte) (value.getAsBoolean() ? 1 : 0));
+            break;
+        case KIND_STRING:
+        case KIND_JSON:
+            this.buffer.put(position + RECORD_HEADER_SIZE, payload);
+            break;
+        default:
+            break;
+        }
+        this.buffer.putInt(position + 4, checksum(new CRC32(), this.buffer, position, size));
+        this.buffer.putInt(position, size);
+
+        indexRecord(timestamp, position);
+        this.writePosition = position + size;
+
+        return true;
+    }
+
+    void force() {
+        if (this.buffer != null) {
+            this.buffer.force();
+        }
+    }
+
+    /**
+     * Flush and drop the mapping. Appending again will map the segment again.
+     */
+    void seal() {
+        if (this.buffer != null) {
+            this.buffer.force();
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * Read samples, see {@link HistoryStore#read(String, String, long, long, HistoryStore.SampleConsumer)}.
+     *
+     * @return {@code false} if the consumer requested to stop reading.
+     */
+    boolean read(final long from, final long to, final HistoryStore.SampleConsumer consumer) throws IOException {
+        ensureScanned();
+
+        if (this.indexSize == 0) {
+            return true;
+        }
+
+        try (final var channel = this.buffer == null ? FileChannel.open(this.file, StandardOpenOption.READ) : null) {
+            if (from <= to) {
+                // start with the last index entry before "from"
+                for (int block = Math.max(0, searchIndex(from) - 1); block < this.indexSize; block++) {
+                    final var data = block(channel, block);
+                    var position = 0;
+                    while (position < data.limit()) {
+                        final var size = data.getInt(position);
+                        final var timestamp = data.getLong(position + 8);
+                        if (timestamp >= to) {
+                            return false;
+                        }
+                        if (timestamp >= from && !consumer.accept(timestamp, value(data, position, size))) {
+                            return false;
+                        }
+                        position += size;
+                    }
+                }
+            } else {
+                final var timestamps = new long[INDEX_INTERVAL];
+                final var positions = new int[INDEX_INTERVAL];
+                for (int block = searchIndex(from) - 1; block >= 0; block--) {
+                    // read the block forward, then report it backwards
+                    final var data = block(channel, block);
+                    var position = 0;
+                    var count = 0;
+                    while (position < data.limit()) {
+                        timestamps[count] = data.getLong(position + 8);
+                        positions[count] = position;
+                        count++;
+                        position += data.getInt(position);
+                    }
+                    for (int i = count - 1; i >= 0; i--) {
+                        if (timestamps[i] <= to) {
+                            return false;
+                        }
+                        if (timestamps[i] <= from && !consumer.accept(timestamps[i], value(data, positions[i], data.getInt(positions[i])))) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the records of a block, from the mapping if we have one, or read from the channel otherwise.
+     * <p>
+     * Positions in the returned buffer are relative to the start of the block.
+     */
+    private ByteBuffer block(final FileChannel channel, final int block) throws IOException {
+        final var start = this.indexOffsets[block];
+        final var end = block + 1 < this.indexSize ? this.indexOffsets[block + 1] : this.writePosition;
+        if (channel == null) {
+            return this.buffer.slice(start, end - start);
+        }
+        final var data = ByteBuffer.allocate(end - start);
+        readFully(channel, data, start);
+        return data.flip();
+    }
+
+    /**
+     * Find the first index entry with a timestamp greater than the provided one.
+     */
+    private int searchIndex(final long timestamp) {
+        int low = 0;
+        int high = this.indexSize;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (this.indexTimestamps[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static Variant value(final ByteBuffer data, final int position, final int size) {
+        final var offset = position + RECORD_HEADER_SIZE;
+        final var length = size - RECORD_HEADER_SIZE;
+        switch (data.get(position + 16)) {
+        case KIND_NUMBER:
+            return new Variant(data.getDouble(offset));
+        case KIND_BOOLEAN:
+            return new Variant(data.get(offset) != 0);
+        case KIND_STRING:
+            return new Variant(string(data, offset, length));
+        case KIND_JSON:
+            return Values.toVariant(JsonParser.parseString(string(data, offset, length)));
+        default:
+            return Variant.NULL_VALUE;
+        }
+    }
+
+    private static String string(final ByteBuffer data, final int offset, final int length) {
+        final var bytes = new byte[length];
+        data.get(offset, bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,345 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+
+/**
+ * History store, keeping samples in segment files on disk.
+ * <p>
+ * Each property gets its own directory, named by a UUID derived from the thing and property name. The actual
+ * names are stored in a key file inside the directory, so that the store can be recovered on startup.
+ * <p>
+ * Only the segment currently written to is memory mapped, older segments are read block by block. Besides that,
+ * only the sparse index of each segment is kept in memory.
+ * <p>
+ * The number of open properties is bounded. When the limit is reached, the property which was least recently used
+ * gets closed, and opened again on its next access. Its files are kept, and only removed by the retention, once
+ * all of its samples exceeded the maximum age.
+ */
+public class SegmentHistoryStore implements HistoryStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentHistoryStore.class);
+
+    private static final String KEY_FILE = "key";
+
+    private static final long TICKS_PER_MILLISECOND = 10_000L;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final Optional<Duration> maxAge;
+
+    private final long maxSize;
+
+    private final Map<PropertyKey, SegmentLog> logs;
+
+    /**
+     * Properties which are not in {@link #logs}, but still being closed, or processed by the retention. They must
+     * not be opened again until that is finished. Guarded by {@link #logs}.
+     */
+    private final Set<PropertyKey> detached = new HashSet<>();
+
+    /**
+     * Logs evicted from {@link #logs}, which need to be closed once the lock is released. Guarded by {@link #logs}.
+     */
+    private final List<Map.Entry<PropertyKey, SegmentLog>> evicted = new ArrayList<>();
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Create a new store, recovering existing data.
+     *
+     * @param directory The base directory.
+     * @param segmentSize The size of a single segment, in bytes.
+     * @param maxProperties The maximum number of properties to keep open.
+     * @param maxAge The maximum age of samples to keep.
+     * @param maxSize The maximum number of bytes to keep per property.
+     * @param retentionInterval The interval of checking the retention.
+     */
+    public SegmentHistoryStore(final Path directory, final int segmentSize, final int maxProperties, final Optional<Duration> maxAge, final Optional<Long> maxSize, final Duration retentionInterval) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be greater than zero");
+        }
+        if (maxProperties <= 0) {
+            throw new IllegalArgumentException("Maximum number of properties must be greater than zero");
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxAge = maxAge;
+        this.maxSize = maxSize.orElse(Long.MAX_VALUE);
+        this.logs = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<PropertyKey, SegmentLog> eldest) {
+                if (size() > maxProperties) {
+                    SegmentHistoryStore.this.detached.add(eldest.getKey());
+                    SegmentHistoryStore.this.evicted.add(Map.entry(eldest.getKey(), eldest.getValue()));
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        Files.createDirectories(directory);
+        recover();
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "history-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::applyRetention, retentionInterval.toMillis(), retentionInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void recover() throws IOException {
+        final var recovered = new ArrayList<Map.Entry<PropertyKey, SegmentLog>>();
+        try (final var dirs = Files.list(this.directory)) {
+            for (final var dir : (Iterable<Path>) dirs::iterator) {
+                final var keyFile = dir.resolve(KEY_FILE);
+                if (!Files.isRegularFile(keyFile)) {
+                    continue;
+                }
+
+                final PropertyKey key;
+                try {
+                    key = readKey(keyFile);
+                } catch (final IOException e) {
+                    logger.warn("Failed to read history key: {}", keyFile, e);
+                    continue;
+                }
+
+                recovered.add(Map.entry(key, SegmentLog.open(dir, this.segmentSize)));
+            }
+        }
+
+        // add the most recently written last, so that exceeding the limit evicts the others first
+
+        recovered.sort(Comparator.comparingLong(entry -> entry.getValue().getLastTimestamp()));
+        synchronized (this.logs) {
+            for (final var entry : recovered) {
+                this.logs.put(entry.getKey(), entry.getValue());
+            }
+        }
+        closeEvicted();
+
+        logger.info("Recovered history of {} properties from {}", recovered.size(), this.directory);
+    }
+
+    private static PropertyKey readKey(final Path keyFile) throws IOException {
+        try (final var in = new DataInputStream(Files.newInputStream(keyFile))) {
+            return new PropertyKey(in.readUTF(), in.readUTF());
+        }
+    }
+
+    private Path directory(final PropertyKey key) {
+        final var name = UUID.nameUUIDFromBytes((key.thing() + '\0' + key.property()).getBytes(UTF_8));
+        return this.directory.resolve(name.toString());
+    }
+
+    private SegmentLog create(final PropertyKey key) {
+        final var dir = directory(key);
+        try {
+            Files.createDirectories(dir);
+            try (final var out = new DataOutputStream(Files.newOutputStream(dir.resolve(KEY_FILE)))) {
+                out.writeUTF(key.thing());
+                out.writeUTF(key.property());
+            }
+            return SegmentLog.open(dir, this.segmentSize);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Get the log of a property, opening it if necessary.
+     *
+     * @param create Create the log, if there is none on disk.
+     * @return The log, or {@code null} if there is none, and it should not be created.
+     */
+    private SegmentLog log(final PropertyKey key, final boolean create) throws IOException {
+        SegmentLog log;
+        synchronized (this.logs) {
+            // wait for it being closed, or processed by the retention, before opening it again
+            while (this.detached.contains(key)) {
+                try {
+                    this.logs.wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+
+            log = this.logs.get(key);
+            if (log == null) {
+                final var dir = directory(key);
+                if (Files.isRegularFile(dir.resolve(KEY_FILE))) {
+                    log = SegmentLog.open(dir, this.segmentSize);
+                } else if (create) {
+                    log = create(key);
+                } else {
+                    return null;
+                }
+                this.logs.put(key, log);
+            }
+        }
+        closeEvicted();
+        return log;
+    }
+
+    /**
+     * Close the logs evicted by the last calls to {@link #log(PropertyKey, boolean)}, must be called without
+     * holding the lock.
+     */
+    private void closeEvicted() {
+        final List<Map.Entry<PropertyKey, SegmentLog>> closing;
+        synchronized (this.logs) {
+            if (this.evicted.isEmpty()) {
+                return;
+            }
+            closing = new ArrayList<>(this.evicted);
+            this.evicted.clear();
+        }
+
+        for (final var entry : closing) {
+            logger.debug("Closing history of {}", entry.getKey());
+            try {
+                entry.getValue().close();
+            } finally {
+                release(entry.getKey());
+            }
+        }
+    }
+
+    private void release(final PropertyKey key) {
+        synchronized (this.logs) {
+            this.detached.remove(key);
+            this.logs.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean append(final String thing, final String property, final long timestamp, final JsonElement value) {
+        try {
+            return log(new PropertyKey(thing, property), true).append(timestamp, value);
+        } catch (final IOException | UncheckedIOException e) {
+            logger.warn("Failed to append history of {}#{}", thing, property, e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean contains(final String thing, final String property) {
+        final var key = new PropertyKey(thing, property);
+        synchronized (this.logs) {
+            if (this.logs.containsKey(key) || this.detached.contains(key)) {
+                return true;
+            }
+        }
+        return Files.isRegularFile(directory(key).resolve(KEY_FILE));
+    }
+
+    @Override
+    public void read(final String thing, final String property, final long from, final long to, final SampleConsumer consumer) {
+        try {
+            final var log = log(new PropertyKey(thing, property), false);
+            if (log != null) {
+                log.read(from, to, consumer);
+            }
+        } catch (final IOException | UncheckedIOException e) {
+            logger.warn("Failed to read history of {}#{}", thing, property, e);
+        }
+    }
+
+    private void applyRetention() {
+        final var cutoff = this.maxAge
+                .map(age -> DateTime.now().getUtcTime() - age.toMillis() * TICKS_PER_MILLISECOND)
+                .orElse(Long.MIN_VALUE);
+
+        final List<Map.Entry<PropertyKey, SegmentLog>> entries;
+        synchronized (this.logs) {
+            entries = new ArrayList<>(this.logs.entrySet());
+        }
+
+        for (final var entry : entries) {
+            try {
+                entry.getValue().applyRetention(cutoff, this.maxSize);
+            } catch (final Exception e) {
+                logger.warn("Failed to apply retention to history of {}", entry.getKey(), e);
+            }
+        }
+
+        // properties which are not open, might have expired completely
+
+        try (final var dirs = Files.list(this.directory)) {
+            for (final var dir : (Iterable<Path>) dirs::iterator) {
+                final var keyFile = dir.resolve(KEY_FILE);
+                if (Files.isRegularFile(keyFile)) {
+                    applyRetention(dir, readKey(keyFile), cutoff);
+                }
+            }
+        } catch (final Exception e) {
+            logger.warn("Failed to apply retention to history in {}", this.directory, e);
+        }
+    }
+
+    private void applyRetention(final Path dir, final PropertyKey key, final long cutoff) throws IOException {
+        synchronized (this.logs) {
+            if (this.logs.containsKey(key) || !this.detached.add(key)) {
+                return;
+            }
+        }
+
+        try {
+            final var log = SegmentLog.open(dir, this.segmentSize);
+            log.applyRetention(cutoff, this.maxSize);
+            final var lastTimestamp = log.getLastTimestamp();
+            if (lastTimestamp == Long.MIN_VALUE || lastTimestamp < cutoff) {
+                logger.debug("Removing expired history of {}", key);
+                log.delete();
+                Files.deleteIfExists(dir.resolve(KEY_FILE));
+                Files.deleteIfExists(dir);
+            } else {
+                log.close();
+            }
+        } finally {
+            release(key);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        synchronized (this.logs) {
+            for (final var log : this.logs.values()) {
+                log.close();
+            }
+        }
+    }
+}
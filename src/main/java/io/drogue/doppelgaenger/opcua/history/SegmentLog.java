@@ -0,0 +1,208 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+
+/**
+ * The history of a single property, stored in a sequence of {@link Segment}s.
+ * <p>
+ * Samples are appended to the last segment. When it is full, a new segment is started, named after the timestamp
+ * of its first sample. As timestamps are strictly increasing, all samples of a segment are older than the base
+ * timestamp of the next segment. This allows to locate segments, and apply the retention, without opening them.
+ */
+class SegmentLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentLog.class);
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final List<Segment> segments;
+
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private boolean closed;
+
+    private SegmentLog(final Path directory, final int segmentSize, final List<Segment> segments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segments = segments;
+    }
+
+    /**
+     * Open the log in the provided directory, recovering existing segments.
+     */
+    static SegmentLog open(final Path directory, final int segmentSize) throws IOException {
+        final List<Segment> segments;
+        try (final var files = Files.list(directory)) {
+            segments = files
+                    .filter(file -> file.getFileName().toString().endsWith(Segment.SUFFIX))
+                    .sorted(Comparator.comparing(file -> file.getFileName().toString()))
+                    .map(file -> {
+                        try {
+                            return Segment.open(file);
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .collect(Collectors.toCollection(ArrayList::new));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final var log = new SegmentLog(directory, segmentSize, segments);
+        log.recover();
+        return log;
+    }
+
+    /**
+     * Recover the last segment.
+     * <p>
+     * Only the last segment can be affected by an unclean shutdown. If it turns out to be unreadable, or empty, it
+     * gets removed, and we try again with the one before.
+     */
+    private void recover() throws IOException {
+        while (!this.segments.isEmpty()) {
+            final var last = this.segments.get(this.segments.size() - 1);
+            try {
+                final var timestamp = last.getLastTimestamp();
+                if (timestamp != Long.MIN_VALUE) {
+                    this.lastTimestamp = timestamp;
+                    return;
+                }
+            } catch (final IOException e) {
+                logger.warn("Failed to recover segment: {}", last.getFile(), e);
+            }
+            logger.info("Removing empty or unreadable segment: {}", last.getFile());
+            this.segments.remove(this.segments.size() - 1);
+            Files.deleteIfExists(last.getFile());
+        }
+    }
+
+    synchronized long getLastTimestamp() {
+        return this.lastTimestamp;
+    }
+
+    synchronized boolean append(final long timestamp, final JsonElement value) throws IOException {
+        if (this.closed || timestamp <= this.lastTimestamp) {
+            return false;
+        }
+
+        if (this.segments.isEmpty() || !this.segments.get(this.segments.size() - 1).append(timestamp, value)) {
+            if (!this.segments.isEmpty()) {
+                this.segments.get(this.segments.size() - 1).seal();
+            }
+            final var segment = Segment.create(this.directory, this.segmentSize, timestamp);
+            this.segments.add(segment);
+            if (!segment.append(timestamp, value)) {
+                logger.warn("Sample exceeds segment size, dropping: {}", this.directory);
+                return false;
+            }
+        }
+
+        this.lastTimestamp = timestamp;
+        return true;
+    }
+
+    /**
+     * Read samples, see {@link HistoryStore#read(String, String, long, long, HistoryStore.SampleConsumer)}.
+     */
+    synchronized void read(final long from, final long to, final HistoryStore.SampleConsumer consumer) throws IOException {
+        if (this.closed) {
+            return;
+        }
+        final var start = Math.max(0, searchSegment(from) - 1);
+        if (from <= to) {
+            for (int i = start; i < this.segments.size(); i++) {
+                final var segment = this.segments.get(i);
+                if (segment.getBaseTimestamp() >= to || !segment.read(from, to, consumer)) {
+                    return;
+                }
+            }
+        } else {
+            for (int i = Math.min(start, this.segments.size() - 1); i >= 0; i--) {
+                if (!this.segments.get(i).read(from, to, consumer)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the first segment with a base timestamp greater than the provided one.
+     */
+    private int searchSegment(final long timestamp) {
+        int low = 0;
+        int high = this.segments.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (this.segments.get(mid).getBaseTimestamp() <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Remove segments exceeding the retention.
+     * <p>
+     * The last segment is never removed, as it is the one we are writing to.
+     *
+     * @param cutoff Remove segments which only contain samples older than this.
+     * @param maxSize Remove the oldest segments, until the total size is below this.
+     */
+    synchronized void applyRetention(final long cutoff, final long maxSize) throws IOException {
+        if (this.closed) {
+            // the property might have been opened again, by a new log
+            return;
+        }
+
+        long size = 0;
+        for (final var segment : this.segments) {
+            size += segment.getCapacity();
+        }
+
+        while (this.segments.size() > 1) {
+            final var first = this.segments.get(0);
+            if (this.segments.get(1).getBaseTimestamp() > cutoff && size <= maxSize) {
+                break;
+            }
+            logger.debug("Removing segment: {}", first.getFile());
+            this.segments.remove(0);
+            size -= first.getCapacity();
+            Files.deleteIfExists(first.getFile());
+        }
+    }
+
+    synchronized void close() {
+        if (!this.closed && !this.segments.isEmpty()) {
+            this.segments.get(this.segments.size() - 1).seal();
+        }
+        this.closed = true;
+    }
+
+    /**
+     * Close the log, and remove all of its segments.
+     */
+    synchronized void delete() throws IOException {
+        close();
+        for (final var segment : this.segments) {
+            Files.deleteIfExists(segment.getFile());
+        }
+        this.segments.clear();
+    }
+}
@@ -0,0 +1,59 @@
+package io.drogue.doppelgaenger.opcua.jfr;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Getting the state of a thing, either from the local mirror, or from the backend.
+ */
+@Name(Events.PREFIX + "BackendRequest")
+@Label("Backend Request")
+@Category({Events.CATEGORY, "Backend"})
+@Description("Getting the state of a thing")
+@StackTrace(false)
+public class BackendRequestEvent extends jdk.jfr.Event {
+
+    private static final EventType TYPE = EventType.getEventType(BackendRequestEvent.class);
+
+    @Label("Application")
+    public String application;
+
+    @Label("Thing")
+    public String thing;
+
+    @Label("Local")
+    @Description("Served from the local mirror")
+    public boolean local;
+
+    @Label("Status")
+    @Description("The HTTP status code, 0 if the request failed or was served locally")
+    public int status;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long payloadSize;
+
+    /**
+     * Start a new event.
+     *
+     * @return The event, or {@code null} if the event is not enabled.
+     */
+    @Nullable
+    public static BackendRequestEvent start(final String application, final String thing) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        final var event = new BackendRequestEvent();
+        event.application = application;
+        event.thing = thing;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,18 @@
+package io.drogue.doppelgaenger.opcua.jfr;
+
+/**
+ * Common values of the custom Java Flight Recorder events.
+ * <p>
+ * The factory methods of the events check the {@link jdk.jfr.EventType} first, and only allocate an event when it is
+ * enabled in the current recording. When recording is off, emitting an event costs that check, and the callers skip
+ * collecting its fields. The settings in {@code src/main/jfr/doppelgaenger.jfc} enable all of them.
+ */
+final class Events {
+
+    static final String PREFIX = "io.drogue.doppelgaenger.";
+
+    static final String CATEGORY = "Drogue Doppelgänger";
+
+    private Events() {
+    }
+}
@@ -0,0 +1,58 @@
+package io.drogue.doppelgaenger.opcua.jfr;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Reporting a new state of a thing to its listeners.
+ */
+@Name(Events.PREFIX + "FanOut")
+@Label("State Fan-Out")
+@Category({Events.CATEGORY, "Subscriptions"})
+@Description("Reporting a new state of a thing to its listeners")
+@StackTrace(false)
+public class FanOutEvent extends jdk.jfr.Event {
+
+    private static final EventType TYPE = EventType.getEventType(FanOutEvent.class);
+
+    @Label("Application")
+    public String application;
+
+    @Label("Thing")
+    public String thing;
+
+    @Label("Listeners")
+    @Description("The number of monitored items, and other listeners, of the thing")
+    public int listeners;
+
+    @Label("State Listeners")
+    @Description("The number of listeners to all things, like the history or the browse index")
+    public int stateListeners;
+
+    @Label("Present")
+    @Description("If the thing has a state, or was deleted or disconnected")
+    public boolean present;
+
+    /**
+     * Start a new event.
+     *
+     * @return The event, or {@code null} if the event is not enabled.
+     */
+    @Nullable
+    public static FanOutEvent start(final String application, final String thing) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        final var event = new FanOutEvent();
+        event.application = application;
+        event.thing = thing;
+        event.begin();
+        return event;
+    }
+}
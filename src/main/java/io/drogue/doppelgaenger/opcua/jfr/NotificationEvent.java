@@ -0,0 +1,57 @@
+package io.drogue.doppelgaenger.opcua.jfr;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Handling a WebSocket message, notifying about the state of a thing.
+ */
+@Name(Events.PREFIX + "Notification")
+@Label("Notification")
+@Category({Events.CATEGORY, "Backend"})
+@Description("Handling a WebSocket message of the backend")
+@StackTrace(false)
+public class NotificationEvent extends jdk.jfr.Event {
+
+    private static final EventType TYPE = EventType.getEventType(NotificationEvent.class);
+
+    @Label("Application")
+    public String application;
+
+    @Label("Thing")
+    public String thing;
+
+    @Label("Type")
+    @Description("The type of the message, e.g. initial or change")
+    public String type;
+
+    @Label("Payload Size")
+    @Description("The size of the message, in characters")
+    @DataAmount
+    public long payloadSize;
+
+    /**
+     * Start a new event.
+     *
+     * @return The event, or {@code null} if the event is not enabled.
+     */
+    @Nullable
+    public static NotificationEvent start(final String application, final String thing, final String message) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        final var event = new NotificationEvent();
+        event.application = application;
+        event.thing = thing;
+        event.payloadSize = message.length();
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,62 @@
+package io.drogue.doppelgaenger.opcua.jfr;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An OPC UA operation on a namespace, from the request until the response.
+ */
+@Name(Events.PREFIX + "Operation")
+@Label("OPC UA Operation")
+@Category({Events.CATEGORY, "OPC UA"})
+@Description("An operation on a namespace, from the request until the response")
+@StackTrace(false)
+public class OperationEvent extends jdk.jfr.Event {
+
+    private static final EventType TYPE = EventType.getEventType(OperationEvent.class);
+
+    @Label("Application")
+    public String application;
+
+    @Label("Namespace")
+    public String namespace;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Thing")
+    @Description("The thing of the first node of the operation")
+    public String thing;
+
+    @Label("Nodes")
+    @Description("The number of nodes of the operation")
+    public int nodes;
+
+    @Label("Success")
+    public boolean success;
+
+    /**
+     * Start a new event.
+     *
+     * @return The event, or {@code null} if the event is not enabled.
+     */
+    @Nullable
+    public static OperationEvent start(final String application, final String namespace, final String operation, final int nodes) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        final var event = new OperationEvent();
+        event.application = application;
+        event.namespace = namespace;
+        event.operation = operation;
+        event.nodes = nodes;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,50 @@
+package io.drogue.doppelgaenger.opcua.jfr;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Converting the value of a property into an OPC UA data value.
+ */
+@Name(Events.PREFIX + "ValueConversion")
+@Label("Value Conversion")
+@Category({Events.CATEGORY, "OPC UA"})
+@Description("Converting the value of a property into a data value")
+@StackTrace(false)
+public class ValueConversionEvent extends jdk.jfr.Event {
+
+    private static final EventType TYPE = EventType.getEventType(ValueConversionEvent.class);
+
+    @Label("Thing")
+    public String thing;
+
+    @Label("Property")
+    public String property;
+
+    @Label("Type")
+    @Description("The type the value was converted to")
+    public String type;
+
+    /**
+     * Start a new event.
+     *
+     * @return The event, or {@code null} if the event is not enabled.
+     */
+    @Nullable
+    public static ValueConversionEvent start(final String thing, final String property) {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        final var event = new ValueConversionEvent();
+        event.thing = thing;
+        event.property = property;
+        event.begin();
+        return event;
+    }
+}
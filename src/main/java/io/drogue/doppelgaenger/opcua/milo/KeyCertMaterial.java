@@ -9,6 +9,7 @@ import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Optional;
 import java.util.Set;
 
 import org.eclipse.milo.opcua.stack.core.util.SelfSignedCertificateBuilder;
@@ -55,8 +56,31 @@ public final class KeyCertMaterial {
      * @throws Exception If anything goes wrong.
      */
     public static KeyCertMaterial createSelfSigned(final Set<String> hostnames, final String applicationUri) throws Exception {
+        return createSelfSigned(generateKeyPair(), hostnames, applicationUri);
+    }
+
+    /**
+     * Generate a new key pair, for creating self-signed material.
+     * <p>
+     * This is the expensive part of creating self-signed material, and doesn't depend on the hostnames. So it can
+     * run while the hostnames are still being resolved.
+     *
+     * @return The new key pair.
+     * @throws Exception If anything goes wrong.
+     */
+    public static KeyPair generateKeyPair() throws Exception {
+        return SelfSignedCertificateGenerator.generateRsaKeyPair(2048);
+    }
 
-        final var keyPair = SelfSignedCertificateGenerator.generateRsaKeyPair(2048);
+    /**
+     * Create new, self-signed key-cert material, from an existing key pair.
+     *
+     * @param keyPair The key pair to use.
+     * @param hostnames The hostnames (and IP addresses to add).
+     * @return The newly created, self-signed key material.
+     * @throws Exception If anything goes wrong.
+     */
+    public static KeyCertMaterial createSelfSigned(final KeyPair keyPair, final Set<String> hostnames, final String applicationUri) throws Exception {
 
         final var builder = new SelfSignedCertificateBuilder(keyPair)
                 .setCommonName("Drogue IoT")
@@ -81,13 +105,40 @@ public final class KeyCertMaterial {
     private static final char[] SELF_SIGNED_PASSWORD = "NotAtAllSecret".toCharArray();
 
     public static KeyCertMaterial loadOrCreateSelfSigned(final Path file, final Set<String> hostnames, final String applicationUri) throws Exception {
+        final var existing = loadSelfSigned(file);
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+
+        return createAndStoreSelfSigned(file, generateKeyPair(), hostnames, applicationUri);
+    }
+
+    /**
+     * Load persisted self-signed key-cert material.
+     *
+     * @param file The file to load from.
+     * @return The loaded material, or an empty optional if loading failed.
+     */
+    public static Optional<KeyCertMaterial> loadSelfSigned(final Path file) {
         try {
-            return load(file, "PKCS12", SELF_SIGNED_PASSWORD, "default", SELF_SIGNED_PASSWORD, "default");
+            return Optional.of(load(file, "PKCS12", SELF_SIGNED_PASSWORD, "default", SELF_SIGNED_PASSWORD, "default"));
         } catch (final Exception e) {
             logger.warn("Failed to load existing key/cert material, creating new one");
+            return Optional.empty();
         }
+    }
 
-        final var result = createSelfSigned(hostnames, applicationUri);
+    /**
+     * Create new self-signed key-cert material, and persist it.
+     *
+     * @param file The file to store the material in.
+     * @param keyPair The key pair to use.
+     * @param hostnames The hostnames (and IP addresses to add).
+     * @return The newly created, self-signed key material.
+     * @throws Exception If anything goes wrong.
+     */
+    public static KeyCertMaterial createAndStoreSelfSigned(final Path file, final KeyPair keyPair, final Set<String> hostnames, final String applicationUri) throws Exception {
+        final var result = createSelfSigned(keyPair, hostnames, applicationUri);
         store(result, file, "PKCS12", SELF_SIGNED_PASSWORD, SELF_SIGNED_PASSWORD, "default");
 
         // done
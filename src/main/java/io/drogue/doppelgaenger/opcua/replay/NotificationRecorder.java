@@ -0,0 +1,212 @@
+package io.drogue.doppelgaenger.opcua.replay;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Records the notification frames received from the backend, with their timing, to a local file.
+ * <p>
+ * The file is a GZIP compressed stream, starting with a header:
+ * <pre>
+ * int    magic
+ * int    version
+ * long   start of the recording, milliseconds since the epoch
+ * </pre>
+ * Followed by frames of the form:
+ * <pre>
+ * varint time since the previous frame, in microseconds
+ * varint id of the thing, an id equal to the number of known things introduces a new thing, and is followed by:
+ *   UTF  application
+ *   UTF  name of the thing
+ * varint length of the message
+ * byte[] message, the text of the frame, UTF-8 encoded
+ * </pre>
+ * Frames are handed over to a writer thread through a bounded queue, so that compressing and writing them doesn't
+ * block the caller, which usually is an event loop. When the queue is full, frames are dropped, and counted. The
+ * writer buffers frames in memory, and only writes them to the file once the buffer is full, or the recorder gets
+ * closed. Recording must not fail the processing of notifications, so errors are only logged, and stop the recording.
+ */
+public class NotificationRecorder implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationRecorder.class);
+
+    static final int MAGIC = 0x44474e52; // DGNR
+
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The default number of frames which may be queued for the writer.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 10_000;
+
+    private record Frame(long nanos, String application, String thing, String message) {
+    }
+
+    /**
+     * Marks the end of the queue.
+     */
+    private static final Frame END = new Frame(0, null, null, null);
+
+    private final Path file;
+
+    private final DataOutputStream out;
+
+    private final BlockingQueue<Frame> queue;
+
+    private final Thread writer;
+
+    private final Map<String, Map<String, Integer>> ids = new HashMap<>();
+
+    private final Counter frames = Metrics.counter("doppelgaenger.recording.frames");
+
+    private final Counter dropped = Metrics.counter("doppelgaenger.recording.dropped");
+
+    private int nextId;
+
+    private long lastNanos;
+
+    private volatile boolean closed;
+
+    private NotificationRecorder(final Path file, final DataOutputStream out, final int queueSize) {
+        this.file = file;
+        this.out = out;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.lastNanos = System.nanoTime();
+        this.writer = new Thread(this::write, "notification-recorder");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Create a new recording, replacing an existing file.
+     */
+    public static NotificationRecorder create(final Path file) throws IOException {
+        return create(file, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Create a new recording, replacing an existing file.
+     *
+     * @param queueSize The maximum number of frames waiting to be written, additional frames get dropped.
+     */
+    public static NotificationRecorder create(final Path file, final int queueSize) throws IOException {
+        final var parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        final var out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file)), BUFFER_SIZE));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+        } catch (final IOException e) {
+            out.close();
+            throw e;
+        }
+
+        logger.info("Recording notifications to: {}, queue size: {}", file, queueSize);
+        return new NotificationRecorder(file, out, queueSize);
+    }
+
+    /**
+     * Record a notification frame. Doesn't block, drops the frame if the writer falls behind.
+     */
+    public void record(final String application, final String thing, final String message) {
+        if (this.closed) {
+            return;
+        }
+        if (!this.queue.offer(new Frame(System.nanoTime(), application, thing, message))) {
+            this.dropped.increment();
+        }
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                final var frame = this.queue.take();
+                if (frame == END) {
+                    break;
+                }
+                write(frame);
+                this.frames.increment();
+            }
+        } catch (final IOException e) {
+            logger.warn("Failed to record notification, stopping the recording: {}", this.file, e);
+            this.closed = true;
+            this.queue.clear();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            this.out.close();
+        } catch (final IOException e) {
+            logger.warn("Failed to close recording: {}", this.file, e);
+        }
+    }
+
+    private void write(final Frame frame) throws IOException {
+        writeVarint(this.out, Math.max(0, (frame.nanos() - this.lastNanos) / 1_000));
+        this.lastNanos = frame.nanos();
+
+        final var things = this.ids.computeIfAbsent(frame.application(), x -> new HashMap<>());
+        final var id = things.get(frame.thing());
+        if (id != null) {
+            writeVarint(this.out, id);
+        } else {
+            things.put(frame.thing(), this.nextId);
+            writeVarint(this.out, this.nextId++);
+            this.out.writeUTF(frame.application());
+            this.out.writeUTF(frame.thing());
+        }
+
+        final var bytes = frame.message().getBytes(UTF_8);
+        writeVarint(this.out, bytes.length);
+        this.out.write(bytes);
+    }
+
+    static void writeVarint(final DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Stop recording, and wait for the queued frames to be written.
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        if (!this.writer.isAlive()) {
+            return;
+        }
+        try {
+            this.queue.put(END);
+            this.writer.join();
+        } catch (final InterruptedException e) {
+            this.writer.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
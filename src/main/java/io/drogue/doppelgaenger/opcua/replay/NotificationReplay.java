@@ -0,0 +1,288 @@
+package io.drogue.doppelgaenger.opcua.replay;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import io.drogue.doppelgaenger.opcua.ThingListener;
+import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
+import io.drogue.doppelgaenger.opcua.client.GsonUtil;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+/**
+ * Replays notification frames, recorded by a {@link NotificationRecorder}, as a source of notifications for a
+ * {@link ThingsSubscriptionManager}.
+ * <p>
+ * The recording is loaded into memory, and played on a single Vert.x context, either with the recorded timing scaled
+ * by a speed factor, or as fast as possible. Just like the backend, the replay only delivers notifications of things
+ * which are subscribed. The last state of each thing is kept, and delivered when a thing gets subscribed, in place of
+ * the initial message of the backend. It can also be used to answer requests for the state of a thing locally.
+ */
+public class NotificationReplay implements ThingsSubscriptionManager.NotificationSource, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NotificationReplay.class);
+
+    /**
+     * The number of frames delivered in one go, when playing as fast as possible, before yielding the context.
+     */
+    private static final int BATCH_SIZE = 1_000;
+
+    private record Key(String application, String thing) {
+    }
+
+    private record Frame(long offsetMicros, int thing, String message) {
+    }
+
+    private final Context context;
+
+    private final List<Key> things;
+
+    private final List<Frame> frames;
+
+    private final Gson gson = GsonUtil.create();
+
+    private final Map<Key, List<ThingListener.Listener>> listeners = new ConcurrentHashMap<>();
+
+    private final Map<Key, Thing> states = new ConcurrentHashMap<>();
+
+    private final Counter replayed = Metrics.counter("doppelgaenger.replay.frames");
+
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private double speed;
+
+    private boolean loop;
+
+    private int position;
+
+    private long startNanos;
+
+    private volatile boolean closed;
+
+    private NotificationReplay(final Vertx vertx, final List<Key> things, final List<Frame> frames) {
+        this.context = vertx.getOrCreateContext();
+        this.things = things;
+        this.frames = frames;
+    }
+
+    /**
+     * Load a recording.
+     */
+    public static NotificationReplay load(final Vertx vertx, final Path file) throws IOException {
+        final var things = new ArrayList<Key>();
+        final var frames = new ArrayList<Frame>();
+
+        try (final var in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != NotificationRecorder.MAGIC) {
+                throw new IOException("Not a notification recording: " + file);
+            }
+            final var version = in.readInt();
+            if (version != NotificationRecorder.VERSION) {
+                throw new IOException("Unsupported version of recording: " + version);
+            }
+            in.readLong();
+
+            long offset = 0;
+            while (true) {
+                final long delta;
+                try {
+                    delta = readVarint(in);
+                } catch (final EOFException e) {
+                    break;
+                }
+
+                try {
+                    offset += delta;
+                    final var id = (int) readVarint(in);
+                    if (id == things.size()) {
+                        things.add(new Key(in.readUTF(), in.readUTF()));
+                    } else if (id > things.size()) {
+                        throw new IOException("Invalid thing id: " + id);
+                    }
+                    final var bytes = new byte[(int) readVarint(in)];
+                    in.readFully(bytes);
+                    frames.add(new Frame(offset, id, new String(bytes, UTF_8)));
+                } catch (final EOFException e) {
+                    // the recording was not closed properly, the last frame is incomplete
+                    logger.warn("Recording ends with an incomplete frame: {}", file);
+                    break;
+                }
+            }
+        }
+
+        logger.info("Loaded {} frames, of {} things: {}", frames.size(), things.size(), file);
+        return new NotificationReplay(vertx, things, frames);
+    }
+
+    static long readVarint(final DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final var b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * The number of frames in the recording.
+     */
+    public int size() {
+        return this.frames.size();
+    }
+
+    /**
+     * Start replaying.
+     *
+     * @param speed The factor to scale the recorded timing by, zero or less to replay as fast as possible.
+     * @param loop Start over once all frames have been replayed.
+     * @return A future, completed when all frames have been replayed, never completes when looping.
+     */
+    public CompletableFuture<Void> start(final double speed, final boolean loop) {
+        this.context.runOnContext(x -> {
+            this.speed = speed;
+            this.loop = loop;
+            this.position = 0;
+            this.startNanos = System.nanoTime();
+            play();
+        });
+        return this.done;
+    }
+
+    private void play() {
+        if (this.closed) {
+            return;
+        }
+
+        final var elapsedMicros = this.speed > 0 ? (long) ((System.nanoTime() - this.startNanos) / 1_000 * this.speed) : Long.MAX_VALUE;
+
+        for (int i = 0; i < BATCH_SIZE && this.position < this.frames.size(); i++) {
+            final var frame = this.frames.get(this.position);
+            if (frame.offsetMicros() > elapsedMicros) {
+                final var delay = (long) ((frame.offsetMicros() - elapsedMicros) / this.speed / 1_000);
+                this.context.owner().setTimer(Math.max(1, delay), x -> play());
+                return;
+            }
+            this.position++;
+            deliver(frame);
+        }
+
+        if (this.position < this.frames.size()) {
+            // yield to other tasks of the context
+            this.context.runOnContext(x -> play());
+            return;
+        }
+
+        if (this.loop && !this.frames.isEmpty()) {
+            this.position = 0;
+            this.startNanos = System.nanoTime();
+            this.context.runOnContext(x -> play());
+        } else {
+            this.done.complete(null);
+        }
+    }
+
+    private void deliver(final Frame frame) {
+        this.replayed.increment();
+
+        final var key = this.things.get(frame.thing());
+        final var state = decode(frame.message());
+        if (state == null) {
+            return;
+        }
+
+        this.states.put(key, state);
+        final var listeners = this.listeners.get(key);
+        if (listeners != null) {
+            for (final var listener : listeners) {
+                listener.onChange(Optional.of(state));
+            }
+        }
+    }
+
+    /**
+     * Decode the state of a thing from a frame.
+     *
+     * @return The state, or {@code null} if the frame doesn't carry one.
+     */
+    @Nullable
+    private Thing decode(final String message) {
+        try {
+            final var json = this.gson.fromJson(message, JsonObject.class);
+            final var type = json.get("type").getAsString();
+            if ("change".equals(type) || "initial".equals(type)) {
+                final var thing = this.gson.fromJson(json.get("thing"), Thing.class);
+                thing.setFrameLength(message.length());
+                return thing;
+            }
+        } catch (final RuntimeException e) {
+            logger.debug("Failed to decode frame, skipping", e);
+        }
+        return null;
+    }
+
+    /**
+     * Get the last replayed state of a thing.
+     */
+    public Optional<Thing> lastState(final String application, final String thing) {
+        return Optional.ofNullable(this.states.get(new Key(application, thing)));
+    }
+
+    @Override
+    public ThingsSubscriptionManager.Subscription connect(final String application, final String thing, final ThingListener.Listener listener) {
+        final var key = new Key(application, thing);
+        this.listeners.compute(key, (k, v) -> {
+            final var result = v != null ? v : new CopyOnWriteArrayList<ThingListener.Listener>();
+            result.add(listener);
+            return result;
+        });
+
+        // in place of the initial message, deliver the last state
+        this.context.runOnContext(x -> {
+            final var state = this.states.get(key);
+            if (state != null && !this.closed) {
+                listener.onChange(Optional.of(state));
+            }
+        });
+
+        return () -> this.listeners.computeIfPresent(key, (k, v) -> {
+            v.remove(listener);
+            return v.isEmpty() ? null : v;
+        });
+    }
+
+    /**
+     * Stop replaying.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.done.complete(null);
+    }
+}
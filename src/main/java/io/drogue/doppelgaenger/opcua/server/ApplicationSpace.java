@@ -0,0 +1,147 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
+import io.drogue.doppelgaenger.opcua.client.Client;
+import io.drogue.doppelgaenger.opcua.history.HistoryRecorder;
+import io.drogue.doppelgaenger.opcua.history.HistoryStore;
+
+/**
+ * The part of the address space serving a single application.
+ * <p>
+ * Each application has its own namespaces, browse index, registered nodes, and optionally its own mirror, history and
+ * node id registries. The OPC UA server, and the HTTP clients to the backend, are shared by all applications.
+ */
+class ApplicationSpace {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApplicationSpace.class);
+
+    private final String application;
+
+    private final Client client;
+
+    private final ThingsSubscriptionManager subscriptions;
+
+    private final ThingNamespace things;
+
+    private final PropertyNamespace properties;
+
+    private final HierarchyIndex index;
+
+    private final RegisteredNodes registered;
+
+    private final Optional<ThingMirror> mirror;
+
+    private final Optional<StateSnapshot> snapshot;
+
+    private final Optional<HistoryStore> history;
+
+    private final Optional<HistoryRecorder> recorder;
+
+    private final List<NodeIdRegistry> ids;
+
+    private final CompletableFuture<?> ready;
+
+    ApplicationSpace(
+            final String application,
+            final Client client,
+            final ThingsSubscriptionManager subscriptions,
+            final ThingNamespace things,
+            final PropertyNamespace properties,
+            final HierarchyIndex index,
+            final RegisteredNodes registered,
+            final Optional<ThingMirror> mirror,
+            final Optional<StateSnapshot> snapshot,
+            final Optional<HistoryStore> history,
+            final Optional<HistoryRecorder> recorder,
+            final List<NodeIdRegistry> ids,
+            final CompletableFuture<?> ready
+    ) {
+        this.application = application;
+        this.client = client;
+        this.subscriptions = subscriptions;
+        this.things = things;
+        this.properties = properties;
+        this.index = index;
+        this.registered = registered;
+        this.mirror = mirror;
+        this.snapshot = snapshot;
+        this.history = history;
+        this.recorder = recorder;
+        this.ids = ids;
+        this.ready = ready;
+    }
+
+    String application() {
+        return this.application;
+    }
+
+    /**
+     * Completes once the warm-up and the initial load of the mirror completed or timed out.
+     */
+    CompletableFuture<?> ready() {
+        return this.ready;
+    }
+
+    /**
+     * The usage of resources by this application.
+     */
+    List<ServerLimits.Usage> usage() {
+        final var result = new ArrayList<ServerLimits.Usage>();
+        result.add(new ServerLimits.Usage("SubscribedThings", ServerLimits.UNLIMITED, this.subscriptions::size));
+        result.add(new ServerLimits.Usage("ThingMonitoredItems", ServerLimits.UNLIMITED, this.things::monitoredItems));
+        result.add(new ServerLimits.Usage("PropertyMonitoredItems", ServerLimits.UNLIMITED, this.properties::monitoredItems));
+        result.add(new ServerLimits.Usage("BackendRequests", this.client.getMaxConcurrentRequests(), this.client::getInFlightRequests));
+        final var reads = this.client.getBulkhead(Client.Traffic.Read);
+        result.add(new ServerLimits.Usage("QueuedBackendRequests", reads.getMaxQueued(), reads::getQueued));
+        final var browses = this.client.getBulkhead(Client.Traffic.Browse);
+        result.add(new ServerLimits.Usage("BackendBrowseRequests", browses.getMax(), browses::getInFlight));
+        result.add(new ServerLimits.Usage("QueuedBackendBrowseRequests", browses.getMaxQueued(), browses::getQueued));
+        final var connects = this.subscriptions.getConnectLimit();
+        if (connects != null) {
+            result.add(new ServerLimits.Usage("BackendConnects", connects.getMax(), connects::getInFlight));
+            result.add(new ServerLimits.Usage("QueuedBackendConnects", ServerLimits.UNLIMITED, connects::getQueued));
+        }
+        this.mirror.ifPresent(m -> result.addAll(m.usage()));
+        return result;
+    }
+
+    /**
+     * Stop serving the application, before the server shuts down.
+     */
+    void close(final OpcUaServer server) {
+        this.recorder.ifPresent(this.subscriptions::removeStateListener);
+        this.subscriptions.removeStateListener(this.index);
+        server.getSessionManager().removeSessionListener(this.registered);
+        this.registered.close();
+        // write a final snapshot, before the mirror gets closed
+        this.snapshot.ifPresent(StateSnapshot::close);
+        if (this.mirror.isPresent()) {
+            this.client.setLocal(null);
+            this.mirror.get().close();
+        }
+    }
+
+    /**
+     * Close the storage of the application, after the server shut down.
+     */
+    void closeStorage() {
+        this.history.ifPresent(HistoryStore::close);
+        for (final var ids : this.ids) {
+            try {
+                ids.close();
+            } catch (final IOException e) {
+                logger.warn("Failed to close node id registry of {}", this.application, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+
+import io.drogue.doppelgaenger.opcua.client.BackendUnavailableException;
+
+/**
+ * Maps failures of operations to status codes.
+ */
+final class Failures {
+
+    private Failures() {
+    }
+
+    /**
+     * Check if the failure is caused by the backend being slow or unavailable, rather than by the request.
+     */
+    static boolean isUnavailable(@Nullable final Throwable err) {
+        final var cause = causeOf(err);
+        return cause instanceof TimeoutException || cause instanceof BackendUnavailableException;
+    }
+
+    /**
+     * Get the status code for a failure.
+     *
+     * @return {@code Bad_Timeout} if a deadline expired, {@code Bad_NoCommunication} if the backend is known to be
+     *         unavailable, a generic bad status code otherwise.
+     */
+    static StatusCode statusOf(@Nullable final Throwable err) {
+        final var cause = causeOf(err);
+        if (cause instanceof TimeoutException) {
+            return new StatusCode(StatusCodes.Bad_Timeout);
+        }
+        if (cause instanceof BackendUnavailableException) {
+            return new StatusCode(StatusCodes.Bad_NoCommunication);
+        }
+        return StatusCode.BAD;
+    }
+
+    @Nullable
+    private static Throwable causeOf(@Nullable final Throwable err) {
+        return err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+    }
+}
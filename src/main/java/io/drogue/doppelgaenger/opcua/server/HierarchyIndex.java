@@ -0,0 +1,170 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
+import io.drogue.doppelgaenger.opcua.client.BasicFeature;
+import io.drogue.doppelgaenger.opcua.client.Client;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+
+/**
+ * An index of the hierarchy of things: the children and properties of each thing.
+ * <p>
+ * Browsing (and so resolving browse paths) is answered from this index. Entries are loaded on first use, and expire
+ * after a while. Concurrent lookups of the same thing share a single fetch. Things which have a subscription keep
+ * their entry up-to-date with each state change, and structural changes are reported to {@link ChangeListener}s.
+ * If loading an expired entry runs into the deadline of the client, the expired entry is used.
+ */
+class HierarchyIndex implements ThingsSubscriptionManager.StateListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(HierarchyIndex.class);
+
+    /**
+     * The children and properties of a thing.
+     *
+     * @param children The names of the child things.
+     * @param properties The names of the properties.
+     * @param timestamp When the entry was created, in {@link System#nanoTime()}.
+     */
+    record Entry(List<String> children, List<String> properties, long timestamp) {
+
+        static Entry of(final Optional<Thing> thing) {
+            if (thing.isEmpty()) {
+                return new Entry(List.of(), List.of(), System.nanoTime());
+            }
+
+            final var state = thing.get().mergedState();
+
+            final var children = new ArrayList<String>();
+            Optional.ofNullable(state.remove("$children"))
+                    .flatMap(BasicFeature::asObject)
+                    .ifPresent(c -> children.addAll(c.keySet()));
+
+            final var properties = new ArrayList<String>(state.size());
+            for (final var name : state.keySet()) {
+                if (!name.startsWith("$")) {
+                    properties.add(name);
+                }
+            }
+
+            return new Entry(children, properties, System.nanoTime());
+        }
+
+        boolean sameStructure(final Entry other) {
+            return new HashSet<>(this.children).equals(new HashSet<>(other.children))
+                    && new HashSet<>(this.properties).equals(new HashSet<>(other.properties));
+        }
+    }
+
+    /**
+     * Gets notified when the children or properties of a thing changed.
+     */
+    @FunctionalInterface
+    interface ChangeListener {
+        void onStructureChange(String thing, Entry previous, Entry current);
+    }
+
+    private final Client client;
+
+    private final long ttl;
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Map<String, Entry> entries;
+
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+    HierarchyIndex(final Client client, final Duration ttl, final int maxSize) {
+        this.client = client;
+        this.ttl = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    void addChangeListener(final ChangeListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Get the entry of a thing, loading it if necessary.
+     */
+    CompletableFuture<Entry> get(final String thing) {
+        final Entry entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(thing);
+        }
+        if (entry != null && System.nanoTime() - entry.timestamp() < this.ttl) {
+            return completedFuture(entry);
+        }
+
+        final var future = new CompletableFuture<Entry>();
+        final var existing = this.loading.putIfAbsent(thing, future);
+        if (existing != null) {
+            return existing;
+        }
+
+        logger.debug("Loading index entry: {}", thing);
+
+        this.client.get(thing, Client.Traffic.Browse)
+                .whenComplete((state, err) -> {
+                    this.loading.remove(thing, future);
+                    if (entry != null && Failures.isUnavailable(err)) {
+                        // the backend is too slow, or unavailable, an expired entry is better than none
+                        logger.debug("Using expired index entry: {}", thing);
+                        future.complete(entry);
+                    } else if (err != null) {
+                        future.completeExceptionally(err);
+                    } else {
+                        final var loaded = Entry.of(state);
+                        put(thing, loaded);
+                        future.complete(loaded);
+                    }
+                });
+
+        return future;
+    }
+
+    private void put(final String thing, final Entry entry) {
+        final Entry previous;
+        synchronized (this.entries) {
+            previous = this.entries.put(thing, entry);
+        }
+
+        if (previous != null && !entry.sameStructure(previous)) {
+            logger.debug("Structure of {} changed", thing);
+            for (final var listener : this.listeners) {
+                listener.onStructureChange(thing, previous, entry);
+            }
+        }
+    }
+
+    @Override
+    public void onStateChange(final String thing, final Optional<Thing> state) {
+        if (state.isPresent()) {
+            put(thing, Entry.of(state));
+        } else {
+            // we lost track of the thing, load it again on next use
+            synchronized (this.entries) {
+                this.entries.remove(thing);
+            }
+        }
+    }
+}
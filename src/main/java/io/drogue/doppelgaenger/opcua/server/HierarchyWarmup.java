@@ -0,0 +1,121 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms up the {@link HierarchyIndex}, by walking the hierarchy of things, starting at a root thing.
+ * <p>
+ * Things are loaded up to a maximum depth, with a bounded number of concurrent requests. Failing to load a thing
+ * only skips its children.
+ */
+class HierarchyWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger(HierarchyWarmup.class);
+
+    private record Item(String thing, int depth) {
+    }
+
+    private final HierarchyIndex index;
+
+    private final int maxDepth;
+
+    private final int concurrency;
+
+    private final Queue<Item> queue = new ArrayDeque<>();
+
+    private final Set<String> seen = new HashSet<>();
+
+    private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+    private int inFlight;
+
+    private int loaded;
+
+    private boolean pumping;
+
+    /**
+     * Create a new instance.
+     *
+     * @param maxDepth The maximum depth to load, {@code 0} only loads the root thing.
+     * @param concurrency The maximum number of concurrent requests.
+     */
+    HierarchyWarmup(final HierarchyIndex index, final int maxDepth, final int concurrency) {
+        this.index = index;
+        this.maxDepth = maxDepth;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Walk the hierarchy.
+     *
+     * @return The number of loaded things, once the walk is complete.
+     */
+    CompletableFuture<Integer> run(final String root) {
+        synchronized (this) {
+            this.seen.add(root);
+            this.queue.add(new Item(root, 0));
+        }
+        pump();
+        return this.result;
+    }
+
+    /**
+     * Start loading queued things, until the concurrency limit is reached.
+     * <p>
+     * Entries already in the index complete right away, and their completion calls this method again. So only one
+     * caller at a time runs the loop, others only return, which keeps the stack flat even for large hierarchies.
+     */
+    private void pump() {
+        synchronized (this) {
+            if (this.pumping) {
+                return;
+            }
+            this.pumping = true;
+        }
+
+        while (true) {
+            final Item next;
+            synchronized (this) {
+                if (this.inFlight >= this.concurrency || this.queue.isEmpty()) {
+                    this.pumping = false;
+                    if (this.inFlight == 0 && this.queue.isEmpty()) {
+                        this.result.complete(this.loaded);
+                    }
+                    return;
+                }
+                next = this.queue.poll();
+                this.inFlight++;
+            }
+
+            this.index.get(next.thing())
+                    .whenComplete((entry, err) -> {
+                        completed(next, entry, err);
+                        pump();
+                    });
+        }
+    }
+
+    private synchronized void completed(final Item item, final HierarchyIndex.Entry entry, final Throwable err) {
+        this.inFlight--;
+        if (err != null) {
+            logger.debug("Failed to warm up {}: {}", item.thing(), err.getMessage());
+            return;
+        }
+
+        this.loaded++;
+        if (item.depth() < this.maxDepth) {
+            for (final var child : entry.children()) {
+                if (this.seen.add(child)) {
+                    this.queue.add(new Item(child, item.depth() + 1));
+                }
+            }
+        }
+    }
+}
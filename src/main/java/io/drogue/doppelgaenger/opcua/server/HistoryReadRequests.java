@@ -0,0 +1,148 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DiagnosticInfo;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadProcessedDetails;
+import org.eclipse.milo.opcua.stack.core.util.EndpointUtil;
+import org.eclipse.milo.opcua.stack.server.services.ServiceRequest;
+import org.eclipse.milo.opcua.stack.server.services.ServiceRequestHandler;
+
+/**
+ * Split "ReadProcessed" requests by aggregate type.
+ * <p>
+ * Milo splits requests by namespace, and only passes the subset of nodes belonging to a namespace. However, the
+ * aggregate types of a "ReadProcessed" request are matched by index with the nodes of the whole request. So a
+ * namespace can't tell which aggregate type belongs to which of its nodes.
+ * <p>
+ * When a request uses more than one aggregate type, we map the aggregate type to the nodes by their index in the
+ * full request, and dispatch one request per aggregate type, each carrying only that single type. Namespaces then
+ * only ever see a single aggregate type, or the whole request, and the results are put back in the order of the
+ * original request.
+ */
+final class HistoryReadRequests {
+
+    private HistoryReadRequests() {
+    }
+
+    /**
+     * Wrap the "HistoryRead" service handlers of all endpoints of the server.
+     */
+    static void install(final OpcUaServer server) {
+        final var stackServer = server.getStackServer();
+        server.getConfig().getEndpoints().stream()
+                .map(endpoint -> EndpointUtil.getPath(endpoint.getEndpointUrl()))
+                .distinct()
+                .forEach(path -> {
+                    final var handler = stackServer.getServiceHandler(path, HistoryReadRequest.TYPE_ID);
+                    if (handler != null) {
+                        stackServer.addServiceHandler(path, HistoryReadRequest.TYPE_ID, wrap(handler, server.getSerializationContext()));
+                    }
+                });
+    }
+
+    /**
+     * Wrap a "HistoryRead" service handler.
+     */
+    static ServiceRequestHandler wrap(final ServiceRequestHandler handler, final SerializationContext context) {
+        return service -> {
+            final var request = (HistoryReadRequest) service.getRequest();
+            final var details = request.getHistoryReadDetails() != null ? request.getHistoryReadDetails().decodeOrNull(context) : null;
+            if (details instanceof final ReadProcessedDetails processed
+                    && processed.getAggregateType() != null
+                    && processed.getAggregateType().length > 1) {
+                dispatch(handler, context, service, request, processed);
+            } else {
+                handler.handle(service);
+            }
+        };
+    }
+
+    private static void dispatch(final ServiceRequestHandler handler, final SerializationContext context, final ServiceRequest service, final HistoryReadRequest request, final ReadProcessedDetails details) throws UaException {
+        final var nodes = request.getNodesToRead();
+        final var aggregateTypes = details.getAggregateType();
+        if (nodes == null || nodes.length != aggregateTypes.length) {
+            service.setServiceFault(StatusCodes.Bad_AggregateListMismatch);
+            return;
+        }
+
+        // the indexes of the request's nodes, by aggregate type
+
+        final var indexes = new LinkedHashMap<NodeId, List<Integer>>();
+        for (int i = 0; i < nodes.length; i++) {
+            indexes.computeIfAbsent(aggregateTypes[i], x -> new ArrayList<>()).add(i);
+        }
+
+        final var results = new HistoryReadResult[nodes.length];
+        final var futures = new ArrayList<CompletableFuture<?>>(indexes.size());
+        for (final var entry : indexes.entrySet()) {
+            final var group = entry.getValue();
+            final var groupNodes = new HistoryReadValueId[group.size()];
+            for (int i = 0; i < groupNodes.length; i++) {
+                groupNodes[i] = nodes[group.get(i)];
+            }
+
+            final var groupDetails = new ReadProcessedDetails(
+                    details.getStartTime(), details.getEndTime(), details.getProcessingInterval(),
+                    new NodeId[] {entry.getKey()}, details.getAggregateConfiguration());
+            final var groupRequest = new HistoryReadRequest(
+                    request.getRequestHeader(), ExtensionObject.encode(context, groupDetails),
+                    request.getTimestampsToReturn(), request.getReleaseContinuationPoints(), groupNodes);
+            final var groupService = new ServiceRequest(
+                    service.getServer(), groupRequest, service.getEndpoint(), service.getSecureChannelId(),
+                    service.getClientAddress(), service.getClientCertificateBytes());
+
+            futures.add(groupService.getFuture().thenAccept(response -> {
+                final var groupResults = ((HistoryReadResponse) response).getResults();
+                for (int i = 0; i < groupResults.length; i++) {
+                    results[group.get(i)] = groupResults[i];
+                }
+            }));
+
+            handler.handle(groupService);
+        }
+
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).whenComplete((x, err) -> {
+            if (err == null) {
+                service.setResponse(new HistoryReadResponse(service.createResponseHeader(), results, new DiagnosticInfo[0]));
+            } else if (err instanceof CompletionException && err.getCause() instanceof final UaException e) {
+                service.setServiceFault(e);
+            } else {
+                service.setServiceFault(StatusCodes.Bad_InternalError);
+            }
+        });
+    }
+
+    /**
+     * Get the index of the aggregate type to use for a node.
+     *
+     * @param aggregateTypes The aggregate types of the request.
+     * @param index The index of the node in the list passed to the namespace.
+     * @param count The number of nodes passed to the namespace.
+     * @return The index, or {@code -1} if the aggregate types don't match the nodes.
+     */
+    static int aggregateIndex(final NodeId[] aggregateTypes, final int index, final int count) {
+        if (aggregateTypes == null) {
+            return -1;
+        }
+        if (aggregateTypes.length == 1) {
+            return 0;
+        }
+        // requests with multiple aggregate types are split by the wrapped handler, so we must have the whole request
+        return aggregateTypes.length == count ? index : -1;
+    }
+}
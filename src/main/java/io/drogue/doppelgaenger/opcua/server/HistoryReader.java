@@ -0,0 +1,301 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryData;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadProcessedDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadRawModifiedDetails;
+
+import io.drogue.doppelgaenger.opcua.history.Aggregator;
+import io.drogue.doppelgaenger.opcua.history.HistoryStore;
+
+/**
+ * Serve history read requests from a {@link HistoryStore}.
+ * <p>
+ * Continuation points are stateless. For raw reads, they carry the timestamp of the next sample to return. As
+ * timestamps of a property are strictly increasing, this is enough to resume reading. For processed reads, they
+ * carry the number of intervals already returned.
+ */
+class HistoryReader {
+
+    private static final Map<NodeId, Aggregator.Function> AGGREGATES = Map.of(
+            Identifiers.AggregateFunction_Average, Aggregator.Function.Average,
+            Identifiers.AggregateFunction_Minimum, Aggregator.Function.Minimum,
+            Identifiers.AggregateFunction_Maximum, Aggregator.Function.Maximum,
+            Identifiers.AggregateFunction_Count, Aggregator.Function.Count,
+            Identifiers.AggregateFunction_TimeAverage, Aggregator.Function.TimeAverage,
+            Identifiers.AggregateFunction_Interpolative, Aggregator.Function.Interpolative
+    );
+
+    private static final long TICKS_PER_MILLISECOND = 10_000L;
+
+    private final HistoryStore store;
+
+    private final Aggregator aggregator;
+
+    private final SerializationContext serializationContext;
+
+    private final int maxValuesPerRead;
+
+    HistoryReader(final HistoryStore store, final Aggregator aggregator, final SerializationContext serializationContext, final int maxValuesPerRead) {
+        this.store = store;
+        this.aggregator = aggregator;
+        this.serializationContext = serializationContext;
+        this.maxValuesPerRead = maxValuesPerRead;
+    }
+
+    /**
+     * The aggregate functions supported by {@link #readProcessed(PropertyNode, ReadProcessedDetails, NodeId, TimestampsToReturn, ByteString)}.
+     */
+    static Set<NodeId> supportedAggregates() {
+        return AGGREGATES.keySet();
+    }
+
+    boolean isHistorizing(final String thing, final String property) {
+        return this.store.contains(thing, property);
+    }
+
+    /**
+     * Read the history of a node.
+     *
+     * @param index The index of the node in the request, used to look up the aggregate type.
+     */
+    HistoryReadResult read(final PropertyNode node, final HistoryReadDetails details, final int index, final TimestampsToReturn timestamps, final ByteString continuationPoint) {
+        if (details instanceof final ReadRawModifiedDetails raw) {
+            return readRaw(node, raw, timestamps, continuationPoint);
+        }
+        if (details instanceof final ReadProcessedDetails processed) {
+            final var types = processed.getAggregateType();
+            return readProcessed(node, processed, types.length == 1 ? types[0] : types[index], timestamps, continuationPoint);
+        }
+        return failure(StatusCodes.Bad_HistoryOperationUnsupported);
+    }
+
+    HistoryReadResult readRaw(final PropertyNode node, final ReadRawModifiedDetails details, final TimestampsToReturn timestamps, final ByteString continuationPoint) {
+
+        if (Boolean.TRUE.equals(details.getIsReadModified())) {
+            // we never modify values
+            return failure(StatusCodes.Bad_HistoryOperationUnsupported);
+        }
+        if (timestamps == TimestampsToReturn.Neither) {
+            return failure(StatusCodes.Bad_TimestampsToReturnInvalid);
+        }
+
+        final var hasStart = isSpecified(details.getStartTime());
+        final var hasEnd = isSpecified(details.getEndTime());
+        if (!hasStart && !hasEnd) {
+            return failure(StatusCodes.Bad_InvalidTimestampArgument);
+        }
+
+        final var start = hasStart ? details.getStartTime().getUtcTime() : Long.MAX_VALUE;
+        final var end = hasEnd ? details.getEndTime().getUtcTime() : Long.MIN_VALUE;
+
+        final boolean forward;
+        long from;
+        final long to;
+        if (hasStart && (!hasEnd || start <= end)) {
+            forward = true;
+            from = start;
+            // "start == end" requests the value at exactly that timestamp
+            to = !hasEnd ? Long.MAX_VALUE : start == end ? end + 1 : end;
+        } else {
+            forward = false;
+            from = start;
+            to = end;
+        }
+
+        final boolean firstPage = continuationPoint == null || continuationPoint.isNull();
+        if (!firstPage) {
+            final var bytes = continuationPoint.bytesOrEmpty();
+            if (bytes.length != Long.BYTES) {
+                return failure(StatusCodes.Bad_ContinuationPointInvalid);
+            }
+            from = ByteBuffer.wrap(bytes).getLong();
+        }
+
+        final var numValues = details.getNumValuesPerNode() != null ? details.getNumValuesPerNode().longValue() : 0L;
+        final int limit = numValues > 0 ? (int) Math.min(numValues, this.maxValuesPerRead) : this.maxValuesPerRead;
+
+        final var values = new ArrayList<DataValue>();
+
+        final var returnBounds = Boolean.TRUE.equals(details.getReturnBounds());
+        if (returnBounds && firstPage && hasStart && !hasSampleAt(node, start)) {
+            // a sample at exactly the start time is the bound itself, and returned by the regular read
+            addBound(node, values, start, forward ? start - 1 : start + 1, forward ? Long.MIN_VALUE : Long.MAX_VALUE, timestamps);
+        }
+
+        final var next = new long[1];
+        final var more = new boolean[1];
+        final var count = new int[1];
+        this.store.read(node.getThing(), node.getName(), from, to, (timestamp, value) -> {
+            if (count[0] >= limit) {
+                next[0] = timestamp;
+                more[0] = true;
+                return false;
+            }
+            count[0]++;
+            values.add(toDataValue(value, StatusCode.GOOD, timestamp, timestamps));
+            return true;
+        });
+
+        if (returnBounds && !more[0] && hasEnd) {
+            addBound(node, values, end, end, forward ? Long.MAX_VALUE : Long.MIN_VALUE, timestamps);
+        }
+
+        final var cp = more[0]
+                ? new ByteString(ByteBuffer.allocate(Long.BYTES).putLong(next[0]).array())
+                : ByteString.NULL_VALUE;
+
+        final var status = values.isEmpty() && !more[0] ? new StatusCode(StatusCodes.Good_NoData) : StatusCode.GOOD;
+
+        return new HistoryReadResult(
+                status,
+                cp,
+                ExtensionObject.encode(this.serializationContext, new HistoryData(values.toArray(DataValue[]::new)))
+        );
+    }
+
+    HistoryReadResult readProcessed(final PropertyNode node, final ReadProcessedDetails details, final NodeId aggregateType, final TimestampsToReturn timestamps, final ByteString continuationPoint) {
+
+        final var function = AGGREGATES.get(aggregateType);
+        if (function == null) {
+            return failure(StatusCodes.Bad_AggregateNotSupported);
+        }
+        if (timestamps == TimestampsToReturn.Neither) {
+            return failure(StatusCodes.Bad_TimestampsToReturnInvalid);
+        }
+        if (!isSpecified(details.getStartTime()) || !isSpecified(details.getEndTime())) {
+            return failure(StatusCodes.Bad_InvalidTimestampArgument);
+        }
+
+        final var start = details.getStartTime().getUtcTime();
+        final var end = details.getEndTime().getUtcTime();
+        if (start == end) {
+            return failure(StatusCodes.Bad_InvalidTimestampArgument);
+        }
+
+        // intervals are always anchored at the earlier timestamp, and reported in reverse when reading backwards
+
+        final var forward = start < end;
+        final var from = Math.min(start, end);
+        final var to = Math.max(start, end);
+
+        final var processingInterval = details.getProcessingInterval() != null ? details.getProcessingInterval() : 0.0;
+        final var interval = processingInterval > 0 ? Math.max(1, Math.round(processingInterval * TICKS_PER_MILLISECOND)) : to - from;
+        final var intervals = (to - from + interval - 1) / interval;
+
+        // the continuation point carries the number of intervals already returned
+
+        long returned = 0;
+        if (continuationPoint != null && !continuationPoint.isNull()) {
+            final var bytes = continuationPoint.bytesOrEmpty();
+            if (bytes.length != Long.BYTES) {
+                return failure(StatusCodes.Bad_ContinuationPointInvalid);
+            }
+            returned = ByteBuffer.wrap(bytes).getLong();
+            if (returned < 0 || returned >= intervals) {
+                return failure(StatusCodes.Bad_ContinuationPointInvalid);
+            }
+        }
+
+        final var count = Math.min(intervals - returned, this.maxValuesPerRead);
+        final var first = forward ? returned : intervals - returned - count;
+        final var pageStart = from + first * interval;
+        final var pageEnd = Math.min(pageStart + count * interval, to);
+
+        final var values = new ArrayList<DataValue>((int) count);
+        this.aggregator.aggregate(node.getThing(), node.getName(), function, pageStart, pageEnd, interval, (timestamp, value, statusCode) -> {
+            values.add(toDataValue(value, new StatusCode(statusCode), timestamp, timestamps));
+        });
+        if (!forward) {
+            Collections.reverse(values);
+        }
+
+        final var more = returned + count < intervals;
+        final var cp = more
+                ? new ByteString(ByteBuffer.allocate(Long.BYTES).putLong(returned + count).array())
+                : ByteString.NULL_VALUE;
+
+        return new HistoryReadResult(
+                StatusCode.GOOD,
+                cp,
+                ExtensionObject.encode(this.serializationContext, new HistoryData(values.toArray(DataValue[]::new)))
+        );
+    }
+
+    /**
+     * Add a bounding value.
+     * <p>
+     * The bounding value is the first sample, starting at {@code from} and moving towards {@code to}, where the
+     * bound itself is excluded from the search range. If a value already exists with exactly the timestamp of the
+     * bound, it was already returned as part of the regular read.
+     */
+    private void addBound(final PropertyNode node, final List<DataValue> values, final long bound, final long from, final long to, final TimestampsToReturn timestamps) {
+        if (!values.isEmpty() && sourceTime(values.get(values.size() - 1)) == bound) {
+            return;
+        }
+
+        final var found = new boolean[1];
+        this.store.read(node.getThing(), node.getName(), from, to, (timestamp, value) -> {
+            found[0] = true;
+            values.add(toDataValue(value, StatusCode.GOOD, timestamp, timestamps));
+            return false;
+        });
+
+        if (!found[0]) {
+            values.add(toDataValue(Variant.NULL_VALUE, new StatusCode(StatusCodes.Bad_BoundNotFound), bound, timestamps));
+        }
+    }
+
+    private boolean hasSampleAt(final PropertyNode node, final long timestamp) {
+        final var found = new boolean[1];
+        this.store.read(node.getThing(), node.getName(), timestamp, timestamp + 1, (t, value) -> {
+            found[0] = true;
+            return false;
+        });
+        return found[0];
+    }
+
+    private static long sourceTime(final DataValue value) {
+        final var time = value.getSourceTime() != null ? value.getSourceTime() : value.getServerTime();
+        return time != null ? time.getUtcTime() : Long.MIN_VALUE;
+    }
+
+    static DataValue toDataValue(final Variant value, final StatusCode status, final long timestamp, final TimestampsToReturn timestamps) {
+        final var time = new DateTime(timestamp);
+        switch (timestamps) {
+        case Server:
+            return new DataValue(value, status, null, time);
+        case Both:
+            return new DataValue(value, status, time, time);
+        default:
+            return new DataValue(value, status, time, null);
+        }
+    }
+
+    static boolean isSpecified(final DateTime time) {
+        return time != null && !time.isNull();
+    }
+
+    static HistoryReadResult failure(final long statusCode) {
+        return new HistoryReadResult(new StatusCode(statusCode), ByteString.NULL_VALUE, null);
+    }
+}
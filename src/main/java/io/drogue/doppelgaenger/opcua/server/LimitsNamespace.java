@@ -0,0 +1,140 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.sdk.server.api.ManagedNamespaceWithLifecycle;
+import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.filters.AttributeFilters;
+import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+
+/**
+ * Announces the resource limits of the server, and their current usage.
+ * <p>
+ * The limits which don't have a standard capability node (sessions, subscriptions, monitored items) are added as
+ * properties of the {@code ServerCapabilities} object. The current usage, also of resources which are not limited, is
+ * available as variables of the {@code ResourceUsage} folder, below the {@code Server} object.
+ * <p>
+ * When serving multiple applications, the usage of each application is available in a folder, named after the
+ * application, below the {@code ResourceUsage} folder. Limits of an application are properties of its folder.
+ */
+class LimitsNamespace extends ManagedNamespaceWithLifecycle {
+
+    private static final String NAMESPACE_URI = "https://drogue.io/doppelgänger/limits";
+
+    private final List<ServerLimits.Usage> usage;
+
+    private final Map<String, List<ServerLimits.Usage>> applications;
+
+    private final SubscriptionModel subscriptionModel;
+
+    /**
+     * Create a new instance.
+     *
+     * @param usage The usage of server wide resources.
+     * @param applications The usage of resources per application, when serving multiple applications.
+     */
+    LimitsNamespace(final OpcUaServer server, final List<ServerLimits.Usage> usage, final Map<String, List<ServerLimits.Usage>> applications) {
+        super(server, NAMESPACE_URI);
+        this.usage = usage;
+        this.applications = applications;
+        this.subscriptionModel = new SubscriptionModel(server, this);
+        getLifecycleManager().addLifecycle(this.subscriptionModel);
+        getLifecycleManager().addStartupTask(this::createNodes);
+    }
+
+    private void createNodes() {
+        final var folder = createFolder("ResourceUsage", "ResourceUsage");
+        folder.addReference(new Reference(folder.getNodeId(), Identifiers.Organizes, Identifiers.Server.expanded(), false));
+
+        createUsage("", this.usage, folder.getNodeId(), Identifiers.Server_ServerCapabilities);
+
+        for (final var application : this.applications.entrySet()) {
+            final var id = "applications/" + application.getKey();
+            final var applicationFolder = createFolder(id, application.getKey());
+            applicationFolder.addReference(new Reference(applicationFolder.getNodeId(), Identifiers.Organizes, folder.getNodeId().expanded(), false));
+            createUsage(id + "/", application.getValue(), applicationFolder.getNodeId(), applicationFolder.getNodeId());
+        }
+    }
+
+    private UaFolderNode createFolder(final String id, final String name) {
+        final var folder = new UaFolderNode(
+                getNodeContext(),
+                newNodeId(id),
+                newQualifiedName(name),
+                LocalizedText.english(name)
+        );
+        getNodeManager().addNode(folder);
+        return folder;
+    }
+
+    /**
+     * Create the nodes for the usage of resources.
+     *
+     * @param prefix The prefix of the node ids.
+     * @param folder The folder for the current usage.
+     * @param limits The node to add the limits to.
+     */
+    private void createUsage(final String prefix, final List<ServerLimits.Usage> usage, final NodeId folder, final NodeId limits) {
+        for (final var u : usage) {
+            if (u.limit() != ServerLimits.UNLIMITED) {
+                final var limit = createVariable(prefix + "Max" + u.name(), "Max" + u.name(), "The maximum number of " + u.name(), Identifiers.PropertyType);
+                limit.setValue(new DataValue(new Variant(uint(u.limit()))));
+                limit.addReference(new Reference(limit.getNodeId(), Identifiers.HasProperty, limits.expanded(), false));
+            }
+
+            final var current = createVariable(prefix + u.name(), u.name(), "The current number of " + u.name(), Identifiers.BaseDataVariableType);
+            current.getFilterChain().addLast(AttributeFilters.getValue(ctx -> new DataValue(new Variant(uint(Math.min(u.current().getAsLong(), UInteger.MAX_VALUE))))));
+            current.addReference(new Reference(current.getNodeId(), Identifiers.HasComponent, folder.expanded(), false));
+        }
+    }
+
+    private UaVariableNode createVariable(final String id, final String name, final String description, final NodeId type) {
+        final var node = new UaVariableNode.UaVariableNodeBuilder(getNodeContext())
+                .setNodeId(newNodeId(id))
+                .setBrowseName(newQualifiedName(name))
+                .setDisplayName(LocalizedText.english(name))
+                .setDescription(LocalizedText.english(description))
+                .setDataType(Identifiers.UInt32)
+                .setTypeDefinition(type)
+                .setAccessLevel(AccessLevel.READ_ONLY)
+                .setUserAccessLevel(AccessLevel.READ_ONLY)
+                .build();
+        getNodeManager().addNode(node);
+        return node;
+    }
+
+    @Override
+    public void onDataItemsCreated(final List<DataItem> dataItems) {
+        this.subscriptionModel.onDataItemsCreated(dataItems);
+    }
+
+    @Override
+    public void onDataItemsModified(final List<DataItem> dataItems) {
+        this.subscriptionModel.onDataItemsModified(dataItems);
+    }
+
+    @Override
+    public void onDataItemsDeleted(final List<DataItem> dataItems) {
+        this.subscriptionModel.onDataItemsDeleted(dataItems);
+    }
+
+    @Override
+    public void onMonitoringModeChanged(final List<MonitoredItem> monitoredItems) {
+        this.subscriptionModel.onMonitoringModeChanged(monitoredItems);
+    }
+}
@@ -0,0 +1,125 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.model.nodes.objects.BaseEventTypeNode;
+import org.eclipse.milo.opcua.sdk.server.model.nodes.objects.GeneralModelChangeEventTypeNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.ModelChangeStructureVerbMask;
+import org.eclipse.milo.opcua.stack.core.types.structured.ModelChangeStructureDataType;
+import org.eclipse.milo.opcua.stack.core.util.NonceUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits model change events when the children or properties of a thing change.
+ * <p>
+ * A {@code GeneralModelChangeEvent} lists the added and removed child and property nodes, as well as the changed
+ * references of the thing node. Optionally, a {@code BaseModelChangeEvent} (without details) is emitted as well.
+ */
+class ModelChangeEvents implements HierarchyIndex.ChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelChangeEvents.class);
+
+    private final OpcUaServer server;
+
+    private final ThingNamespace things;
+
+    private final PropertyNamespace properties;
+
+    private final boolean generic;
+
+    ModelChangeEvents(final OpcUaServer server, final ThingNamespace things, final PropertyNamespace properties, final boolean generic) {
+        this.server = server;
+        this.things = things;
+        this.properties = properties;
+        this.generic = generic;
+    }
+
+    @Override
+    public void onStructureChange(final String thing, final HierarchyIndex.Entry previous, final HierarchyIndex.Entry current) {
+        final var source = this.things.thingNode(thing);
+
+        final var changes = new ArrayList<ModelChangeStructureDataType>();
+        final var referencesChanged = diff(changes, previous.children(), current.children(), this.things::thingNode, Identifiers.FolderType)
+                | diff(changes, previous.properties(), current.properties(), name -> this.properties.propertyNodeId(thing, name), Identifiers.BaseDataVariableType);
+
+        changes.add(new ModelChangeStructureDataType(source, Identifiers.FolderType, ubyte(referencesChanged)));
+
+        try {
+            final var event = (GeneralModelChangeEventTypeNode) createEvent(Identifiers.GeneralModelChangeEventType, source, thing);
+            event.setChanges(changes.toArray(ModelChangeStructureDataType[]::new));
+            post(event, thing);
+
+            if (this.generic) {
+                post(createEvent(Identifiers.BaseModelChangeEventType, source, thing), thing);
+            }
+        } catch (final Exception e) {
+            logger.warn("Failed to emit model change event for {}", thing, e);
+        }
+    }
+
+    /**
+     * Record the added and removed nodes.
+     *
+     * @return The verbs to report on the parent node.
+     */
+    private static int diff(final List<ModelChangeStructureDataType> changes, final List<String> previous, final List<String> current, final Function<String, NodeId> nodeId, final NodeId type) {
+        final Set<String> before = new HashSet<>(previous);
+        final Set<String> after = new HashSet<>(current);
+
+        int result = 0;
+
+        for (final var name : after) {
+            if (!before.contains(name)) {
+                changes.add(new ModelChangeStructureDataType(nodeId.apply(name), type, ubyte(ModelChangeStructureVerbMask.NodeAdded.getValue())));
+                result |= ModelChangeStructureVerbMask.ReferenceAdded.getValue();
+            }
+        }
+        for (final var name : before) {
+            if (!after.contains(name)) {
+                changes.add(new ModelChangeStructureDataType(nodeId.apply(name), type, ubyte(ModelChangeStructureVerbMask.NodeDeleted.getValue())));
+                result |= ModelChangeStructureVerbMask.ReferenceDeleted.getValue();
+            }
+        }
+
+        return result;
+    }
+
+    private void post(final BaseEventTypeNode event, final String thing) {
+        try {
+            this.things.post(event, thing);
+        } finally {
+            event.delete();
+        }
+    }
+
+    private BaseEventTypeNode createEvent(final NodeId type, final NodeId source, final String thing) throws UaException {
+        final var event = this.server.getEventFactory().createEvent(new NodeId(1, UUID.randomUUID()), type);
+        event.setBrowseName(new QualifiedName(1, "ModelChange"));
+        event.setDisplayName(LocalizedText.english("ModelChange"));
+        event.setEventId(NonceUtil.generateNonce(16));
+        event.setEventType(type);
+        event.setSourceNode(source);
+        event.setSourceName(thing);
+        event.setTime(DateTime.now());
+        event.setReceiveTime(DateTime.NULL_VALUE);
+        event.setMessage(LocalizedText.english("Structure of thing changed"));
+        event.setSeverity(ushort(0));
+        return event;
+    }
+}
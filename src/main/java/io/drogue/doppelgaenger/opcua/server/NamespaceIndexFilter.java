@@ -20,9 +20,18 @@ public class NamespaceIndexFilter implements AddressSpaceFilter {
 
     private final boolean enableSubscribe;
 
-    NamespaceIndexFilter(final UShort index, final boolean enableSubscribe) {
+    private final boolean enableHistory;
+
+    private final boolean enableEvents;
+
+    private final boolean enableCall;
+
+    NamespaceIndexFilter(final UShort index, final boolean enableSubscribe, final boolean enableHistory, final boolean enableEvents, final boolean enableCall) {
         this.index = index;
         this.enableSubscribe = enableSubscribe;
+        this.enableHistory = enableHistory;
+        this.enableEvents = enableEvents;
+        this.enableCall = enableCall;
     }
 
     @Override
@@ -52,7 +61,7 @@ public class NamespaceIndexFilter implements AddressSpaceFilter {
 
     @Override
     public boolean filterHistoryRead(final OpcUaServer server, final HistoryReadValueId historyReadValueId) {
-        return false;
+        return this.enableHistory && this.index.equals(historyReadValueId.getNodeId().getNamespaceIndex());
     }
 
     @Override
@@ -62,7 +71,7 @@ public class NamespaceIndexFilter implements AddressSpaceFilter {
 
     @Override
     public boolean filterCall(final OpcUaServer server, final CallMethodRequest callMethodRequest) {
-        return false;
+        return this.enableCall && this.index.equals(callMethodRequest.getObjectId().getNamespaceIndex());
     }
 
     @Override
@@ -77,12 +86,12 @@ public class NamespaceIndexFilter implements AddressSpaceFilter {
 
     @Override
     public boolean filterOnCreateEventItem(final OpcUaServer server, final ReadValueId readValueId) {
-        return this.enableSubscribe && this.index.equals(readValueId.getNodeId().getNamespaceIndex());
+        return this.enableEvents && this.index.equals(readValueId.getNodeId().getNamespaceIndex());
     }
 
     @Override
     public boolean filterOnModifyEventItem(final OpcUaServer server, final ReadValueId readValueId) {
-        return this.enableSubscribe && this.index.equals(readValueId.getNodeId().getNamespaceIndex());
+        return this.enableEvents && this.index.equals(readValueId.getNodeId().getNamespaceIndex());
     }
 
     @Override
@@ -102,17 +111,17 @@ public class NamespaceIndexFilter implements AddressSpaceFilter {
 
     @Override
     public boolean filterOnEventItemsCreated(final OpcUaServer server, final ReadValueId readValueId) {
-        return this.enableSubscribe && this.index.equals(readValueId.getNodeId().getNamespaceIndex());
+        return this.enableEvents && this.index.equals(readValueId.getNodeId().getNamespaceIndex());
     }
 
     @Override
     public boolean filterOnEventItemsModified(final OpcUaServer server, final ReadValueId readValueId) {
-        return this.enableSubscribe && this.index.equals(readValueId.getNodeId().getNamespaceIndex());
+        return this.enableEvents && this.index.equals(readValueId.getNodeId().getNamespaceIndex());
     }
 
     @Override
     public boolean filterOnEventItemsDeleted(final OpcUaServer server, final ReadValueId readValueId) {
-        return this.enableSubscribe && this.index.equals(readValueId.getNodeId().getNamespaceIndex());
+        return this.enableEvents && this.index.equals(readValueId.getNodeId().getNamespaceIndex());
     }
 
     @Override
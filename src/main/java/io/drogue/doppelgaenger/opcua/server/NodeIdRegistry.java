@@ -0,0 +1,153 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent, bidirectional mapping between string identifiers and compact numeric identifiers.
+ * <p>
+ * Identifiers are assigned on first use, and appended to a file, so that they remain stable across restarts. The
+ * file is a sequence of records, each consisting of the numeric identifier ({@code int}) followed by the string
+ * identifier (modified UTF-8). A partially written record at the end of the file is dropped when loading.
+ */
+class NodeIdRegistry implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NodeIdRegistry.class);
+
+    /**
+     * The highest numeric identifier, the upper half is reserved for aliases of registered nodes.
+     */
+    static final long MAX_ID = 0x7FFF_FFFFL;
+
+    private final Path file;
+
+    private final Map<String, Long> ids = new ConcurrentHashMap<>();
+
+    private final Map<Long, String> identifiers = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+
+    private long next = 1;
+
+    NodeIdRegistry(final Path file) throws IOException {
+        this.file = file;
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        final var valid = load();
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (this.channel.size() > valid) {
+            logger.warn("Dropping incomplete record at {} of {}", valid, file);
+            this.channel.truncate(valid);
+        }
+        this.channel.position(valid);
+
+        logger.info("Loaded {} node ids from {}", this.ids.size(), file);
+    }
+
+    /**
+     * Load existing records.
+     *
+     * @return The number of bytes of complete records.
+     */
+    private long load() throws IOException {
+        if (!Files.exists(this.file)) {
+            return 0;
+        }
+
+        final var bytes = Files.readAllBytes(this.file);
+        final var in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        long valid = 0;
+        try {
+            while (in.available() > 0) {
+                final var id = Integer.toUnsignedLong(in.readInt());
+                final var identifier = in.readUTF();
+                this.ids.put(identifier, id);
+                this.identifiers.put(id, identifier);
+                this.next = Math.max(this.next, id + 1);
+                valid = bytes.length - in.available();
+            }
+        } catch (final EOFException e) {
+            // incomplete record, truncated when opening the channel
+        }
+
+        return valid;
+    }
+
+    /**
+     * Get the numeric identifier for a string identifier, assigning a new one if necessary.
+     */
+    long idFor(final String identifier) {
+        final var id = this.ids.get(identifier);
+        if (id != null) {
+            return id;
+        }
+        return assign(identifier);
+    }
+
+    /**
+     * Look up the string identifier of a numeric identifier.
+     *
+     * @return The string identifier, or {@code null} if the numeric identifier is unknown.
+     */
+    String lookup(final long id) {
+        return this.identifiers.get(id);
+    }
+
+    private synchronized long assign(final String identifier) {
+        final var existing = this.ids.get(identifier);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (this.next > MAX_ID) {
+            throw new IllegalStateException("Node id registry exhausted");
+        }
+
+        final var id = this.next;
+
+        try {
+            final var record = new ByteArrayOutputStream(identifier.length() + 6);
+            final var out = new DataOutputStream(record);
+            out.writeInt((int) id);
+            out.writeUTF(identifier);
+            final var buffer = ByteBuffer.wrap(record.toByteArray());
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.next++;
+        this.identifiers.put(id, identifier);
+        this.ids.put(identifier, id);
+
+        return id;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.channel.force(false);
+        this.channel.close();
+    }
+}
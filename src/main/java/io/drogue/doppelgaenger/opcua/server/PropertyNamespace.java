@@ -1,79 +1,175 @@
 package io.drogue.doppelgaenger.opcua.server;
 
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.Session;
 import org.eclipse.milo.opcua.sdk.server.api.AddressSpaceFilter;
 import org.eclipse.milo.opcua.sdk.server.api.AddressSpaceFragment;
 import org.eclipse.milo.opcua.sdk.server.api.DataItem;
 import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
 import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.IdType;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadProcessedDetails;
 import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
 import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
 import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
+import org.eclipse.milo.opcua.stack.core.util.Unit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.JsonElement;
+
 import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
 import io.drogue.doppelgaenger.opcua.client.BasicFeature;
 import io.drogue.doppelgaenger.opcua.client.Client;
 import io.drogue.doppelgaenger.opcua.client.Thing;
+import io.drogue.doppelgaenger.opcua.jfr.OperationEvent;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 
 public class PropertyNamespace implements AddressSpaceFragment {
 
     private static final Logger logger = LoggerFactory.getLogger(PropertyNamespace.class);
 
-    public static final String NAMESPACE_URI = "https://drogue.io/doppelgänger/properties";
+    private static final String NAMESPACE_URI = "https://drogue.io/doppelgänger/properties";
 
     private final UShort namespaceIndex;
 
+    private final Timer readTimer;
+
+    private final Timer writeTimer;
+
+    private final Timer browseTimer;
+
+    private final Timer historyReadTimer;
+
+    private final Timer notificationLatency;
+
     private final ThingsSubscriptionManager subscriptions;
 
     private final Map<UInteger, ThingsSubscriptionManager.Subscription> dataItems = new ConcurrentHashMap<>();
 
     private final Client client;
 
-    PropertyNamespace(@NonNull final OpcUaServer server, @NonNull final ThingsSubscriptionManager subscriptions, @NonNull final Client client) {
+    private final HistoryReader history;
+
+    private final ValueTypes types = new ValueTypes();
+
+    private final RegisteredNodes registered;
+
+    private final NodeIdRegistry ids;
+
+    /**
+     * Create a new instance.
+     *
+     * @param application The application, when serving multiple applications, {@code null} otherwise.
+     * @param ids The registry for numeric node ids, {@code null} to use string node ids.
+     */
+    PropertyNamespace(@NonNull final OpcUaServer server, @Nullable final String application, @NonNull final ThingsSubscriptionManager subscriptions, @NonNull final Client client, @Nullable final HistoryReader history, @NonNull final RegisteredNodes registered, @Nullable final NodeIdRegistry ids) {
         this.subscriptions = subscriptions;
-        this.namespaceIndex = server.getNamespaceTable().addUri(NAMESPACE_URI);
+        this.subscriptions.addSubscriptionListener(this.types);
+        this.namespaceIndex = server.getNamespaceTable().addUri(namespaceUri(NAMESPACE_URI, application));
+        this.readTimer = operationTimer("read", client);
+        this.writeTimer = operationTimer("write", client);
+        this.browseTimer = operationTimer("browse", client);
+        this.historyReadTimer = operationTimer("history-read", client);
+        this.notificationLatency = Timer.builder("doppelgaenger.notification.latency")
+                .tag("application", client.getApplication())
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
         this.client = client;
+        this.history = history;
+        this.registered = registered;
+        this.ids = ids;
+    }
+
+    /**
+     * Get the URI of a namespace, qualified with the application, when serving multiple applications.
+     */
+    static String namespaceUri(final String base, @Nullable final String application) {
+        if (application == null) {
+            return base;
+        }
+        return base + "/" + URLEncoder.encode(application, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The number of monitored items of this namespace.
+     */
+    long monitoredItems() {
+        return this.dataItems.size();
+    }
+
+    private static Timer operationTimer(final String operation, final Client client) {
+        return Timer.builder("opcua.operation")
+                .tags("operation", operation, "namespace", "properties", "application", client.getApplication())
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Record the time from now, until the operation completes.
+     */
+    private static void time(final Timer timer, final CompletableFuture<?> operation) {
+        final var sample = Timer.start();
+        operation.whenComplete((result, err) -> sample.stop(timer));
     }
 
     @Override
     public AddressSpaceFilter getFilter() {
-        return new NamespaceIndexFilter(this.namespaceIndex, true);
+        return new NamespaceIndexFilter(this.namespaceIndex, true, this.history != null, false, false);
     }
 
     @Override
     public void read(final ReadContext context, final Double maxAge, final TimestampsToReturn timestamps, final List<ReadValueId> readValueIds) {
+        time(this.readTimer, context.getFuture());
         logger.debug("read: {}", readValueIds);
 
+        final var event = OperationEvent.start(this.client.getApplication(), "properties", "read", readValueIds.size());
         final var result = new ArrayList<DataValue>();
         final var ids = new LinkedList<>(readValueIds);
 
         completedFuture(null)
-                .thenCompose(x -> handleRead(ids, result))
+                .thenCompose(x -> handleRead(context.getSession().orElse(null), ids, result))
                 .whenComplete((x, err) -> {
 
                     logger.debug("read complete: {}", result, err);
+                    if (event != null) {
+                        event.success = err == null;
+                        event.commit();
+                    }
                     try {
                         if (err != null) {
                             context.failure(StatusCode.BAD);
@@ -87,7 +183,7 @@ public class PropertyNamespace implements AddressSpaceFragment {
                 });
     }
 
-    CompletableFuture<Void> handleRead(final LinkedList<ReadValueId> ids, final List<DataValue> result) {
+    CompletableFuture<Void> handleRead(@Nullable final Session session, final LinkedList<ReadValueId> ids, final List<DataValue> result) {
         ReadValueId next = null;
         if (!ids.isEmpty()) {
             next = ids.pop();
@@ -96,21 +192,21 @@ public class PropertyNamespace implements AddressSpaceFragment {
         if (next == null) {
             return completedFuture(null);
         } else {
-            final var node = fromId(next.getNodeId());
+            final var node = fromId(session, next.getNodeId());
             if (node == null) {
                 logger.info("Failed to parse node ({})", next.getNodeId());
                 result.add(new DataValue(StatusCodes.Bad_NodeIdInvalid));
-                return handleRead(ids, result);
+                return handleRead(session, ids, result);
             } else {
                 return node
                         .readAttribute(next.getAttributeId())
                         .handle((value, err) -> {
                             if (err != null) {
-                                result.add(new DataValue(StatusCode.BAD));
+                                result.add(new DataValue(Failures.statusOf(err)));
                             } else {
                                 result.add(value);
                             }
-                            return handleRead(ids, result);
+                            return handleRead(session, ids, result);
                         })
                         // take the future and wait for it
                         .thenCompose(x -> x);
@@ -118,8 +214,65 @@ public class PropertyNamespace implements AddressSpaceFragment {
         }
     }
 
+    @Override
+    public void historyRead(final HistoryReadContext context, final HistoryReadDetails details, final TimestampsToReturn timestamps, final List<HistoryReadValueId> readValueIds) {
+        time(this.historyReadTimer, context.getFuture());
+        logger.debug("historyRead: {}", readValueIds);
+
+        final var result = new ArrayList<HistoryReadResult>(readValueIds.size());
+
+        for (int i = 0; i < readValueIds.size(); i++) {
+            final var id = readValueIds.get(i);
+            final var node = fromId(context.getSession().orElse(null), id.getNodeId());
+            // requests with multiple aggregate types get split by "HistoryReadRequests", so they match by index
+            final var index = details instanceof final ReadProcessedDetails processed
+                    ? HistoryReadRequests.aggregateIndex(processed.getAggregateType(), i, readValueIds.size())
+                    : i;
+            if (node == null) {
+                result.add(HistoryReader.failure(StatusCodes.Bad_NodeIdInvalid));
+            } else if (this.history == null || !node.getPath().isEmpty()) {
+                result.add(HistoryReader.failure(StatusCodes.Bad_HistoryOperationUnsupported));
+            } else if (index < 0) {
+                result.add(HistoryReader.failure(StatusCodes.Bad_AggregateListMismatch));
+            } else {
+                result.add(this.history.read(node, details, index, timestamps, id.getContinuationPoint()));
+            }
+        }
+
+        context.success(result);
+    }
+
+    /**
+     * Convert the value of a property, using its stable type.
+     */
+    DataValue toDataValue(final String thing, final String key, final BasicFeature feature) {
+        return this.types.toDataValue(thing, key, feature);
+    }
+
+    /**
+     * Convert the value of a field, using its stable type.
+     */
+    DataValue toDataValue(final String thing, final String key, final JsonElement value, final DateTime timestamp) {
+        return this.types.toDataValue(thing, key, value, timestamp);
+    }
+
+    /**
+     * Get the type of a property or field, if it is known already.
+     */
+    Optional<ValueType> getValueType(final String thing, final String key) {
+        return this.types.get(thing, key);
+    }
+
+    /**
+     * Check if the history of a property is being recorded.
+     */
+    boolean isHistorizing(final String thing, final String name) {
+        return this.history != null && this.history.isHistorizing(thing, name);
+    }
+
     @Override
     public void write(final WriteContext context, final List<WriteValue> writeValues) {
+        time(this.writeTimer, context.getFuture());
         logger.info("write - {}", writeValues);
         context.failure(StatusCode.BAD);
     }
@@ -155,48 +308,149 @@ public class PropertyNamespace implements AddressSpaceFragment {
         logger.debug("onMonitoringModeChanged: {}", monitoredItems);
     }
 
+    /**
+     * Keep a thing subscribed, without reporting its state to an item.
+     */
+    ThingsSubscriptionManager.Subscription watch(final String thing) {
+        return this.subscriptions.createSubscription(thing, null, state -> {
+        });
+    }
+
+    /**
+     * Get the state of a thing, preferring the state of an existing subscription over fetching it.
+     */
+    CompletableFuture<Optional<Thing>> state(final String thing) {
+        final var state = this.subscriptions.getLastState(thing);
+        if (state.isPresent()) {
+            return completedFuture(state);
+        }
+        return this.client.get(thing);
+    }
+
     private void subscribe(final DataItem item) {
-        final var node = fromId(item.getReadValueId().getNodeId());
+        final var node = fromId(item.getSession(), item.getReadValueId().getNodeId());
 
         if (node == null) {
             item.setQuality(new StatusCode(StatusCodes.Bad_NodeIdInvalid));
             return;
         }
 
-        final var name = node.getName();
-        final var subscription = this.subscriptions.createSubscription(node.getThing(), name, state -> {
-            reportValue(name, item, state);
+        final var last = new AtomicReference<JsonElement>();
+        // the last known state is reported right away, its latency isn't meaningful
+        final var attached = new AtomicBoolean();
+        final var subscription = this.subscriptions.createSubscription(node.getThing(), node.getName(), state -> {
+            reportValue(node, item, state, last, attached.get() ? this.notificationLatency : null);
         });
+        attached.set(true);
         // FIXME: we might have more than one subscription on an item
         this.dataItems.put(item.getId(), subscription);
     }
 
-    private static void reportValue(final String name, final DataItem item, final Optional<Thing> state) {
+    /**
+     * Report a new state to a data item.
+     *
+     * @param last The last value of a field reported to the item. Used to only report fields which actually changed.
+     * @param latency Records the latency of the notification, {@code null} to not record it.
+     */
+    private static void reportValue(final PropertyNode node, final DataItem item, final Optional<Thing> state, final AtomicReference<JsonElement> last, @Nullable final Timer latency) {
         if (state.isPresent()) {
             final var thing = state.get();
 
-            final BasicFeature merged = thing.mergedState(name).orElse(null);
+            final BasicFeature merged = thing.mergedState(node.getName()).orElse(null);
 
             logger.debug("reportValue - state: {}, merged: {}", thing, merged);
 
             if (merged != null) {
-                final var value = Values.toDataValue(merged);
+                if (!node.getPath().isEmpty()) {
+                    final var field = node.resolve(merged.getValue());
+                    // always track the field, also when it disappeared, so that it gets reported again once it comes back
+                    final var previous = last.getAndSet(field);
+                    if (field != null && field.equals(previous)) {
+                        logger.debug("Field unchanged, skipping");
+                        return;
+                    }
+                }
+                final var value = node.convert(merged);
                 logger.debug("Reporting: {}", value);
                 item.setValue(value);
+                if (latency != null && merged.getLastUpdate() != null) {
+                    // from the update in the backend, to reporting it to the item
+                    latency.record(Math.max(0, ChronoUnit.NANOS.between(merged.getLastUpdate(), OffsetDateTime.now())), TimeUnit.NANOSECONDS);
+                }
             } else {
+                last.set(null);
                 item.setQuality(StatusCode.UNCERTAIN);
             }
 
         } else {
+            last.set(null);
             item.setQuality(StatusCode.UNCERTAIN);
         }
     }
 
+    @Override
+    public void registerNodes(final RegisterNodesContext context, final List<NodeId> nodeIds) {
+        logger.debug("registerNodes: {}", nodeIds);
+
+        final var session = context.getSession().orElse(null);
+        final var result = new ArrayList<NodeId>(nodeIds.size());
+
+        for (final var nodeId : nodeIds) {
+            final var node = fromId(session, nodeId);
+            if (session == null || node == null || RegisteredNodes.isAlias(nodeId)) {
+                result.add(nodeId);
+            } else {
+                try {
+                    result.add(this.registered.register(session, this.namespaceIndex, nodeId, node.getThing(), node::pinned));
+                } catch (final UaException e) {
+                    context.failure(e);
+                    return;
+                }
+            }
+        }
+
+        context.success(result);
+    }
+
+    @Override
+    public void unregisterNodes(final UnregisterNodesContext context, final List<NodeId> nodeIds) {
+        logger.debug("unregisterNodes: {}", nodeIds);
+
+        context.getSession().ifPresent(session -> {
+            for (final var nodeId : nodeIds) {
+                this.registered.unregister(session, nodeId);
+            }
+        });
+
+        context.success(Collections.nCopies(nodeIds.size(), Unit.VALUE));
+    }
+
     @Override
     public void browse(final BrowseContext context, final ViewDescription view, final NodeId nodeId) {
+        time(this.browseTimer, context.getFuture());
         logger.debug("browse: {}", nodeId);
 
-        context.success(List.of());
+        final var node = fromId(context.getSession().orElse(null), nodeId);
+        if (node == null) {
+            context.success(List.of());
+            return;
+        }
+
+        final var event = OperationEvent.start(this.client.getApplication(), "properties", "browse", 1);
+        node.browse()
+                .whenComplete((result, err) -> {
+                    logger.debug("browse: {}", result, err);
+                    if (event != null) {
+                        event.thing = node.getThing();
+                        event.success = result != null;
+                        event.commit();
+                    }
+                    if (result != null) {
+                        context.success(result);
+                    } else {
+                        context.failure(Failures.statusOf(err));
+                    }
+                });
     }
 
     @Override
@@ -206,7 +460,7 @@ public class PropertyNamespace implements AddressSpaceFragment {
         if (nodeId.getNamespaceIndex().equals(this.namespaceIndex)) {
             // client node
 
-            final var node = fromId(nodeId);
+            final var node = fromId(context.getSession().orElse(null), nodeId);
             if (node != null) {
                 completedFuture(node)
                         .thenCompose(PropertyNode::getReferences)
@@ -228,36 +482,77 @@ public class PropertyNamespace implements AddressSpaceFragment {
     }
 
     NodeId propertyNodeId(final String thing, final String name) {
-        return propertyNodeIdJoin(this.namespaceIndex, thing, name);
+        return propertyNodeId(thing, name, List.of());
+    }
+
+    NodeId propertyNodeId(final String thing, final String name, final List<String> path) {
+        final var nodeId = propertyNodeIdJoin(this.namespaceIndex, thing, name, path);
+        if (this.ids != null) {
+            return new NodeId(this.namespaceIndex, uint(this.ids.idFor((String) nodeId.getIdentifier())));
+        }
+        return nodeId;
     }
 
     static NodeId propertyNodeIdJoin(final UShort namespaceIndex, final String thing, final String name) {
-        final var s = thing + "#" + URLEncoder.encode(name, StandardCharsets.UTF_8);
-        return new NodeId(namespaceIndex, s);
+        return propertyNodeIdJoin(namespaceIndex, thing, name, List.of());
+    }
+
+    /**
+     * Create the node id of a property, or a field nested inside an object value of the property.
+     * <p>
+     * The format is {@code <thing>#<property>[/<field>]*}, with the property and field names being URL encoded.
+     */
+    static NodeId propertyNodeIdJoin(final UShort namespaceIndex, final String thing, final String name, final List<String> path) {
+        final var s = new StringBuilder(thing)
+                .append('#')
+                .append(URLEncoder.encode(name, StandardCharsets.UTF_8));
+        for (final var segment : path) {
+            s.append('/').append(URLEncoder.encode(segment, StandardCharsets.UTF_8));
+        }
+        return new NodeId(namespaceIndex, s.toString());
     }
 
     /**
      * Create a node instance from a node id.
      * <p>
-     * This is the inverse operation of {@link PropertyNamespace#propertyNodeId(String, String)}.
+     * This is the inverse operation of {@link PropertyNamespace#propertyNodeId(String, String, List)}.
      *
+     * @param session The session, to resolve aliases of registered nodes, may be {@code null}.
      * @param id The node id.
      * @return The node, or {@code null} if it wasn't a valid id.
      */
-    PropertyNode fromId(final NodeId id) {
+    PropertyNode fromId(@Nullable final Session session, final NodeId id) {
         if (!id.getNamespaceIndex().equals(this.namespaceIndex)) {
             return null;
         }
 
+        if (RegisteredNodes.isAlias(id)) {
+            return this.registered.resolve(session, id, PropertyNode.class);
+        }
+
         try {
-            final var split = splitNodeId(id.getIdentifier());
-            return new PropertyNode(id, split[0], split[1], this, this.client);
+            final var split = splitNodeId(identifier(id));
+            final var path = List.of(split).subList(2, split.length);
+            return new PropertyNode(id, split[0], split[1], path, this, this.client);
         } catch (final Exception e) {
             return null;
         }
 
     }
 
+    /**
+     * Get the string identifier of a node id, resolving numeric node ids.
+     */
+    private Object identifier(final NodeId id) {
+        if (this.ids != null && id.getType() == IdType.Numeric) {
+            return this.ids.lookup(((UInteger) id.getIdentifier()).longValue());
+        }
+        return id.getIdentifier();
+    }
+
+    /**
+     * Split a node id into thing, property, and the path of fields.
+     */
     static String[] splitNodeId(final Object idValue) throws Exception {
         if (!(idValue instanceof final String s)) {
             return null;
@@ -269,11 +564,19 @@ public class PropertyNamespace implements AddressSpaceFragment {
         }
 
         final var thing = s.substring(0, fragmentPos);
-        final var feature = s.substring(fragmentPos + 1);
-        if (thing.isEmpty() || feature.isEmpty()) {
+        final var feature = s.substring(fragmentPos + 1).split("/", -1);
+        if (thing.isEmpty()) {
             return null;
         }
 
-        return new String[] { thing, URLDecoder.decode(feature, StandardCharsets.UTF_8) };
+        final var result = new String[feature.length + 1];
+        result[0] = thing;
+        for (int i = 0; i < feature.length; i++) {
+            if (feature[i].isEmpty()) {
+                return null;
+            }
+            result[i + 1] = URLDecoder.decode(feature[i], StandardCharsets.UTF_8);
+        }
+        return result;
     }
 }
@@ -2,18 +2,24 @@ package io.drogue.doppelgaenger.opcua.server;
 
 import static java.util.concurrent.CompletableFuture.completedFuture;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
 import org.eclipse.milo.opcua.sdk.core.Reference;
 import org.eclipse.milo.opcua.stack.core.AttributeId;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.eclipse.milo.opcua.stack.core.StatusCodes;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
 import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
@@ -21,6 +27,9 @@ import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.JsonElement;
+
+import io.drogue.doppelgaenger.opcua.client.BasicFeature;
 import io.drogue.doppelgaenger.opcua.client.Client;
 import io.drogue.doppelgaenger.opcua.client.Thing;
 
@@ -34,16 +43,41 @@ public class PropertyNode {
 
     private final String name;
 
+    private final List<String> path;
+
+    private final String key;
+
     private final PropertyNamespace namespace;
 
     private final Client client;
 
-    PropertyNode(final NodeId nodeId, final String thing, final String name, final PropertyNamespace namespace, final Client client) {
+    private final RegisteredNodes.Pin pin;
+
+    PropertyNode(final NodeId nodeId, final String thing, final String name, final List<String> path, final PropertyNamespace namespace, final Client client) {
+        this(nodeId, thing, name, path, namespace, client, null);
+    }
+
+    private PropertyNode(final NodeId nodeId, final String thing, final String name, final List<String> path, final PropertyNamespace namespace, final Client client, final RegisteredNodes.Pin pin) {
         this.nodeId = nodeId;
         this.thing = thing;
         this.name = name;
+        this.path = path;
         this.namespace = namespace;
         this.client = client;
+        this.pin = pin;
+
+        final var key = new StringBuilder(URLEncoder.encode(name, StandardCharsets.UTF_8));
+        for (final var segment : path) {
+            key.append('/').append(URLEncoder.encode(segment, StandardCharsets.UTF_8));
+        }
+        this.key = key.toString();
+    }
+
+    /**
+     * Create a copy of this node, reading from the pinned state of the thing.
+     */
+    PropertyNode pinned(final RegisteredNodes.Pin pin) {
+        return new PropertyNode(this.nodeId, this.thing, this.name, this.path, this.namespace, this.client, pin);
     }
 
     public String getThing() {
@@ -54,22 +88,68 @@ public class PropertyNode {
         return this.name;
     }
 
+    /**
+     * The path of fields, when the node is a field nested inside an object value of the property.
+     */
+    public List<String> getPath() {
+        return this.path;
+    }
+
     public CompletableFuture<List<Reference>> getReferences() {
 
-        final var nodeId = this.namespace.propertyNodeId(this.thing, this.name);
+        final var nodeId = this.namespace.propertyNodeId(this.thing, this.name, this.path);
 
-        final var refs = List.of(new Reference(
+        final var refs = new ArrayList<Reference>(2);
+        refs.add(new Reference(
                 nodeId,
                 Identifiers.HasTypeDefinition,
                 Identifiers.BaseDataVariableType.expanded(),
                 true
         ));
+        if (!this.path.isEmpty()) {
+            refs.add(new Reference(
+                    nodeId,
+                    Identifiers.HasComponent,
+                    this.namespace.propertyNodeId(this.thing, this.name, this.path.subList(0, this.path.size() - 1)).expanded(),
+                    false
+            ));
+        }
 
         logger.debug("getReferences -> {}", refs);
 
         return CompletableFuture.completedFuture(refs);
     }
 
+    /**
+     * Browse the fields of an object value.
+     */
+    public CompletableFuture<List<Reference>> browse() {
+        return fetch()
+                .thenApply(result -> {
+                    final var value = result
+                            .flatMap(thing -> thing.mergedState(this.name))
+                            .map(feature -> resolve(feature.getValue()))
+                            .orElse(null);
+
+                    if (value == null || !value.isJsonObject()) {
+                        return List.of();
+                    }
+
+                    final var refs = new ArrayList<Reference>();
+                    for (final var field : value.getAsJsonObject().keySet()) {
+                        final var childPath = new ArrayList<>(this.path);
+                        childPath.add(field);
+                        refs.add(new Reference(
+                                this.nodeId,
+                                Identifiers.HasComponent,
+                                this.namespace.propertyNodeId(this.thing, this.name, childPath).expanded(),
+                                true
+                        ));
+                    }
+                    return refs;
+                });
+    }
+
     public CompletableFuture<DataValue> readAttribute(final UInteger attributeId) {
         if (attributeId.equals(AttributeId.NodeId.uid())) {
             return completedFuture(new DataValue(new Variant(this.nodeId)));
@@ -87,16 +167,16 @@ public class PropertyNode {
             return completedFuture(new DataValue(new Variant(LocalizedText.NULL_VALUE)));
         }
         if (attributeId.equals(AttributeId.ValueRank.uid())) {
-            return completedFuture(new DataValue(new Variant(-1)));
+            return valueType().thenApply(type -> new DataValue(new Variant(type.getValueRank())));
         }
         if (attributeId.equals(AttributeId.DataType.uid())) {
-            return completedFuture(new DataValue(new Variant(Identifiers.BaseDataType)));
+            return valueType().thenApply(type -> new DataValue(new Variant(type.getDataType())));
         }
         if (attributeId.equals(AttributeId.AccessLevel.uid())) {
-            return completedFuture(new DataValue(new Variant(UByte.valueOf(1))));
+            return completedFuture(new DataValue(new Variant(accessLevel())));
         }
         if (attributeId.equals(AttributeId.UserAccessLevel.uid())) {
-            return completedFuture(new DataValue(new Variant(UByte.valueOf(1))));
+            return completedFuture(new DataValue(new Variant(accessLevel())));
         }
         if (attributeId.equals(AttributeId.EventNotifier.uid())) {
             return completedFuture(new DataValue(new Variant(UByte.valueOf(0))));
@@ -105,15 +185,15 @@ public class PropertyNode {
             return completedFuture(new DataValue(new Variant(0.0)));
         }
         if (attributeId.equals(AttributeId.ArrayDimensions.uid())) {
-            return completedFuture(new DataValue(new Variant(null)));
+            return valueType().thenApply(type -> new DataValue(new Variant(type.getArrayDimensions())));
         }
         if (attributeId.equals(AttributeId.Historizing.uid())) {
-            return completedFuture(new DataValue(new Variant(false)));
+            return completedFuture(new DataValue(new Variant(isHistorizing())));
         }
 
         if (attributeId.equals(AttributeId.Value.uid())) {
             logger.debug("Reading actual value");
-            return this.client.get(this.thing)
+            return fetch()
                     .thenApply(this::convertValue);
         }
 
@@ -122,8 +202,46 @@ public class PropertyNode {
         return completedFuture(new DataValue(StatusCodes.Bad_AttributeIdInvalid));
     }
 
+    /**
+     * Get the type of the property, converting the current value if the type isn't known yet.
+     */
+    private CompletableFuture<ValueType> valueType() {
+        final var type = this.namespace.getValueType(this.thing, this.key);
+        if (type.isPresent()) {
+            return completedFuture(type.get());
+        }
+
+        return fetch()
+                .thenApply(result -> {
+                    convertValue(result);
+                    // types are only remembered while the thing is subscribed, otherwise use the current value
+                    return this.namespace.getValueType(this.thing, this.key)
+                            .or(() -> result
+                                    .flatMap(thing -> thing.mergedState(this.name))
+                                    .map(feature -> Values.inferType(resolve(feature.getValue()))))
+                            .orElse(ValueType.Any);
+                });
+    }
+
+    private CompletableFuture<Optional<Thing>> fetch() {
+        return this.pin != null ? this.pin.get() : this.client.get(this.thing);
+    }
+
+    private boolean isHistorizing() {
+        // history is only recorded for the property itself
+        return this.path.isEmpty() && this.namespace.isHistorizing(this.thing, this.name);
+    }
+
+    private UByte accessLevel() {
+        if (isHistorizing()) {
+            return AccessLevel.toValue(AccessLevel.CurrentRead, AccessLevel.HistoryRead);
+        } else {
+            return AccessLevel.toValue(AccessLevel.CurrentRead);
+        }
+    }
+
     private String getLocalName() {
-        return this.name;
+        return this.path.isEmpty() ? this.name : this.path.get(this.path.size() - 1);
     }
 
     DataValue convertValue(final Optional<Thing> result) {
@@ -136,8 +254,45 @@ public class PropertyNode {
             return new DataValue(StatusCodes.Bad_NotFound);
         }
 
-        return Values.toDataValue(merged);
+        final var value = convert(merged.get());
+        if (result.get().isRestored() && value.getStatusCode() != null && value.getStatusCode().isGood()) {
+            // restored from a snapshot, or the last known state after a timeout, not confirmed by the backend
+            return new DataValue(value.getValue(), new StatusCode(StatusCodes.Uncertain_LastUsableValue), value.getSourceTime(), value.getServerTime());
+        }
+        return value;
+
+    }
+
+    /**
+     * Convert the value of this node, from the state of the property.
+     */
+    DataValue convert(final BasicFeature feature) {
+        if (this.path.isEmpty()) {
+            return this.namespace.toDataValue(this.thing, this.key, feature);
+        }
+
+        final var value = resolve(feature.getValue());
+        if (value == null) {
+            return new DataValue(StatusCodes.Bad_NotFound);
+        }
+
+        return this.namespace.toDataValue(this.thing, this.key, value, new DateTime(feature.getLastUpdate().toInstant()));
+    }
 
+    /**
+     * Resolve the value of this node, from the value of the property.
+     *
+     * @return The value, or {@code null} if it doesn't exist.
+     */
+    JsonElement resolve(final JsonElement value) {
+        var current = value;
+        for (final var segment : this.path) {
+            if (current == null || !current.isJsonObject()) {
+                return null;
+            }
+            current = current.getAsJsonObject().get(segment);
+        }
+        return current;
     }
 
 }
@@ -0,0 +1,229 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.milo.opcua.sdk.server.Session;
+import org.eclipse.milo.opcua.sdk.server.SessionListener;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.IdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.drogue.doppelgaenger.opcua.ThingListener;
+import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
+import io.drogue.doppelgaenger.opcua.client.Client;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+
+/**
+ * Nodes registered by clients, using the RegisterNodes service.
+ * <p>
+ * Each registered node gets a numeric alias, which resolves directly to the already parsed node. The state of the
+ * thing is pinned using a subscription, so that reads through the alias don't need to fetch the thing. Registrations
+ * are released when the client unregisters the alias, or when the session gets closed.
+ * <p>
+ * Aliases belong to the session which registered them, and only resolve for that session. Registering the same
+ * node again returns the existing alias. The number of registrations per session is limited.
+ */
+class RegisteredNodes implements SessionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegisteredNodes.class);
+
+    /**
+     * Aliases use the upper half of the numeric identifiers.
+     */
+    private static final long ALIAS_BASE = 0x8000_0000L;
+
+    private record Handle(NodeId sessionId, NodeId nodeId, Object node, Pin pin) {
+    }
+
+    /**
+     * The pinned state of a thing.
+     */
+    static class Pin implements ThingListener.Listener {
+
+        private final Client client;
+
+        private final String thing;
+
+        private volatile Optional<Thing> state = Optional.empty();
+
+        private ThingsSubscriptionManager.Subscription subscription;
+
+        Pin(final Client client, final String thing) {
+            this.client = client;
+            this.thing = thing;
+        }
+
+        @Override
+        public void onChange(final Optional<Thing> state) {
+            this.state = state;
+        }
+
+        /**
+         * Get the state of the thing, falling back to fetching it, when we don't have a state (yet).
+         */
+        CompletableFuture<Optional<Thing>> get() {
+            final var state = this.state;
+            if (state.isPresent()) {
+                return completedFuture(state);
+            }
+            return this.client.get(this.thing);
+        }
+
+        void close() {
+            if (this.subscription != null) {
+                this.subscription.close();
+            }
+        }
+    }
+
+    private final ThingsSubscriptionManager subscriptions;
+
+    private final Client client;
+
+    private final int maxPerSession;
+
+    private final Map<NodeId, Handle> handles = new ConcurrentHashMap<>();
+
+    /**
+     * The aliases of each session, by the registered node id. Access must be synchronized on the session's map.
+     */
+    private final Map<NodeId, Map<NodeId, NodeId>> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Create a new instance.
+     *
+     * @param maxPerSession The maximum number of nodes registered by a single session.
+     */
+    RegisteredNodes(final ThingsSubscriptionManager subscriptions, final Client client, final int maxPerSession) {
+        this.subscriptions = subscriptions;
+        this.client = client;
+        this.maxPerSession = maxPerSession;
+    }
+
+    /**
+     * Check if a node id is an alias.
+     */
+    static boolean isAlias(final NodeId nodeId) {
+        return nodeId.getType() == IdType.Numeric
+                && ((Number) nodeId.getIdentifier()).longValue() >= ALIAS_BASE;
+    }
+
+    /**
+     * Register a node.
+     *
+     * @param session The session registering the node.
+     * @param namespaceIndex The namespace of the alias.
+     * @param nodeId The node id being registered.
+     * @param thing The thing to pin.
+     * @param node Create the node, bound to the pinned state.
+     * @return The alias, an existing one if the session registered the node before.
+     * @throws UaException With "Bad_TooManyOperations", if the session exceeds the number of registered nodes.
+     */
+    NodeId register(final Session session, final UShort namespaceIndex, final NodeId nodeId, final String thing, final Function<Pin, ?> node) throws UaException {
+        final var sessionId = session.getSessionId();
+        final var aliases = this.sessions.computeIfAbsent(sessionId, x -> new HashMap<>());
+
+        synchronized (aliases) {
+            final var existing = aliases.get(nodeId);
+            if (existing != null) {
+                return existing;
+            }
+            if (aliases.size() >= this.maxPerSession) {
+                throw new UaException(StatusCodes.Bad_TooManyOperations, String.format("Session exceeds the maximum of %s registered nodes", this.maxPerSession));
+            }
+
+            final var pin = new Pin(this.client, thing);
+            pin.subscription = this.subscriptions.createSubscription(thing, null, pin);
+
+            final var alias = new NodeId(namespaceIndex, uint(ALIAS_BASE + (this.next.getAndIncrement() % ALIAS_BASE)));
+            this.handles.put(alias, new Handle(sessionId, nodeId, node.apply(pin), pin));
+            aliases.put(nodeId, alias);
+
+            if (this.sessions.get(sessionId) != aliases) {
+                // the session got closed in the meantime
+                release(alias);
+                throw new UaException(StatusCodes.Bad_SessionClosed);
+            }
+
+            logger.debug("Registered node - alias: {}, thing: {}", alias, thing);
+
+            return alias;
+        }
+    }
+
+    /**
+     * Resolve an alias.
+     *
+     * @param session The session using the alias, {@code null} if there is none.
+     * @return The node, or {@code null} if the alias is unknown, of a different type, or registered by a different
+     *         session.
+     */
+    @Nullable
+    <N> N resolve(@Nullable final Session session, final NodeId alias, final Class<N> type) {
+        final var handle = this.handles.get(alias);
+        if (handle != null && session != null && handle.sessionId().equals(session.getSessionId()) && type.isInstance(handle.node())) {
+            return type.cast(handle.node());
+        }
+        return null;
+    }
+
+    /**
+     * Unregister an alias, if it was registered by the session.
+     */
+    void unregister(final Session session, final NodeId alias) {
+        final var handle = this.handles.get(alias);
+        if (handle == null || !handle.sessionId().equals(session.getSessionId())) {
+            return;
+        }
+
+        final var aliases = this.sessions.get(handle.sessionId());
+        if (aliases != null) {
+            synchronized (aliases) {
+                aliases.remove(handle.nodeId(), alias);
+            }
+        }
+        release(alias);
+    }
+
+    private void release(final NodeId alias) {
+        final var handle = this.handles.remove(alias);
+        if (handle != null) {
+            logger.debug("Unregistered node - alias: {}", alias);
+            handle.pin().close();
+        }
+    }
+
+    @Override
+    public void onSessionClosed(final Session session) {
+        final var aliases = this.sessions.remove(session.getSessionId());
+        if (aliases != null) {
+            synchronized (aliases) {
+                aliases.values().forEach(this::release);
+                aliases.clear();
+            }
+        }
+    }
+
+    void close() {
+        this.sessions.clear();
+        for (final var alias : this.handles.keySet()) {
+            release(alias);
+        }
+    }
+}
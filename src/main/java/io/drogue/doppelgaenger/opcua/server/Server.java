@@ -1,34 +1,52 @@
 package io.drogue.doppelgaenger.opcua.server;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig.USER_TOKEN_POLICY_ANONYMOUS;
 import static org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig.USER_TOKEN_POLICY_USERNAME;
 import static org.eclipse.milo.opcua.stack.core.StatusCodes.Bad_ConfigurationError;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
+import org.eclipse.milo.opcua.sdk.core.Reference;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
 import org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfig;
 import org.eclipse.milo.opcua.sdk.server.identity.AnonymousIdentityValidator;
 import org.eclipse.milo.opcua.sdk.server.identity.CompositeValidator;
 import org.eclipse.milo.opcua.sdk.server.identity.IdentityValidator;
 import org.eclipse.milo.opcua.sdk.server.identity.UsernameIdentityValidator;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 import org.eclipse.milo.opcua.sdk.server.util.HostnameUtil;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.eclipse.milo.opcua.stack.core.UaRuntimeException;
 import org.eclipse.milo.opcua.stack.core.security.DefaultCertificateManager;
 import org.eclipse.milo.opcua.stack.core.security.DefaultTrustListManager;
 import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
 import org.eclipse.milo.opcua.stack.core.transport.TransportProfile;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
 import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
 import org.eclipse.milo.opcua.stack.core.types.structured.BuildInfo;
 import org.eclipse.milo.opcua.stack.core.util.CertificateUtil;
@@ -39,9 +57,16 @@ import org.slf4j.LoggerFactory;
 
 import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
 import io.drogue.doppelgaenger.opcua.client.Client;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+import io.drogue.doppelgaenger.opcua.history.Aggregator;
+import io.drogue.doppelgaenger.opcua.history.HistoryRecorder;
+import io.drogue.doppelgaenger.opcua.history.HistoryStore;
+import io.drogue.doppelgaenger.opcua.history.MemoryHistoryStore;
+import io.drogue.doppelgaenger.opcua.history.SegmentHistoryStore;
 import io.drogue.doppelgaenger.opcua.milo.AllowAllServerCertificateValidator;
 import io.drogue.doppelgaenger.opcua.milo.BuildInfoLoader;
 import io.drogue.doppelgaenger.opcua.milo.KeyCertMaterial;
+import io.micrometer.core.instrument.Gauge;
 import io.smallrye.config.ConfigMapping;
 import io.smallrye.config.WithDefault;
 
@@ -55,6 +80,18 @@ public class Server {
 
     private static final String NAME = "Drogue Doppelgänger OPC UA integration";
 
+    private static final long TICKS_PER_MILLISECOND = 10_000L;
+
+    /**
+     * An application to serve.
+     *
+     * @param application The name of the application.
+     * @param client The client for the application.
+     * @param subscriptions The subscriptions of the application.
+     */
+    public record Tenant(String application, Client client, ThingsSubscriptionManager subscriptions) {
+    }
+
     @ConfigMapping(prefix = "drogue.doppelgaenger.opcua")
     public interface Configuration {
 
@@ -83,6 +120,477 @@ public class Server {
 
         @WithDefault("/tmp/milo/pki")
         Path pkiDirectory();
+
+        History history();
+
+        NodeIds nodeIds();
+
+        Browse browse();
+
+        Events events();
+
+        Limits limits();
+
+        Startup startup();
+
+        Warmup warmup();
+
+        Mirror mirror();
+
+        Applications applications();
+
+        MetricsConfig metrics();
+
+        Diagnostics diagnostics();
+
+        Recording recording();
+
+        Replay replay();
+    }
+
+    public interface Diagnostics {
+        /**
+         * Enable the standard server diagnostics nodes.
+         */
+        @WithDefault("true")
+        boolean enabled();
+    }
+
+    public interface Recording {
+        /**
+         * Record the notifications received from the backend to this file.
+         */
+        Optional<Path> file();
+
+        /**
+         * The maximum number of frames waiting to be written. Frames are dropped when writing falls behind.
+         */
+        @WithDefault("10000")
+        int queueSize();
+    }
+
+    public interface Replay {
+        /**
+         * Replay the notifications from this recording, instead of receiving them from the backend.
+         */
+        Optional<Path> file();
+
+        /**
+         * The factor to scale the recorded timing by, zero or less to replay as fast as possible.
+         */
+        @WithDefault("1")
+        double speed();
+
+        /**
+         * Start over once all notifications have been replayed.
+         */
+        @WithDefault("false")
+        boolean loop();
+    }
+
+    public interface MetricsConfig {
+        /**
+         * The maximum number of things, which get their own tag value in metrics.
+         */
+        @WithDefault("100")
+        int maxThingTags();
+    }
+
+    public interface Applications {
+        /**
+         * The maximum number of concurrent requests to the backend, per application.
+         */
+        @WithDefault("64")
+        int maxConcurrentRequests();
+
+        /**
+         * The maximum number of concurrent requests to the backend for browsing, per application. Separate from the
+         * requests for reading values.
+         */
+        @WithDefault("16")
+        int maxConcurrentBrowseRequests();
+
+        /**
+         * The maximum number of requests to the backend waiting for a free slot, per application, for reading and for
+         * browsing each. Additional requests fail right away, or get answered from the last known state.
+         */
+        @WithDefault("1000")
+        int maxQueuedRequests();
+
+        /**
+         * The maximum number of concurrent attempts to connect to the notifications of things, per application.
+         */
+        @WithDefault("16")
+        int maxConcurrentConnects();
+
+        /**
+         * The deadline of backend requests made for reading and browsing, zero to wait for the backend.
+         */
+        @WithDefault("5s")
+        Duration requestTimeout();
+
+        /**
+         * The maximum number of things, per application, for which the last known state is kept, to answer requests
+         * running into the deadline.
+         */
+        @WithDefault("1000")
+        int maxLastKnownStates();
+
+        Hedging hedging();
+
+        CircuitBreakerConfig circuitBreaker();
+    }
+
+    public interface CircuitBreakerConfig {
+        /**
+         * Stop sending requests to the backend, while most of them fail.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * The ratio of failed requests, at which to stop sending requests.
+         */
+        @WithDefault("0.5")
+        double failureRatio();
+
+        /**
+         * The number of recent requests to evaluate.
+         */
+        @WithDefault("20")
+        int window();
+
+        /**
+         * The time to stop sending requests, before probing the backend again.
+         */
+        @WithDefault("10s")
+        Duration openDuration();
+    }
+
+    public interface Hedging {
+        /**
+         * Send a second request to the backend, if a request takes longer than most others.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * The percentile of the latencies of recent requests, after which a second request gets sent.
+         */
+        @WithDefault("0.95")
+        double percentile();
+
+        /**
+         * The minimum delay before sending a second request.
+         */
+        @WithDefault("0.01s")
+        Duration minDelay();
+
+        /**
+         * The maximum ratio of second requests to requests, across all applications.
+         */
+        @WithDefault("0.05")
+        double budget();
+    }
+
+    public interface Mirror {
+        /**
+         * Keep a local replica of all things, serving reads and browsing from memory.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * Report ready after this time, even if the initial load didn't complete.
+         */
+        @WithDefault("5m")
+        Duration initialTimeout();
+
+        Snapshot snapshot();
+    }
+
+    public interface Snapshot {
+        /**
+         * Periodically persist the mirrored states, and restore them at startup.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * The directory to store the snapshot in.
+         */
+        @WithDefault("data/snapshot")
+        Path directory();
+
+        /**
+         * The interval to write snapshots in.
+         */
+        @WithDefault("1m")
+        Duration interval();
+    }
+
+    public interface Warmup {
+        /**
+         * Load the hierarchy of things before reporting ready.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * The depth of the hierarchy to load, {@code 0} only loads the root thing.
+         */
+        @WithDefault("2")
+        int depth();
+
+        /**
+         * The maximum number of concurrent requests to the backend.
+         */
+        @WithDefault("8")
+        int concurrency();
+
+        /**
+         * Report ready after this time, even if loading didn't complete.
+         */
+        @WithDefault("30s")
+        Duration timeout();
+    }
+
+    public interface Startup {
+        /**
+         * The maximum time to wait for resolving the hostnames of the local interfaces.
+         */
+        @WithDefault("5s")
+        Duration hostnameTimeout();
+    }
+
+    public interface Limits {
+        /**
+         * The maximum number of concurrent sessions.
+         */
+        @WithDefault("100")
+        int maxSessions();
+
+        /**
+         * The maximum timeout of a session.
+         */
+        @WithDefault("2m")
+        Duration maxSessionTimeout();
+
+        /**
+         * The maximum number of subscriptions, across all sessions.
+         */
+        @WithDefault("2147483647")
+        int maxSubscriptions();
+
+        /**
+         * The maximum number of subscriptions of a single session.
+         */
+        @WithDefault("2147483647")
+        int maxSubscriptionsPerSession();
+
+        /**
+         * The maximum number of monitored items, across all sessions.
+         */
+        @WithDefault("2147483647")
+        int maxMonitoredItems();
+
+        /**
+         * The maximum number of monitored items of a single session.
+         */
+        @WithDefault("2147483647")
+        int maxMonitoredItemsPerSession();
+
+        /**
+         * The maximum number of monitored items created, modified, or deleted in a single call.
+         */
+        @WithDefault("10000")
+        int maxMonitoredItemsPerCall();
+
+        /**
+         * The maximum number of nodes registered in a single call to the RegisterNodes service.
+         */
+        @WithDefault("250")
+        int maxNodesPerRegisterNodes();
+
+        /**
+         * The maximum number of nodes registered by a single session, using the RegisterNodes service.
+         */
+        @WithDefault("10000")
+        int maxRegisteredNodesPerSession();
+
+        /**
+         * The minimum publishing interval, faster requested intervals get revised.
+         */
+        @WithDefault("0.01s")
+        Duration minPublishingInterval();
+
+        /**
+         * The minimum sampling interval, faster requested intervals get revised.
+         */
+        @WithDefault("0s")
+        Duration minSamplingInterval();
+
+        /**
+         * The maximum size of a message in bytes.
+         */
+        @WithDefault("2097152")
+        int maxMessageSize();
+
+        /**
+         * The maximum size of a message chunk in bytes.
+         */
+        @WithDefault("65535")
+        int maxChunkSize();
+
+        /**
+         * The maximum number of chunks of a message.
+         */
+        @WithDefault("64")
+        int maxChunkCount();
+    }
+
+    public interface Events {
+        /**
+         * Emit model change events, when the children or properties of a thing change.
+         */
+        @WithDefault("true")
+        boolean enabled();
+
+        /**
+         * Also emit generic model change events, without the details of the change.
+         */
+        @WithDefault("false")
+        boolean generic();
+    }
+
+    public interface Browse {
+        /**
+         * How long the children and properties of a thing are cached, for browsing and resolving browse paths.
+         */
+        @WithDefault("10s")
+        Duration indexTtl();
+
+        /**
+         * The maximum number of things kept in the index.
+         */
+        @WithDefault("10000")
+        int indexSize();
+    }
+
+    public interface NodeIds {
+        /**
+         * The type of node ids to hand out for things and properties.
+         */
+        @WithDefault("string")
+        NodeIdMode mode();
+
+        /**
+         * The directory to persist the assigned ids in, in numeric mode.
+         */
+        @WithDefault("data/node-ids")
+        Path directory();
+    }
+
+    public enum NodeIdMode {
+        /**
+         * String node ids, derived from the name of the thing and property.
+         */
+        String,
+        /**
+         * Compact numeric node ids, assigned on first use. String node ids are still accepted.
+         */
+        Numeric,
+    }
+
+    public interface History {
+        /**
+         * Record the history of properties of subscribed things.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * Where to store the history.
+         */
+        @WithDefault("memory")
+        HistoryMode mode();
+
+        /**
+         * The number of samples to keep per property, in memory mode.
+         */
+        @WithDefault("1000")
+        int capacity();
+
+        /**
+         * The maximum number of properties to keep the history for in memory mode, or to keep open in disk mode.
+         */
+        @WithDefault("10000")
+        int maxProperties();
+
+        /**
+         * The maximum number of values returned per node and request.
+         */
+        @WithDefault("10000")
+        int maxValuesPerRead();
+
+        /**
+         * The directory to store segment files in, in disk mode.
+         */
+        @WithDefault("data/history")
+        Path directory();
+
+        /**
+         * The size of a segment file in bytes, in disk mode.
+         */
+        @WithDefault("1048576")
+        int segmentSize();
+
+        Retention retention();
+
+        Rollup rollup();
+    }
+
+    public enum HistoryMode {
+        Memory,
+        Disk,
+    }
+
+    public interface Retention {
+        /**
+         * Drop samples older than this.
+         */
+        Optional<Duration> maxAge();
+
+        /**
+         * Drop the oldest samples when a property exceeds this number of bytes.
+         */
+        Optional<Long> maxSize();
+
+        /**
+         * How often to check the retention.
+         */
+        @WithDefault("60s")
+        Duration interval();
+    }
+
+    public interface Rollup {
+        /**
+         * Maintain pre-aggregated buckets, for answering aggregate queries.
+         */
+        @WithDefault("true")
+        boolean enabled();
+
+        /**
+         * The duration of a bucket. Aggregates with a multiple of this interval, aligned to it, are served from buckets.
+         */
+        @WithDefault("60s")
+        Duration interval();
+
+        /**
+         * The maximum number of buckets kept per property.
+         */
+        @WithDefault("10080")
+        int maxBuckets();
     }
 
     public enum SelfSignedMode {
@@ -115,20 +623,62 @@ public class Server {
 
     public static class Builder {
 
+        private static final int STARTUP_THREADS = 4;
+
+        private record NodeIdRegistries(NodeIdRegistry things, NodeIdRegistry properties) {
+        }
+
+        private record Storage(Optional<HistoryStore> history, Optional<NodeIdRegistries> nodeIds, Map<String, Thing> restored) {
+        }
+
         private final Configuration configuration;
 
         public Builder(final Configuration configuration) {
             this.configuration = configuration;
         }
 
-        Set<String> createHostnames() {
-            return this.configuration.hostnames().orElseGet(() -> {
-                final var r = new LinkedHashSet<String>();
-                r.add(HostnameUtil.getHostname());
-                r.addAll(HostnameUtil.getHostnames("0.0.0.0"));
-                r.addAll(HostnameUtil.getHostnames("::1"));
-                return r;
+        CompletableFuture<Set<String>> createHostnames(final StartupPhases phases) {
+            final var configured = this.configuration.hostnames();
+            if (configured.isPresent()) {
+                return completedFuture(configured.get());
+            }
+
+            // reverse lookups may block for a long time, run them in parallel and skip those taking too long
+
+            final var counter = new AtomicInteger();
+            final var executor = Executors.newFixedThreadPool(3, runnable -> {
+                final var thread = new Thread(runnable, "hostname-resolver-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
             });
+
+            final var hostname = resolveHostnames(phases, executor, "hostname", () -> Set.of(HostnameUtil.getHostname()));
+            final var ipv4 = resolveHostnames(phases, executor, "hostnames (0.0.0.0)", () -> HostnameUtil.getHostnames("0.0.0.0"));
+            final var ipv6 = resolveHostnames(phases, executor, "hostnames (::1)", () -> HostnameUtil.getHostnames("::1"));
+
+            return CompletableFuture.allOf(hostname, ipv4, ipv6)
+                    // interrupt lookups which timed out, instead of leaving them blocking a shared startup thread
+                    .whenComplete((x, err) -> executor.shutdownNow())
+                    .thenApply(x -> {
+                        final var r = new LinkedHashSet<String>();
+                        r.addAll(hostname.join());
+                        r.addAll(ipv4.join());
+                        r.addAll(ipv6.join());
+                        if (r.isEmpty()) {
+                            r.add("localhost");
+                        }
+                        return r;
+                    });
+        }
+
+        private CompletableFuture<Set<String>> resolveHostnames(final StartupPhases phases, final ExecutorService executor, final String name, final Callable<Set<String>> resolver) {
+            final var timeout = this.configuration.startup().hostnameTimeout();
+            return phases.run(name, resolver, executor)
+                    .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                    .exceptionally(err -> {
+                        logger.warn("Failed to resolve {} within {}, skipping", name, timeout);
+                        return Set.of();
+                    });
         }
 
         Set<EndpointConfiguration> createEndpoints(final Optional<X509Certificate> certificate, final Set<String> hostnames) {
@@ -193,61 +743,88 @@ public class Server {
 
         }
 
-        Optional<KeyCertMaterial> createKeyCertMaterial(final Set<String> hostnames) throws Exception {
+        CompletableFuture<Optional<KeyCertMaterial>> createKeyCertMaterial(final StartupPhases phases, final CompletableFuture<Set<String>> hostnames) {
 
             if (this.configuration.serverKey().isPresent()) {
                 final var sk = this.configuration.serverKey().get();
-                return Optional.of(KeyCertMaterial.load(
+                return phases.run("key material", () -> Optional.of(KeyCertMaterial.load(
                         sk.keystore(),
                         sk.type(),
                         sk.storePassword().map(String::toCharArray).orElse(null),
                         sk.keyAlias(),
                         sk.keyPassword().map(String::toCharArray).orElse(null),
                         sk.certificateAlias().orElse(sk.keyAlias())
-                ));
+                )));
             }
 
             if (this.configuration.selfSignedKey().isPresent()) {
                 final var ssk = this.configuration.selfSignedKey().get();
 
-                KeyCertMaterial kc = null;
-
                 switch (ssk.mode()) {
                 case Persistent: {
-                    kc = KeyCertMaterial.loadOrCreateSelfSigned(
-                            ssk.location(),
-                            hostnames,
-                            Server.DEFAULT_APPLICATION_URI
-                    );
-                    break;
+                    return phases.run("key material (load)", () -> KeyCertMaterial.loadSelfSigned(ssk.location()))
+                            .thenCompose(existing -> {
+                                if (existing.isPresent()) {
+                                    return completedFuture(existing);
+                                }
+                                return phases.run("key material (generate)", KeyCertMaterial::generateKeyPair)
+                                        .thenCombine(hostnames, (keyPair, h) -> {
+                                            try {
+                                                return Optional.of(KeyCertMaterial.createAndStoreSelfSigned(ssk.location(), keyPair, h, Server.DEFAULT_APPLICATION_URI));
+                                            } catch (final Exception e) {
+                                                throw new CompletionException(e);
+                                            }
+                                        });
+                            });
                 }
                 case Ephemeral: {
-                    kc = KeyCertMaterial.createSelfSigned(
-                            hostnames,
-                            Server.DEFAULT_APPLICATION_URI
-                    );
-                    break;
+                    // the key doesn't depend on the hostnames, only the certificate does
+                    return phases.run("key material (generate)", KeyCertMaterial::generateKeyPair)
+                            .thenCombine(hostnames, (keyPair, h) -> {
+                                try {
+                                    return Optional.of(KeyCertMaterial.createSelfSigned(keyPair, h, Server.DEFAULT_APPLICATION_URI));
+                                } catch (final Exception e) {
+                                    throw new CompletionException(e);
+                                }
+                            });
                 }
 
                 }
 
-                return Optional.of(kc);
-
             }
 
             // no key/cert material
 
-            return Optional.empty();
+            return completedFuture(Optional.empty());
 
         }
 
+        /**
+         * Start a server, serving a single application.
+         */
         public CompletableFuture<Server> start(
                 final Client client,
                 final ThingsSubscriptionManager subscriptions
         ) throws Exception {
+            return start(List.of(new Tenant(client.getApplication(), client, subscriptions)), false);
+        }
 
-            Objects.requireNonNull(client);
-            Objects.requireNonNull(subscriptions);
+        /**
+         * Start a server, serving multiple applications, each with its own namespaces.
+         */
+        public CompletableFuture<Server> start(final List<Tenant> tenants) throws Exception {
+            return start(tenants, true);
+        }
+
+        private CompletableFuture<Server> start(final List<Tenant> tenants, final boolean multiple) throws Exception {
+
+            if (tenants.isEmpty()) {
+                throw new IllegalArgumentException("No application to serve");
+            }
+            for (final var tenant : tenants) {
+                Objects.requireNonNull(tenant.client());
+                Objects.requireNonNull(tenant.subscriptions());
+            }
 
             // core information
 
@@ -278,14 +855,32 @@ public class Server {
             logger.info("    Build Date:        {}", buildInfo.getBuildDate());
 
             logger.info("Binding to: {}:{}", this.configuration.bindAddress(), this.configuration.bindPort());
+            logger.info("Applications: {}", tenants.stream().map(Tenant::application).toList());
+
+            final var limits = this.configuration.limits();
+            logger.info("Limits - sessions: {}, subscriptions: {}/{} (per session), monitored items: {}/{} (per session)",
+                    limits.maxSessions(), limits.maxSubscriptions(), limits.maxSubscriptionsPerSession(),
+                    limits.maxMonitoredItems(), limits.maxMonitoredItemsPerSession());
 
-            final var hostnames = createHostnames();
+            final var phases = new StartupPhases(STARTUP_THREADS);
 
-            // load key & cert
+            // warm up the token and the connection to the backend, without waiting for it
 
-            final var loader = createKeyCertMaterial(hostnames);
+            for (final var tenant : tenants) {
+                phases.time(phaseName("backend", tenant, multiple), tenant.client().get("/"));
+            }
+
+            // run independent phases in parallel
+
+            final var hostnames = createHostnames(phases);
+            final var material = createKeyCertMaterial(phases, hostnames);
+
+            final var storage = new ArrayList<CompletableFuture<Storage>>(tenants.size());
+            for (final var tenant : tenants) {
+                storage.add(createStorage(phases, tenant, multiple));
+            }
 
-            final var certificateManager = loader.map(l -> {
+            final var certificateManager = material.thenApply(loader -> loader.map(l -> {
                 final var cm = new DefaultCertificateManager(
                         l.getServerKeyPair(),
                         l.getServerCertificateChain()
@@ -302,7 +897,87 @@ public class Server {
                 });
 
                 return cm;
-            });
+            }));
+
+            // endpoints
+
+            final var endpoints = hostnames.thenCombine(certificateManager, (h, cm) -> phases.run("endpoints", () -> createEndpoints(certificate(cm), h)))
+                    .thenCompose(x -> x);
+
+            // server
+
+            final var storageCompleted = CompletableFuture.allOf(storage.toArray(CompletableFuture[]::new));
+
+            return CompletableFuture.allOf(endpoints, storageCompleted)
+                    .thenCompose(x -> startServer(phases, tenants, multiple, storage.stream().map(CompletableFuture::join).toList(), buildInfo, certificateManager.join(), endpoints.join()))
+                    .whenComplete((server, err) -> {
+                        phases.report();
+                        phases.close();
+                    });
+        }
+
+        private static String phaseName(final String name, final Tenant tenant, final boolean multiple) {
+            return multiple ? name + " (" + tenant.application() + ")" : name;
+        }
+
+        /**
+         * Get the directory of an application, below a configured directory.
+         */
+        private static Path directory(final Path directory, final Tenant tenant, final boolean multiple) {
+            return multiple ? directory.resolve(tenant.application()) : directory;
+        }
+
+        private CompletableFuture<Storage> createStorage(final StartupPhases phases, final Tenant tenant, final boolean multiple) {
+
+            final CompletableFuture<Optional<HistoryStore>> historyStore;
+            if (this.configuration.history().enabled()) {
+                final var directory = directory(this.configuration.history().directory(), tenant, multiple);
+                historyStore = phases.run(phaseName("history", tenant, multiple), () -> Optional.of(createHistoryStore(this.configuration.history(), directory)));
+            } else {
+                historyStore = completedFuture(Optional.empty());
+            }
+
+            final CompletableFuture<Optional<NodeIdRegistries>> nodeIds;
+            if (this.configuration.nodeIds().mode() == NodeIdMode.Numeric) {
+                final var directory = directory(this.configuration.nodeIds().directory(), tenant, multiple);
+                nodeIds = phases.run(phaseName("node ids", tenant, multiple), () -> Optional.of(new NodeIdRegistries(
+                        new NodeIdRegistry(directory.resolve("things.ids")),
+                        new NodeIdRegistry(directory.resolve("properties.ids"))
+                )));
+            } else {
+                nodeIds = completedFuture(Optional.empty());
+            }
+
+            final CompletableFuture<Map<String, Thing>> restored;
+            if (this.configuration.mirror().enabled() && this.configuration.mirror().snapshot().enabled()) {
+                final var file = snapshotFile(this.configuration.mirror().snapshot(), tenant, multiple);
+                restored = phases.run(phaseName("snapshot", tenant, multiple), () -> StateSnapshot.read(file));
+            } else {
+                restored = completedFuture(Map.of());
+            }
+
+            return CompletableFuture.allOf(historyStore, nodeIds, restored)
+                    .thenApply(x -> new Storage(historyStore.join(), nodeIds.join(), restored.join()));
+        }
+
+        private static Optional<X509Certificate> certificate(final Optional<DefaultCertificateManager> certificateManager) {
+            return certificateManager.map(cm -> cm.getCertificates()
+                    .stream()
+                    .findFirst()
+                    .orElseThrow(() -> new UaRuntimeException(Bad_ConfigurationError, "no certificate found")));
+        }
+
+        private CompletableFuture<Server> startServer(
+                final StartupPhases phases,
+                final List<Tenant> tenants,
+                final boolean multiple,
+                final List<Storage> storage,
+                final BuildInfo buildInfo,
+                final Optional<DefaultCertificateManager> certificateManager,
+                final Set<EndpointConfiguration> endpoints
+        ) {
+
+            final var limits = this.configuration.limits();
 
             // validators
 
@@ -319,22 +994,13 @@ public class Server {
                 validators.add(AnonymousIdentityValidator.INSTANCE);
             }
 
-            final var certificate = certificateManager.map(cm -> cm.getCertificates()
-                    .stream()
-                    .findFirst()
-                    .orElseThrow(() -> new UaRuntimeException(Bad_ConfigurationError, "no certificate found")));
-
-            final var applicationUri = certificate.map(c ->
+            final var applicationUri = certificate(certificateManager).map(c ->
                             CertificateUtil
                                     .getSanUri(c)
                                     .orElseThrow(() -> new UaRuntimeException(Bad_ConfigurationError, "certificate is missing the application URI"))
                     )
                     .orElse(Server.DEFAULT_APPLICATION_URI);
 
-            // endpoints
-
-            final var endpoints = createEndpoints(certificate, hostnames);
-
             // server
 
             final var config = OpcUaServerConfig.builder()
@@ -343,6 +1009,8 @@ public class Server {
                     .setBuildInfo(buildInfo)
                     .setProductUri(this.configuration.productUri())
                     .setIdentityValidator(new CompositeValidator<>(validators))
+                    .setLimits(ServerLimits.configLimits(limits))
+                    .setEncodingLimits(ServerLimits.encodingLimits(limits))
                     .setEndpoints(endpoints);
 
             certificateManager.ifPresent(cm -> {
@@ -378,32 +1046,238 @@ public class Server {
             // create server
 
             final var server = new OpcUaServer(config.build());
+            HistoryReadRequests.install(server);
+
+            // applications
+
+            final var spaces = new ArrayList<ApplicationSpace>(tenants.size());
+            for (int i = 0; i < tenants.size(); i++) {
+                spaces.add(createSpace(phases, server, tenants.get(i), multiple, storage.get(i)));
+            }
+
+            // limits
+
+            final var usage = new ArrayList<>(ServerLimits.usage(server, limits));
+            usage.addAll(ServerDiagnostics.usage(server));
+            final var gauges = new ArrayList<>(ServerDiagnostics.registerGauges(usage, null));
+            final var applicationUsage = new LinkedHashMap<String, List<ServerLimits.Usage>>();
+            for (final var space : spaces) {
+                gauges.addAll(ServerDiagnostics.registerGauges(space.usage(), space.application()));
+                if (multiple) {
+                    applicationUsage.put(space.application(), space.usage());
+                } else {
+                    usage.addAll(space.usage());
+                }
+            }
+            final var limitsNamespace = new LimitsNamespace(server, usage, applicationUsage);
+            limitsNamespace.startup();
+
+            final var ready = CompletableFuture.allOf(spaces.stream().map(ApplicationSpace::ready).toArray(CompletableFuture[]::new));
+            final var history = storage.stream().anyMatch(st -> st.history().isPresent());
+            final var diagnostics = this.configuration.diagnostics().enabled();
+
+            // startup
+
+            return server.startup()
+                    .thenApply(s -> {
+                        if (history) {
+                            announceHistoryCapabilities(s);
+                        }
+                        if (diagnostics) {
+                            ServerDiagnostics.enable(s);
+                        }
+                        return new Server(s, limitsNamespace, spaces, gauges, ready);
+                    });
+        }
+
+        private ApplicationSpace createSpace(final StartupPhases phases, final OpcUaServer server, final Tenant tenant, final boolean multiple, final Storage storage) {
+
+            final var client = tenant.client();
+            final var subscriptions = tenant.subscriptions();
+            final var application = multiple ? tenant.application() : null;
+            final var nodeIds = storage.nodeIds();
+
+            // mirror
+
+            final Optional<ThingMirror> mirror = this.configuration.mirror().enabled()
+                    ? Optional.of(new ThingMirror(subscriptions))
+                    : Optional.empty();
+            mirror.ifPresent(m -> {
+                m.restore(storage.restored());
+                client.setLocal(m);
+            });
+
+            final Optional<StateSnapshot> snapshot = mirror
+                    .filter(m -> this.configuration.mirror().snapshot().enabled())
+                    .map(m -> new StateSnapshot(snapshotFile(this.configuration.mirror().snapshot(), tenant, multiple), this.configuration.mirror().snapshot().interval(), m::states));
+
+            // history
+
+            final Optional<HistoryRecorder> recorder;
+            final HistoryReader historyReader;
+            if (storage.history().isPresent()) {
+                final var h = this.configuration.history();
+                final var store = storage.history().get();
+                final var aggregator = new Aggregator(store, h.rollup().interval().toMillis() * TICKS_PER_MILLISECOND, h.rollup().maxBuckets(), h.maxProperties());
+                recorder = Optional.of(new HistoryRecorder(store, h.rollup().enabled() ? Optional.of(aggregator) : Optional.empty()));
+                recorder.ifPresent(subscriptions::addStateListener);
+                historyReader = new HistoryReader(store, aggregator, server.getSerializationContext(), h.maxValuesPerRead());
+            } else {
+                recorder = Optional.empty();
+                historyReader = null;
+            }
 
             // register namespaces
 
-            final var propertyNamespace = new PropertyNamespace(server, subscriptions, client);
+            final var registered = new RegisteredNodes(subscriptions, client, this.configuration.limits().maxRegisteredNodesPerSession());
+            server.getSessionManager().addSessionListener(registered);
+
+            final var index = new HierarchyIndex(client, this.configuration.browse().indexTtl(), this.configuration.browse().indexSize());
+            subscriptions.addStateListener(index);
+
+            final var propertyNamespace = new PropertyNamespace(server, application, subscriptions, client, historyReader, registered, nodeIds.map(NodeIdRegistries::properties).orElse(null));
             server.getAddressSpaceManager()
                     .register(propertyNamespace);
 
-            final var namespace = new ThingNamespace(server, propertyNamespace, client);
+            final var namespace = new ThingNamespace(server, application, propertyNamespace, client, registered, nodeIds.map(NodeIdRegistries::things).orElse(null), index, this.configuration.events().enabled());
             server.getAddressSpaceManager()
                     .register(namespace);
 
-            // startup
+            if (this.configuration.events().enabled()) {
+                index.addChangeListener(new ModelChangeEvents(server, namespace, propertyNamespace, this.configuration.events().generic()));
+            }
 
-            return server.startup()
-                    .thenApply(Server::new);
+            // warm up, in parallel to starting the server
+
+            final CompletableFuture<?> warmup;
+            if (this.configuration.warmup().enabled()) {
+                final var w = this.configuration.warmup();
+                warmup = phases.time(phaseName("warm-up", tenant, multiple), new HierarchyWarmup(index, w.depth(), w.concurrency()).run("/"))
+                        .thenAccept(loaded -> logger.info("Warmed up {} things of {}", loaded, tenant.application()))
+                        .orTimeout(w.timeout().toMillis(), TimeUnit.MILLISECONDS)
+                        .exceptionally(err -> {
+                            logger.warn("Warm-up of {} didn't complete within {}, reporting ready anyway", tenant.application(), w.timeout());
+                            return null;
+                        });
+            } else {
+                warmup = completedFuture(null);
+            }
+
+            final CompletableFuture<?> mirrored;
+            if (mirror.isPresent()) {
+                final var timeout = this.configuration.mirror().initialTimeout();
+                final var loaded = phases.time(phaseName("mirror", tenant, multiple), mirror.get().start("/"));
+                if (!storage.restored().isEmpty()) {
+                    // serve the restored states, until the mirror caught up
+                    mirrored = completedFuture(null);
+                } else {
+                    mirrored = loaded
+                            .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                            .exceptionally(err -> {
+                                logger.warn("Initial load of the mirror of {} didn't complete within {}, reporting ready anyway", tenant.application(), timeout);
+                                return null;
+                            });
+                }
+            } else {
+                mirrored = completedFuture(null);
+            }
+
+            return new ApplicationSpace(
+                    tenant.application(),
+                    client,
+                    subscriptions,
+                    namespace,
+                    propertyNamespace,
+                    index,
+                    registered,
+                    mirror,
+                    snapshot,
+                    storage.history(),
+                    recorder,
+                    nodeIds.map(ids -> List.of(ids.things(), ids.properties())).orElse(List.of()),
+                    CompletableFuture.allOf(warmup, mirrored)
+            );
+        }
+
+        private static Path snapshotFile(final Snapshot snapshot, final Tenant tenant, final boolean multiple) {
+            return directory(snapshot.directory(), tenant, multiple).resolve("things.snapshot");
+        }
+
+        static HistoryStore createHistoryStore(final History history, final Path directory) throws IOException {
+            switch (history.mode()) {
+            case Disk: {
+                final var retention = history.retention();
+                logger.info("Recording history - directory: {}, segment size: {}, max properties: {}, max age: {}, max size: {}",
+                        directory, history.segmentSize(), history.maxProperties(), retention.maxAge(), retention.maxSize());
+                return new SegmentHistoryStore(directory, history.segmentSize(), history.maxProperties(), retention.maxAge(), retention.maxSize(), retention.interval());
+            }
+            default: {
+                logger.info("Recording history - capacity: {}, max properties: {}", history.capacity(), history.maxProperties());
+                return new MemoryHistoryStore(history.capacity(), history.maxProperties());
+            }
+            }
+        }
+
+        void announceHistoryCapabilities(final OpcUaServer server) {
+            setCapability(server, Identifiers.HistoryServerCapabilities_AccessHistoryDataCapability, new Variant(true));
+            setCapability(server, Identifiers.HistoryServerCapabilities_MaxReturnDataValues, new Variant(uint(this.configuration.history().maxValuesPerRead())));
+
+            server.getAddressSpaceManager()
+                    .getManagedNode(Identifiers.HistoryServerCapabilities_AggregateFunctions)
+                    .ifPresent(folder -> {
+                        for (final var aggregate : HistoryReader.supportedAggregates()) {
+                            folder.addReference(new Reference(folder.getNodeId(), Identifiers.Organizes, aggregate.expanded(), true));
+                        }
+                    });
+        }
+
+        static void setCapability(final OpcUaServer server, final NodeId nodeId, final Variant value) {
+            server.getAddressSpaceManager()
+                    .getManagedNode(nodeId)
+                    .filter(UaVariableNode.class::isInstance)
+                    .map(UaVariableNode.class::cast)
+                    .ifPresentOrElse(
+                            node -> node.setValue(new DataValue(value)),
+                            () -> logger.warn("Unable to find capability node: {}", nodeId));
         }
     }
 
     private final OpcUaServer server;
 
-    private Server(final OpcUaServer server) {
+    private final LimitsNamespace limits;
+
+    private final List<ApplicationSpace> spaces;
+
+    private final List<Gauge> gauges;
+
+    private final CompletableFuture<?> ready;
+
+    private Server(final OpcUaServer server, final LimitsNamespace limits, final List<ApplicationSpace> spaces, final List<Gauge> gauges, final CompletableFuture<?> ready) {
         this.server = server;
+        this.limits = limits;
+        this.spaces = spaces;
+        this.gauges = gauges;
+        this.ready = ready;
+    }
+
+    /**
+     * Check if the server is ready, which is once the warm-up and the initial load of the mirror completed or timed
+     * out, for all applications.
+     */
+    public boolean isReady() {
+        return this.ready.isDone();
     }
 
     public CompletableFuture<Void> close() {
+        for (final var space : this.spaces) {
+            space.close(this.server);
+        }
+        ServerDiagnostics.removeGauges(this.gauges);
+        this.limits.shutdown();
         return this.server.shutdown()
-                .thenApply(ignore -> null);
+                .thenApply(ignore -> {
+                    this.spaces.forEach(ApplicationSpace::closeStorage);
+                    return null;
+                });
     }
 }
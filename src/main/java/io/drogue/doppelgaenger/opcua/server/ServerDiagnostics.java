@@ -0,0 +1,103 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.diagnostics.SubscriptionDiagnostics;
+import org.eclipse.milo.opcua.sdk.server.model.nodes.objects.ServerDiagnosticsTypeNode;
+import org.eclipse.milo.opcua.sdk.server.subscriptions.Subscription;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * The diagnostics of the server.
+ * <p>
+ * The counters backing the standard {@code ServerDiagnostics} object, and its session and subscription diagnostics, are
+ * maintained by the server stack anyway, as {@link LongAdder}s. Only reporting them is disabled by default. Enabling
+ * the diagnostics switches the {@code EnabledFlag}, the values get aggregated when they are being read, not on the
+ * publish path.
+ * <p>
+ * The counters are also available as resource usage, and as metrics.
+ */
+final class ServerDiagnostics {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerDiagnostics.class);
+
+    private ServerDiagnostics() {
+    }
+
+    /**
+     * Enable the standard diagnostics nodes. Must be called after the server started, as the {@code EnabledFlag} gets
+     * reset during startup.
+     */
+    static void enable(final OpcUaServer server) {
+        server.getAddressSpaceManager()
+                .getManagedNode(Identifiers.Server_ServerDiagnostics)
+                .filter(ServerDiagnosticsTypeNode.class::isInstance)
+                .map(ServerDiagnosticsTypeNode.class::cast)
+                .ifPresentOrElse(
+                        node -> node.setEnabledFlag(true),
+                        () -> logger.warn("Unable to find diagnostics node: {}", Identifiers.Server_ServerDiagnostics));
+    }
+
+    /**
+     * Get the counters of the server, which are not limited.
+     * <p>
+     * Queue overflows and discarded messages are counted per subscription, and so only cover the current
+     * subscriptions.
+     */
+    static List<ServerLimits.Usage> usage(final OpcUaServer server) {
+        final var summary = server.getDiagnosticsSummary();
+        return List.of(
+                new ServerLimits.Usage("CumulatedSessions", ServerLimits.UNLIMITED, summary.getCumulatedSessionCount()::sum),
+                new ServerLimits.Usage("RejectedSessions", ServerLimits.UNLIMITED, summary.getRejectedSessionCount()::sum),
+                new ServerLimits.Usage("SessionTimeouts", ServerLimits.UNLIMITED, summary.getSessionTimeoutCount()::sum),
+                new ServerLimits.Usage("CumulatedSubscriptions", ServerLimits.UNLIMITED, summary.getCumulatedSubscriptionCount()::sum),
+                new ServerLimits.Usage("RejectedRequests", ServerLimits.UNLIMITED, () -> server.getStackServer().getRejectedRequestCount().sum()),
+                new ServerLimits.Usage("SecurityRejectedRequests", ServerLimits.UNLIMITED, () -> server.getStackServer().getSecurityRejectedRequestCount().sum()),
+                new ServerLimits.Usage("MonitoringQueueOverflows", ServerLimits.UNLIMITED, () -> sum(server, SubscriptionDiagnostics::getMonitoringQueueOverflowCount)),
+                new ServerLimits.Usage("EventQueueOverflows", ServerLimits.UNLIMITED, () -> sum(server, SubscriptionDiagnostics::getEventQueueOverflowCount)),
+                new ServerLimits.Usage("DiscardedMessages", ServerLimits.UNLIMITED, () -> sum(server, SubscriptionDiagnostics::getDiscardedMessageCount))
+        );
+    }
+
+    private static long sum(final OpcUaServer server, final Function<SubscriptionDiagnostics, LongAdder> counter) {
+        long result = 0;
+        for (final Subscription subscription : server.getSubscriptions().values()) {
+            result += counter.apply(subscription.getSubscriptionDiagnostics()).sum();
+        }
+        return result;
+    }
+
+    /**
+     * Register the usage of resources as gauges, in the global metrics.
+     *
+     * @param application The application, {@code null} for server wide resources.
+     * @return The registered gauges.
+     */
+    static List<Gauge> registerGauges(final List<ServerLimits.Usage> usage, @Nullable final String application) {
+        final var result = new ArrayList<Gauge>(usage.size());
+        for (final var u : usage) {
+            final var current = u.current();
+            final var gauge = Gauge.builder("opcua.resource.usage", () -> current.getAsLong())
+                    .tag("resource", u.name());
+            if (application != null) {
+                gauge.tag("application", application);
+            }
+            result.add(gauge.register(Metrics.globalRegistry));
+        }
+        return result;
+    }
+
+    static void removeGauges(final List<Gauge> gauges) {
+        gauges.forEach(Metrics.globalRegistry::remove);
+    }
+}
@@ -0,0 +1,174 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.Session;
+import org.eclipse.milo.opcua.sdk.server.api.config.OpcUaServerConfigLimits;
+import org.eclipse.milo.opcua.sdk.server.subscriptions.Subscription;
+import org.eclipse.milo.opcua.stack.core.channel.EncodingLimits;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+
+/**
+ * Resource limits of the server.
+ * <p>
+ * The limits are enforced by the server stack, which rejects requests exceeding them with the matching
+ * {@code Bad_TooMany*} status code. Publishing and sampling intervals below the minimum get revised to the minimum.
+ */
+final class ServerLimits {
+
+    /**
+     * The current usage of a (limited) resource.
+     *
+     * @param name The name of the resource.
+     * @param limit The configured limit, or {@link #UNLIMITED}.
+     * @param current The current usage.
+     */
+    record Usage(String name, long limit, LongSupplier current) {
+    }
+
+    static final long UNLIMITED = -1;
+
+    private static final String PREFIX = "drogue.doppelgaenger.opcua.limits";
+
+    private ServerLimits() {
+    }
+
+    /**
+     * Create the limits for the server configuration.
+     *
+     * @throws IllegalArgumentException if a limit is out of range.
+     */
+    static OpcUaServerConfigLimits configLimits(final Server.Limits limits) {
+        positive("max-sessions", limits.maxSessions());
+        positive("max-session-timeout", limits.maxSessionTimeout());
+        positive("max-subscriptions", limits.maxSubscriptions());
+        positive("max-subscriptions-per-session", limits.maxSubscriptionsPerSession());
+        positive("max-monitored-items", limits.maxMonitoredItems());
+        positive("max-monitored-items-per-session", limits.maxMonitoredItemsPerSession());
+        positive("max-monitored-items-per-call", limits.maxMonitoredItemsPerCall());
+        positive("max-nodes-per-register-nodes", limits.maxNodesPerRegisterNodes());
+        positive("max-registered-nodes-per-session", limits.maxRegisteredNodesPerSession());
+        notNegative("min-publishing-interval", limits.minPublishingInterval());
+        notNegative("min-sampling-interval", limits.minSamplingInterval());
+
+        return new OpcUaServerConfigLimits() {
+            @Override
+            public UInteger getMaxSessionCount() {
+                return uint(limits.maxSessions());
+            }
+
+            @Override
+            public Double getMaxSessionTimeout() {
+                return (double) limits.maxSessionTimeout().toMillis();
+            }
+
+            @Override
+            public Double getMinPublishingInterval() {
+                return (double) limits.minPublishingInterval().toMillis();
+            }
+
+            @Override
+            public Double getMinSupportedSampleRate() {
+                return (double) limits.minSamplingInterval().toMillis();
+            }
+
+            @Override
+            public UInteger getMaxSubscriptions() {
+                return uint(limits.maxSubscriptions());
+            }
+
+            @Override
+            public UInteger getMaxSubscriptionsPerSession() {
+                return uint(limits.maxSubscriptionsPerSession());
+            }
+
+            @Override
+            public UInteger getMaxMonitoredItems() {
+                return uint(limits.maxMonitoredItems());
+            }
+
+            @Override
+            public UInteger getMaxMonitoredItemsPerSession() {
+                return uint(limits.maxMonitoredItemsPerSession());
+            }
+
+            @Override
+            public UInteger getMaxMonitoredItemsPerCall() {
+                return uint(limits.maxMonitoredItemsPerCall());
+            }
+
+            @Override
+            public UInteger getMaxNodesPerRegisterNodes() {
+                return uint(limits.maxNodesPerRegisterNodes());
+            }
+        };
+    }
+
+    private static void positive(final String name, final int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid configuration: '%s.%s' must be greater than zero, but is %s", PREFIX, name, value));
+        }
+    }
+
+    private static void positive(final String name, final Duration value) {
+        if (value.isNegative() || value.isZero()) {
+            throw new IllegalArgumentException(String.format("Invalid configuration: '%s.%s' must be greater than zero, but is %s", PREFIX, name, value));
+        }
+    }
+
+    private static void notNegative(final String name, final Duration value) {
+        if (value.isNegative()) {
+            throw new IllegalArgumentException(String.format("Invalid configuration: '%s.%s' must not be negative, but is %s", PREFIX, name, value));
+        }
+    }
+
+    /**
+     * Create the limits for encoding messages.
+     */
+    static EncodingLimits encodingLimits(final Server.Limits limits) {
+        return new EncodingLimits(
+                limits.maxChunkSize(),
+                limits.maxChunkCount(),
+                limits.maxMessageSize(),
+                EncodingLimits.DEFAULT_MAX_RECURSION_DEPTH
+        );
+    }
+
+    /**
+     * Get the current usage of the resources limited per server and session.
+     */
+    static List<Usage> usage(final OpcUaServer server, final Server.Limits limits) {
+        return List.of(
+                new Usage("Sessions", limits.maxSessions(), () -> server.getSessionManager().getCurrentSessionCount().longValue()),
+                new Usage("Subscriptions", limits.maxSubscriptions(), () -> server.getSubscriptions().size()),
+                new Usage("SubscriptionsPerSession", limits.maxSubscriptionsPerSession(), () -> maxPerSession(server, session -> session.getSubscriptionManager().getSubscriptions().size())),
+                new Usage("MonitoredItems", limits.maxMonitoredItems(), () -> server.getMonitoredItemCount().get()),
+                new Usage("MonitoredItemsPerSession", limits.maxMonitoredItemsPerSession(), () -> maxPerSession(server, ServerLimits::monitoredItems))
+        );
+    }
+
+    private static long monitoredItems(final Session session) {
+        long result = 0;
+        for (final Subscription subscription : session.getSubscriptionManager().getSubscriptions()) {
+            result += subscription.getMonitoredItems().size();
+        }
+        return result;
+    }
+
+    /**
+     * Get the highest usage of any session.
+     */
+    private static long maxPerSession(final OpcUaServer server, final ToLongFunction<Session> usage) {
+        long result = 0;
+        for (final var session : server.getSessionManager().getAllSessions()) {
+            result = Math.max(result, usage.applyAsLong(session));
+        }
+        return result;
+    }
+}
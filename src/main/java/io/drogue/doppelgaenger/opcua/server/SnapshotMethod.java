@@ -0,0 +1,270 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.core.Reference;
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DiagnosticInfo;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+
+import io.drogue.doppelgaenger.opcua.client.Thing;
+
+/**
+ * The {@code GetSnapshot} method of thing nodes.
+ * <p>
+ * Returns the name, value, data type, and timestamp of all properties of a thing, or of the properties selected by
+ * the optional filter, in a single call. The results are returned as four arrays of the same length, ordered by
+ * property name.
+ * <p>
+ * All thing nodes share the same method node.
+ */
+class SnapshotMethod {
+
+    static final String NAME = "GetSnapshot";
+
+    // the identifiers of things are strings (or numeric), so GUIDs never clash with them
+    private static final UUID METHOD = UUID.fromString("a3c1a1a4-6f0e-4b54-9d39-5b1f1f0c0a01");
+
+    private static final UUID INPUT_ARGUMENTS = UUID.fromString("a3c1a1a4-6f0e-4b54-9d39-5b1f1f0c0a02");
+
+    private static final UUID OUTPUT_ARGUMENTS = UUID.fromString("a3c1a1a4-6f0e-4b54-9d39-5b1f1f0c0a03");
+
+    private static final UInteger[] ARRAY = new UInteger[] { uint(0) };
+
+    private static final Argument[] INPUTS = new Argument[] {
+            new Argument("Filter", Identifiers.String, ValueRanks.OneDimension, ARRAY,
+                    LocalizedText.english("Names of the properties to return, empty or null for all properties")),
+    };
+
+    private static final Argument[] OUTPUTS = new Argument[] {
+            new Argument("Names", Identifiers.String, ValueRanks.OneDimension, ARRAY, LocalizedText.english("The names of the properties")),
+            new Argument("Values", Identifiers.BaseDataType, ValueRanks.OneDimension, ARRAY, LocalizedText.english("The values of the properties")),
+            new Argument("DataTypes", Identifiers.NodeId, ValueRanks.OneDimension, ARRAY, LocalizedText.english("The data types of the properties")),
+            new Argument("Timestamps", Identifiers.UtcTime, ValueRanks.OneDimension, ARRAY, LocalizedText.english("The timestamps of the property values")),
+    };
+
+    private final UShort namespaceIndex;
+
+    private final PropertyNamespace properties;
+
+    private final SerializationContext serializationContext;
+
+    private final NodeId methodId;
+
+    private final NodeId inputArgumentsId;
+
+    private final NodeId outputArgumentsId;
+
+    SnapshotMethod(final UShort namespaceIndex, final PropertyNamespace properties, final SerializationContext serializationContext) {
+        this.namespaceIndex = namespaceIndex;
+        this.properties = properties;
+        this.serializationContext = serializationContext;
+        this.methodId = new NodeId(namespaceIndex, METHOD);
+        this.inputArgumentsId = new NodeId(namespaceIndex, INPUT_ARGUMENTS);
+        this.outputArgumentsId = new NodeId(namespaceIndex, OUTPUT_ARGUMENTS);
+    }
+
+    NodeId getMethodId() {
+        return this.methodId;
+    }
+
+    /**
+     * Check if the node is the method, or one of its properties.
+     */
+    boolean owns(final NodeId nodeId) {
+        return this.methodId.equals(nodeId) || this.inputArgumentsId.equals(nodeId) || this.outputArgumentsId.equals(nodeId);
+    }
+
+    CompletableFuture<List<Reference>> browse(final NodeId nodeId) {
+        if (this.methodId.equals(nodeId)) {
+            return completedFuture(List.of(
+                    new Reference(nodeId, Identifiers.HasProperty, this.inputArgumentsId.expanded(), true),
+                    new Reference(nodeId, Identifiers.HasProperty, this.outputArgumentsId.expanded(), true)
+            ));
+        }
+        return completedFuture(List.of());
+    }
+
+    CompletableFuture<List<Reference>> getReferences(final NodeId nodeId) {
+        if (this.methodId.equals(nodeId)) {
+            return completedFuture(List.of());
+        }
+        return completedFuture(List.of(new Reference(
+                nodeId,
+                Identifiers.HasTypeDefinition,
+                Identifiers.PropertyType.expanded(),
+                true
+        )));
+    }
+
+    CompletableFuture<DataValue> readAttribute(final NodeId nodeId, final UInteger attributeId) {
+        if (this.methodId.equals(nodeId)) {
+            return completedFuture(readMethodAttribute(attributeId));
+        }
+
+        final var input = this.inputArgumentsId.equals(nodeId);
+        return completedFuture(readArgumentsAttribute(nodeId, input ? "InputArguments" : "OutputArguments", input ? INPUTS : OUTPUTS, attributeId));
+    }
+
+    private DataValue readMethodAttribute(final UInteger attributeId) {
+        if (attributeId.equals(AttributeId.NodeId.uid())) {
+            return new DataValue(new Variant(this.methodId));
+        }
+        if (attributeId.equals(AttributeId.NodeClass.uid())) {
+            return new DataValue(new Variant(NodeClass.Method));
+        }
+        if (attributeId.equals(AttributeId.BrowseName.uid())) {
+            return new DataValue(new Variant(new QualifiedName(this.namespaceIndex, NAME)));
+        }
+        if (attributeId.equals(AttributeId.DisplayName.uid())) {
+            return new DataValue(new Variant(LocalizedText.english(NAME)));
+        }
+        if (attributeId.equals(AttributeId.Description.uid())) {
+            return new DataValue(new Variant(LocalizedText.english("Get the values of all properties")));
+        }
+        if (attributeId.equals(AttributeId.Executable.uid()) || attributeId.equals(AttributeId.UserExecutable.uid())) {
+            return new DataValue(new Variant(true));
+        }
+        return new DataValue(StatusCodes.Bad_AttributeIdInvalid);
+    }
+
+    private DataValue readArgumentsAttribute(final NodeId nodeId, final String name, final Argument[] arguments, final UInteger attributeId) {
+        if (attributeId.equals(AttributeId.NodeId.uid())) {
+            return new DataValue(new Variant(nodeId));
+        }
+        if (attributeId.equals(AttributeId.NodeClass.uid())) {
+            return new DataValue(new Variant(NodeClass.Variable));
+        }
+        if (attributeId.equals(AttributeId.BrowseName.uid())) {
+            return new DataValue(new Variant(new QualifiedName(0, name)));
+        }
+        if (attributeId.equals(AttributeId.DisplayName.uid())) {
+            return new DataValue(new Variant(LocalizedText.english(name)));
+        }
+        if (attributeId.equals(AttributeId.Description.uid())) {
+            return new DataValue(new Variant(LocalizedText.NULL_VALUE));
+        }
+        if (attributeId.equals(AttributeId.Value.uid())) {
+            final var value = Arrays.stream(arguments)
+                    .map(argument -> ExtensionObject.encode(this.serializationContext, argument))
+                    .toArray(ExtensionObject[]::new);
+            return new DataValue(new Variant(value));
+        }
+        if (attributeId.equals(AttributeId.DataType.uid())) {
+            return new DataValue(new Variant(Identifiers.Argument));
+        }
+        if (attributeId.equals(AttributeId.ValueRank.uid())) {
+            return new DataValue(new Variant(ValueRanks.OneDimension));
+        }
+        if (attributeId.equals(AttributeId.ArrayDimensions.uid())) {
+            return new DataValue(new Variant(new UInteger[] { uint(arguments.length) }));
+        }
+        if (attributeId.equals(AttributeId.AccessLevel.uid()) || attributeId.equals(AttributeId.UserAccessLevel.uid())) {
+            return new DataValue(new Variant(AccessLevel.toValue(AccessLevel.CurrentRead)));
+        }
+        if (attributeId.equals(AttributeId.MinimumSamplingInterval.uid())) {
+            return new DataValue(new Variant(0.0));
+        }
+        if (attributeId.equals(AttributeId.Historizing.uid())) {
+            return new DataValue(new Variant(false));
+        }
+        return new DataValue(StatusCodes.Bad_AttributeIdInvalid);
+    }
+
+    /**
+     * Call the method on a thing node.
+     */
+    CompletableFuture<CallMethodResult> call(final ThingNode node, final Variant[] inputs) {
+        final var args = inputs != null ? inputs : new Variant[0];
+
+        if (args.length > INPUTS.length) {
+            return completedFuture(failure(StatusCodes.Bad_TooManyArguments));
+        }
+
+        final Set<String> filter;
+        if (args.length == 0 || args[0].isNull()) {
+            filter = null;
+        } else if (args[0].getValue() instanceof final String[] names) {
+            filter = names.length > 0 ? new HashSet<>(Arrays.asList(names)) : null;
+        } else {
+            return completedFuture(new CallMethodResult(
+                    new StatusCode(StatusCodes.Bad_InvalidArgument),
+                    new StatusCode[] { new StatusCode(StatusCodes.Bad_TypeMismatch) },
+                    new DiagnosticInfo[0],
+                    new Variant[0]));
+        }
+
+        return node.state()
+                .thenApply(state -> snapshot(node.getLocalName(), state, filter));
+    }
+
+    private CallMethodResult snapshot(final String thing, final Optional<Thing> state, final Set<String> filter) {
+        if (state.isEmpty()) {
+            return failure(StatusCodes.Bad_NotFound);
+        }
+
+        // sorted, skipping internal properties
+        final var features = new TreeMap<>(state.get().mergedState());
+        features.keySet().removeIf(name -> name.startsWith("$") || (filter != null && !filter.contains(name)));
+
+        final var names = new ArrayList<String>(features.size());
+        final var values = new ArrayList<Variant>(features.size());
+        final var types = new ArrayList<NodeId>(features.size());
+        final var timestamps = new ArrayList<DateTime>(features.size());
+
+        for (final var entry : features.entrySet()) {
+            final var key = URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8);
+            final var value = this.properties.toDataValue(thing, key, entry.getValue());
+
+            names.add(entry.getKey());
+            values.add(value.getValue());
+            types.add(this.properties.getValueType(thing, key).map(ValueType::getDataType).orElse(Identifiers.BaseDataType));
+            timestamps.add(value.getSourceTime() != null ? value.getSourceTime() : DateTime.MIN_VALUE);
+        }
+
+        return new CallMethodResult(
+                StatusCode.GOOD,
+                new StatusCode[0],
+                new DiagnosticInfo[0],
+                new Variant[] {
+                        new Variant(names.toArray(String[]::new)),
+                        new Variant(values.toArray(Variant[]::new)),
+                        new Variant(types.toArray(NodeId[]::new)),
+                        new Variant(timestamps.toArray(DateTime[]::new)),
+                });
+    }
+
+    private static CallMethodResult failure(final long statusCode) {
+        return new CallMethodResult(new StatusCode(statusCode), new StatusCode[0], new DiagnosticInfo[0], new Variant[0]);
+    }
+}
@@ -0,0 +1,107 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs independent phases of the startup in parallel, and times them.
+ * <p>
+ * Each phase is logged when it completes. Once the server is started, {@link #report()} logs all phases, slowest
+ * first, so that slow startups can be diagnosed.
+ */
+class StartupPhases implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupPhases.class);
+
+    private record Phase(String name, Duration duration, boolean failed) {
+    }
+
+    private final long start = System.nanoTime();
+
+    private final List<Phase> phases = new ArrayList<>();
+
+    private final ExecutorService executor;
+
+    StartupPhases(final int threads) {
+        final var counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final var thread = new Thread(runnable, "startup-" + counter.incrementAndGet());
+            // blocked lookups, which timed out, must not keep the JVM alive
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run a phase, in parallel to other phases.
+     */
+    <T> CompletableFuture<T> run(final String name, final Callable<T> task) {
+        return run(name, task, this.executor);
+    }
+
+    /**
+     * Run a phase, in parallel to other phases, using the provided executor.
+     */
+    <T> CompletableFuture<T> run(final String name, final Callable<T> task, final Executor executor) {
+        return time(name, CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor));
+    }
+
+    /**
+     * Time an asynchronous operation, which started just now.
+     */
+    <T> CompletableFuture<T> time(final String name, final CompletableFuture<T> future) {
+        final var started = System.nanoTime();
+        return future.whenComplete((result, err) -> {
+            final var duration = Duration.ofNanos(System.nanoTime() - started);
+            if (err != null) {
+                logger.warn("Startup phase '{}' failed after {} ms", name, duration.toMillis(), err);
+            } else {
+                logger.info("Startup phase '{}' completed in {} ms", name, duration.toMillis());
+            }
+            synchronized (this.phases) {
+                this.phases.add(new Phase(name, duration, err != null));
+            }
+        });
+    }
+
+    /**
+     * Log the duration of all completed phases, and the total time since creating this instance.
+     */
+    void report() {
+        final List<Phase> phases;
+        synchronized (this.phases) {
+            phases = new ArrayList<>(this.phases);
+        }
+        phases.sort(Comparator.comparing(Phase::duration).reversed());
+
+        logger.info("Startup completed in {} ms", Duration.ofNanos(System.nanoTime() - this.start).toMillis());
+        for (final var phase : phases) {
+            logger.info("    {} ms - {}{}", String.format("%6d", phase.duration().toMillis()), phase.name(), phase.failed() ? " (failed)" : "");
+        }
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+    }
+}
@@ -0,0 +1,339 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import io.drogue.doppelgaenger.opcua.client.BasicFeature;
+import io.drogue.doppelgaenger.opcua.client.Metadata;
+import io.drogue.doppelgaenger.opcua.client.ReportedFeature;
+import io.drogue.doppelgaenger.opcua.client.SyntheticFeature;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+
+/**
+ * Periodically persists the states of things, so that a restart can begin from the last known states.
+ * <p>
+ * The snapshot is a single file, starting with a header (magic {@code int}, version {@code int}, number of records
+ * {@code int}), followed by one binary record per thing:
+ * <pre>
+ * string  name of the record
+ * string  name of the thing
+ * int     number of reported features, followed by the features
+ * int     number of synthetic features, followed by the features
+ * </pre>
+ * A feature is its name ({@code string}), its last update (a {@code byte} flag, followed by the epoch second
+ * {@code long}, nanoseconds {@code int} and offset seconds {@code int} if present), and its value (a {@code byte} kind,
+ * followed by the payload of the kind). Strings are length ({@code int}) prefixed UTF-8. Only objects and arrays
+ * are stored as JSON text, so loading doesn't need to parse JSON for the common, primitive values.
+ * <p>
+ * The file is written to a temporary file first, and then moved in place, so that a crash while writing keeps the
+ * previous snapshot. Loading maps the file into memory.
+ */
+class StateSnapshot implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StateSnapshot.class);
+
+    private static final int MAGIC = 0x44475353;
+
+    private static final int VERSION = 2;
+
+    private static final byte KIND_ABSENT = 0;
+
+    private static final byte KIND_NULL = 1;
+
+    private static final byte KIND_BOOLEAN = 2;
+
+    private static final byte KIND_LONG = 3;
+
+    private static final byte KIND_DOUBLE = 4;
+
+    /**
+     * Numbers which are neither, stored as their text.
+     */
+    private static final byte KIND_NUMBER = 5;
+
+    private static final byte KIND_STRING = 6;
+
+    private static final byte KIND_JSON = 7;
+
+    private final Path file;
+
+    private final Supplier<Map<String, Thing>> states;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Create a new instance, writing snapshots periodically.
+     *
+     * @param file The file to write to.
+     * @param interval The interval to write snapshots in.
+     * @param states The source of the states to persist.
+     */
+    StateSnapshot(final Path file, final Duration interval, final Supplier<Map<String, Thing>> states) {
+        this.file = file;
+        this.states = states;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "state-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::persist, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void persist() {
+        try {
+            final var start = System.nanoTime();
+            final var states = this.states.get();
+            write(this.file, states);
+            logger.debug("Wrote snapshot of {} things in {} ms", states.size(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+        } catch (final Exception e) {
+            logger.warn("Failed to write snapshot to {}", this.file, e);
+        }
+    }
+
+    /**
+     * Stop writing snapshots, writing a final one.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        persist();
+    }
+
+    /**
+     * Write a snapshot.
+     */
+    static void write(final Path file, final Map<String, Thing> states) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        final var temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (final var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             final var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(states.size());
+            for (final var entry : states.entrySet()) {
+                writeString(out, entry.getKey());
+                writeThing(out, entry.getValue());
+            }
+            out.flush();
+            channel.force(false);
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot.
+     *
+     * @return The states, or an empty map if there is no snapshot, or it cannot be read.
+     */
+    static Map<String, Thing> read(final Path file) {
+        if (!Files.exists(file)) {
+            return Map.of();
+        }
+
+        final var start = System.nanoTime();
+
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final var result = read(buffer);
+            logger.info("Loaded snapshot of {} things from {} in {} ms", result.size(), file, Duration.ofNanos(System.nanoTime() - start).toMillis());
+            return result;
+        } catch (final IOException | BufferUnderflowException | IllegalArgumentException | DateTimeException | JsonParseException e) {
+            logger.warn("Failed to load snapshot from {}, starting without", file, e);
+            return Map.of();
+        }
+    }
+
+    private static Map<String, Thing> read(final ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a snapshot file");
+        }
+        final var version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+        }
+
+        final var count = buffer.getInt();
+        final var result = new HashMap<String, Thing>(Math.max(16, count * 4 / 3 + 1));
+        for (int i = 0; i < count; i++) {
+            final var name = readString(buffer);
+            result.put(name, readThing(buffer));
+        }
+        return result;
+    }
+
+    private static void writeThing(final DataOutputStream out, final Thing thing) throws IOException {
+        writeString(out, thing.getMetadata().getName());
+        writeFeatures(out, thing.getReportedState());
+        writeFeatures(out, thing.getSyntheticState());
+    }
+
+    private static Thing readThing(final ByteBuffer buffer) {
+        final var thing = new Thing(new Metadata(readString(buffer)));
+        readFeatures(buffer, thing.getReportedState(), ReportedFeature::new);
+        readFeatures(buffer, thing.getSyntheticState(), SyntheticFeature::new);
+        return thing;
+    }
+
+    private static void writeFeatures(final DataOutputStream out, final Map<String, ? extends BasicFeature> features) throws IOException {
+        out.writeInt(features.size());
+        for (final var entry : features.entrySet()) {
+            writeString(out, entry.getKey());
+            final var feature = entry.getValue();
+            final var lastUpdate = feature.getLastUpdate();
+            if (lastUpdate != null) {
+                out.writeByte(1);
+                out.writeLong(lastUpdate.toEpochSecond());
+                out.writeInt(lastUpdate.getNano());
+                out.writeInt(lastUpdate.getOffset().getTotalSeconds());
+            } else {
+                out.writeByte(0);
+            }
+            writeValue(out, feature.getValue());
+        }
+    }
+
+    private static <T extends BasicFeature> void readFeatures(final ByteBuffer buffer, final Map<String, T> features, final Supplier<T> factory) {
+        final var count = buffer.getInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid number of features: " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            final var name = readString(buffer);
+            final var feature = factory.get();
+            if (buffer.get() != 0) {
+                final var epochSecond = buffer.getLong();
+                final var nano = buffer.getInt();
+                final var offset = ZoneOffset.ofTotalSeconds(buffer.getInt());
+                feature.setLastUpdate(OffsetDateTime.ofInstant(Instant.ofEpochSecond(epochSecond, nano), offset));
+            }
+            feature.setValue(readValue(buffer));
+            features.put(name, feature);
+        }
+    }
+
+    private static void writeValue(final DataOutputStream out, final JsonElement value) throws IOException {
+        if (value == null) {
+            out.writeByte(KIND_ABSENT);
+        } else if (value.isJsonNull()) {
+            out.writeByte(KIND_NULL);
+        } else if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean()) {
+            out.writeByte(KIND_BOOLEAN);
+            out.writeBoolean(value.getAsBoolean());
+        } else if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber()) {
+            writeNumber(out, value.getAsString());
+        } else if (value.isJsonPrimitive()) {
+            out.writeByte(KIND_STRING);
+            writeString(out, value.getAsString());
+        } else {
+            out.writeByte(KIND_JSON);
+            writeString(out, value.toString());
+        }
+    }
+
+    /**
+     * Write a number, keeping its textual representation, from which the type of the value is inferred.
+     */
+    private static void writeNumber(final DataOutputStream out, final String text) throws IOException {
+        try {
+            final var number = Long.parseLong(text);
+            if (Long.toString(number).equals(text)) {
+                out.writeByte(KIND_LONG);
+                out.writeLong(number);
+                return;
+            }
+        } catch (final NumberFormatException e) {
+            // not a long
+        }
+        try {
+            final var number = Double.parseDouble(text);
+            if (Double.toString(number).equals(text)) {
+                out.writeByte(KIND_DOUBLE);
+                out.writeDouble(number);
+                return;
+            }
+        } catch (final NumberFormatException e) {
+            // not a double
+        }
+        out.writeByte(KIND_NUMBER);
+        writeString(out, text);
+    }
+
+    private static JsonElement readValue(final ByteBuffer buffer) {
+        final var kind = buffer.get();
+        switch (kind) {
+        case KIND_ABSENT:
+            return null;
+        case KIND_NULL:
+            return JsonNull.INSTANCE;
+        case KIND_BOOLEAN:
+            return new JsonPrimitive(buffer.get() != 0);
+        case KIND_LONG:
+            return new JsonPrimitive(buffer.getLong());
+        case KIND_DOUBLE:
+            return new JsonPrimitive(buffer.getDouble());
+        case KIND_NUMBER:
+        case KIND_JSON:
+            return JsonParser.parseString(readString(buffer));
+        case KIND_STRING:
+            return new JsonPrimitive(readString(buffer));
+        default:
+            throw new IllegalArgumentException("Invalid value kind: " + kind);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final var length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid record length: " + length);
+        }
+        final var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
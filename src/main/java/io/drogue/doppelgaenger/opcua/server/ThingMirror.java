@@ -0,0 +1,313 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+import io.drogue.doppelgaenger.opcua.ThingListener;
+import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
+import io.drogue.doppelgaenger.opcua.client.GsonUtil;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+import io.drogue.doppelgaenger.opcua.client.ThingLookup;
+
+/**
+ * An in-memory replica of all things, reachable from a root thing.
+ * <p>
+ * Starting at the root thing, every thing gets subscribed to. The initial state, and all following changes, are
+ * received through the subscription. Children are added and removed following the {@code $children} of their
+ * parent. When the subscription of a thing is interrupted, its state is considered stale, and lookups fall back to
+ * the backend, until the subscription delivers a state again.
+ * <p>
+ * The mirror can be seeded with states restored from a snapshot. Those are served, flagged as
+ * {@link Thing#isRestored() restored}, until the subscription of the thing delivers its current state.
+ * <p>
+ * Changes of the state of a thing only take the lock of the mirror when the children of the thing changed, so that
+ * notifications of different things don't contend for it.
+ */
+class ThingMirror implements ThingLookup, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThingMirror.class);
+
+    private static final long LIVE = -1;
+
+    private static final Gson GSON = GsonUtil.create();
+
+    private class Entry implements ThingListener.Listener {
+
+        private final String name;
+
+        private ThingsSubscriptionManager.Subscription subscription;
+
+        private volatile Optional<Thing> state = Optional.empty();
+
+        /**
+         * Since when the state is stale, in {@link System#nanoTime()}, or {@link #LIVE}.
+         */
+        private volatile long staleSince = System.nanoTime();
+
+        private volatile Set<String> children = Set.of();
+
+        /**
+         * The estimated size of the state, guarded by the entry.
+         */
+        private long size;
+
+        /**
+         * If the entry was removed from the mirror, guarded by the entry.
+         */
+        private boolean removed;
+
+        private volatile boolean received;
+
+        Entry(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void onChange(final Optional<Thing> state) {
+            ThingMirror.this.onChange(this, state);
+        }
+    }
+
+    private final ThingsSubscriptionManager subscriptions;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Map<String, Thing> restored = new ConcurrentHashMap<>();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+
+    private final long started = System.nanoTime();
+
+    private long pending;
+
+    private volatile boolean closed;
+
+    ThingMirror(final ThingsSubscriptionManager subscriptions) {
+        this.subscriptions = subscriptions;
+    }
+
+    /**
+     * Seed the mirror with restored states, must be called before {@link #start(String)}.
+     */
+    void restore(final Map<String, Thing> states) {
+        for (final var entry : states.entrySet()) {
+            entry.getValue().setRestored(true);
+            this.restored.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * The current states of all mirrored things, which have a current state.
+     */
+    Map<String, Thing> states() {
+        final var result = new HashMap<String, Thing>(this.entries.size());
+        for (final var entry : this.entries.values()) {
+            if (entry.staleSince == LIVE) {
+                entry.state.ifPresent(state -> result.put(entry.name, state));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start mirroring.
+     *
+     * @return A future, completing once all things, known so far, have received their state.
+     */
+    CompletableFuture<Void> start(final String root) {
+        logger.info("Start mirroring things, starting at: {}", root);
+        add(root);
+        return this.loaded;
+    }
+
+    @Override
+    public Optional<Thing> lookup(final String name) {
+        final var entry = this.entries.get(name);
+        if (entry == null || entry.staleSince != LIVE) {
+            return Optional.ofNullable(this.restored.get(name));
+        }
+        return entry.state;
+    }
+
+    /**
+     * The number of mirrored things.
+     */
+    int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * The estimated memory used by the states of mirrored things, in bytes.
+     */
+    long estimatedBytes() {
+        return this.bytes.get();
+    }
+
+    /**
+     * The longest time any mirrored thing has been without a current state.
+     */
+    Duration staleness() {
+        final var now = System.nanoTime();
+        long result = 0;
+        for (final var entry : this.entries.values()) {
+            final var staleSince = entry.staleSince;
+            if (staleSince != LIVE) {
+                result = Math.max(result, now - staleSince);
+            }
+        }
+        return Duration.ofNanos(result);
+    }
+
+    /**
+     * The usage of resources by the mirror.
+     */
+    List<ServerLimits.Usage> usage() {
+        return List.of(
+                new ServerLimits.Usage("MirroredThings", ServerLimits.UNLIMITED, this::size),
+                new ServerLimits.Usage("RestoredThings", ServerLimits.UNLIMITED, this.restored::size),
+                new ServerLimits.Usage("MirrorMemoryBytes", ServerLimits.UNLIMITED, this::estimatedBytes),
+                new ServerLimits.Usage("MirrorStalenessMillis", ServerLimits.UNLIMITED, () -> staleness().toMillis())
+        );
+    }
+
+    private synchronized void add(final String name) {
+        if (this.closed || this.entries.containsKey(name)) {
+            return;
+        }
+
+        final var entry = new Entry(name);
+        this.entries.put(name, entry);
+        this.pending++;
+        // the subscription may deliver the last known state right away
+        entry.subscription = this.subscriptions.createSubscription(name, null, entry);
+    }
+
+    private synchronized void remove(final String name) {
+        final var entry = this.entries.remove(name);
+        if (entry == null) {
+            return;
+        }
+
+        logger.debug("Stop mirroring: {}", name);
+
+        this.restored.remove(name);
+
+        if (entry.subscription != null) {
+            entry.subscription.close();
+        }
+        synchronized (entry) {
+            entry.removed = true;
+            this.bytes.addAndGet(-entry.size);
+        }
+        if (!entry.received) {
+            received();
+        }
+
+        for (final var child : entry.children) {
+            remove(child);
+        }
+    }
+
+    private void onChange(final Entry entry, final Optional<Thing> state) {
+        if (this.closed) {
+            return;
+        }
+
+        if (state.isEmpty()) {
+            // we lost the subscription, or didn't receive anything yet
+            if (entry.staleSince == LIVE) {
+                entry.staleSince = System.nanoTime();
+            }
+            return;
+        }
+
+        final var size = estimateSize(state.get());
+        final var children = new HashSet<>(HierarchyIndex.Entry.of(state).children());
+
+        synchronized (entry) {
+            if (entry.removed) {
+                return;
+            }
+            this.bytes.addAndGet(size - entry.size);
+            entry.size = size;
+            entry.state = state;
+            entry.staleSince = LIVE;
+        }
+        this.restored.remove(entry.name);
+
+        if (entry.received && children.equals(entry.children)) {
+            return;
+        }
+
+        updateChildren(entry, children);
+    }
+
+    private synchronized void updateChildren(final Entry entry, final Set<String> current) {
+        if (this.closed || this.entries.get(entry.name) != entry) {
+            return;
+        }
+
+        final var previous = entry.children;
+        entry.children = current;
+
+        for (final var child : current) {
+            if (!previous.contains(child)) {
+                add(child);
+            }
+        }
+        for (final var child : previous) {
+            if (!current.contains(child)) {
+                remove(child);
+            }
+        }
+
+        if (!entry.received) {
+            entry.received = true;
+            received();
+        }
+    }
+
+    private void received() {
+        this.pending--;
+        if (this.pending == 0 && !this.loaded.isDone()) {
+            logger.info("Mirrored {} things in {} ms", this.entries.size(), Duration.ofNanos(System.nanoTime() - this.started).toMillis());
+            // restored things, which are no longer part of the hierarchy
+            this.restored.keySet().retainAll(this.entries.keySet());
+            this.loaded.complete(null);
+        }
+    }
+
+    private static long estimateSize(final Thing thing) {
+        // two bytes per character of the JSON representation, preferring the frame we received over encoding it again
+        final var length = thing.getFrameLength() > 0 ? thing.getFrameLength() : GSON.toJson(thing).length();
+        return 2L * length;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        for (final var entry : this.entries.values()) {
+            if (entry.subscription != null) {
+                entry.subscription.close();
+            }
+        }
+        this.entries.clear();
+        this.restored.clear();
+        this.bytes.set(0);
+    }
+}
@@ -1,65 +1,204 @@
 package io.drogue.doppelgaenger.opcua.server;
 
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.milo.opcua.sdk.core.Reference;
 import org.eclipse.milo.opcua.sdk.server.OpcUaServer;
+import org.eclipse.milo.opcua.sdk.server.Session;
 import org.eclipse.milo.opcua.sdk.server.api.AddressSpaceFilter;
 import org.eclipse.milo.opcua.sdk.server.api.AddressSpaceFragment;
 import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.sdk.server.api.EventItem;
 import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.model.nodes.objects.BaseEventTypeNode;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DiagnosticInfo;
 import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.IdType;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
 import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
 import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
 import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
+import org.eclipse.milo.opcua.stack.core.util.Unit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
 import io.drogue.doppelgaenger.opcua.client.Client;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 
 public class ThingNamespace implements AddressSpaceFragment {
 
     private static final Logger logger = LoggerFactory.getLogger(ThingNamespace.class);
 
+    private static final int EVENT_NOTIFIER_SUBSCRIBE_TO_EVENTS = 1;
+
     private static final String NAMESPACE_URI = "https://drogue.io/doppelgänger/things";
 
     private final Client client;
 
     private final PropertyNamespace propertyNamespace;
 
+    private final String namespaceUri;
+
     private final UShort namespaceIndex;
 
-    ThingNamespace(final OpcUaServer server, final PropertyNamespace propertyNamespace, final Client client) {
+    private final Timer readTimer;
+
+    private final Timer writeTimer;
+
+    private final Timer browseTimer;
+
+    private final Timer callTimer;
+
+    private final String rootName;
+
+    private final RegisteredNodes registered;
+
+    private final NodeIdRegistry ids;
+
+    private final HierarchyIndex index;
+
+    private final OpcUaServer server;
+
+    private final boolean events;
+
+    private final SnapshotMethod snapshot;
+
+    private record EventSubscription(EventItem item, String thing, ThingsSubscriptionManager.Subscription subscription) {
+    }
+
+    private final Map<UInteger, EventSubscription> eventItems = new ConcurrentHashMap<>();
+
+    private final LongAdder dataItems = new LongAdder();
+
+    /**
+     * Create a new instance.
+     *
+     * @param application The application, when serving multiple applications, {@code null} otherwise.
+     * @param ids The registry for numeric node ids, {@code null} to use string node ids.
+     * @param events Allow subscribing to events of thing nodes.
+     */
+    ThingNamespace(final OpcUaServer server, @Nullable final String application, final PropertyNamespace propertyNamespace, final Client client, final RegisteredNodes registered, @Nullable final NodeIdRegistry ids, final HierarchyIndex index, final boolean events) {
+        this.server = server;
+        this.events = events;
         this.client = client;
         this.propertyNamespace = propertyNamespace;
-        this.namespaceIndex = server.getNamespaceTable().addUri(NAMESPACE_URI);
+        this.namespaceUri = PropertyNamespace.namespaceUri(NAMESPACE_URI, application);
+        this.namespaceIndex = server.getNamespaceTable().addUri(this.namespaceUri);
+        this.readTimer = operationTimer("read", client);
+        this.writeTimer = operationTimer("write", client);
+        this.browseTimer = operationTimer("browse", client);
+        this.callTimer = operationTimer("call", client);
+        this.rootName = application != null ? application : "/";
+        this.registered = registered;
+        this.ids = ids;
+        this.index = index;
+        this.snapshot = new SnapshotMethod(this.namespaceIndex, propertyNamespace, server.getSerializationContext());
+    }
+
+    /**
+     * The display name of a thing, the root thing is named after the application, when serving multiple applications.
+     */
+    String displayName(final String thing) {
+        return "/".equals(thing) ? this.rootName : thing;
+    }
+
+    /**
+     * The number of monitored items of this namespace, data and event items.
+     */
+    long monitoredItems() {
+        return this.dataItems.sum() + this.eventItems.size();
+    }
+
+    NodeId snapshotMethodId() {
+        return this.snapshot.getMethodId();
+    }
+
+    /**
+     * Get the children and properties of a thing.
+     */
+    CompletableFuture<HierarchyIndex.Entry> index(final String thing) {
+        return this.index.get(thing);
+    }
+
+    /**
+     * Create a node from a node id, resolving aliases of registered nodes.
+     *
+     * @param session The session, to resolve aliases of registered nodes, may be {@code null}.
+     */
+    ThingNode fromId(@Nullable final Session session, final NodeId nodeId) {
+        if (RegisteredNodes.isAlias(nodeId)) {
+            final var node = this.registered.resolve(session, nodeId, ThingNode.class);
+            if (node == null) {
+                throw new IllegalArgumentException();
+            }
+            return node;
+        }
+        if (this.ids != null && nodeId.getType() == IdType.Numeric) {
+            final var name = this.ids.lookup(((UInteger) nodeId.getIdentifier()).longValue());
+            if (name == null) {
+                throw new IllegalArgumentException();
+            }
+            return new ThingNode(this.client, this, this.propertyNamespace, nodeId, name);
+        }
+        return ThingNode.fromId(this.client, this, this.propertyNamespace, nodeId);
+    }
+
+    private static Timer operationTimer(final String operation, final Client client) {
+        return Timer.builder("opcua.operation")
+                .tags("operation", operation, "namespace", "things", "application", client.getApplication())
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Record the time from now, until the operation completes.
+     */
+    private static void time(final Timer timer, final CompletableFuture<?> operation) {
+        final var sample = Timer.start();
+        operation.whenComplete((result, err) -> sample.stop(timer));
     }
 
     @Override
     public AddressSpaceFilter getFilter() {
-        return new NamespaceIndexFilter(this.namespaceIndex, false);
+        return new NamespaceIndexFilter(this.namespaceIndex, false, false, this.events, true);
     }
 
     @Override
     public void read(final ReadContext context, final Double maxAge, final TimestampsToReturn timestamps, final List<ReadValueId> readValueIds) {
+        time(this.readTimer, context.getFuture());
         logger.debug("read: {}", readValueIds);
 
         final var result = new ArrayList<DataValue>();
         final var ids = new LinkedList<>(readValueIds);
 
         completedFuture(null)
-                .thenCompose(x -> handleRead(ids, result))
+                .thenCompose(x -> handleRead(context.getSession().orElse(null), ids, result))
                 .whenComplete((x, err) -> {
                     logger.debug("read complete", err);
                     try {
@@ -75,7 +214,7 @@ public class ThingNamespace implements AddressSpaceFragment {
                 });
     }
 
-    CompletableFuture<Void> handleRead(final LinkedList<ReadValueId> ids, final List<DataValue> result) {
+    CompletableFuture<Void> handleRead(@Nullable final Session session, final LinkedList<ReadValueId> ids, final List<DataValue> result) {
         ReadValueId next = null;
         if (!ids.isEmpty()) {
             next = ids.pop();
@@ -84,29 +223,73 @@ public class ThingNamespace implements AddressSpaceFragment {
         if (next == null) {
             return completedFuture(null);
         } else {
-            final var node = ThingNode.fromId(this.client, this, this.propertyNamespace, next.getNodeId());
-            return node
-                    .readAttribute(next.getAttributeId())
+            final CompletableFuture<DataValue> read;
+            if (this.snapshot.owns(next.getNodeId())) {
+                read = this.snapshot.readAttribute(next.getNodeId(), next.getAttributeId());
+            } else {
+                read = fromId(session, next.getNodeId()).readAttribute(next.getAttributeId());
+            }
+            return read
                     .handle((value, err) -> {
                         if (value != null) {
                             result.add(value);
                         } else {
-                            result.add(new DataValue(StatusCode.BAD));
+                            result.add(new DataValue(Failures.statusOf(err)));
                         }
-                        return handleRead(ids, result);
+                        return handleRead(session, ids, result);
                     })
                     // take the future and wait for it
                     .thenCompose(x -> x);
         }
     }
 
+    @Override
+    public void call(final CallContext context, final List<CallMethodRequest> requests) {
+        time(this.callTimer, context.getFuture());
+        logger.debug("call: {}", requests);
+
+        final var futures = new ArrayList<CompletableFuture<CallMethodResult>>(requests.size());
+        for (final var request : requests) {
+            futures.add(call(context.getSession().orElse(null), request));
+        }
+
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .whenComplete((x, err) -> {
+                    final var result = new ArrayList<CallMethodResult>(futures.size());
+                    for (final var future : futures) {
+                        result.add(future.exceptionally(e -> {
+                            logger.info("Failed to call method", e);
+                            return new CallMethodResult(new StatusCode(StatusCodes.Bad_InternalError), new StatusCode[0], new DiagnosticInfo[0], new Variant[0]);
+                        }).join());
+                    }
+                    context.success(result);
+                });
+    }
+
+    private CompletableFuture<CallMethodResult> call(@Nullable final Session session, final CallMethodRequest request) {
+        if (!this.snapshot.getMethodId().equals(request.getMethodId())) {
+            return completedFuture(new CallMethodResult(new StatusCode(StatusCodes.Bad_MethodInvalid), new StatusCode[0], new DiagnosticInfo[0], new Variant[0]));
+        }
+
+        final ThingNode node;
+        try {
+            node = fromId(session, request.getObjectId());
+        } catch (final IllegalArgumentException e) {
+            return completedFuture(new CallMethodResult(new StatusCode(StatusCodes.Bad_NodeIdUnknown), new StatusCode[0], new DiagnosticInfo[0], new Variant[0]));
+        }
+
+        return this.snapshot.call(node, request.getInputArguments());
+    }
+
     @Override
     public void write(final WriteContext context, final List<WriteValue> writeValues) {
+        time(this.writeTimer, context.getFuture());
         context.failure(StatusCode.BAD);
     }
 
     @Override
     public void onDataItemsCreated(final List<DataItem> dataItems) {
+        this.dataItems.add(dataItems.size());
     }
 
     @Override
@@ -115,19 +298,135 @@ public class ThingNamespace implements AddressSpaceFragment {
 
     @Override
     public void onDataItemsDeleted(final List<DataItem> dataItems) {
+        this.dataItems.add(-dataItems.size());
+    }
+
+    @Override
+    public void onEventItemsCreated(final List<EventItem> eventItems) {
+        logger.debug("onEventItemsCreated: {}", eventItems);
+
+        for (final var item : eventItems) {
+            addEventItem(item);
+        }
+    }
+
+    @Override
+    public void onEventItemsModified(final List<EventItem> eventItems) {
+        logger.debug("onEventItemsModified: {}", eventItems);
+
+        for (final var item : eventItems) {
+            addEventItem(item);
+        }
+    }
+
+    @Override
+    public void onEventItemsDeleted(final List<EventItem> eventItems) {
+        logger.debug("onEventItemsDeleted: {}", eventItems);
+
+        for (final var item : eventItems) {
+            removeEventItem(item);
+        }
+    }
+
+    private void addEventItem(final EventItem item) {
+        if (!item.isSamplingEnabled()) {
+            removeEventItem(item);
+            return;
+        }
+
+        if (this.eventItems.containsKey(item.getId())) {
+            return;
+        }
+
+        try {
+            final var node = fromId(item.getSession(), item.getReadValueId().getNodeId());
+            // keep the thing subscribed, so that we see changes to its structure
+            final var subscription = this.propertyNamespace.watch(node.getLocalName());
+            this.eventItems.put(item.getId(), new EventSubscription(item, node.getLocalName(), subscription));
+        } catch (final IllegalArgumentException e) {
+            logger.info("Unable to subscribe to events of {}", item.getReadValueId().getNodeId());
+        }
+    }
+
+    private void removeEventItem(final EventItem item) {
+        final var subscription = this.eventItems.remove(item.getId());
+        if (subscription != null) {
+            subscription.subscription().close();
+        }
+    }
+
+    /**
+     * Post an event, originating from a thing node.
+     * <p>
+     * The event is delivered to event items on the thing node, and to the server's event bus.
+     */
+    void post(final BaseEventTypeNode event, final String thing) {
+        this.server.getEventBus().post(event);
+
+        for (final var subscription : this.eventItems.values()) {
+            if (subscription.thing().equals(thing)) {
+                subscription.item().onEvent(event);
+            }
+        }
     }
 
     @Override
     public void onMonitoringModeChanged(final List<MonitoredItem> monitoredItems) {
     }
 
+    @Override
+    public void registerNodes(final RegisterNodesContext context, final List<NodeId> nodeIds) {
+        logger.debug("registerNodes: {}", nodeIds);
+
+        final var session = context.getSession().orElse(null);
+        final var result = new ArrayList<NodeId>(nodeIds.size());
+
+        for (final var nodeId : nodeIds) {
+            if (session == null || RegisteredNodes.isAlias(nodeId)) {
+                result.add(nodeId);
+            } else {
+                final ThingNode node;
+                try {
+                    node = fromId(session, nodeId);
+                } catch (final IllegalArgumentException e) {
+                    result.add(nodeId);
+                    continue;
+                }
+                try {
+                    result.add(this.registered.register(session, this.namespaceIndex, nodeId, node.getLocalName(), node::pinned));
+                } catch (final UaException e) {
+                    context.failure(e);
+                    return;
+                }
+            }
+        }
+
+        context.success(result);
+    }
+
+    @Override
+    public void unregisterNodes(final UnregisterNodesContext context, final List<NodeId> nodeIds) {
+        logger.debug("unregisterNodes: {}", nodeIds);
+
+        context.getSession().ifPresent(session -> {
+            for (final var nodeId : nodeIds) {
+                this.registered.unregister(session, nodeId);
+            }
+        });
+
+        context.success(Collections.nCopies(nodeIds.size(), Unit.VALUE));
+    }
+
     @Override
     public void browse(final BrowseContext context, final ViewDescription view, final NodeId nodeId) {
+        time(this.browseTimer, context.getFuture());
         logger.debug("browse: {}", nodeId);
 
-        if (nodeId.getNamespaceIndex().equals(this.namespaceIndex)) {
+        if (this.snapshot.owns(nodeId)) {
+            this.snapshot.browse(nodeId).thenAccept(context::success);
+        } else if (nodeId.getNamespaceIndex().equals(this.namespaceIndex)) {
             // client node
-            completedFuture(ThingNode.fromId(this.client, this, this.propertyNamespace, nodeId))
+            completedFuture(fromId(context.getSession().orElse(null), nodeId))
                     .thenCompose(ThingNode::browse)
                     .whenComplete((result, err) -> {
                         logger.info("Browse - result: {}", result, err);
@@ -135,7 +434,7 @@ public class ThingNamespace implements AddressSpaceFragment {
                             if (result != null) {
                                 context.success(result);
                             } else {
-                                context.failure(StatusCode.BAD);
+                                context.failure(Failures.statusOf(err));
                             }
                         } catch (final Exception e) {
                             logger.info("Failed to browse", e);
@@ -158,9 +457,11 @@ public class ThingNamespace implements AddressSpaceFragment {
                             Identifiers.Organizes,
                             thingNodeId("/"),
                             true)));
+        } else if (this.snapshot.owns(nodeId)) {
+            this.snapshot.getReferences(nodeId).thenAccept(context::success);
         } else if (nodeId.getNamespaceIndex().equals(this.namespaceIndex)) {
             // client node
-            completedFuture(ThingNode.fromId(this.client, this, this.propertyNamespace, nodeId))
+            completedFuture(fromId(context.getSession().orElse(null), nodeId))
                     .thenCompose(ThingNode::getReferences)
                     .whenComplete((result, err) -> {
                         if (result != null) {
@@ -176,7 +477,27 @@ public class ThingNamespace implements AddressSpaceFragment {
         }
     }
 
+    /**
+     * The event notifier of thing nodes.
+     */
+    UByte eventNotifier() {
+        return this.events ? ubyte(EVENT_NOTIFIER_SUBSCRIBE_TO_EVENTS) : ubyte(0);
+    }
+
+    /**
+     * Get the node id of a thing.
+     */
+    NodeId thingNode(final String name) {
+        if (this.ids != null) {
+            return new NodeId(this.namespaceIndex, uint(this.ids.idFor(name)));
+        }
+        return new NodeId(this.namespaceIndex, name);
+    }
+
     ExpandedNodeId thingNodeId(final String name) {
-        return new ExpandedNodeId(this.namespaceIndex, NAMESPACE_URI, name);
+        if (this.ids != null) {
+            return new ExpandedNodeId(this.namespaceIndex, this.namespaceUri, uint(this.ids.idFor(name)));
+        }
+        return new ExpandedNodeId(this.namespaceIndex, this.namespaceUri, name);
     }
 }
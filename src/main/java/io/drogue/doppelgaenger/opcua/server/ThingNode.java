@@ -1,10 +1,10 @@
 package io.drogue.doppelgaenger.opcua.server;
 
-import static java.util.Optional.ofNullable;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import org.eclipse.milo.opcua.sdk.core.Reference;
@@ -22,7 +22,6 @@ import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.drogue.doppelgaenger.opcua.client.BasicFeature;
 import io.drogue.doppelgaenger.opcua.client.Client;
 import io.drogue.doppelgaenger.opcua.client.Thing;
 
@@ -43,8 +42,15 @@ public class ThingNode {
 
     private final String name;
 
+    private final RegisteredNodes.Pin pin;
+
     public ThingNode(final Client client, final ThingNamespace namespace, final PropertyNamespace propertyNamespace, final NodeId nodeId, final String name) {
+        this(client, namespace, propertyNamespace, nodeId, name, null);
+    }
+
+    private ThingNode(final Client client, final ThingNamespace namespace, final PropertyNamespace propertyNamespace, final NodeId nodeId, final String name, final RegisteredNodes.Pin pin) {
         this.client = client;
+        this.pin = pin;
         this.namespace = namespace;
         this.propertyNamespace = propertyNamespace;
         this.nodeId = nodeId;
@@ -58,6 +64,13 @@ public class ThingNode {
         throw new IllegalArgumentException();
     }
 
+    /**
+     * Create a copy of this node, reading from the pinned state of the thing.
+     */
+    ThingNode pinned(final RegisteredNodes.Pin pin) {
+        return new ThingNode(this.client, this.namespace, this.propertyNamespace, this.nodeId, this.name, pin);
+    }
+
     public CompletableFuture<DataValue> readAttribute(final UInteger attributeId) {
         if (attributeId.equals(AttributeId.NodeId.uid())) {
             return completedFuture(new DataValue(new Variant(this.nodeId)));
@@ -69,11 +82,14 @@ public class ThingNode {
             return completedFuture(new DataValue(new Variant(new QualifiedName(this.nodeId.getNamespaceIndex(), this.getLocalName()))));
         }
         if (attributeId.equals(AttributeId.DisplayName.uid())) {
-            return completedFuture(new DataValue(new Variant(LocalizedText.english(this.getLocalName()))));
+            return completedFuture(new DataValue(new Variant(LocalizedText.english(this.namespace.displayName(this.name)))));
         }
         if (attributeId.equals(AttributeId.Description.uid())) {
             return completedFuture(new DataValue(new Variant(LocalizedText.NULL_VALUE)));
         }
+        if (attributeId.equals(AttributeId.EventNotifier.uid())) {
+            return completedFuture(new DataValue(new Variant(this.namespace.eventNotifier())));
+        }
 
         return completedFuture(new DataValue(StatusCodes.Bad_AttributeIdInvalid));
     }
@@ -82,53 +98,63 @@ public class ThingNode {
         return this.name;
     }
 
+    /**
+     * Get the state of the thing, from the pinned state, the state of an existing subscription, or the backend.
+     */
+    CompletableFuture<Optional<Thing>> state() {
+        if (this.pin != null) {
+            return this.pin.get();
+        }
+        return this.propertyNamespace.state(this.name);
+    }
+
     public CompletableFuture<List<Reference>> browse() {
-        return this.client.get(this.name)
-                .thenApply(optThing -> optThing
-                        .map(this::browseThing)
-                        .orElseGet(List::of));
+        final CompletableFuture<HierarchyIndex.Entry> entry;
+        if (this.pin != null) {
+            entry = this.pin.get().thenApply(HierarchyIndex.Entry::of);
+        } else {
+            entry = this.namespace.index(this.name);
+        }
+        return entry.thenApply(this::browseEntry);
     }
 
-    private List<Reference> browseThing(final Thing thing) {
+    private List<Reference> browseEntry(final HierarchyIndex.Entry entry) {
 
         final var refs = new LinkedList<Reference>();
 
-        final var state = thing.mergedState();
-
         // children
-        ofNullable(state.remove("$children"))
-                .flatMap(BasicFeature::asObject)
-                .map(c -> {
-                    logger.debug("Children: {}", c);
-                    return c;
-                })
-                .stream().flatMap(c -> c.keySet().stream())
-                .forEach(n -> {
-                    refs.add(new Reference(
-                            this.nodeId,
-                            Identifiers.Organizes,
-                            this.namespace.thingNodeId(n),
-                            true
-                    ));
-
-                });
-
-        // regular properties
 
-        for (final var entry : state.entrySet()) {
-            if (entry.getKey().startsWith("$")) {
-                continue;
-            }
+        logger.debug("Children: {}", entry.children());
 
+        for (final var child : entry.children()) {
             refs.add(new Reference(
                     this.nodeId,
                     Identifiers.Organizes,
-                    this.propertyNamespace.propertyNodeId(this.name, entry.getKey()).expanded(),
+                    this.namespace.thingNodeId(child),
                     true
             ));
+        }
+
+        // regular properties
 
+        for (final var property : entry.properties()) {
+            refs.add(new Reference(
+                    this.nodeId,
+                    Identifiers.Organizes,
+                    this.propertyNamespace.propertyNodeId(this.name, property).expanded(),
+                    true
+            ));
         }
 
+        // methods
+
+        refs.add(new Reference(
+                this.nodeId,
+                Identifiers.HasComponent,
+                this.namespace.snapshotMethodId().expanded(),
+                true
+        ));
+
         // return result
 
         return refs;
@@ -0,0 +1,82 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+
+/**
+ * The OPC UA data type of property values.
+ * <p>
+ * JSON objects are mapped to {@link #String}, containing the JSON encoded object.
+ */
+public enum ValueType {
+    Boolean(Identifiers.Boolean, false),
+    Int64(Identifiers.Int64, false),
+    Double(Identifiers.Double, false),
+    String(Identifiers.String, false),
+    BooleanArray(Identifiers.Boolean, true),
+    Int64Array(Identifiers.Int64, true),
+    DoubleArray(Identifiers.Double, true),
+    StringArray(Identifiers.String, true),
+    /**
+     * Values of different types, each value converted on its own.
+     */
+    Any(Identifiers.BaseDataType, false);
+
+    private final NodeId dataType;
+
+    private final boolean array;
+
+    ValueType(final NodeId dataType, final boolean array) {
+        this.dataType = dataType;
+        this.array = array;
+    }
+
+    public NodeId getDataType() {
+        return this.dataType;
+    }
+
+    public boolean isArray() {
+        return this.array;
+    }
+
+    public int getValueRank() {
+        if (this == Any) {
+            return ValueRanks.Any;
+        }
+        return this.array ? ValueRanks.OneDimension : ValueRanks.Scalar;
+    }
+
+    /**
+     * The array dimensions, the length of arrays is not known upfront.
+     */
+    public UInteger[] getArrayDimensions() {
+        return this.array ? new UInteger[] { uint(0) } : null;
+    }
+
+    /**
+     * Find a type which can represent values of both types.
+     *
+     * @param current The current type, may be {@code null}.
+     * @param observed The observed type, may be {@code null}.
+     * @return The combined type, {@code null} only if both are {@code null}.
+     */
+    public static ValueType widen(final ValueType current, final ValueType observed) {
+        if (current == null || current == observed) {
+            return observed != null ? observed : current;
+        }
+        if (observed == null) {
+            return current;
+        }
+        if ((current == Int64 && observed == Double) || (current == Double && observed == Int64)) {
+            return Double;
+        }
+        if ((current == Int64Array && observed == DoubleArray) || (current == DoubleArray && observed == Int64Array)) {
+            return DoubleArray;
+        }
+        return Any;
+    }
+}
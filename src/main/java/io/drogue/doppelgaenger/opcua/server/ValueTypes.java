@@ -0,0 +1,114 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+
+import com.google.gson.JsonElement;
+
+import io.drogue.doppelgaenger.opcua.ThingsSubscriptionManager;
+import io.drogue.doppelgaenger.opcua.client.BasicFeature;
+import io.drogue.doppelgaenger.opcua.jfr.ValueConversionEvent;
+
+/**
+ * Remembers the type of properties, and converts their values accordingly.
+ * <p>
+ * The type of a property is inferred from its values, and only ever gets widened. So a property which reported
+ * {@code 1} and later {@code 1.5} will be reported as {@code Double} from then on, and clients see a stable type.
+ * <p>
+ * Types are only remembered for things which have a subscription, and dropped when the last subscription of the thing
+ * is released. Values of other things are converted using the type inferred from the value alone.
+ * <p>
+ * The last converted value of each property is cached, together with the feature instance it was converted from. All
+ * items reporting the same feature share the conversion. Only actual conversions emit a {@link ValueConversionEvent}.
+ */
+class ValueTypes implements ThingsSubscriptionManager.SubscriptionListener {
+
+    private record Converted(BasicFeature feature, ValueType observed, ValueType type, DataValue value) {
+    }
+
+    private record Property(ValueType type, Converted converted) {
+    }
+
+    private final Map<String, Map<String, Property>> types = new ConcurrentHashMap<>();
+
+    @Override
+    public void onSubscribed(final String thing) {
+        this.types.putIfAbsent(thing, new ConcurrentHashMap<>());
+    }
+
+    @Override
+    public void onReleased(final String thing) {
+        this.types.remove(thing);
+    }
+
+    /**
+     * The number of things we currently remember the types of.
+     */
+    int size() {
+        return this.types.size();
+    }
+
+    /**
+     * Get the type of a property, if known.
+     */
+    Optional<ValueType> get(final String thing, final String property) {
+        final var properties = this.types.get(thing);
+        final var entry = properties != null ? properties.get(property) : null;
+        return entry != null ? Optional.ofNullable(entry.type()) : Optional.empty();
+    }
+
+    private ValueType update(final Map<String, Property> properties, final String property, final ValueType observed) {
+        if (properties == null) {
+            return observed;
+        }
+        if (observed == null) {
+            final var entry = properties.get(property);
+            return entry != null ? entry.type() : null;
+        }
+        return properties
+                .merge(property, new Property(observed, null), (current, x) -> {
+                    final var type = ValueType.widen(current.type(), observed);
+                    return type == current.type() ? current : new Property(type, current.converted());
+                })
+                .type();
+    }
+
+    /**
+     * Convert the value of a property, updating the type of the property.
+     */
+    DataValue toDataValue(final String thing, final String property, final BasicFeature feature) {
+        final var properties = this.types.get(thing);
+        final var entry = properties != null ? properties.get(property) : null;
+        final var cached = entry != null && entry.converted() != null && entry.converted().feature() == feature ? entry.converted() : null;
+        if (cached != null && cached.type() == entry.type()) {
+            return cached.value();
+        }
+
+        final var event = ValueConversionEvent.start(thing, property);
+        final var observed = cached != null ? cached.observed() : Values.inferType(feature.getValue());
+        final var type = update(properties, property, observed);
+        final var value = Values.toDataValue(feature, type);
+        if (properties != null) {
+            final var converted = new Converted(feature, observed, type, value);
+            properties.computeIfPresent(property, (x, current) -> current.type() == type ? new Property(type, converted) : current);
+        }
+        if (event != null) {
+            event.type = type != null ? type.name() : null;
+            event.commit();
+        }
+        return value;
+    }
+
+    /**
+     * Convert the value of a field nested inside a property, updating the type of the field.
+     */
+    DataValue toDataValue(final String thing, final String property, final JsonElement value, final DateTime timestamp) {
+        final var type = update(this.types.get(thing), property, Values.inferType(value));
+        return new DataValue(Values.toVariant(value, type), StatusCode.GOOD, timestamp);
+    }
+}
@@ -9,7 +9,9 @@ import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
 
 import io.drogue.doppelgaenger.opcua.client.BasicFeature;
 
@@ -24,9 +26,20 @@ public final class Values {
     }
 
     public static DataValue toDataValue(@Nullable final BasicFeature feature) {
+        return toDataValue(feature, feature != null ? inferType(feature.getValue()) : null);
+    }
+
+    /**
+     * Convert a feature into a data value, using the provided type.
+     *
+     * @param feature The feature.
+     * @param type The type to convert to, see {@link #toVariant(JsonElement, ValueType)}.
+     * @return The data value.
+     */
+    public static DataValue toDataValue(@Nullable final BasicFeature feature, @Nullable final ValueType type) {
         if (feature != null) {
             return new DataValue(
-                    toVariant(feature.getValue()),
+                    toVariant(feature.getValue(), type),
                     StatusCode.GOOD,
                     new DateTime(feature.getLastUpdate().toInstant())
             );
@@ -43,35 +56,193 @@ public final class Values {
      * @return The variant type.
      */
     public static Variant toVariant(@Nullable final JsonElement value) {
+        return toVariant(value, inferType(value));
+    }
+
+    /**
+     * Convert a Doppelgaenger value (JSON) into an OPC UA variant of the provided type.
+     * <p>
+     * The type must be able to represent the value, which is the case when it was inferred from the value, or
+     * widened with the inferred type, see {@link ValueType#widen(ValueType, ValueType)}. Otherwise, the value gets
+     * converted on its own.
+     *
+     * @param value The JSON value.
+     * @param type The type, {@code null} to infer the type from the value.
+     * @return The variant type.
+     */
+    public static Variant toVariant(@Nullable final JsonElement value, @Nullable final ValueType type) {
 
         if (value == null || value.isJsonNull()) {
-            return new Variant(null);
+            return Variant.NULL_VALUE;
         }
 
-        if (value.isJsonPrimitive()) {
-            final var p = value.getAsJsonPrimitive();
-            if (p.isNumber()) {
-                return new Variant(p.getAsNumber().doubleValue());
-            } else if (p.isBoolean()) {
-                return new Variant(p.getAsBoolean());
-            } else {
-                return new Variant(p.getAsString());
+        if (type == null || type == ValueType.Any) {
+            final var inferred = inferType(value);
+            if (inferred != null && inferred != ValueType.Any) {
+                return toVariant(value, inferred);
+            }
+            return toUntypedVariant(value);
+        }
+
+        if (type.isArray() != value.isJsonArray()) {
+            return toUntypedVariant(value);
+        }
+
+        try {
+            switch (type) {
+            case Boolean:
+                return value.getAsJsonPrimitive().isBoolean() ? new Variant(value.getAsBoolean()) : toUntypedVariant(value);
+            case Int64:
+                return value.getAsJsonPrimitive().isNumber() ? new Variant(value.getAsLong()) : toUntypedVariant(value);
+            case Double:
+                return value.getAsJsonPrimitive().isNumber() ? new Variant(value.getAsDouble()) : toUntypedVariant(value);
+            case String:
+                return new Variant(value.isJsonPrimitive() ? value.getAsString() : value.toString());
+            case BooleanArray: {
+                final var items = value.getAsJsonArray();
+                final var array = new boolean[items.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = items.get(i).getAsBoolean();
+                }
+                return new Variant(array);
+            }
+            case Int64Array: {
+                final var items = value.getAsJsonArray();
+                final var array = new long[items.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = items.get(i).getAsLong();
+                }
+                return new Variant(array);
+            }
+            case DoubleArray: {
+                final var items = value.getAsJsonArray();
+                final var array = new double[items.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = items.get(i).getAsDouble();
+                }
+                return new Variant(array);
+            }
+            case StringArray: {
+                final var items = value.getAsJsonArray();
+                final var array = new String[items.size()];
+                for (int i = 0; i < array.length; i++) {
+                    final var item = items.get(i);
+                    array[i] = item.isJsonPrimitive() ? item.getAsString() : item.toString();
+                }
+                return new Variant(array);
             }
+            default:
+                return toUntypedVariant(value);
+            }
+        } catch (final RuntimeException e) {
+            // the value didn't match the type
+            return toUntypedVariant(value);
         }
 
+    }
+
+    /**
+     * Convert a value without a common type, arrays become arrays of variants.
+     */
+    private static Variant toUntypedVariant(final JsonElement value) {
         if (value.isJsonArray()) {
             final var items = value.getAsJsonArray();
             final var array = new Variant[items.size()];
             var i = 0;
             for (final var item : items) {
-                array[i] = toVariant(item);
+                array[i] = toVariant(item, null);
                 i++;
             }
             return new Variant(array);
         }
 
+        if (value.isJsonPrimitive()) {
+            final var p = value.getAsJsonPrimitive();
+            if (p.isNumber()) {
+                return new Variant(p.getAsNumber().doubleValue());
+            } else if (p.isBoolean()) {
+                return new Variant(p.getAsBoolean());
+            } else {
+                return new Variant(p.getAsString());
+            }
+        }
+
         return new Variant(value.toString());
+    }
 
+    /**
+     * Infer the type of a single value.
+     *
+     * @param value The JSON value.
+     * @return The type, or {@code null} if the value doesn't carry any type information ({@code null}, or an empty
+     *         array).
+     */
+    public static ValueType inferType(@Nullable final JsonElement value) {
+        if (value == null || value.isJsonNull()) {
+            return null;
+        }
+
+        if (value.isJsonPrimitive()) {
+            return inferPrimitive(value.getAsJsonPrimitive());
+        }
+
+        if (value.isJsonArray()) {
+            return inferArray(value.getAsJsonArray());
+        }
+
+        return ValueType.String;
+    }
+
+    private static ValueType inferPrimitive(final JsonPrimitive p) {
+        if (p.isBoolean()) {
+            return ValueType.Boolean;
+        }
+        if (p.isNumber()) {
+            return isIntegral(p) ? ValueType.Int64 : ValueType.Double;
+        }
+        return ValueType.String;
+    }
+
+    private static ValueType inferArray(final JsonArray items) {
+        ValueType result = null;
+        for (final var item : items) {
+            if (!item.isJsonPrimitive()) {
+                return ValueType.Any;
+            }
+            result = ValueType.widen(result, inferPrimitive(item.getAsJsonPrimitive()));
+            if (result == ValueType.Any) {
+                return ValueType.Any;
+            }
+        }
+        if (result == null) {
+            return null;
+        }
+        switch (result) {
+        case Boolean:
+            return ValueType.BooleanArray;
+        case Int64:
+            return ValueType.Int64Array;
+        case Double:
+            return ValueType.DoubleArray;
+        default:
+            return ValueType.StringArray;
+        }
+    }
+
+    private static boolean isIntegral(final JsonPrimitive p) {
+        final var s = p.getAsString();
+        for (int i = 0; i < s.length(); i++) {
+            final var c = s.charAt(i);
+            if (c == '.' || c == 'e' || c == 'E') {
+                return false;
+            }
+        }
+        try {
+            Long.parseLong(s);
+            return true;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
     }
 
 }
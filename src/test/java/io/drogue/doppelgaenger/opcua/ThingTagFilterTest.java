@@ -0,0 +1,43 @@
+package io.drogue.doppelgaenger.opcua;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ThingTagFilterTest {
+
+    @Test
+    void testBoundedThingTags() {
+        final var registry = new SimpleMeterRegistry();
+        registry.config().meterFilter(new ThingTagFilter(2));
+
+        registry.counter("foo", "thing", "a").increment();
+        registry.counter("foo", "thing", "b").increment();
+        registry.counter("foo", "thing", "c").increment();
+        registry.counter("foo", "thing", "d").increment();
+        registry.counter("foo", "thing", "a").increment();
+
+        Assertions.assertEquals(2, registry.get("foo").tag("thing", "a").counter().count());
+        Assertions.assertEquals(1, registry.get("foo").tag("thing", "b").counter().count());
+        Assertions.assertEquals(2, registry.get("foo").tag("thing", ThingTagFilter.OTHER).counter().count());
+        Assertions.assertNull(registry.find("foo").tag("thing", "c").counter());
+    }
+
+    @Test
+    void testRelease() {
+        final var registry = new SimpleMeterRegistry();
+        final var filter = new ThingTagFilter(1);
+        registry.config().meterFilter(filter);
+
+        final var a = registry.counter("foo", "thing", "a");
+        registry.counter("foo", "thing", "b").increment();
+        Assertions.assertNull(registry.find("foo").tag("thing", "b").counter());
+
+        registry.remove(a);
+        filter.release("a");
+
+        registry.counter("foo", "thing", "b").increment();
+        Assertions.assertEquals(1, registry.get("foo").tag("thing", "b").counter().count());
+    }
+}
@@ -0,0 +1,48 @@
+package io.drogue.doppelgaenger.opcua.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BulkheadTest {
+
+    @Test
+    void testQueueLimit() {
+        final var bulkhead = new Bulkhead(1, 2);
+        final var ran = new AtomicInteger();
+
+        Assertions.assertTrue(bulkhead.execute(ran::incrementAndGet));
+        Assertions.assertTrue(bulkhead.execute(ran::incrementAndGet));
+        Assertions.assertTrue(bulkhead.execute(ran::incrementAndGet));
+        Assertions.assertFalse(bulkhead.execute(ran::incrementAndGet));
+        Assertions.assertEquals(1, ran.get());
+        Assertions.assertEquals(2, bulkhead.getQueued());
+        Assertions.assertFalse(bulkhead.tryAcquire());
+
+        bulkhead.release();
+        Assertions.assertEquals(2, ran.get());
+        Assertions.assertEquals(1, bulkhead.getInFlight());
+        Assertions.assertEquals(1, bulkhead.getQueued());
+    }
+
+    @Test
+    void testReleaseDoesNotRecurse() {
+        final var bulkhead = new Bulkhead(1);
+        final var ran = new AtomicInteger();
+
+        bulkhead.execute(ran::incrementAndGet);
+        // queued operations which release their permit right away, like requests which expired while queued
+        for (int i = 0; i < 100_000; i++) {
+            bulkhead.execute(() -> {
+                ran.incrementAndGet();
+                bulkhead.release();
+            });
+        }
+
+        bulkhead.release();
+        Assertions.assertEquals(100_001, ran.get());
+        Assertions.assertEquals(0, bulkhead.getInFlight());
+        Assertions.assertEquals(0, bulkhead.getQueued());
+    }
+}
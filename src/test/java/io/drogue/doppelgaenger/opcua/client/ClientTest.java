@@ -0,0 +1,211 @@
+package io.drogue.doppelgaenger.opcua.client;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.oidc.client.Tokens;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.client.HttpRequest;
+
+public class ClientTest {
+
+    private static final AuthenticationProvider NO_AUTH = new AuthenticationProvider() {
+        @Override
+        public <T> CompletableFuture<HttpRequest<T>> inject(final HttpRequest<T> request) {
+            return CompletableFuture.completedFuture(request);
+        }
+
+        @Override
+        public CompletableFuture<Tokens> getBearerToken() {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException());
+        }
+    };
+
+    private Vertx vertx;
+
+    private HttpServer server;
+
+    /**
+     * The delay of responses, in milliseconds.
+     */
+    private final AtomicLong delay = new AtomicLong();
+
+    /**
+     * Delay only the next response, in milliseconds.
+     */
+    private final AtomicLong delayNext = new AtomicLong();
+
+    /**
+     * The status code of responses, anything but 200 gets an empty body.
+     */
+    private final AtomicInteger status = new AtomicInteger(200);
+
+    /**
+     * The number of requests received.
+     */
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private Client client;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.vertx = Vertx.vertx();
+        this.server = this.vertx.createHttpServer()
+                .requestHandler(request -> {
+                    this.requests.incrementAndGet();
+                    if (this.status.get() != 200) {
+                        request.response().setStatusCode(this.status.get()).end();
+                        return;
+                    }
+                    final var name = request.path().substring(request.path().lastIndexOf('/') + 1);
+                    final Runnable respond = () -> request.response()
+                            .putHeader("Content-Type", "application/json")
+                            .end("{\"metadata\":{\"name\":\"" + name + "\"},\"reportedState\":{\"temperature\":{\"lastUpdate\":\"2022-01-01T00:00:00Z\",\"value\":42}}}");
+                    final var delay = Math.max(this.delay.get(), this.delayNext.getAndSet(0));
+                    if (delay > 0) {
+                        this.vertx.setTimer(delay, x -> respond.run());
+                    } else {
+                        respond.run();
+                    }
+                })
+                .listen(0, "localhost")
+                .toCompletionStage()
+                .toCompletableFuture()
+                .get();
+
+        this.client = new Client(this.vertx, "http://localhost:" + this.server.actualPort(), "default", NO_AUTH);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.client.close();
+        this.vertx.close();
+    }
+
+    @Test
+    void testFallback() throws Exception {
+        this.client.setDeadline(Duration.ofSeconds(5), 10);
+
+        final var fresh = this.client.get("device1").get(5, TimeUnit.SECONDS).orElseThrow();
+        Assertions.assertFalse(fresh.isRestored());
+
+        this.delay.set(2_000);
+        this.client.setDeadline(Duration.ofMillis(200), 10);
+
+        // known state, answered from the last known state
+        final var stale = this.client.get("device1").get(5, TimeUnit.SECONDS).orElseThrow();
+        Assertions.assertTrue(stale.isRestored());
+        Assertions.assertEquals(42, stale.getReportedState().get("temperature").getValue().getAsInt());
+
+        // unknown state, fails with a timeout
+        final var unknown = this.client.get("device2");
+        final var err = Assertions.assertThrows(ExecutionException.class, () -> unknown.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(TimeoutException.class, err.getCause());
+    }
+
+    @Test
+    void testHedging() throws Exception {
+        final var registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+
+        final var client = new Client(this.vertx, "http://localhost:" + this.server.actualPort(), "hedging", NO_AUTH);
+        client.setHedging(0.5, Duration.ofMillis(10), new HedgeBudget(1, 10));
+
+        // learn the latencies
+        for (int i = 0; i < 2 * LatencyWindow.MIN_SAMPLES; i++) {
+            client.get("device1").get(5, TimeUnit.SECONDS);
+        }
+
+        // the first request is slow, the hedged request answers
+        this.delayNext.set(5_000);
+        final var start = System.nanoTime();
+        client.get("device1").get(5, TimeUnit.SECONDS).orElseThrow();
+        Assertions.assertTrue(System.nanoTime() - start < Duration.ofSeconds(2).toNanos());
+
+        // the outcome gets counted after the response was handed over
+        final var won = registry.counter("doppelgaenger.client.hedge", "application", "hedging", "outcome", "won");
+        for (int i = 0; i < 100 && won.count() == 0; i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(1, won.count());
+        client.close();
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    void testNoHedgingWhileProbing() throws Exception {
+        final var breaker = new CircuitBreaker(0.5, 4, Duration.ofMillis(200));
+        final var client = new Client(this.vertx, "http://localhost:" + this.server.actualPort(), "probing", NO_AUTH);
+        client.setHedging(0.5, Duration.ofMillis(10), new HedgeBudget(1, 10));
+        client.setCircuitBreaker(breaker);
+
+        // learn the latencies
+        for (int i = 0; i < 2 * LatencyWindow.MIN_SAMPLES; i++) {
+            client.get("device1").get(5, TimeUnit.SECONDS);
+        }
+
+        // open the breaker
+        this.status.set(500);
+        for (int i = 0; i < 4; i++) {
+            final var failed = client.get("device1");
+            Assertions.assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(CircuitBreaker.State.Open, breaker.getState());
+
+        // the slow probe doesn't get hedged
+        this.status.set(200);
+        Thread.sleep(300);
+        this.delayNext.set(500);
+        final var sent = this.requests.get();
+        client.get("device1").get(5, TimeUnit.SECONDS).orElseThrow();
+        Assertions.assertEquals(sent + 1, this.requests.get());
+        Assertions.assertEquals(CircuitBreaker.State.Closed, breaker.getState());
+        client.close();
+    }
+
+    @Test
+    void testCircuitBreaker() throws Exception {
+        final var breaker = new CircuitBreaker(0.5, 4, Duration.ofMillis(500));
+        this.client.setCircuitBreaker(breaker);
+        this.client.setDeadline(null, 10);
+
+        this.client.get("device1").get(5, TimeUnit.SECONDS).orElseThrow();
+
+        // the backend fails, until the breaker opens
+        this.status.set(500);
+        for (int i = 0; i < 4; i++) {
+            final var failed = this.client.get("device2");
+            Assertions.assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(CircuitBreaker.State.Open, breaker.getState());
+
+        // no more requests, answered from the last known state, or failing fast
+        final var sent = this.requests.get();
+        final var stale = this.client.get("device1").get(5, TimeUnit.SECONDS).orElseThrow();
+        Assertions.assertTrue(stale.isRestored());
+        final var unknown = this.client.get("device2");
+        final var err = Assertions.assertThrows(ExecutionException.class, () -> unknown.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(BackendUnavailableException.class, err.getCause());
+        Assertions.assertEquals(sent, this.requests.get());
+
+        // the backend recovers, the probe closes the breaker
+        this.status.set(200);
+        Thread.sleep(600);
+        final var fresh = this.client.get("device1").get(5, TimeUnit.SECONDS).orElseThrow();
+        Assertions.assertFalse(fresh.isRestored());
+        Assertions.assertEquals(CircuitBreaker.State.Closed, breaker.getState());
+    }
+}
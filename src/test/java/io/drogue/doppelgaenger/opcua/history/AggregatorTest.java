@@ -0,0 +1,107 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonPrimitive;
+
+public class AggregatorTest {
+
+    private record Result(long timestamp, Object value, long statusCode) {
+    }
+
+    private static List<Result> aggregate(final Aggregator aggregator, final Aggregator.Function function, final long start, final long end, final long interval) {
+        final var result = new ArrayList<Result>();
+        aggregator.aggregate("thing", "value", function, start, end, interval, (timestamp, value, statusCode) -> {
+            result.add(new Result(timestamp, value.getValue(), statusCode));
+        });
+        return result;
+    }
+
+    /**
+     * Create an aggregator with rollup buckets of 10, and a sample every 5, with a value of {@code timestamp / 5}.
+     */
+    private static Aggregator filled(final boolean rollups) {
+        final var store = new MemoryHistoryStore(1000, 10);
+        final var aggregator = new Aggregator(store, 10, 100, 10);
+        for (long t = 0; t < 100; t += 5) {
+            final var value = new JsonPrimitive(t / 5);
+            store.append("thing", "value", t, value);
+            if (rollups) {
+                aggregator.append("thing", "value", t, value);
+            }
+        }
+        return aggregator;
+    }
+
+    @Test
+    void testBasic() {
+        final var aggregator = filled(true);
+
+        final var count = aggregate(aggregator, Aggregator.Function.Count, 0, 40, 20);
+        Assertions.assertEquals(List.of(4, 4), count.stream().map(Result::value).toList());
+
+        final var min = aggregate(aggregator, Aggregator.Function.Minimum, 0, 40, 20);
+        Assertions.assertEquals(List.of(0.0, 4.0), min.stream().map(Result::value).toList());
+
+        final var max = aggregate(aggregator, Aggregator.Function.Maximum, 0, 40, 20);
+        Assertions.assertEquals(List.of(3.0, 7.0), max.stream().map(Result::value).toList());
+
+        final var average = aggregate(aggregator, Aggregator.Function.Average, 0, 40, 20);
+        Assertions.assertEquals(List.of(1.5, 5.5), average.stream().map(Result::value).toList());
+        Assertions.assertEquals(List.of(0L, 20L), average.stream().map(Result::timestamp).toList());
+    }
+
+    @Test
+    void testTimeAverage() {
+        final var aggregator = filled(true);
+
+        // a linear ramp from 4 to 8
+        final var result = aggregate(aggregator, Aggregator.Function.TimeAverage, 20, 40, 20);
+        Assertions.assertEquals(1, result.size());
+        Assertions.assertEquals(6.0, result.get(0).value());
+        Assertions.assertTrue(new StatusCode(result.get(0).statusCode()).isGood());
+
+        // nothing after the last sample, so the last interval is partial
+        final var tail = aggregate(aggregator, Aggregator.Function.TimeAverage, 90, 110, 20);
+        Assertions.assertTrue(new StatusCode(tail.get(0).statusCode()).isUncertain());
+    }
+
+    @Test
+    void testInterpolative() {
+        final var aggregator = filled(true);
+
+        final var result = aggregate(aggregator, Aggregator.Function.Interpolative, 20, 40, 10);
+        Assertions.assertEquals(List.of(4.0, 6.0), result.stream().map(Result::value).toList());
+
+        // unaligned, computed from raw samples
+        final var raw = aggregate(aggregator, Aggregator.Function.Interpolative, 22, 24, 1);
+        Assertions.assertEquals(4.4, (Double) raw.get(0).value(), 0.0001);
+    }
+
+    @Test
+    void testNoData() {
+        final var aggregator = filled(true);
+
+        final var result = aggregate(aggregator, Aggregator.Function.Average, 200, 220, 20);
+        Assertions.assertEquals(StatusCodes.Bad_NoData, result.get(0).statusCode());
+    }
+
+    @Test
+    void testRollupMatchesRaw() {
+        final var rollups = filled(true);
+        final var raw = filled(false);
+
+        for (final var function : Aggregator.Function.values()) {
+            Assertions.assertEquals(
+                    aggregate(raw, function, 0, 120, 20),
+                    aggregate(rollups, function, 0, 120, 20),
+                    function.name());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonPrimitive;
+
+public class RingBufferTest {
+
+    private static List<Long> read(final RingBuffer buffer, final long from, final long to) {
+        final var result = new ArrayList<Long>();
+        buffer.read(from, to, (timestamp, value) -> {
+            result.add(timestamp);
+            return true;
+        });
+        return result;
+    }
+
+    private static RingBuffer filled(final int capacity, final long... timestamps) {
+        final var buffer = new RingBuffer(capacity);
+        for (final var timestamp : timestamps) {
+            buffer.append(timestamp, new JsonPrimitive(timestamp));
+        }
+        return buffer;
+    }
+
+    @Test
+    void testDropOutOfOrder() {
+        final var buffer = filled(10, 1, 2, 3);
+        Assertions.assertFalse(buffer.append(3, new JsonPrimitive(0)));
+        Assertions.assertFalse(buffer.append(2, new JsonPrimitive(0)));
+        Assertions.assertEquals(3, buffer.size());
+    }
+
+    @Test
+    void testForward() {
+        final var buffer = filled(10, 10, 20, 30, 40);
+        Assertions.assertEquals(List.of(20L, 30L), read(buffer, 20, 40));
+        Assertions.assertEquals(List.of(20L, 30L, 40L), read(buffer, 11, Long.MAX_VALUE));
+        Assertions.assertEquals(List.of(), read(buffer, 41, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testReverse() {
+        final var buffer = filled(10, 10, 20, 30, 40);
+        Assertions.assertEquals(List.of(40L, 30L), read(buffer, 40, 20));
+        Assertions.assertEquals(List.of(40L, 30L, 20L, 10L), read(buffer, Long.MAX_VALUE, Long.MIN_VALUE));
+        Assertions.assertEquals(List.of(), read(buffer, 9, Long.MIN_VALUE));
+    }
+
+    @Test
+    void testWrapAround() {
+        final var buffer = filled(3, 10, 20, 30, 40, 50);
+        Assertions.assertEquals(3, buffer.size());
+        Assertions.assertEquals(List.of(30L, 40L, 50L), read(buffer, Long.MIN_VALUE, Long.MAX_VALUE));
+        Assertions.assertEquals(List.of(40L, 50L), read(buffer, 35, Long.MAX_VALUE));
+        Assertions.assertEquals(List.of(40L, 30L), read(buffer, 45, Long.MIN_VALUE));
+    }
+
+    @Test
+    void testStopReading() {
+        final var buffer = filled(10, 10, 20, 30);
+        final var result = new ArrayList<Long>();
+        buffer.read(Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, value) -> {
+            result.add(timestamp);
+            return result.size() < 2;
+        });
+        Assertions.assertEquals(List.of(10L, 20L), result);
+    }
+}
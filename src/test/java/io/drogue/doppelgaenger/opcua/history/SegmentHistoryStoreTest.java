@@ -0,0 +1,97 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonPrimitive;
+
+public class SegmentHistoryStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private SegmentHistoryStore store(final int maxProperties) throws IOException {
+        return new SegmentHistoryStore(this.directory, 1024, maxProperties, Optional.empty(), Optional.empty(), Duration.ofHours(1));
+    }
+
+    private long properties() throws IOException {
+        try (final var files = Files.list(this.directory)) {
+            return files.count();
+        }
+    }
+
+    private static List<Double> values(final SegmentHistoryStore store, final String property) {
+        final var result = new ArrayList<Double>();
+        store.read("thing", property, 0, Long.MAX_VALUE, (timestamp, value) -> {
+            result.add(((Number) value.getValue()).doubleValue());
+            return true;
+        });
+        return result;
+    }
+
+    @Test
+    void testEvict() throws IOException {
+        try (final var store = store(2)) {
+            Assertions.assertTrue(store.append("thing", "a", 1, new JsonPrimitive(1)));
+            Assertions.assertTrue(store.append("thing", "b", 2, new JsonPrimitive(2)));
+            Assertions.assertTrue(store.append("thing", "a", 3, new JsonPrimitive(3)));
+            Assertions.assertTrue(store.append("thing", "c", 4, new JsonPrimitive(4)));
+
+            // evicting only closes the history, it gets opened again on access
+
+            Assertions.assertTrue(store.contains("thing", "b"));
+            Assertions.assertEquals(3, properties());
+            Assertions.assertEquals(List.of(2.0), values(store, "b"));
+
+            Assertions.assertTrue(store.append("thing", "b", 5, new JsonPrimitive(5)));
+            Assertions.assertEquals(List.of(2.0, 5.0), values(store, "b"));
+            Assertions.assertEquals(List.of(1.0, 3.0), values(store, "a"));
+            Assertions.assertFalse(store.contains("thing", "d"));
+        }
+    }
+
+    @Test
+    void testEvictOnRecovery() throws IOException {
+        try (final var store = store(3)) {
+            store.append("thing", "a", 3, new JsonPrimitive(1));
+            store.append("thing", "b", 1, new JsonPrimitive(2));
+            store.append("thing", "c", 2, new JsonPrimitive(3));
+        }
+
+        try (final var store = store(2)) {
+            Assertions.assertTrue(store.contains("thing", "a"));
+            Assertions.assertTrue(store.contains("thing", "b"));
+            Assertions.assertTrue(store.contains("thing", "c"));
+            Assertions.assertEquals(3, properties());
+            Assertions.assertEquals(List.of(2.0), values(store, "b"));
+        }
+    }
+
+    @Test
+    void testRetentionRemovesExpired() throws Exception {
+        final var now = DateTime.now().getUtcTime();
+        try (final var store = new SegmentHistoryStore(this.directory, 1024, 1, Optional.of(Duration.ofHours(1)), Optional.empty(), Duration.ofMillis(50))) {
+            // expired, and no longer open
+            store.append("thing", "a", now - Duration.ofHours(2).toMillis() * 10_000L, new JsonPrimitive(1));
+            store.append("thing", "b", now, new JsonPrimitive(2));
+
+            final var deadline = System.currentTimeMillis() + 5_000;
+            while (properties() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+
+            Assertions.assertFalse(store.contains("thing", "a"));
+            Assertions.assertEquals(List.of(2.0), values(store, "b"));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.drogue.doppelgaenger.opcua.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonPrimitive;
+
+public class SegmentLogTest {
+
+    // room for 10 numeric records per segment
+    private static final int SEGMENT_SIZE = 16 + 10 * 25 + 4;
+
+    @TempDir
+    Path directory;
+
+    private static List<Long> read(final SegmentLog log, final long from, final long to) throws IOException {
+        final var result = new ArrayList<Long>();
+        log.read(from, to, (timestamp, value) -> {
+            Assertions.assertEquals((double) timestamp, value.getValue());
+            result.add(timestamp);
+            return true;
+        });
+        return result;
+    }
+
+    private static List<Long> range(final long from, final long to) {
+        return LongStream.range(from, to).boxed().collect(Collectors.toList());
+    }
+
+    private SegmentLog filled(final long from, final long to) throws IOException {
+        final var log = SegmentLog.open(this.directory, SEGMENT_SIZE);
+        for (long i = from; i < to; i++) {
+            Assertions.assertTrue(log.append(i, new JsonPrimitive((double) i)));
+        }
+        return log;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (final var files = Files.list(this.directory)) {
+            return files.sorted(Comparator.comparing(Path::toString)).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void testRollover() throws IOException {
+        final var log = filled(0, 1000);
+        Assertions.assertEquals(100, segments().size());
+        Assertions.assertFalse(log.append(999, new JsonPrimitive(0)));
+
+        Assertions.assertEquals(range(0, 1000), read(log, 0, Long.MAX_VALUE));
+        Assertions.assertEquals(range(495, 705), read(log, 495, 705));
+
+        final var reverse = range(301, 801);
+        reverse.sort(Comparator.reverseOrder());
+        Assertions.assertEquals(reverse, read(log, 800, 300));
+    }
+
+    @Test
+    void testRecovery() throws IOException {
+        filled(0, 25).close();
+
+        // corrupt the last record
+        final var last = segments().get(segments().size() - 1);
+        try (final var channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0x42}), 16 + 4 * 25 + 20);
+        }
+
+        final var log = SegmentLog.open(this.directory, SEGMENT_SIZE);
+        Assertions.assertEquals(range(0, 24), read(log, 0, Long.MAX_VALUE));
+        Assertions.assertTrue(log.append(24, new JsonPrimitive(24.0)));
+        Assertions.assertEquals(range(0, 25), read(log, 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testRetention() throws IOException {
+        final var log = filled(0, 100);
+
+        log.applyRetention(35, Long.MAX_VALUE);
+        Assertions.assertEquals(range(30, 100), read(log, 0, Long.MAX_VALUE));
+
+        log.applyRetention(Long.MIN_VALUE, SEGMENT_SIZE * 2);
+        Assertions.assertEquals(range(80, 100), read(log, 0, Long.MAX_VALUE));
+
+        // the active segment is always kept
+        log.applyRetention(Long.MAX_VALUE, 0);
+        Assertions.assertEquals(range(90, 100), read(log, 0, Long.MAX_VALUE));
+    }
+}
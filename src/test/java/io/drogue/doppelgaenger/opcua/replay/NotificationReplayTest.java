@@ -0,0 +1,79 @@
+package io.drogue.doppelgaenger.opcua.replay;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.drogue.doppelgaenger.opcua.client.Thing;
+import io.vertx.core.Vertx;
+
+public class NotificationReplayTest {
+
+    @TempDir
+    Path directory;
+
+    private Vertx vertx;
+
+    @BeforeEach
+    void setup() {
+        this.vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.vertx.close();
+    }
+
+    private static String frame(final String type, final String thing, final int counter) {
+        return "{\"type\":\"" + type + "\",\"thing\":{\"metadata\":{\"name\":\"" + thing + "\"},"
+                + "\"reportedState\":{\"counter\":{\"lastUpdate\":\"2022-01-01T00:00:00Z\",\"value\":" + counter + "}}}}";
+    }
+
+    private static long counter(final Optional<Thing> state) {
+        return state.orElseThrow().getReportedState().get("counter").getValue().getAsLong();
+    }
+
+    @Test
+    void testRecordAndReplay() throws Exception {
+        final var file = this.directory.resolve("notifications.rec");
+
+        try (final var recorder = NotificationRecorder.create(file)) {
+            recorder.record("app", "a", frame("initial", "a", 1));
+            recorder.record("app", "b", frame("initial", "b", 1));
+            recorder.record("app", "a", frame("change", "a", 2));
+            recorder.record("app", "a", "{\"type\":\"unknown\"}");
+            recorder.record("other", "a", frame("change", "a", 10));
+            recorder.record("app", "a", frame("change", "a", 3));
+        }
+
+        final var replay = NotificationReplay.load(this.vertx, file);
+        Assertions.assertEquals(6, replay.size());
+
+        final var received = new CopyOnWriteArrayList<Long>();
+        replay.connect("app", "a", state -> received.add(counter(state)));
+
+        replay.start(0, false).get(10, TimeUnit.SECONDS);
+
+        Assertions.assertEquals(List.of(1L, 2L, 3L), received);
+        Assertions.assertEquals(1L, counter(replay.lastState("app", "b")));
+        Assertions.assertEquals(10L, counter(replay.lastState("other", "a")));
+        Assertions.assertTrue(replay.lastState("app", "c").isEmpty());
+
+        // late subscribers get the last state
+        final var initial = new CompletableFuture<Long>();
+        final var subscription = replay.connect("app", "a", state -> initial.complete(counter(state)));
+        Assertions.assertEquals(3L, initial.get(10, TimeUnit.SECONDS));
+        subscription.close();
+
+        replay.close();
+    }
+}
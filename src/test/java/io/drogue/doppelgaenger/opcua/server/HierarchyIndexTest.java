@@ -0,0 +1,47 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.drogue.doppelgaenger.opcua.client.GsonUtil;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+
+public class HierarchyIndexTest {
+
+    private static Optional<Thing> thing(final String reportedState) {
+        return Optional.of(GsonUtil.create().fromJson("{\"metadata\": {\"name\": \"foo\"}, \"reportedState\": " + reportedState + "}", Thing.class));
+    }
+
+    @Test
+    void testEntry() {
+        final var entry = HierarchyIndex.Entry.of(thing("{\"$children\": {\"value\": {\"bar\": {}}}, \"$internal\": {\"value\": 1}, \"temperature\": {\"value\": 1}}"));
+        Assertions.assertEquals(List.of("bar"), entry.children());
+        Assertions.assertEquals(List.of("temperature"), entry.properties());
+    }
+
+    @Test
+    void testStructureChange() {
+        final var index = new HierarchyIndex(null, Duration.ofMinutes(1), 10);
+        final var changes = new ArrayList<HierarchyIndex.Entry>();
+        index.addChangeListener((thing, previous, current) -> changes.add(current));
+
+        index.onStateChange("foo", thing("{\"temperature\": {\"value\": 1}}"));
+        Assertions.assertEquals(0, changes.size());
+
+        // value changes only
+        index.onStateChange("foo", thing("{\"temperature\": {\"value\": 2}}"));
+        Assertions.assertEquals(0, changes.size());
+
+        index.onStateChange("foo", thing("{\"temperature\": {\"value\": 2}, \"humidity\": {\"value\": 50}}"));
+        Assertions.assertEquals(1, changes.size());
+
+        index.onStateChange("foo", thing("{\"$children\": {\"value\": {\"bar\": {}}}, \"temperature\": {\"value\": 2}, \"humidity\": {\"value\": 50}}"));
+        Assertions.assertEquals(2, changes.size());
+        Assertions.assertEquals(List.of("bar"), changes.get(1).children());
+    }
+}
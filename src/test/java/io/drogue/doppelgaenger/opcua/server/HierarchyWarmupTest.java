@@ -0,0 +1,54 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.drogue.doppelgaenger.opcua.client.GsonUtil;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+
+public class HierarchyWarmupTest {
+
+    private static Optional<Thing> thing(final String... children) {
+        final var json = new StringBuilder("{\"metadata\": {\"name\": \"foo\"}, \"reportedState\": {\"$children\": {\"value\": {");
+        for (int i = 0; i < children.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(children[i]).append("\": {}");
+        }
+        json.append("}}}}");
+        return Optional.of(GsonUtil.create().fromJson(json.toString(), Thing.class));
+    }
+
+    @Test
+    void testDepth() {
+        // everything is in the index already, so there is no need for a client
+        final var index = new HierarchyIndex(null, Duration.ofMinutes(1), 10);
+        index.onStateChange("/", thing("a", "b"));
+        index.onStateChange("a", thing("c"));
+        index.onStateChange("b", thing("a"));
+        index.onStateChange("c", thing("d"));
+
+        Assertions.assertEquals(1, new HierarchyWarmup(index, 0, 2).run("/").join());
+        // "a" is only loaded once
+        Assertions.assertEquals(3, new HierarchyWarmup(index, 1, 2).run("/").join());
+        Assertions.assertEquals(4, new HierarchyWarmup(index, 2, 2).run("/").join());
+    }
+
+    @Test
+    void testDeepHierarchy() {
+        // completions of cached entries run inline, which must not grow the stack
+        final var things = 50_000;
+        final var index = new HierarchyIndex(null, Duration.ofMinutes(1), things + 1);
+        index.onStateChange("/", thing("0"));
+        for (int i = 0; i < things - 1; i++) {
+            index.onStateChange(Integer.toString(i), thing(Integer.toString(i + 1)));
+        }
+        index.onStateChange(Integer.toString(things - 1), thing());
+
+        Assertions.assertEquals(things + 1, new HierarchyWarmup(index, Integer.MAX_VALUE, 4).run("/").join());
+    }
+}
@@ -0,0 +1,152 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.NamespaceTable;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.channel.EncodingLimits;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.serialization.UaResponseMessage;
+import org.eclipse.milo.opcua.stack.core.types.DataTypeManager;
+import org.eclipse.milo.opcua.stack.core.types.OpcUaDataTypeManager;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DiagnosticInfo;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.AggregateConfiguration;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadProcessedDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.RequestHeader;
+import org.eclipse.milo.opcua.stack.server.services.ServiceRequest;
+import org.eclipse.milo.opcua.stack.server.services.ServiceRequestHandler;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HistoryReadRequestsTest {
+
+    private static final SerializationContext CONTEXT = new SerializationContext() {
+        @Override
+        public EncodingLimits getEncodingLimits() {
+            return EncodingLimits.DEFAULT;
+        }
+
+        @Override
+        public NamespaceTable getNamespaceTable() {
+            return new NamespaceTable();
+        }
+
+        @Override
+        public DataTypeManager getDataTypeManager() {
+            return OpcUaDataTypeManager.getInstance();
+        }
+    };
+
+    /**
+     * Handle requests like Milo does: split the nodes by namespace, and pass each namespace its subset. Each node is
+     * answered with the aggregate type the namespace picked for it, as continuation point.
+     */
+    private static final ServiceRequestHandler NAMESPACES = service -> {
+        final var request = (HistoryReadRequest) service.getRequest();
+        final var details = (ReadProcessedDetails) request.getHistoryReadDetails().decode(CONTEXT);
+        final var nodes = request.getNodesToRead();
+
+        final var namespaces = new TreeMap<Integer, List<Integer>>();
+        for (int i = 0; i < nodes.length; i++) {
+            namespaces.computeIfAbsent(nodes[i].getNodeId().getNamespaceIndex().intValue(), x -> new ArrayList<>()).add(i);
+        }
+
+        final var results = new HistoryReadResult[nodes.length];
+        for (final var subset : namespaces.values()) {
+            for (int i = 0; i < subset.size(); i++) {
+                final var index = HistoryReadRequests.aggregateIndex(details.getAggregateType(), i, subset.size());
+                results[subset.get(i)] = index < 0
+                        ? new HistoryReadResult(new StatusCode(StatusCodes.Bad_AggregateListMismatch), null, null)
+                        : new HistoryReadResult(StatusCode.GOOD, ByteString.of(details.getAggregateType()[index].toParseableString().getBytes(UTF_8)), null);
+            }
+        }
+
+        service.setResponse(new HistoryReadResponse(service.createResponseHeader(), results, new DiagnosticInfo[0]));
+    };
+
+    private static UaResponseMessage historyRead(final ServiceRequestHandler handler, final NodeId[] nodes, final NodeId[] aggregateTypes) throws Exception {
+        final var details = new ReadProcessedDetails(DateTime.MIN_VALUE, DateTime.now(), 1000.0, aggregateTypes,
+                new AggregateConfiguration(true, false, ubyte(100), ubyte(100), false));
+        final var nodesToRead = new HistoryReadValueId[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodesToRead[i] = new HistoryReadValueId(nodes[i], null, QualifiedName.NULL_VALUE, null);
+        }
+        final var header = new RequestHeader(NodeId.NULL_VALUE, DateTime.now(), uint(1), uint(0), null, uint(0), null);
+        final var request = new HistoryReadRequest(header, ExtensionObject.encode(CONTEXT, details), TimestampsToReturn.Source, false, nodesToRead);
+
+        final var service = new ServiceRequest(null, request, null, 0, null, null);
+        handler.handle(service);
+        return service.getFuture().get();
+    }
+
+    private static List<NodeId> aggregateTypes(final UaResponseMessage response) {
+        final var result = new ArrayList<NodeId>();
+        for (final var r : ((HistoryReadResponse) response).getResults()) {
+            Assertions.assertTrue(r.getStatusCode().isGood(), r.getStatusCode().toString());
+            result.add(NodeId.parse(new String(r.getContinuationPoint().bytesOrEmpty(), UTF_8)));
+        }
+        return result;
+    }
+
+    @Test
+    void testProcessedReadSpanningNamespaces() throws Exception {
+        final var nodes = new NodeId[] {
+                new NodeId(2, "thing#a"),
+                new NodeId(3, "thing#b"),
+                new NodeId(2, "thing#c"),
+                new NodeId(3, "thing#d"),
+        };
+        final var aggregateTypes = new NodeId[] {
+                Identifiers.AggregateFunction_Average,
+                Identifiers.AggregateFunction_Minimum,
+                Identifiers.AggregateFunction_Maximum,
+                Identifiers.AggregateFunction_Average,
+        };
+
+        // without splitting, the namespaces can't match the aggregate types
+
+        final var unwrapped = historyRead(NAMESPACES, nodes, aggregateTypes);
+        Assertions.assertEquals(StatusCodes.Bad_AggregateListMismatch, ((HistoryReadResponse) unwrapped).getResults()[0].getStatusCode().getValue());
+
+        final var response = historyRead(HistoryReadRequests.wrap(NAMESPACES, CONTEXT), nodes, aggregateTypes);
+        Assertions.assertEquals(List.of(aggregateTypes), aggregateTypes(response));
+    }
+
+    @Test
+    void testSingleAggregateType() throws Exception {
+        final var nodes = new NodeId[] {new NodeId(2, "thing#a"), new NodeId(3, "thing#b")};
+        final var aggregateTypes = new NodeId[] {Identifiers.AggregateFunction_Count};
+
+        final var response = historyRead(HistoryReadRequests.wrap(NAMESPACES, CONTEXT), nodes, aggregateTypes);
+        Assertions.assertEquals(List.of(Identifiers.AggregateFunction_Count, Identifiers.AggregateFunction_Count), aggregateTypes(response));
+    }
+
+    @Test
+    void testAggregateListMismatch() throws Exception {
+        final var nodes = new NodeId[] {new NodeId(2, "thing#a"), new NodeId(3, "thing#b"), new NodeId(2, "thing#c")};
+        final var aggregateTypes = new NodeId[] {Identifiers.AggregateFunction_Count, Identifiers.AggregateFunction_Average};
+
+        final var err = Assertions.assertThrows(ExecutionException.class, () -> historyRead(HistoryReadRequests.wrap(NAMESPACES, CONTEXT), nodes, aggregateTypes));
+        Assertions.assertEquals(StatusCodes.Bad_AggregateListMismatch, ((UaException) err.getCause()).getStatusCode().getValue());
+    }
+}
@@ -0,0 +1,96 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.milo.opcua.stack.core.NamespaceTable;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.channel.EncodingLimits;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.DataTypeManager;
+import org.eclipse.milo.opcua.stack.core.types.OpcUaDataTypeManager;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryData;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadRawModifiedDetails;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonPrimitive;
+
+import io.drogue.doppelgaenger.opcua.history.MemoryHistoryStore;
+
+public class HistoryReaderTest {
+
+    private static final SerializationContext CONTEXT = new SerializationContext() {
+        @Override
+        public EncodingLimits getEncodingLimits() {
+            return EncodingLimits.DEFAULT;
+        }
+
+        @Override
+        public NamespaceTable getNamespaceTable() {
+            return new NamespaceTable();
+        }
+
+        @Override
+        public DataTypeManager getDataTypeManager() {
+            return OpcUaDataTypeManager.getInstance();
+        }
+    };
+
+    private static final PropertyNode NODE = new PropertyNode(new NodeId(1, "thing#value"), "thing", "value", List.of(), null, null);
+
+    private static HistoryReader reader(final long... timestamps) {
+        final var store = new MemoryHistoryStore(10, 10);
+        for (final var timestamp : timestamps) {
+            store.append("thing", "value", timestamp, new JsonPrimitive(timestamp));
+        }
+        return new HistoryReader(store, null, CONTEXT, 100);
+    }
+
+    private static List<DataValue> readBounds(final HistoryReader reader, final long start, final long end) {
+        final var details = new ReadRawModifiedDetails(false, new DateTime(start), new DateTime(end), null, true);
+        final var result = reader.readRaw(NODE, details, TimestampsToReturn.Source, null);
+        Assertions.assertTrue(result.getStatusCode().isGood());
+        return Arrays.asList(((HistoryData) result.getHistoryData().decode(CONTEXT)).getDataValues());
+    }
+
+    private static long[] timestamps(final List<DataValue> values) {
+        return values.stream().mapToLong(value -> value.getSourceTime().getUtcTime()).toArray();
+    }
+
+    @Test
+    void testForwardBoundsBetweenSamples() {
+        final var values = readBounds(reader(10, 20, 30, 40), 15, 35);
+        Assertions.assertArrayEquals(new long[] { 10, 20, 30, 40 }, timestamps(values));
+    }
+
+    @Test
+    void testForwardBoundsOnSamples() {
+        final var values = readBounds(reader(10, 20, 30, 40), 20, 30);
+        Assertions.assertArrayEquals(new long[] { 20, 30 }, timestamps(values));
+    }
+
+    @Test
+    void testBackwardBoundsBetweenSamples() {
+        final var values = readBounds(reader(10, 20, 30, 40), 35, 15);
+        Assertions.assertArrayEquals(new long[] { 40, 30, 20, 10 }, timestamps(values));
+    }
+
+    @Test
+    void testBackwardBoundsOnSamples() {
+        final var values = readBounds(reader(10, 20, 30, 40), 30, 20);
+        Assertions.assertArrayEquals(new long[] { 30, 20 }, timestamps(values));
+    }
+
+    @Test
+    void testBoundNotFound() {
+        final var values = readBounds(reader(20, 30), 15, 35);
+        Assertions.assertEquals(4, values.size());
+        Assertions.assertEquals(StatusCodes.Bad_BoundNotFound, values.get(0).getStatusCode().getValue());
+        Assertions.assertEquals(StatusCodes.Bad_BoundNotFound, values.get(3).getStatusCode().getValue());
+    }
+}
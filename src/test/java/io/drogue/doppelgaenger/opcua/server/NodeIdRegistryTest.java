@@ -0,0 +1,46 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class NodeIdRegistryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testPersistent() throws Exception {
+        final var file = this.directory.resolve("test.ids");
+
+        final long foo;
+        final long bar;
+        try (final var ids = new NodeIdRegistry(file)) {
+            foo = ids.idFor("foo#bar");
+            bar = ids.idFor("bar#baz");
+            Assertions.assertNotEquals(foo, bar);
+            Assertions.assertEquals(foo, ids.idFor("foo#bar"));
+            Assertions.assertEquals("bar#baz", ids.lookup(bar));
+            Assertions.assertNull(ids.lookup(bar + 1));
+        }
+
+        // append an incomplete record
+        Files.write(file, new byte[] { 0, 0, 0 }, StandardOpenOption.APPEND);
+
+        try (final var ids = new NodeIdRegistry(file)) {
+            Assertions.assertEquals(foo, ids.idFor("foo#bar"));
+            Assertions.assertEquals("bar#baz", ids.lookup(bar));
+
+            final var baz = ids.idFor("baz");
+            Assertions.assertTrue(baz > foo && baz > bar);
+        }
+
+        try (final var ids = new NodeIdRegistry(file)) {
+            Assertions.assertEquals("baz", ids.lookup(bar + 1));
+        }
+    }
+}
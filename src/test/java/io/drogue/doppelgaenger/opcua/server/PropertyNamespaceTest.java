@@ -1,5 +1,6 @@
 package io.drogue.doppelgaenger.opcua.server;
 
+import java.util.List;
 import java.util.stream.Stream;
 
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
@@ -24,6 +25,14 @@ public class PropertyNamespaceTest {
         Assertions.assertArrayEquals(new String[] { "thing", "name" }, output);
     }
 
+    @Test
+    void testEncodePath() throws Exception {
+        final var nodeId = PropertyNamespace.propertyNodeIdJoin(UShort.valueOf(0), "thing", "na/me", List.of("a#b", "c"));
+        Assertions.assertEquals("thing#na%2Fme/a%23b/c", nodeId.getIdentifier());
+        final var output = PropertyNamespace.splitNodeId(nodeId.getIdentifier());
+        Assertions.assertArrayEquals(new String[] { "thing", "na/me", "a#b", "c" }, output);
+    }
+
     private static Arguments args(final String input, final String... outcome) {
         return Arguments.of(
                 new NodeId(0, input),
@@ -41,7 +50,10 @@ public class PropertyNamespaceTest {
                 args("foo#bar", "foo", "bar"),
                 args("foo##bar", "foo#", "bar"),
                 args("#foo##bar", "#foo#", "bar"),
-                args("#foo##%23bar", "#foo#", "#bar")
+                args("#foo##%23bar", "#foo#", "#bar"),
+                args("foo#bar/baz", "foo", "bar", "baz"),
+                args("foo#bar/"),
+                args("foo#bar//baz")
         );
     }
 }
@@ -0,0 +1,94 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import io.drogue.doppelgaenger.opcua.client.ReportedFeature;
+import io.drogue.doppelgaenger.opcua.client.SyntheticFeature;
+import io.drogue.doppelgaenger.opcua.client.Thing;
+
+public class StateSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private static Thing thing(final String name, final int value) {
+        final var thing = new Thing.Builder(name).build();
+        final var feature = new ReportedFeature();
+        feature.setValue(new JsonPrimitive(value));
+        feature.setLastUpdate(OffsetDateTime.parse("2022-01-01T00:00:00Z"));
+        thing.getReportedState().put("temperature", feature);
+        return thing;
+    }
+
+    @Test
+    void testRoundTrip() throws Exception {
+        final var file = this.directory.resolve("things.snapshot");
+
+        StateSnapshot.write(file, Map.of("foo", thing("foo", 1), "bar", thing("bar", 2)));
+        final var states = StateSnapshot.read(file);
+
+        Assertions.assertEquals(2, states.size());
+        Assertions.assertEquals("foo", states.get("foo").getMetadata().getName());
+        Assertions.assertEquals(2, states.get("bar").getReportedState().get("temperature").getValue().getAsInt());
+        Assertions.assertFalse(states.get("foo").isRestored());
+    }
+
+    @Test
+    void testValues() throws Exception {
+        final var file = this.directory.resolve("things.snapshot");
+
+        final var thing = thing("foo", 1);
+        final var values = Map.of(
+                "double", new JsonPrimitive(1.5),
+                "integralDouble", JsonParser.parseString("1.0"),
+                "big", JsonParser.parseString("12345678901234567890"),
+                "string", new JsonPrimitive("bar"),
+                "boolean", new JsonPrimitive(true),
+                "null", JsonNull.INSTANCE,
+                "object", JsonParser.parseString("{\"a\":[1,2.5,\"b\"]}"));
+        values.forEach((name, value) -> {
+            final var feature = new ReportedFeature();
+            feature.setValue(value);
+            thing.getReportedState().put(name, feature);
+        });
+        final var synthetic = new SyntheticFeature();
+        synthetic.setValue(new JsonPrimitive(42));
+        synthetic.setLastUpdate(OffsetDateTime.parse("2022-01-01T01:02:03.456+02:00"));
+        thing.getSyntheticState().put("answer", synthetic);
+
+        StateSnapshot.write(file, Map.of("foo", thing));
+        final var state = StateSnapshot.read(file).get("foo");
+
+        values.forEach((name, value) -> {
+            final var feature = state.getReportedState().get(name);
+            Assertions.assertEquals(value.toString(), feature.getValue().toString(), name);
+            Assertions.assertNull(feature.getLastUpdate(), name);
+        });
+        Assertions.assertEquals(OffsetDateTime.parse("2022-01-01T00:00:00Z"), state.getReportedState().get("temperature").getLastUpdate());
+        Assertions.assertEquals(42, state.getSyntheticState().get("answer").getValue().getAsLong());
+        Assertions.assertEquals(synthetic.getLastUpdate(), state.getSyntheticState().get("answer").getLastUpdate());
+    }
+
+    @Test
+    void testMissingOrCorrupt() throws Exception {
+        final var file = this.directory.resolve("things.snapshot");
+        Assertions.assertTrue(StateSnapshot.read(file).isEmpty());
+
+        StateSnapshot.write(file, Map.of("foo", thing("foo", 1)));
+        final var bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        Assertions.assertTrue(StateSnapshot.read(file).isEmpty());
+    }
+}
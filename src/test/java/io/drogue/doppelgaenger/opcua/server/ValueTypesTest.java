@@ -0,0 +1,70 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import java.time.OffsetDateTime;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonParser;
+
+import io.drogue.doppelgaenger.opcua.client.BasicFeature;
+
+public class ValueTypesTest {
+
+    private static BasicFeature feature(final String json) {
+        final var feature = new BasicFeature();
+        feature.setLastUpdate(OffsetDateTime.now());
+        feature.setValue(JsonParser.parseString(json));
+        return feature;
+    }
+
+    @Test
+    void testWidenWhileSubscribed() {
+        final var types = new ValueTypes();
+        types.onSubscribed("thing");
+
+        types.toDataValue("thing", "value", feature("1"));
+        Assertions.assertEquals(Optional.of(ValueType.Int64), types.get("thing", "value"));
+
+        types.toDataValue("thing", "value", feature("1.5"));
+        final var value = types.toDataValue("thing", "value", feature("2"));
+        Assertions.assertEquals(Optional.of(ValueType.Double), types.get("thing", "value"));
+        Assertions.assertEquals(2.0, value.getValue().getValue());
+    }
+
+    @Test
+    void testCacheByFeature() {
+        final var types = new ValueTypes();
+        types.onSubscribed("thing");
+
+        final var feature = feature("1");
+        final var first = types.toDataValue("thing", "value", feature);
+        Assertions.assertSame(first, types.toDataValue("thing", "value", feature));
+
+        // widening the type invalidates the cached conversion
+
+        types.toDataValue("thing", "value", feature("1.5"));
+        final var widened = types.toDataValue("thing", "value", feature);
+        Assertions.assertNotSame(first, widened);
+        Assertions.assertEquals(1.0, widened.getValue().getValue());
+    }
+
+    @Test
+    void testRelease() {
+        final var types = new ValueTypes();
+        types.onSubscribed("thing");
+        types.toDataValue("thing", "value", feature("1.5"));
+        Assertions.assertEquals(1, types.size());
+
+        types.onReleased("thing");
+        Assertions.assertEquals(0, types.size());
+        Assertions.assertEquals(Optional.empty(), types.get("thing", "value"));
+
+        // without a subscription, nothing is remembered
+
+        final var value = types.toDataValue("thing", "value", feature("1"));
+        Assertions.assertEquals(1L, value.getValue().getValue());
+        Assertions.assertEquals(0, types.size());
+    }
+}
@@ -0,0 +1,56 @@
+package io.drogue.doppelgaenger.opcua.server;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonParser;
+
+public class ValuesTest {
+
+    private static ValueType infer(final String json) {
+        return Values.inferType(JsonParser.parseString(json));
+    }
+
+    @Test
+    void testInferScalar() {
+        Assertions.assertEquals(ValueType.Boolean, infer("true"));
+        Assertions.assertEquals(ValueType.Int64, infer("42"));
+        Assertions.assertEquals(ValueType.Double, infer("42.0"));
+        Assertions.assertEquals(ValueType.Double, infer("1e3"));
+        Assertions.assertEquals(ValueType.Double, infer("92233720368547758070"));
+        Assertions.assertEquals(ValueType.String, infer("\"foo\""));
+        Assertions.assertEquals(ValueType.String, infer("{\"foo\": 1}"));
+        Assertions.assertNull(infer("null"));
+    }
+
+    @Test
+    void testInferArray() {
+        Assertions.assertEquals(ValueType.BooleanArray, infer("[true, false]"));
+        Assertions.assertEquals(ValueType.Int64Array, infer("[1, 2]"));
+        Assertions.assertEquals(ValueType.DoubleArray, infer("[1, 2.5]"));
+        Assertions.assertEquals(ValueType.StringArray, infer("[\"a\", \"b\"]"));
+        Assertions.assertEquals(ValueType.Any, infer("[1, \"b\"]"));
+        Assertions.assertEquals(ValueType.Any, infer("[[1]]"));
+        Assertions.assertNull(infer("[]"));
+    }
+
+    @Test
+    void testWiden() {
+        Assertions.assertEquals(ValueType.Double, ValueType.widen(ValueType.Int64, ValueType.Double));
+        Assertions.assertEquals(ValueType.Int64, ValueType.widen(null, ValueType.Int64));
+        Assertions.assertEquals(ValueType.Int64, ValueType.widen(ValueType.Int64, null));
+        Assertions.assertEquals(ValueType.DoubleArray, ValueType.widen(ValueType.DoubleArray, ValueType.Int64Array));
+        Assertions.assertEquals(ValueType.Any, ValueType.widen(ValueType.String, ValueType.Int64));
+    }
+
+    @Test
+    void testConvertTyped() {
+        Assertions.assertEquals(1.0, Values.toVariant(JsonParser.parseString("1"), ValueType.Double).getValue());
+        Assertions.assertEquals(1L, Values.toVariant(JsonParser.parseString("1"), ValueType.Int64).getValue());
+        Assertions.assertArrayEquals(new double[] { 1.0, 2.5 }, (double[]) Values.toVariant(JsonParser.parseString("[1, 2.5]")).getValue());
+        Assertions.assertEquals("{\"a\":1}", Values.toVariant(JsonParser.parseString("{\"a\": 1}")).getValue());
+
+        // mismatching type falls back to converting the value on its own
+        Assertions.assertEquals("foo", Values.toVariant(JsonParser.parseString("\"foo\""), ValueType.Int64).getValue());
+    }
+}